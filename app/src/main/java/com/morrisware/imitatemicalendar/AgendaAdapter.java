@@ -0,0 +1,180 @@
+package com.morrisware.imitatemicalendar;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 日历下方的日程列表. 切换日期时, 读取日程, 排版标题和 diff 都在后台线程完成, 主线程只绑定可见的行.
+ **/
+public final class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.ViewHolder> {
+
+    // Loading and diffing share one thread, so a day is never diffed before it is loaded
+    private static final Executor BACKGROUND = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    final Thread thread = new Thread(r, "agenda");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final DiffUtil.ItemCallback<AgendaItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<AgendaItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull AgendaItem oldItem, @NonNull AgendaItem newItem) {
+                    return oldItem.event.id == newItem.event.id;
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull AgendaItem oldItem, @NonNull AgendaItem newItem) {
+                    return oldItem.event.equals(newItem.event);
+                }
+            };
+
+    private final LayoutInflater mInflater;
+    private final AgendaSource mSource;
+    private final AsyncListDiffer<AgendaItem> mDiffer;
+    private final Executor mBackgroundExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final PrecomputedTextCompat.Params mTitleParams;
+    private final String mAllDayText;
+
+    // Only the last requested day is loaded, older requests still queued are dropped
+    private volatile int mGeneration;
+
+    public AgendaAdapter(Context context, AgendaSource source) {
+        this(context, source, BACKGROUND);
+    }
+
+    AgendaAdapter(Context context, AgendaSource source, Executor backgroundExecutor) {
+        mInflater = LayoutInflater.from(context);
+        mSource = source;
+        mDiffer = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                        .setBackgroundThreadExecutor(backgroundExecutor)
+                        .build());
+        mBackgroundExecutor = backgroundExecutor;
+        // Resolved here, the rows are built on the background thread
+        mAllDayText = context.getString(R.string.agenda_all_day);
+        // Text is measured with the row's own paint, so the bound text matches exactly
+        final View prototype = mInflater.inflate(R.layout.item_agenda, new FrameLayout(context), false);
+        mTitleParams = TextViewCompat.getTextMetricsParams(
+                (TextView) prototype.findViewById(R.id.agenda_title));
+    }
+
+    /**
+     * Replaces the list with the events of {@code julianDay}. Returns immediately, the list
+     * changes once the day has been loaded and diffed.
+     */
+    public void showDay(final int julianDay) {
+        final int generation = ++mGeneration;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    return;
+                }
+                final List<AgendaItem> items = load(julianDay);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mDiffer.submitList(items);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private List<AgendaItem> load(int julianDay) {
+        final List<CalendarEvent> events = mSource.loadDay(julianDay);
+        final List<AgendaItem> items = new ArrayList<>(events.size());
+        final StringBuilder time = new StringBuilder(16);
+        for (int i = 0, z = events.size(); i < z; i++) {
+            final CalendarEvent event = events.get(i);
+            time.setLength(0);
+            if (event.allDay) {
+                time.append(mAllDayText);
+            } else {
+                appendTime(time, event.startMinute);
+                time.append(" - ");
+                appendTime(time, event.endMinute);
+            }
+            items.add(new AgendaItem(event, time.toString(),
+                    PrecomputedTextCompat.create(event.title, mTitleParams)));
+        }
+        return items;
+    }
+
+    private static void appendTime(StringBuilder out, int minuteOfDay) {
+        final int hour = minuteOfDay / 60;
+        final int minute = minuteOfDay % 60;
+        if (hour < 10) {
+            out.append('0');
+        }
+        out.append(hour).append(':');
+        if (minute < 10) {
+            out.append('0');
+        }
+        out.append(minute);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.item_agenda, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        final AgendaItem item = mDiffer.getCurrentList().get(position);
+        holder.mTime.setText(item.time);
+        TextViewCompat.setPrecomputedText(holder.mTitle, item.title);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mDiffer.getCurrentList().size();
+    }
+
+    /**
+     * Returns the events currently shown.
+     */
+    public List<AgendaItem> getCurrentList() {
+        return mDiffer.getCurrentList();
+    }
+
+    public static final class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView mTime;
+        final TextView mTitle;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            mTime = itemView.findViewById(R.id.agenda_time);
+            mTitle = itemView.findViewById(R.id.agenda_title);
+        }
+    }
+}
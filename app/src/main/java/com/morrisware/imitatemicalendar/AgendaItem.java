@@ -0,0 +1,19 @@
+package com.morrisware.imitatemicalendar;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+/**
+ * {@link AgendaAdapter} 的一行, 文字已经在后台线程排版好.
+ **/
+public final class AgendaItem {
+
+    public final CalendarEvent event;
+    public final String time;
+    public final PrecomputedTextCompat title;
+
+    AgendaItem(CalendarEvent event, String time, PrecomputedTextCompat title) {
+        this.event = event;
+        this.time = time;
+        this.title = title;
+    }
+}
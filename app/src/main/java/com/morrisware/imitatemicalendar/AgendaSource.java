@@ -0,0 +1,20 @@
+package com.morrisware.imitatemicalendar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.List;
+
+/**
+ * {@link AgendaAdapter} 的数据来源.
+ **/
+public interface AgendaSource {
+
+    /**
+     * Returns the events occurring on {@code julianDay}, sorted by start. Called on a
+     * background thread, one call at a time.
+     */
+    @WorkerThread
+    @NonNull
+    List<CalendarEvent> loadDay(int julianDay);
+}
@@ -1,15 +1,30 @@
 package com.morrisware.imitatemicalendar;
 
 import android.animation.ValueAnimator;
+import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
-import android.util.Log;
+import android.view.Display;
 import android.view.Gravity;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.OverScroller;
 
 import com.google.android.material.animation.AnimationUtils;
 
@@ -27,8 +42,34 @@ import androidx.core.view.ViewCompat;
 
 /**
  * Created by mmw on 2019/2/15.
+ * <p>
+ * 月视图直接在 {@link #onDraw(Canvas)} 中绘制整个日期网格, 没有子 View,
+ * measure/layout 的开销与格子数量无关.
  **/
-public class CalendarView extends ViewGroup implements CoordinatorLayout.AttachedBehavior {
+public class CalendarView extends View implements CoordinatorLayout.AttachedBehavior {
+
+    public interface OnDateSelectedListener {
+        /**
+         * @param julianDay the selected date, see {@link JulianDay}
+         */
+        void onDateSelected(CalendarView view, int julianDay);
+    }
+
+    static final int DAYS_IN_WEEK = JulianDay.DAYS_IN_WEEK;
+
+    private static final int COLOR_ACCENT = 0xff3f82fd;
+    private static final int COLOR_WEEKEND = 0xffe55c5c;
+    private static final int COLOR_MARKER = 0xffff6f00;
+    private static final int COLOR_BAR = 0x993f82fd;
+    private static final int COLOR_LUNAR = 0xff999999;
+    // Heatmap shading by MonthModel.densityLevel, level 0 is not drawn
+    static final int[] DENSITY_COLORS = {0, 0x1a3f82fd, 0x333f82fd, 0x553f82fd};
+    private static final String BADGE_HOLIDAY = "休";
+    private static final String BADGE_WORKDAY = "班";
+
+    private static final int PAGE_COUNT = 3;
+    private static final int MAX_SETTLE_DURATION = 400;
+    private static final int ROW_ANIMATION_DURATION = 200;
 
     // 当前日期所在行
     private int currentPos = 1;
@@ -37,6 +78,84 @@ public class CalendarView extends ViewGroup implements CoordinatorLayout.Attache
 
     private int itemHeight;
 
+    private MonthModelCache mModelCache;
+    private MonthModel mModel;
+    private int mRowCount;
+    private int mSelectedIndex = -1;
+    // 可见高度: View 始终按 6 行测量, 月份行数变化时只对可见高度做动画, 不重新布局
+    private int mVisibleHeight;
+    private ValueAnimator mRowAnimator;
+    private int mRowAnimationFrom;
+    private int mRowAnimationTo;
+    private int mSelectedJulianDay;
+    // 跨过零点或改了时间/时区时刷新 "今天" 的标记
+    private int mToday;
+    private final BroadcastReceiver mDateChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            checkToday();
+        }
+    };
+
+    // 三页循环使用: 上一页, 当前页, 下一页
+    private final Page[] mPages = new Page[PAGE_COUNT];
+    private int mCurrentPage;
+    private final CollapseCoordinator mCollapseCoordinator;
+    private OnDateSelectedListener mOnDateSelectedListener;
+    private int mDispatchedJulianDay;
+
+    // 调试用, 见 GestureTraceRecorder
+    private GestureTraceRecorder mGestureTraceRecorder;
+    // 只有设置了监听或打开了调试浮层才会创建
+    private CollapseMetrics mCollapseMetrics;
+    private Window mFrameMetricsWindow;
+    private boolean mMetricsOverlayEnabled;
+    private Paint mOverlayPaint;
+    private StringBuilder mOverlayText;
+
+    // 收起状态下按周翻页
+    private boolean mWeekMode;
+    private float mPageOffset;
+    private int mSettleDirection;
+    private boolean mIsPaging;
+    private final OverScroller mPageScroller;
+    private VelocityTracker mVelocityTracker;
+    private final float mMinimumVelocity;
+    private final float mMaximumVelocity;
+    private final Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mPageScroller.computeScrollOffset()) {
+                mPageOffset = mPageScroller.getCurrX();
+                invalidate();
+                ViewCompat.postOnAnimation(CalendarView.this, this);
+            } else {
+                onPageSettled();
+            }
+        }
+    };
+
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mSelectionPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLunarPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mBadgePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDensityPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final CellTextCache mTextCache = new CellTextCache(mTextPaint, mLunarPaint, mBadgePaint);
+    // The day number sits above the center, the lunar label below it
+    private final float mDayOffset;
+    private final float mLunarOffset;
+    private final float mSelectionRadius;
+    private final float mMarkerRadius;
+    private final Paint mBarPaint = new Paint();
+    private final float mBarHeight;
+    private final float mBarGap;
+
+    private final int mTouchSlop;
+    private float mDownX;
+    private float mDownY;
+    private float mLastMotionX;
+
     public CalendarView(Context context) {
         this(context, null);
     }
@@ -48,69 +167,790 @@ public class CalendarView extends ViewGroup implements CoordinatorLayout.Attache
     public CalendarView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 
-        itemHeight = (int) (context.getResources().getDisplayMetrics().density * 50);
-        addView(generateView(context, Color.parseColor("#ff0000")));
-        addView(generateView(context, Color.parseColor("#00ff00")));
-        addView(generateView(context, Color.parseColor("#ff00ff")));
-        addView(generateView(context, Color.parseColor("#0000ff")));
-        addView(generateView(context, Color.parseColor("#ffff00")));
+        final float density = context.getResources().getDisplayMetrics().density;
+        itemHeight = (int) (density * 50);
+        final ViewConfiguration configuration = ViewConfiguration.get(context);
+        mTouchSlop = configuration.getScaledTouchSlop();
+        mMinimumVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaximumVelocity = configuration.getScaledMaximumFlingVelocity();
+        mPageScroller = new OverScroller(context);
+
+        applyTextSizes();
+        mDayOffset = -density * 6;
+        mLunarOffset = density * 9;
+
+        mSelectionPaint.setColor(COLOR_ACCENT);
+        mSelectionRadius = density * 18;
+        mMarkerPaint.setColor(COLOR_MARKER);
+        mMarkerRadius = density * 2;
+        mBarPaint.setColor(COLOR_BAR);
+        mBarHeight = density * 2;
+        mBarGap = density;
+
+        setBackgroundColor(Color.WHITE);
+
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            mPages[i] = new Page();
+        }
+        mCollapseCoordinator = new CollapseCoordinator(this);
+        mModelCache = new MonthModelCache();
+        mSelectedJulianDay = JulianDay.today();
+        mToday = mSelectedJulianDay;
+        final int today = JulianDay.toPacked(mSelectedJulianDay);
+        setMonth(JulianDay.year(today), JulianDay.month(today));
     }
 
-    private View generateView(Context context, int color) {
-        View view = new View(context);
-        view.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT, itemHeight));
-        view.setBackgroundColor(color);
-        return view;
+    /**
+     * Sizes the cell text in sp, so it follows the font scale.
+     */
+    private void applyTextSizes() {
+        final float scaledDensity = getResources().getDisplayMetrics().scaledDensity;
+        mTextPaint.setTextSize(scaledDensity * 16);
+        mLunarPaint.setTextSize(scaledDensity * 10);
+        mBadgePaint.setTextSize(scaledDensity * 8);
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // The font scale or locale may have changed without the sizes changing
+        applyTextSizes();
+        mTextCache.invalidate();
+        invalidate();
+    }
+
+    CellTextCache getTextCache() {
+        return mTextCache;
+    }
+
+    /**
+     * Replaces the month model cache, e.g. to share one between several calendar views.
+     */
+    public void setMonthModelCache(@NonNull MonthModelCache cache) {
+        mModelCache = cache;
+        if (mModel != null) {
+            setMonth(mModel.getYear(), mModel.getMonth());
+        }
+    }
+
+    public MonthModelCache getMonthModelCache() {
+        return mModelCache;
+    }
+
+    /**
+     * Shows the given month, {@code month} is 1-based.
+     */
+    public void setMonth(int year, int month) {
+        abortPaging();
+        final int selected = JulianDay.toPacked(mSelectedJulianDay);
+        // 保持选中的日, 超出本月天数时选中最后一天
+        final int day = Math.min(JulianDay.day(selected), JulianDay.daysInMonth(year, month));
+        mSelectedJulianDay = JulianDay.fromDate(year, month, day);
+        bindPages();
+    }
+
+    public int getYear() {
+        return mModel.getYear();
+    }
+
+    public int getMonth() {
+        return mModel.getMonth();
+    }
+
+    public MonthModel getMonthModel() {
+        return mModel;
+    }
+
+    /**
+     * Sets the listener called whenever the selected date changes, by a tap, paging or
+     * {@link #setMonth(int, int)}. It is called right away with the current date.
+     */
+    public void setOnDateSelectedListener(@Nullable OnDateSelectedListener listener) {
+        mOnDateSelectedListener = listener;
+        if (listener != null) {
+            listener.onDateSelected(this, mSelectedJulianDay);
+        }
+    }
+
+    /**
+     * Returns the selected date as a julian day number, see {@link JulianDay}.
+     */
+    public int getSelectedJulianDay() {
+        return mSelectedJulianDay;
+    }
+
+    /**
+     * Rebuilds the months showing any of the days {@code [firstJulianDay, lastJulianDay]}
+     * after their events changed. Months not on screen are rebuilt when paged to.
+     */
+    public void notifyEventsChanged(int firstJulianDay, int lastJulianDay) {
+        mModelCache.invalidateRange(firstJulianDay, lastJulianDay);
+        if (mModel != null) {
+            bindPages();
+        }
+    }
+
+    /**
+     * Rebuilds every month if the date changed since they were built, so the today mark moves.
+     */
+    private void checkToday() {
+        final int today = JulianDay.today();
+        if (today == mToday) {
+            return;
+        }
+        mToday = today;
+        mModelCache.invalidateAll();
+        if (mModel != null) {
+            bindPages();
+        }
+    }
+
+    /**
+     * Binds the page ring around {@link #mSelectedJulianDay}.
+     */
+    private void bindPages() {
+        for (int offset = -1; offset <= 1; offset++) {
+            bindPage(getPage(offset), offset);
+        }
+        applyCurrentPage();
+    }
+
+    private void bindPage(Page page, int offset) {
+        final int julianDay;
+        if (mWeekMode) {
+            julianDay = mSelectedJulianDay + offset * DAYS_IN_WEEK;
+        } else {
+            final int selected = JulianDay.toPacked(mSelectedJulianDay);
+            int year = JulianDay.year(selected);
+            int month = JulianDay.month(selected) + offset;
+            if (month < 1) {
+                month = 12;
+                year--;
+            } else if (month > 12) {
+                month = 1;
+                year++;
+            }
+            julianDay = JulianDay.fromDate(year, month,
+                    Math.min(JulianDay.day(selected), JulianDay.daysInMonth(year, month)));
+        }
+        final int packed = JulianDay.toPacked(julianDay);
+        final MonthModel model = mModelCache.get(JulianDay.year(packed), JulianDay.month(packed));
+        page.bind(model, model.indexOf(julianDay));
+    }
+
+    private void applyCurrentPage() {
+        final Page page = getPage(0);
+        final int oldRowCount = mRowCount;
+        final int oldPos = currentPos;
+
+        mModel = page.model;
+        mSelectedIndex = page.selectedIndex;
+        mRowCount = mModel.getRowCount();
+        currentPos = mSelectedIndex / DAYS_IN_WEEK;
+        mModelCache.prefetchAround(mModel.getYear(), mModel.getMonth());
+
+        if (mRowCount != oldRowCount) {
+            animateVisibleHeight(mRowCount * itemHeight);
+        } else if (currentPos != oldPos) {
+            // The header range changed, keep the same collapse fraction
+            mCollapseCoordinator.applyNow();
+        }
+        invalidate();
+
+        if (mSelectedJulianDay != mDispatchedJulianDay) {
+            mDispatchedJulianDay = mSelectedJulianDay;
+            if (mOnDateSelectedListener != null) {
+                mOnDateSelectedListener.onDateSelected(this, mSelectedJulianDay);
+            }
+        }
+    }
+
+    private void animateVisibleHeight(int height) {
+        if (mRowAnimator != null) {
+            mRowAnimator.cancel();
+        }
+        if (!ViewCompat.isLaidOut(this) || mVisibleHeight == 0) {
+            setVisibleHeight(height);
+            return;
+        }
+        if (mRowAnimator == null) {
+            mRowAnimator = new ValueAnimator();
+            mRowAnimator.setInterpolator(AnimationUtils.DECELERATE_INTERPOLATOR);
+            mRowAnimator.setDuration(ROW_ANIMATION_DURATION);
+            mRowAnimator.setFloatValues(0f, 1f);
+            mRowAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    setVisibleHeight(mRowAnimationFrom + Math.round(
+                            (mRowAnimationTo - mRowAnimationFrom) * animation.getAnimatedFraction()));
+                }
+            });
+        }
+        mRowAnimationFrom = mVisibleHeight;
+        mRowAnimationTo = height;
+        mRowAnimator.start();
+    }
+
+    private void setVisibleHeight(int height) {
+        if (mVisibleHeight != height) {
+            mVisibleHeight = height;
+            // The content follows the visible height through its offset only, no layout pass
+            mCollapseCoordinator.applyNow();
+        }
+    }
+
+    /**
+     * Returns the height of the rows of the current month, animated when the row count changes.
+     */
+    int getVisibleHeight() {
+        return mVisibleHeight;
+    }
+
+    /**
+     * Returns where the scrolling content starts when the calendar is expanded, independent of
+     * the current header offset.
+     */
+    int getExpandedContentTop() {
+        int layoutTop = getTop();
+        final CoordinatorLayout.LayoutParams lp = (CoordinatorLayout.LayoutParams) getLayoutParams();
+        if (lp != null && lp.getBehavior() instanceof Behavior) {
+            layoutTop -= ((Behavior) lp.getBehavior()).getTopAndBottomOffset();
+        }
+        return layoutTop + getPaddingTop() + mVisibleHeight;
+    }
+
+    int getItemHeight() {
+        return itemHeight;
+    }
+
+    /**
+     * Returns the row that stays visible when collapsed.
+     */
+    int getPinnedRow() {
+        return currentPos;
+    }
+
+    CollapseCoordinator getCollapseCoordinator() {
+        return mCollapseCoordinator;
+    }
+
+    /**
+     * Reports frame timing of every collapse/expand gesture to {@code listener}, see
+     * {@link CollapseMetrics}.
+     */
+    public void setOnCollapseMetricsListener(@Nullable CollapseMetrics.Listener listener) {
+        if (listener != null) {
+            ensureCollapseMetrics();
+        }
+        if (mCollapseMetrics != null) {
+            mCollapseMetrics.setListener(listener);
+            releaseCollapseMetricsIfUnused();
+        }
+    }
+
+    /**
+     * Draws the metrics of the last gesture on top of the calendar, for debugging.
+     */
+    public void setCollapseMetricsOverlayEnabled(boolean enabled) {
+        if (mMetricsOverlayEnabled == enabled) {
+            return;
+        }
+        mMetricsOverlayEnabled = enabled;
+        if (enabled) {
+            ensureCollapseMetrics();
+            if (mOverlayPaint == null) {
+                mOverlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                mOverlayPaint.setColor(0xcc000000);
+                mOverlayPaint.setTextSize(getResources().getDisplayMetrics().density * 10);
+                mOverlayText = new StringBuilder(128);
+            }
+        } else {
+            releaseCollapseMetricsIfUnused();
+        }
+        invalidate();
+    }
+
+    CollapseMetrics getCollapseMetrics() {
+        return mCollapseMetrics;
+    }
+
+    void onCollapseMetricsUpdated() {
+        if (mMetricsOverlayEnabled) {
+            invalidate();
+        }
+    }
+
+    private void ensureCollapseMetrics() {
+        if (mCollapseMetrics == null) {
+            mCollapseMetrics = new CollapseMetrics();
+            if (ViewCompat.isAttachedToWindow(this)) {
+                startCollapseMetrics();
+            }
+        }
+    }
+
+    private void releaseCollapseMetricsIfUnused() {
+        if (mCollapseMetrics != null && mCollapseMetrics.getListener() == null && !mMetricsOverlayEnabled) {
+            stopCollapseMetrics();
+            mCollapseMetrics = null;
+        }
+    }
+
+    private void startCollapseMetrics() {
+        final Display display = getDisplay();
+        if (display != null && display.getRefreshRate() > 0) {
+            mCollapseMetrics.setFrameIntervalNanos((long) (1e9 / display.getRefreshRate()));
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && mFrameMetricsWindow == null) {
+            final Activity activity = findActivity(getContext());
+            if (activity != null && activity.getWindow() != null) {
+                mFrameMetricsWindow = activity.getWindow();
+                mCollapseMetrics.startFrameMetrics(mFrameMetricsWindow, new Handler(Looper.getMainLooper()));
+            }
+        }
+    }
+
+    private void stopCollapseMetrics() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && mFrameMetricsWindow != null) {
+            mCollapseMetrics.stopFrameMetrics(mFrameMetricsWindow);
+            mFrameMetricsWindow = null;
+        }
+    }
+
+    private static Activity findActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return (Activity) context;
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mCollapseMetrics != null) {
+            startCollapseMetrics();
+        }
+        getContext().registerReceiver(mDateChangedReceiver, createDateChangedFilter());
+        checkToday();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (mCollapseMetrics != null) {
+            stopCollapseMetrics();
+        }
+        getContext().unregisterReceiver(mDateChangedReceiver);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        // The broadcast may have been missed while in the background
+        if (visibility == VISIBLE) {
+            checkToday();
+        }
+    }
+
+    /**
+     * Returns the broadcasts after which the current date may differ.
+     */
+    static IntentFilter createDateChangedFilter() {
+        final IntentFilter filter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        return filter;
+    }
+
+    void setGestureTraceRecorder(GestureTraceRecorder recorder) {
+        mGestureTraceRecorder = recorder;
+    }
+
+    GestureTraceRecorder getGestureTraceRecorder() {
+        return mGestureTraceRecorder;
+    }
+
+    private Page getPage(int offset) {
+        return mPages[(mCurrentPage + offset + PAGE_COUNT) % PAGE_COUNT];
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         final int specWidthSize = MeasureSpec.getSize(widthMeasureSpec);
-        final int specHeightSize = MeasureSpec.getSize(heightMeasureSpec);
 
-        mTotalLength = 0;
-        for (int i = 0; i < getChildCount(); i++) {
-            final View child = getChildAt(i);
-            if (child.getVisibility() == View.GONE) {
+        mTotalLength = MonthModel.MAX_ROW_COUNT * itemHeight;
+        setMeasuredDimension(specWidthSize,
+                resolveSize(mTotalLength + getPaddingTop() + getPaddingBottom(), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        mTextCache.validate();
+        final int width = getWidth();
+        for (int offset = -1; offset <= 1; offset++) {
+            final float dx = offset * width + mPageOffset;
+            if (dx <= -width || dx >= width) {
                 continue;
             }
-            measureChild(child, widthMeasureSpec, heightMeasureSpec);
-            mTotalLength += child.getMeasuredHeight();
+            final int saveCount = canvas.save();
+            canvas.translate(dx, 0);
+            drawPage(canvas, getPage(offset), offset != 0 && mWeekMode);
+            canvas.restoreToCount(saveCount);
+        }
+        if (mMetricsOverlayEnabled) {
+            drawMetricsOverlay(canvas);
         }
-
-        setMeasuredDimension(specWidthSize, Math.min(mTotalLength, specHeightSize));
     }
 
-    @Override
-    protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        final int count = getChildCount();
+    private void drawMetricsOverlay(Canvas canvas) {
+        final CollapseMetrics metrics = mCollapseMetrics;
+        final StringBuilder text = mOverlayText;
+        final float lineHeight = mOverlayPaint.getTextSize() * 1.2f;
+        final float x = getPaddingLeft() + lineHeight / 2;
+        float y = getPaddingTop() + lineHeight;
+
+        text.setLength(0);
+        text.append("frames ").append(metrics.getFrameCount())
+                .append(" dropped ").append(metrics.getDroppedFrames())
+                .append(" janky ").append(metrics.getJankyFrames())
+                .append(" max ").append(metrics.getMaxFrameNanos() / 1000000).append("ms")
+                .append(" p90 ").append(metrics.getFramePercentileNanos(90) / 1000000).append("ms");
+        canvas.drawText(text, 0, text.length(), x, y, mOverlayPaint);
+        y += lineHeight;
+
+        text.setLength(0);
+        text.append("preScroll ").append(metrics.getPreScrollCount())
+                .append("x max ").append(metrics.getPreScrollMaxNanos() / 1000).append("us")
+                .append(" dependent ").append(metrics.getDependentViewChangedCount())
+                .append("x max ").append(metrics.getDependentViewChangedMaxNanos() / 1000).append("us");
+        canvas.drawText(text, 0, text.length(), x, y, mOverlayPaint);
+        y += lineHeight;
+
+        text.setLength(0);
+        text.append(metrics.isSettleFling() ? "fling " : "snap ")
+                .append(metrics.getSettleLatencyNanos() / 1000000).append("ms")
+                .append(" render p90 ").append(metrics.getRenderPercentileNanos(90) / 1000000).append("ms");
+        canvas.drawText(text, 0, text.length(), x, y, mOverlayPaint);
+    }
 
+    private void drawPage(Canvas canvas, Page page, boolean pinnedRowOnly) {
+        final MonthModel model = page.model;
         final int parentLeft = getPaddingLeft();
-        final int parentWidth = r - l - parentLeft - getPaddingRight();
-        final int parentHeight = b - t - getPaddingTop() - getPaddingBottom();
+        final float cellWidth = (float) (getWidth() - parentLeft - getPaddingRight()) / DAYS_IN_WEEK;
+        final int gridTop = getGridTop();
+        final CellTextCache textCache = mTextCache;
+
+        // 周模式下相邻页只有固定行可见, 画在当前固定行的位置
+        final int firstRow = pinnedRowOnly ? page.selectedIndex / DAYS_IN_WEEK : 0;
+        final int lastRow = pinnedRowOnly ? firstRow + 1 : model.getRowCount();
+        int rowTop = pinnedRowOnly ? gridTop + currentPos * itemHeight : gridTop;
+        // Bars are ordered by row
+        final int barCount = model.getBarCount();
+        int bar = 0;
+        while (bar < barCount && MonthModel.barRow(model.getBar(bar)) < firstRow) {
+            bar++;
+        }
+        for (int row = firstRow; row < lastRow; row++) {
+            final float centerY = rowTop + itemHeight / 2f;
+            for (int column = 0; column < DAYS_IN_WEEK; column++) {
+                final int index = row * DAYS_IN_WEEK + column;
+                final int cell = model.getCell(index);
+                final float centerX = parentLeft + cellWidth * column + cellWidth / 2;
+
+                final boolean selected = index == page.selectedIndex;
+                if (selected) {
+                    canvas.drawCircle(centerX, centerY, mSelectionRadius, mSelectionPaint);
+                } else if ((cell & MonthModel.DENSITY_MASK) != 0
+                        && (cell & MonthModel.FLAG_OUT_OF_MONTH) == 0) {
+                    mDensityPaint.setColor(DENSITY_COLORS[MonthModel.densityLevel(cell)]);
+                    canvas.drawCircle(centerX, centerY, mSelectionRadius, mDensityPaint);
+                }
 
-        int childTop = getPaddingTop() + currentPos * (parentHeight - mTotalLength) / (count - 1);
+                // Text is drawn left-aligned, centered with the cached widths
+                final int day = cell & MonthModel.DAY_MASK;
+                mTextPaint.setColor(getDayTextColor(cell, selected));
+                canvas.drawText(CellTextCache.getDayChars(), CellTextCache.getDayStart(day),
+                        CellTextCache.getDayLength(day), centerX - textCache.getDayWidth(day) / 2,
+                        centerY + mDayOffset + textCache.getDayBaseline(), mTextPaint);
+
+                // Holiday names from the region's dataset take the place of the lunar date
+                final String name = model.getName(index);
+                final int lunar = model.getLunarLabel(index);
+                final float labelY = centerY + mLunarOffset + textCache.getLabelBaseline();
+                if (name != null) {
+                    mLunarPaint.setColor(getLunarTextColor(cell, lunar, true, selected));
+                    canvas.drawText(name, centerX - textCache.getNameWidth(name) / 2, labelY,
+                            mLunarPaint);
+                } else {
+                    final int textId = LunarCalendar.labelTextId(lunar);
+                    if (textId >= 0) {
+                        mLunarPaint.setColor(getLunarTextColor(cell, lunar, false, selected));
+                        canvas.drawText(LunarCalendar.labelText(textId),
+                                centerX - textCache.getLabelWidth(textId) / 2, labelY, mLunarPaint);
+                    }
+                }
 
-        for (int i = 0; i < count; i++) {
-            final View child = getChildAt(i);
-            if (child.getVisibility() == View.GONE) {
-                continue;
+                if ((cell & (MonthModel.FLAG_HOLIDAY | MonthModel.FLAG_WORKDAY)) != 0) {
+                    final boolean holiday = (cell & MonthModel.FLAG_HOLIDAY) != 0;
+                    final String badge = holiday ? BADGE_HOLIDAY : BADGE_WORKDAY;
+                    mBadgePaint.setColor(selected ? Color.WHITE : holiday ? COLOR_WEEKEND : COLOR_LUNAR);
+                    canvas.drawText(badge,
+                            centerX + mSelectionRadius * 0.7f - textCache.getBadgeWidth(badge) / 2,
+                            centerY - mSelectionRadius * 0.55f, mBadgePaint);
+                }
+
+                if ((cell & MonthModel.FLAG_MARKER) != 0) {
+                    canvas.drawCircle(centerX, centerY + mSelectionRadius - mMarkerRadius,
+                            mMarkerRadius, mMarkerPaint);
+                }
+            }
+            for (; bar < barCount && MonthModel.barRow(model.getBar(bar)) == row; bar++) {
+                drawBar(canvas, model.getBar(bar), parentLeft, cellWidth, centerY + mSelectionRadius);
+            }
+            rowTop += itemHeight;
+        }
+    }
+
+    /**
+     * Draws a multi-day bar below the day numbers, open-ended where it continues in another row.
+     */
+    private void drawBar(Canvas canvas, int bar, int parentLeft, float cellWidth, float top) {
+        final float inset = cellWidth / 8;
+        float left = parentLeft + cellWidth * MonthModel.barFirstColumn(bar);
+        float right = parentLeft + cellWidth * (MonthModel.barLastColumn(bar) + 1);
+        if ((bar & MonthModel.BAR_CONTINUES_BEFORE) == 0) {
+            left += inset;
+        }
+        if ((bar & MonthModel.BAR_CONTINUES_AFTER) == 0) {
+            right -= inset;
+        }
+        final float barTop = top + mBarGap + MonthModel.barLane(bar) * (mBarHeight + mBarGap);
+        canvas.drawRect(left, barTop, right, barTop + mBarHeight, mBarPaint);
+    }
+
+    private int getGridTop() {
+        return CollapseEngine.gridTop(getPaddingTop(), getHeight() - getPaddingTop() - getPaddingBottom(),
+                currentPos, itemHeight);
+    }
+
+    private static int getDayTextColor(int cell, boolean selected) {
+        if (selected) {
+            return Color.WHITE;
+        } else if ((cell & MonthModel.FLAG_OUT_OF_MONTH) != 0) {
+            return Color.LTGRAY;
+        } else if ((cell & MonthModel.FLAG_TODAY) != 0) {
+            return COLOR_ACCENT;
+        } else if ((cell & MonthModel.FLAG_WORKDAY) != 0) {
+            // A make-up working day is a weekday even on a weekend
+            return Color.BLACK;
+        } else if ((cell & (MonthModel.FLAG_WEEKEND | MonthModel.FLAG_HOLIDAY)) != 0) {
+            return COLOR_WEEKEND;
+        }
+        return Color.BLACK;
+    }
+
+    private static int getLunarTextColor(int cell, int lunar, boolean named, boolean selected) {
+        if (selected) {
+            return Color.WHITE;
+        } else if ((cell & MonthModel.FLAG_OUT_OF_MONTH) != 0) {
+            return Color.LTGRAY;
+        } else if (named || LunarCalendar.labelFestival(lunar) >= 0
+                || LunarCalendar.labelSolarTerm(lunar) >= 0) {
+            return COLOR_ACCENT;
+        }
+        return COLOR_LUNAR;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(event);
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                mDownX = event.getX();
+                mDownY = event.getY();
+                mLastMotionX = mDownX;
+                if (!mPageScroller.isFinished()) {
+                    // 接住正在归位的页面
+                    mPageScroller.abortAnimation();
+                    removeCallbacks(mSettleRunnable);
+                    mIsPaging = true;
+                } else {
+                    final boolean weekMode = isCollapsed();
+                    if (weekMode != mWeekMode) {
+                        mWeekMode = weekMode;
+                        bindPages();
+                    }
+                }
+                return true;
+            }
+            case MotionEvent.ACTION_MOVE: {
+                final float x = event.getX();
+                if (!mIsPaging) {
+                    final float xDiff = Math.abs(x - mDownX);
+                    if (xDiff > mTouchSlop && xDiff > Math.abs(event.getY() - mDownY)) {
+                        mIsPaging = true;
+                        mLastMotionX = x;
+                        if (getParent() != null) {
+                            getParent().requestDisallowInterceptTouchEvent(true);
+                        }
+                    }
+                }
+                if (mIsPaging) {
+                    mPageOffset = MathUtils.clamp(mPageOffset + x - mLastMotionX, -getWidth(), getWidth());
+                    mLastMotionX = x;
+                    invalidate();
+                }
+                break;
+            }
+            case MotionEvent.ACTION_UP: {
+                if (mIsPaging) {
+                    mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+                    settlePage(mVelocityTracker.getXVelocity());
+                } else if (Math.abs(event.getX() - mDownX) < mTouchSlop
+                        && Math.abs(event.getY() - mDownY) < mTouchSlop) {
+                    final int index = getCellIndexAt(event.getX(), event.getY());
+                    if (index >= 0 && mModel.isInMonth(index)) {
+                        setSelectedIndex(index);
+                    }
+                    performClick();
+                }
+                endTouch();
+                return true;
+            }
+            case MotionEvent.ACTION_CANCEL: {
+                if (mIsPaging) {
+                    settlePage(0);
+                }
+                endTouch();
+                return true;
             }
+        }
+        return true;
+    }
+
+    private void endTouch() {
+        mIsPaging = false;
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
+    private void settlePage(float velocityX) {
+        final int width = getWidth();
+        if (Math.abs(velocityX) > mMinimumVelocity) {
+            mSettleDirection = velocityX < 0 ? 1 : -1;
+        } else if (Math.abs(mPageOffset) > width / 2f) {
+            mSettleDirection = mPageOffset < 0 ? 1 : -1;
+        } else {
+            mSettleDirection = 0;
+        }
+        // 手指方向和速度方向相反时回到当前页
+        if (mSettleDirection != 0 && Math.signum(mPageOffset) == mSettleDirection) {
+            mSettleDirection = 0;
+        }
+
+        final int start = Math.round(mPageOffset);
+        final int distance = -mSettleDirection * width - start;
+        final int duration = Math.min(MAX_SETTLE_DURATION,
+                (int) ((1f + (float) Math.abs(distance) / Math.max(width, 1)) * 150));
+        mPageScroller.startScroll(start, 0, distance, 0, duration);
+        ViewCompat.postOnAnimation(this, mSettleRunnable);
+    }
+
+    private void onPageSettled() {
+        mPageOffset = 0;
+        if (mSettleDirection != 0) {
+            final Page page = getPage(mSettleDirection);
+            mSelectedJulianDay = page.model.getJulianDay(page.selectedIndex);
+            mCurrentPage = (mCurrentPage + mSettleDirection + PAGE_COUNT) % PAGE_COUNT;
+            // 只重新绑定移出视野的那一页
+            bindPage(getPage(mSettleDirection), mSettleDirection);
+            applyCurrentPage();
+            mSettleDirection = 0;
+        }
+        invalidate();
+    }
+
+    private void abortPaging() {
+        if (!mPageScroller.isFinished()) {
+            mPageScroller.abortAnimation();
+            removeCallbacks(mSettleRunnable);
+        }
+        mPageOffset = 0;
+        mSettleDirection = 0;
+    }
 
-            final int width = child.getMeasuredWidth();
-            final int height = child.getMeasuredHeight();
+    /**
+     * Returns true if the scrolling content covers every row except the pinned one.
+     */
+    private boolean isCollapsed() {
+        return mCollapseCoordinator.isCollapsed();
+    }
+
+    View findScrollingContent() {
+        if (!(getParent() instanceof CoordinatorLayout)) {
+            return null;
+        }
+        final CoordinatorLayout parent = (CoordinatorLayout) getParent();
+        for (int i = 0, z = parent.getChildCount(); i < z; i++) {
+            final View child = parent.getChildAt(i);
+            final CoordinatorLayout.LayoutParams lp = (CoordinatorLayout.LayoutParams) child.getLayoutParams();
+            if (lp.getBehavior() instanceof ScrollingViewBehavior) {
+                return child;
+            }
+        }
+        return null;
+    }
 
-            int delta = (parentWidth - width) / 2;
-            int childLeft = parentLeft + delta;
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
 
-            child.layout(childLeft, childTop, childLeft + width, childTop + height);
+    private int getCellIndexAt(float x, float y) {
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width <= 0) {
+            return -1;
+        }
+        final int row = (int) Math.floor((y - getGridTop()) / itemHeight);
+        final int column = (int) ((x - getPaddingLeft()) * DAYS_IN_WEEK / width);
+        if (row < 0 || row >= mRowCount || column < 0 || column >= DAYS_IN_WEEK) {
+            return -1;
+        }
+        return row * DAYS_IN_WEEK + column;
+    }
 
-            childTop += height;
+    private void setSelectedIndex(int index) {
+        if (mSelectedIndex == index) {
+            return;
         }
+        mSelectedJulianDay = mModel.getJulianDay(index);
+        bindPages();
+    }
+
+    int getTotalScrollRange() {
+        return CollapseEngine.headerRange(currentPos, itemHeight, mVisibleHeight);
     }
 
-    private int getTotalScrollRange() {
-        return Math.min(getHeight() * currentPos / 5, getHeight() - itemHeight);
+    /**
+     * 分页环中的一页, 翻页时重新绑定到新的月份数据, 不会创建新的 View.
+     */
+    static final class Page {
+        MonthModel model;
+        int selectedIndex;
+
+        void bind(MonthModel model, int selectedIndex) {
+            this.model = model;
+            this.selectedIndex = selectedIndex;
+        }
     }
 
     @NonNull
@@ -121,182 +961,156 @@ public class CalendarView extends ViewGroup implements CoordinatorLayout.Attache
 
     public static class Behavior extends HeaderBehavior<CalendarView> {
 
-        private static final int MAX_OFFSET_ANIMATION_DURATION = 600;
-
-        private ValueAnimator mOffsetAnimator;
         private WeakReference<View> mLastNestedScrollingChildRef;
+        private boolean mHasLastNestedScrollingChild;
 
         @Override
         public boolean onStartNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull CalendarView child, @NonNull View directTargetChild, @NonNull View target, int axes, int type) {
-            final boolean started = (axes & ViewCompat.SCROLL_AXIS_VERTICAL) != 0;
-
-            if (started && mOffsetAnimator != null) {
-                // Cancel any offset animation
-                mOffsetAnimator.cancel();
+            final GestureTraceRecorder recorder = child.getGestureTraceRecorder();
+            if (recorder != null) {
+                recorder.recordNestedStart(axes, type);
             }
+            final boolean started = (axes & ViewCompat.SCROLL_AXIS_VERTICAL) != 0;
 
-            if (child.getTotalScrollRange() == 0) {
-                final CoordinatorLayout.Behavior behavior = ((CoordinatorLayout.LayoutParams) target.getLayoutParams()).getBehavior();
-                if (behavior != null) {
-                    behavior.onStartNestedScroll(coordinatorLayout, child, directTargetChild, target, axes, type);
-                }
+            if (started && type == ViewCompat.TYPE_TOUCH) {
+                // Cancel any settle animation
+                child.getCollapseCoordinator().cancelAnimation();
             }
 
             // A new nested scroll has started so clear out the previous ref
-            mLastNestedScrollingChildRef = null;
+            mHasLastNestedScrollingChild = false;
 
             return started;
         }
 
         @Override
         public void onNestedPreScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull CalendarView child, @NonNull View target, int dx, int dy, @NonNull int[] consumed, int type) {
-            if (dy < 0 && target.canScrollVertically(-1)) {
-                return;
+            final CollapseMetrics metrics = child.getCollapseMetrics();
+            final long start = metrics != null ? System.nanoTime() : 0;
+            // Flings are driven by the coordinator from onNestedPreFling, so the content's own
+            // TYPE_NON_TOUCH scrolling never moves the calendar
+            if (type == ViewCompat.TYPE_TOUCH && dy != 0 && !(dy < 0 && target.canScrollVertically(-1))) {
+                // The content is under the finger, so dy is measured in content pixels
+                consumed[1] = child.getCollapseCoordinator().scrollContentBy(dy);
             }
-            if (dy != 0) {
-                if (child.getTotalScrollRange() == 0) {
-                    final CoordinatorLayout.Behavior behavior = ((CoordinatorLayout.LayoutParams) target.getLayoutParams()).getBehavior();
-                    if (behavior != null) {
-                        behavior.onNestedPreScroll(coordinatorLayout, target, child, dx, dy, consumed, type);
-                    }
-                } else {
-                    int min, max;
-                    min = -child.getTotalScrollRange();
-                    max = 0;
-                    int newDy = dy * child.getTotalScrollRange() / (child.getHeight() - child.itemHeight);
-                    int consumedY = setHeaderTopBottomOffset(coordinatorLayout, child, getTopAndBottomOffset() - newDy, min, max);
-                    consumed[1] = consumedY * (child.getHeight() - child.itemHeight) / child.getTotalScrollRange();
-                }
+            final GestureTraceRecorder recorder = child.getGestureTraceRecorder();
+            if (recorder != null) {
+                recorder.recordNestedPreScroll(dx, dy, type, consumed[1]);
+            }
+            if (metrics != null) {
+                metrics.addPreScrollTime(System.nanoTime() - start);
             }
         }
 
         @Override
         public void onStopNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull CalendarView child, @NonNull View target, int type) {
-            if (child.getTotalScrollRange() == 0) {
-                final CoordinatorLayout.Behavior behavior = ((CoordinatorLayout.LayoutParams) target.getLayoutParams()).getBehavior();
-                if (behavior != null) {
-                    behavior.onStopNestedScroll(coordinatorLayout, target, child, type);
-                }
-            } else if (type == ViewCompat.TYPE_TOUCH) {
-                snapToChildIfNeeded(coordinatorLayout, child);
+            final GestureTraceRecorder recorder = child.getGestureTraceRecorder();
+            if (recorder != null) {
+                recorder.recordNestedStop(type);
+            }
+            if (type == ViewCompat.TYPE_TOUCH) {
+                snapToChildIfNeeded(child);
+                child.getCollapseCoordinator().onGestureEnd();
             }
 
-            // Keep a reference to the previous nested scrolling child
-            mLastNestedScrollingChildRef = new WeakReference<>(target);
+            // Keep a reference to the previous nested scrolling child, reusing the ref
+            // across gestures on the same target
+            if (mLastNestedScrollingChildRef == null || mLastNestedScrollingChildRef.get() != target) {
+                mLastNestedScrollingChildRef = new WeakReference<>(target);
+            }
+            mHasLastNestedScrollingChild = true;
         }
 
         @Override
         public boolean onNestedPreFling(@NonNull CoordinatorLayout coordinatorLayout, @NonNull CalendarView child, @NonNull View target, float velocityX, float velocityY) {
-            if (getTopAndBottomOffset() == 0) {
-                final CoordinatorLayout.Behavior behavior = ((CoordinatorLayout.LayoutParams) target.getLayoutParams()).getBehavior();
-                if (behavior != null) {
-                    return behavior.onNestedPreFling(coordinatorLayout, target, child, velocityX, velocityY);
-                }
-            } else if (getTopAndBottomOffset() > -child.getTotalScrollRange()) {
-                animateOffsetTo(coordinatorLayout, child, -child.getTotalScrollRange(), velocityY);
+            final GestureTraceRecorder recorder = child.getGestureTraceRecorder();
+            if (recorder != null) {
+                recorder.recordNestedPreFling(velocityX, velocityY);
+            }
+            final CollapseCoordinator coordinator = child.getCollapseCoordinator();
+            // Collapse before the content scrolls, and expand once it is back at its top. The
+            // leftover velocity is handed back to the content when the fling hits a bound.
+            final boolean collapse = velocityY > 0 && !coordinator.isCollapsed();
+            final boolean expand = velocityY < 0 && !coordinator.isExpanded()
+                    && !target.canScrollVertically(-1);
+            if (coordinator.getContentRange() > 0
+                    && (collapse || expand || (!coordinator.isExpanded() && !coordinator.isCollapsed()))) {
+                coordinator.fling(velocityY);
                 return true;
             }
             return super.onNestedPreFling(coordinatorLayout, child, target, velocityX, velocityY);
         }
 
         @Override
-        boolean canDragView(CalendarView view) {
-            // Else we'll use the default behaviour of seeing if it can scroll down
-            if (mLastNestedScrollingChildRef != null) {
-                // If we have a reference to a scrolling view, check it
-                final View scrollingView = mLastNestedScrollingChildRef.get();
-                return scrollingView != null && scrollingView.isShown()
-                        && !scrollingView.canScrollVertically(-1);
-            } else {
-                // Otherwise we assume that the scrolling view hasn't been scrolled and can drag.
-                return true;
+        public boolean onInterceptTouchEvent(CoordinatorLayout parent, CalendarView child, MotionEvent ev) {
+            final GestureTraceRecorder recorder = child.getGestureTraceRecorder();
+            if (recorder != null) {
+                recorder.recordTouch(true, ev);
             }
+            return super.onInterceptTouchEvent(parent, child, ev);
         }
 
         @Override
-        int scroll(CoordinatorLayout coordinatorLayout, CalendarView header, int dy, int minOffset, int maxOffset) {
-            if (header.getTotalScrollRange() == 0) {
-                List<View> dependents = coordinatorLayout.getDependents(header);
-                if (!dependents.isEmpty()) {
-                    int[] consumed = new int[]{0, 0};
-                    for (int i = 0; i < dependents.size(); i++) {
-                        final View child = dependents.get(i);
-                        CoordinatorLayout.LayoutParams lp = (CoordinatorLayout.LayoutParams)
-                                child.getLayoutParams();
-                        CoordinatorLayout.Behavior b = lp.getBehavior();
-                        if (b != null) {
-                            b.onNestedPreScroll(coordinatorLayout, child, header, 0, dy, consumed, ViewCompat.TYPE_TOUCH);
-                            return consumed[1];
-                        }
-                    }
-                }
-            } else {
-                return super.scroll(coordinatorLayout, header, dy, minOffset, maxOffset);
+        public boolean onTouchEvent(CoordinatorLayout parent, CalendarView child, MotionEvent ev) {
+            final GestureTraceRecorder recorder = child.getGestureTraceRecorder();
+            if (recorder != null) {
+                recorder.recordTouch(false, ev);
             }
-            return 0;
+            return super.onTouchEvent(parent, child, ev);
         }
 
-        private void snapToChildIfNeeded(CoordinatorLayout coordinatorLayout, CalendarView calendarView) {
-            final int offset = getTopAndBottomOffset();
-
-            if (offset <= -calendarView.getTotalScrollRange()) {
-                return;
-            }
+        @Override
+        void flingWithNestedDispatch(CoordinatorLayout parent, CalendarView child, int velocityY) {
+            child.getCollapseCoordinator().flingHeader(velocityY);
+        }
 
-            final int newOffset = offset < (-calendarView.getTotalScrollRange()) / 2
-                    ? -calendarView.getTotalScrollRange()
-                    : 0;
-            animateOffsetTo(coordinatorLayout, calendarView, MathUtils.clamp(newOffset, -calendarView.getTotalScrollRange(), 0), 0);
+        @Override
+        void onDragReleased(CoordinatorLayout parent, CalendarView child) {
+            snapToChildIfNeeded(child);
+            child.getCollapseCoordinator().onGestureEnd();
         }
 
-        private void animateOffsetTo(CoordinatorLayout coordinatorLayout, CalendarView child, final int offset, float velocity) {
-            final int distance = Math.abs(getTopAndBottomOffset() - offset);
+        @Override
+        int getMaxDragOffset(CalendarView view) {
+            return -view.getTotalScrollRange();
+        }
 
-            final int duration;
-            velocity = Math.abs(velocity);
-            if (velocity > 0) {
-                duration = 3 * Math.round(1000 * (distance / velocity));
+        @Override
+        boolean canDragView(CalendarView view) {
+            // Else we'll use the default behaviour of seeing if it can scroll down
+            if (mHasLastNestedScrollingChild) {
+                // If we have a reference to a scrolling view, check it
+                final View scrollingView = mLastNestedScrollingChildRef.get();
+                return scrollingView != null && scrollingView.isShown()
+                        && !scrollingView.canScrollVertically(-1);
             } else {
-                final float distanceRatio = (float) distance / child.getHeight();
-                duration = (int) ((distanceRatio + 1) * 150);
+                // Otherwise we assume that the scrolling view hasn't been scrolled and can drag.
+                return true;
             }
+        }
 
-            animateOffsetWithDuration(coordinatorLayout, child, offset, duration);
+        @Override
+        int scroll(CoordinatorLayout coordinatorLayout, CalendarView header, int dy, int minOffset, int maxOffset) {
+            return header.getCollapseCoordinator().dragHeaderBy(dy);
         }
 
-        private void animateOffsetWithDuration(final CoordinatorLayout coordinatorLayout, final CalendarView child, int offset, int duration) {
-            final int currentOffset = getTopAndBottomOffset();
-            if (currentOffset == offset) {
-                if (mOffsetAnimator != null && mOffsetAnimator.isRunning()) {
-                    mOffsetAnimator.cancel();
-                }
+        private void snapToChildIfNeeded(CalendarView calendarView) {
+            final CollapseCoordinator coordinator = calendarView.getCollapseCoordinator();
+            // A fling started from the same release is already settling
+            if (coordinator.isAnimating() || coordinator.isExpanded() || coordinator.isCollapsed()) {
                 return;
             }
-
-            if (mOffsetAnimator == null) {
-                mOffsetAnimator = new ValueAnimator();
-                mOffsetAnimator.setInterpolator(AnimationUtils.DECELERATE_INTERPOLATOR);
-                mOffsetAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                    @Override
-                    public void onAnimationUpdate(ValueAnimator animation) {
-                        setHeaderTopBottomOffset(coordinatorLayout, child, (int) animation.getAnimatedValue());
-                    }
-                });
-            } else {
-                mOffsetAnimator.cancel();
-            }
-
-            mOffsetAnimator.setDuration(Math.min(duration, MAX_OFFSET_ANIMATION_DURATION));
-            mOffsetAnimator.setIntValues(currentOffset, offset);
-            mOffsetAnimator.start();
+            coordinator.settle(0);
         }
     }
 
     public static class ScrollingViewBehavior extends ViewOffsetBehavior<View> {
 
-        private static final int MAX_OFFSET_ANIMATION_DURATION = 600;
-
-        private ValueAnimator mOffsetAnimator;
+        private final Rect mTempRect1 = new Rect();
+        private final Rect mTempRect2 = new Rect();
+        // The dependency found by layoutDependsOn, so the per-frame paths never walk the
+        // CoordinatorLayout dependency graph (getDependencies allocates a list)
+        private CalendarView mCalendarView;
 
         public ScrollingViewBehavior(Context context, AttributeSet attrs) {
             super(context, attrs);
@@ -304,183 +1118,84 @@ public class CalendarView extends ViewGroup implements CoordinatorLayout.Attache
 
         @Override
         public boolean layoutDependsOn(@NotNull CoordinatorLayout parent, @NotNull View child, @NotNull View dependency) {
-            return dependency instanceof CalendarView;
-        }
-
-        @Override
-        public boolean onDependentViewChanged(@NonNull CoordinatorLayout parent, @NonNull View child, @NonNull View dependency) {
-            final CalendarView calendarView = findFirstDependency(parent.getDependencies(child));
-            if (calendarView != null) {
-                final CoordinatorLayout.Behavior behavior =
-                        ((CoordinatorLayout.LayoutParams) calendarView.getLayoutParams()).getBehavior();
-                if (behavior instanceof Behavior) {
-                    final Behavior clBehavior = (Behavior) behavior;
-                    int extraOffset = 0;
-                    if (calendarView.getTotalScrollRange() == 0) {
-                        int dy = child.getTop() - calendarView.getBottom();
-                        int min, max;
-                        min = calendarView.itemHeight - (calendarView.getBottom() - calendarView.getTop());
-                        max = 0;
-                        int newOffset = MathUtils.clamp(getTopAndBottomOffset() - dy, min, max);
-                        if (newOffset != getTopAndBottomOffset()) {
-                            extraOffset = newOffset;
-                        }
-                    } else {
-                        extraOffset = clBehavior.getTopAndBottomOffset() * (calendarView.getHeight() - calendarView.itemHeight)
-                                / calendarView.getTotalScrollRange() - clBehavior.getTopAndBottomOffset();
-                    }
-                    setTopAndBottomOffset(getTopAndBottomOffset() + (dependency.getBottom() - child.getTop() + extraOffset));
-                }
+            if (dependency instanceof CalendarView) {
+                mCalendarView = (CalendarView) dependency;
+                return true;
             }
             return false;
         }
 
         @Override
-        public boolean onStartNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull View child, @NonNull View directTargetChild, @NonNull View target, int axes, int type) {
-            if (mOffsetAnimator != null) {
-                // Cancel any offset animation
-                mOffsetAnimator.cancel();
+        public void onDependentViewRemoved(@NonNull CoordinatorLayout parent, @NonNull View child, @NonNull View dependency) {
+            if (dependency == mCalendarView) {
+                mCalendarView = null;
             }
-            return super.onStartNestedScroll(coordinatorLayout, child, directTargetChild, target, axes, type);
         }
 
         @Override
-        public void onNestedPreScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull View child, @NonNull View target, int dx, int dy, @NonNull int[] consumed, int type) {
-            super.onNestedPreScroll(coordinatorLayout, child, target, dx, dy, consumed, type);
-            if (target instanceof CalendarView) {
-                CalendarView calendarView = (CalendarView) target;
-                int min, max;
-                min = calendarView.itemHeight - (calendarView.getBottom() - calendarView.getTop());
-                max = 0;
-                int newOffset = MathUtils.clamp(getTopAndBottomOffset() - dy, min, max);
-                if (newOffset != getTopAndBottomOffset()) {
-                    final int curOffset = getTopAndBottomOffset();
-                    setTopAndBottomOffset(newOffset);
-                    consumed[1] = curOffset - newOffset;
-                }
+        public boolean onDependentViewChanged(@NonNull CoordinatorLayout parent, @NonNull View child, @NonNull View dependency) {
+            final CalendarView calendarView = findDependency(parent, child);
+            if (calendarView == null) {
+                return false;
             }
-        }
-
-        @Override
-        public void onStopNestedScroll(@NonNull CoordinatorLayout coordinatorLayout, @NonNull View child, @NonNull View target, int type) {
-            super.onStopNestedScroll(coordinatorLayout, child, target, type);
-            if (type == ViewCompat.TYPE_TOUCH) {
-                snapToChildIfNeeded(coordinatorLayout, child, 0);
+            final CollapseMetrics metrics = calendarView.getCollapseMetrics();
+            final long start = metrics != null ? System.nanoTime() : 0;
+            // The coordinator normally moved us in the same frame already, this is a no-op then
+            final boolean changed = calendarView.getCollapseCoordinator().applyContent(this, child);
+            if (metrics != null) {
+                metrics.addDependentViewChangedTime(System.nanoTime() - start);
             }
+            return changed;
         }
 
         @Override
-        public boolean onNestedPreFling(@NonNull CoordinatorLayout coordinatorLayout, @NonNull View child, @NonNull View target, float velocityX, float velocityY) {
-            CalendarView calendarView = findFirstDependency(coordinatorLayout.getDependencies(child));
-            if (calendarView != null) {
-                int min = calendarView.itemHeight - (calendarView.getBottom() - calendarView.getTop());
-                if (getTopAndBottomOffset() > min) {
-                    snapToChildIfNeeded(coordinatorLayout, child, velocityY);
-                    return true;
-                }
+        public boolean onMeasureChild(@NonNull CoordinatorLayout parent, @NonNull View child, int parentWidthMeasureSpec, int widthUsed, int parentHeightMeasureSpec, int heightUsed) {
+            if (child.getLayoutParams().height != ViewGroup.LayoutParams.MATCH_PARENT) {
+                return false;
             }
-            return super.onNestedPreFling(coordinatorLayout, child, target, velocityX, velocityY);
-        }
-
-        private void snapToChildIfNeeded(CoordinatorLayout coordinatorLayout, View child, float velocityY) {
-            CalendarView calendarView = findFirstDependency(coordinatorLayout.getDependencies(child));
-            if (calendarView != null) {
-                int min = calendarView.itemHeight - (calendarView.getBottom() - calendarView.getTop());
-                int max = 0;
-                final int offset = getTopAndBottomOffset();
-                if (offset <= min) {
-                    return;
-                }
-
-                final int newOffset = offset < (min + max) / 2 ? min : max;
-                animateOffsetTo(coordinatorLayout, child, MathUtils.clamp(newOffset, min, max), velocityY);
+            final CalendarView header = findDependency(parent, child);
+            if (header == null) {
+                return false;
             }
-        }
-
-        private void animateOffsetTo(CoordinatorLayout coordinatorLayout, View child, final int offset, float velocity) {
-            final int distance = Math.abs(getTopAndBottomOffset() - offset);
-
-            final int duration;
-            velocity = Math.abs(velocity);
-            if (velocity > 0) {
-                duration = 3 * Math.round(1000 * (distance / velocity));
-            } else {
-                final float distanceRatio = (float) distance / child.getHeight();
-                duration = (int) ((distanceRatio + 1) * 150);
+            // Only as tall as the space below the pinned row, so a RecyclerView never lays out
+            // rows that stay hidden below the parent while the calendar is expanded
+            int availableHeight = View.MeasureSpec.getSize(parentHeightMeasureSpec);
+            if (availableHeight == 0) {
+                availableHeight = parent.getHeight();
             }
-
-            animateOffsetWithDuration(coordinatorLayout, child, offset, duration);
+            final int height = availableHeight - parent.getPaddingTop() - parent.getPaddingBottom()
+                    - header.getPaddingTop() - header.getItemHeight();
+            parent.onMeasureChild(child, parentWidthMeasureSpec, widthUsed,
+                    View.MeasureSpec.makeMeasureSpec(Math.max(0, height), View.MeasureSpec.EXACTLY), heightUsed);
+            return true;
         }
 
-        private void animateOffsetWithDuration(final CoordinatorLayout coordinatorLayout, final View child, int offset, int duration) {
-            final int currentOffset = getTopAndBottomOffset();
-            if (currentOffset == offset) {
-                if (mOffsetAnimator != null && mOffsetAnimator.isRunning()) {
-                    mOffsetAnimator.cancel();
-                }
-                return;
-            }
-
-            if (mOffsetAnimator == null) {
-                mOffsetAnimator = new ValueAnimator();
-                mOffsetAnimator.setInterpolator(AnimationUtils.DECELERATE_INTERPOLATOR);
-                mOffsetAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                    @Override
-                    public void onAnimationUpdate(ValueAnimator animation) {
-                        setHeaderTopBottomOffset(coordinatorLayout, child, (int) animation.getAnimatedValue());
-                    }
-                });
-            } else {
-                mOffsetAnimator.cancel();
-            }
-
-            mOffsetAnimator.setDuration(Math.min(duration, MAX_OFFSET_ANIMATION_DURATION));
-            mOffsetAnimator.setIntValues(currentOffset, offset);
-            mOffsetAnimator.start();
-        }
-
-        private int setHeaderTopBottomOffset(CoordinatorLayout parent, View header, int newOffset) {
-            return setHeaderTopBottomOffset(parent, header, newOffset,
-                    Integer.MIN_VALUE, Integer.MAX_VALUE);
-        }
-
-        private int setHeaderTopBottomOffset(CoordinatorLayout parent, View header, int newOffset,
-                                             int minOffset, int maxOffset) {
-            final int curOffset = getTopAndBottomOffset();
-            int consumed = 0;
-
-            if (minOffset != 0 && curOffset >= minOffset && curOffset <= maxOffset) {
-                // If we have some scrolling range, and we're currently within the min and max
-                // offsets, calculate a new offset
-                newOffset = MathUtils.clamp(newOffset, minOffset, maxOffset);
-
-                if (curOffset != newOffset) {
-                    setTopAndBottomOffset(newOffset);
-                    // Update how much dy we have consumed
-                    consumed = curOffset - newOffset;
-                }
+        @Override
+        public boolean onLayoutChild(CoordinatorLayout parent, View child, int layoutDirection) {
+            super.onLayoutChild(parent, child, layoutDirection);
+            final CalendarView calendarView = findDependency(parent, child);
+            if (calendarView != null) {
+                calendarView.getCollapseCoordinator().applyContent(this, child);
             }
-
-            return consumed;
+            return true;
         }
 
         @Override
         protected void layoutChild(CoordinatorLayout parent, View child, int layoutDirection) {
             super.layoutChild(parent, child, layoutDirection);
-            final List<View> dependencies = parent.getDependencies(child);
-            final View header = findFirstDependency(dependencies);
+            final CalendarView header = findDependency(parent, child);
             if (header != null) {
                 final CoordinatorLayout.LayoutParams lp =
                         (CoordinatorLayout.LayoutParams) child.getLayoutParams();
 
-                final Rect available = new Rect();
+                final Rect available = mTempRect1;
                 available.set(parent.getPaddingLeft() + lp.leftMargin,
-                        header.getBottom() + lp.topMargin,
+                        header.getExpandedContentTop() + lp.topMargin,
                         parent.getWidth() - parent.getPaddingRight() - lp.rightMargin,
-                        parent.getHeight() + header.getBottom()
+                        parent.getHeight() + header.getExpandedContentTop()
                                 - parent.getPaddingBottom() - lp.bottomMargin);
 
-                final Rect out = new Rect();
+                final Rect out = mTempRect2;
                 GravityCompat.apply(resolveGravity(lp.gravity), child.getMeasuredWidth(),
                         child.getMeasuredHeight(), available, out, layoutDirection);
                 child.layout(out.left, out.top, out.right, out.bottom);
@@ -491,6 +1206,13 @@ public class CalendarView extends ViewGroup implements CoordinatorLayout.Attache
             return gravity == Gravity.NO_GRAVITY ? GravityCompat.START | Gravity.TOP : gravity;
         }
 
+        CalendarView findDependency(CoordinatorLayout parent, View child) {
+            if (mCalendarView != null && mCalendarView.getParent() == parent) {
+                return mCalendarView;
+            }
+            return findFirstDependency(parent.getDependencies(child));
+        }
+
         CalendarView findFirstDependency(List<View> views) {
             for (int i = 0, z = views.size(); i < z; i++) {
                 View view = views.get(i);
@@ -0,0 +1,171 @@
+package com.morrisware.imitatemicalendar;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 日期格子里文字的宽度和基线缓存. 日期数字 1~31 在字体或字号变化后测量一次, 农历/节气/节日文字按
+ * {@link LunarCalendar#labelTextId(int)} 缓存, 节假日名称按字符串缓存, 绘制时不再格式化或测量文字.
+ * 文字都按左对齐绘制, 居中由缓存的宽度计算, 避免 {@link Paint.Align#CENTER} 每次绘制都重新测量.
+ **/
+final class CellTextCache {
+
+    private static final int MAX_DAY = 31;
+    // "1" to "31" back to back, day d starts at DAY_STARTS[d]
+    private static final char[] DAY_CHARS;
+    private static final int[] DAY_STARTS = new int[MAX_DAY + 2];
+
+    static {
+        final StringBuilder days = new StringBuilder();
+        for (int day = 1; day <= MAX_DAY; day++) {
+            DAY_STARTS[day] = days.length();
+            days.append(day);
+        }
+        DAY_STARTS[MAX_DAY + 1] = days.length();
+        DAY_CHARS = days.toString().toCharArray();
+    }
+
+    private final Paint mDayPaint;
+    private final Paint mLabelPaint;
+    private final Paint mBadgePaint;
+
+    // What the cached values were measured with
+    private float mDayTextSize;
+    private float mLabelTextSize;
+    private float mBadgeTextSize;
+    private Typeface mTypeface;
+    private boolean mValid;
+
+    private final float[] mDayWidths = new float[MAX_DAY + 1];
+    private final float[] mLabelWidths = new float[LunarCalendar.LABEL_TEXT_COUNT];
+    private final HashMap<String, Float> mNameWidths = new HashMap<>();
+    private final HashMap<String, Float> mBadgeWidths = new HashMap<>();
+    private float mDayBaseline;
+    private float mLabelBaseline;
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+
+    private int mMeasureCount;
+
+    CellTextCache(Paint dayPaint, Paint labelPaint, Paint badgePaint) {
+        mDayPaint = dayPaint;
+        mLabelPaint = labelPaint;
+        mBadgePaint = badgePaint;
+    }
+
+    /**
+     * Re-measures if the paints' sizes or typeface changed since the last call. Called once
+     * per frame before drawing.
+     */
+    void validate() {
+        final Typeface typeface = mDayPaint.getTypeface();
+        if (mValid
+                && mDayTextSize == mDayPaint.getTextSize()
+                && mLabelTextSize == mLabelPaint.getTextSize()
+                && mBadgeTextSize == mBadgePaint.getTextSize()
+                && mTypeface == typeface) {
+            return;
+        }
+        mDayTextSize = mDayPaint.getTextSize();
+        mLabelTextSize = mLabelPaint.getTextSize();
+        mBadgeTextSize = mBadgePaint.getTextSize();
+        mTypeface = typeface;
+        mValid = true;
+
+        for (int day = 1; day <= MAX_DAY; day++) {
+            mDayWidths[day] = measure(mDayPaint, DAY_CHARS, DAY_STARTS[day], DAY_STARTS[day + 1]);
+        }
+        // Labels and names are measured when first drawn
+        Arrays.fill(mLabelWidths, -1);
+        mNameWidths.clear();
+        mBadgeWidths.clear();
+        mDayBaseline = centerBaseline(mDayPaint);
+        mLabelBaseline = centerBaseline(mLabelPaint);
+    }
+
+    /**
+     * Drops everything, e.g. after a configuration change the paints don't reflect.
+     */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Returns the number of text measurements so far, for tests.
+     */
+    int getMeasureCount() {
+        return mMeasureCount;
+    }
+
+    static char[] getDayChars() {
+        return DAY_CHARS;
+    }
+
+    static int getDayStart(int day) {
+        return DAY_STARTS[day];
+    }
+
+    static int getDayLength(int day) {
+        return DAY_STARTS[day + 1] - DAY_STARTS[day];
+    }
+
+    float getDayWidth(int day) {
+        return mDayWidths[day];
+    }
+
+    /**
+     * Returns the offset from the vertical center to the baseline of the day numbers.
+     */
+    float getDayBaseline() {
+        return mDayBaseline;
+    }
+
+    float getLabelWidth(int textId) {
+        float width = mLabelWidths[textId];
+        if (width < 0) {
+            final String text = LunarCalendar.labelText(textId);
+            width = measure(mLabelPaint, text);
+            mLabelWidths[textId] = width;
+        }
+        return width;
+    }
+
+    float getNameWidth(String name) {
+        return getWidth(mNameWidths, mLabelPaint, name);
+    }
+
+    float getLabelBaseline() {
+        return mLabelBaseline;
+    }
+
+    float getBadgeWidth(String badge) {
+        return getWidth(mBadgeWidths, mBadgePaint, badge);
+    }
+
+    private float getWidth(HashMap<String, Float> widths, Paint paint, String text) {
+        final Float cached = widths.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        final float width = measure(paint, text);
+        widths.put(text, width);
+        return width;
+    }
+
+    private float measure(Paint paint, String text) {
+        mMeasureCount++;
+        return paint.measureText(text);
+    }
+
+    private float measure(Paint paint, char[] text, int start, int end) {
+        mMeasureCount++;
+        return paint.measureText(text, start, end - start);
+    }
+
+    private float centerBaseline(Paint paint) {
+        paint.getFontMetrics(mFontMetrics);
+        return -(mFontMetrics.ascent + mFontMetrics.descent) / 2;
+    }
+}
@@ -0,0 +1,354 @@
+package com.morrisware.imitatemicalendar;
+
+import android.view.Choreographer;
+import android.view.View;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.coordinatorlayout.widget.CoordinatorLayout;
+import androidx.core.widget.NestedScrollView;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * 日历和下方内容的收起状态只由一个收起比例 (0 展开, 1 收起) 决定, 两者的 offset
+ * 都由 {@link CollapseEngine} 从这个比例算出. 手指拖动时在回调返回前立即写入, 嵌套滚动的子 View
+ * 只在 dispatchNestedPreScroll 期间量自己的位移, 晚一帧写它就量不到, 下一个事件的 delta 会被吃掉;
+ * 其余的改动 (吸附, 惯性, {@link #setFraction(float)}) 在每个 Choreographer 帧里只写入一次.
+ * 吸附和惯性滑动也由这里唯一的帧回调驱动, 见 {@link SettleAnimation}.
+ **/
+final class CollapseCoordinator implements Choreographer.FrameCallback {
+
+    /**
+     * Posts the per-frame apply, replaced in tests to step frames by hand.
+     */
+    interface FrameScheduler {
+        void postFrameCallback(Choreographer.FrameCallback callback);
+
+        void removeFrameCallback(Choreographer.FrameCallback callback);
+    }
+
+    static final FrameScheduler CHOREOGRAPHER = new FrameScheduler() {
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().postFrameCallback(callback);
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().removeFrameCallback(callback);
+        }
+    };
+
+    private final CalendarView mCalendarView;
+    private FrameScheduler mFrameScheduler = CHOREOGRAPHER;
+
+    // Longest step fed to the animation, so a stalled frame does not jump to the end
+    private static final float MAX_FRAME_SECONDS = 1 / 20f;
+    private static final float DEFAULT_FRAME_SECONDS = 1 / 60f;
+
+    private final SettleAnimation mAnimation;
+    private long mLastFrameTimeNanos;
+
+    private final CollapseEngine mEngine = new CollapseEngine();
+    private boolean mFrameScheduled;
+    // The grid is drawn into a hardware layer while only offsets change
+    private boolean mLayerHeld;
+
+    CollapseCoordinator(CalendarView calendarView) {
+        mCalendarView = calendarView;
+        mAnimation = new SettleAnimation(calendarView.getResources().getDisplayMetrics().density);
+    }
+
+    @VisibleForTesting
+    void setFrameScheduler(FrameScheduler scheduler) {
+        if (mFrameScheduled) {
+            mFrameScheduler.removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+        mFrameScheduler = scheduler;
+    }
+
+    float getFraction() {
+        return mEngine.getFraction();
+    }
+
+    boolean isCollapsed() {
+        return mEngine.isCollapsed();
+    }
+
+    boolean isExpanded() {
+        return mEngine.isExpanded();
+    }
+
+    int getHeaderRange() {
+        return engine().getHeaderRange();
+    }
+
+    int getContentRange() {
+        return engine().getContentRange();
+    }
+
+    /**
+     * Collapses by {@code dy} content pixels, see {@link CollapseEngine#scrollContentBy(int)}.
+     *
+     * @return the consumed pixels
+     */
+    int scrollContentBy(int dy) {
+        onScrollStarted(dy);
+        return onScrolled(engine().scrollContentBy(dy));
+    }
+
+    /**
+     * Collapses by {@code dy} header pixels, see {@link CollapseEngine#dragHeaderBy(int)}.
+     *
+     * @return the consumed pixels
+     */
+    int dragHeaderBy(int dy) {
+        onScrollStarted(dy);
+        return onScrolled(engine().dragHeaderBy(dy));
+    }
+
+    private void onScrollStarted(int dy) {
+        if (dy != 0) {
+            // The finger wins over a running settle
+            cancelAnimation();
+        }
+    }
+
+    private int onScrolled(int consumed) {
+        if (consumed != 0) {
+            // Only scrolls that move the collapse hold the layer and count as a gesture, not
+            // the content scrolling on its own while the calendar is at either end
+            beginInteraction();
+            // Before returning, so the scrolling child sees the move in its offsetInWindow
+            apply();
+            // The frame re-applies, writing only if something else changed in between
+            scheduleFrame();
+        }
+        return consumed;
+    }
+
+    /**
+     * Updates the fraction, the offsets are written on the next frame.
+     */
+    void setFraction(float fraction) {
+        if (mEngine.setFraction(fraction)) {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Returns the engine with the calendar's current geometry.
+     */
+    private CollapseEngine engine() {
+        mEngine.setGeometry(mCalendarView.getItemHeight(), mCalendarView.getVisibleHeight(),
+                mCalendarView.getPinnedRow());
+        return mEngine;
+    }
+
+    /**
+     * Springs to the nearest end, or to the end {@code velocity} points at.
+     *
+     * @param velocity release velocity in content px/s, positive collapses
+     */
+    void settle(float velocity) {
+        final int range = getContentRange();
+        if (range <= 0) {
+            return;
+        }
+        final float target;
+        if (velocity > 0) {
+            target = 1f;
+        } else if (velocity < 0) {
+            target = 0f;
+        } else {
+            target = getFraction() < 0.5f ? 0f : 1f;
+        }
+        if (target == getFraction() && velocity == 0) {
+            return;
+        }
+        mAnimation.springTo(getFraction() * range, velocity, target * range);
+        startAnimation(false);
+    }
+
+    /**
+     * Flings with the content's release velocity, ending at either end.
+     *
+     * @param velocity content px/s, positive collapses
+     */
+    void fling(float velocity) {
+        final int range = getContentRange();
+        if (range <= 0) {
+            return;
+        }
+        mAnimation.fling(getFraction() * range, velocity, 0, range);
+        startAnimation(true);
+    }
+
+    /**
+     * Flings with a release velocity measured on the header, see {@link #dragHeaderBy(int)}.
+     */
+    void flingHeader(float velocity) {
+        fling(engine().headerToContentVelocity(velocity));
+    }
+
+    boolean isAnimating() {
+        return mAnimation.isRunning();
+    }
+
+    void cancelAnimation() {
+        mAnimation.cancel();
+    }
+
+    private void startAnimation(boolean fling) {
+        mLastFrameTimeNanos = 0;
+        beginInteraction();
+        final CollapseMetrics metrics = mCalendarView.getCollapseMetrics();
+        if (metrics != null) {
+            metrics.onSettleStart(System.nanoTime(), fling);
+        }
+        scheduleFrame();
+    }
+
+    /**
+     * Called when the finger is lifted, the interaction goes on if a settle or fling took over.
+     */
+    void onGestureEnd() {
+        if (!mAnimation.isRunning()) {
+            endInteraction();
+        }
+    }
+
+    /**
+     * Called when a drag or settle starts moving the offsets.
+     */
+    private void beginInteraction() {
+        final CollapseMetrics metrics = mCalendarView.getCollapseMetrics();
+        if (metrics != null) {
+            metrics.beginGesture(System.nanoTime());
+        }
+        if (!mLayerHeld && mCalendarView.isHardwareAccelerated()
+                && mCalendarView.getLayerType() == View.LAYER_TYPE_NONE) {
+            mLayerHeld = true;
+            mCalendarView.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        }
+    }
+
+    private void endInteraction() {
+        if (mLayerHeld) {
+            mLayerHeld = false;
+            mCalendarView.setLayerType(View.LAYER_TYPE_NONE, null);
+        }
+        final CollapseMetrics metrics = mCalendarView.getCollapseMetrics();
+        if (metrics != null && metrics.isActive()) {
+            metrics.endGesture(System.nanoTime());
+            mCalendarView.onCollapseMetricsUpdated();
+        }
+    }
+
+    /**
+     * Re-applies the offsets on the next frame, e.g. after the ranges changed.
+     */
+    void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mFrameScheduler.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        final GestureTraceRecorder recorder = mCalendarView.getGestureTraceRecorder();
+        if (recorder != null) {
+            recorder.recordFrame(frameTimeNanos);
+        }
+        if (mAnimation.isRunning()) {
+            stepAnimation(frameTimeNanos);
+        }
+        apply();
+    }
+
+    private void stepAnimation(long frameTimeNanos) {
+        final float dt = mLastFrameTimeNanos != 0
+                ? Math.min((frameTimeNanos - mLastFrameTimeNanos) / 1e9f, MAX_FRAME_SECONDS)
+                : DEFAULT_FRAME_SECONDS;
+        mLastFrameTimeNanos = frameTimeNanos;
+
+        final int range = getContentRange();
+        if (range <= 0) {
+            mAnimation.cancel();
+            endInteraction();
+            return;
+        }
+        final boolean running = mAnimation.step(dt);
+        mEngine.setFraction(mAnimation.getPosition() / range);
+        if (running) {
+            scheduleFrame();
+            return;
+        }
+        final CollapseMetrics metrics = mCalendarView.getCollapseMetrics();
+        if (metrics != null) {
+            metrics.onSettleEnd(frameTimeNanos);
+        }
+        endInteraction();
+        if (mAnimation.getLeftoverVelocity() != 0) {
+            handOffFling(Math.round(mAnimation.getLeftoverVelocity()));
+        }
+    }
+
+    /**
+     * Lets the content carry on with the velocity the collapse did not use, in the same gesture.
+     */
+    private void handOffFling(int velocity) {
+        final View content = mCalendarView.findScrollingContent();
+        if (content instanceof NestedScrollView) {
+            ((NestedScrollView) content).fling(velocity);
+        } else if (content instanceof RecyclerView) {
+            ((RecyclerView) content).fling(0, velocity);
+        }
+    }
+
+    /**
+     * Writes both offsets now. Callers already running inside a frame callback use this to
+     * avoid waiting for the next frame.
+     */
+    void applyNow() {
+        if (mFrameScheduled) {
+            mFrameScheduler.removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+        apply();
+    }
+
+    private void apply() {
+        final CalendarView.Behavior headerBehavior = getHeaderBehavior();
+        if (headerBehavior != null) {
+            headerBehavior.setTopAndBottomOffset(engine().getHeaderOffset());
+        }
+        final View content = mCalendarView.findScrollingContent();
+        if (content != null) {
+            applyContent((CalendarView.ScrollingViewBehavior)
+                    ((CoordinatorLayout.LayoutParams) content.getLayoutParams()).getBehavior(), content);
+        }
+    }
+
+    /**
+     * Moves the content below the pinned row according to the current fraction.
+     *
+     * @return true if the content moved
+     */
+    boolean applyContent(CalendarView.ScrollingViewBehavior behavior, View content) {
+        final int layoutTop = content.getTop() - behavior.getTopAndBottomOffset();
+        final int top = engine().getContentTop(mCalendarView.getExpandedContentTop());
+        return behavior.setTopAndBottomOffset(top - layoutTop);
+    }
+
+    private CalendarView.Behavior getHeaderBehavior() {
+        final CoordinatorLayout.LayoutParams lp =
+                (CoordinatorLayout.LayoutParams) mCalendarView.getLayoutParams();
+        if (lp != null && lp.getBehavior() instanceof CalendarView.Behavior) {
+            return (CalendarView.Behavior) lp.getBehavior();
+        }
+        return null;
+    }
+}
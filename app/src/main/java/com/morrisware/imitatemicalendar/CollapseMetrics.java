@@ -0,0 +1,324 @@
+package com.morrisware.imitatemicalendar;
+
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.Arrays;
+
+/**
+ * 收起/展开手势的帧耗时统计. 一次手势从开始拖动 (或开始吸附/惯性滑动) 到停止, 结束时回调
+ * {@link Listener}. 所有数据都存在预先分配的环形缓冲区里, 统计过程不分配内存.
+ **/
+public final class CollapseMetrics implements Choreographer.FrameCallback {
+
+    public interface Listener {
+        /**
+         * Called on the main thread when a gesture has ended. {@code metrics} is reused for
+         * the next gesture, copy what you need before returning.
+         */
+        void onCollapseMetrics(CollapseMetrics metrics);
+    }
+
+    /**
+     * Number of frames kept per gesture, older frames still count towards the totals.
+     */
+    public static final int FRAME_CAPACITY = 256;
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 16666667L;
+
+    private final long[] mFrameNanos = new long[FRAME_CAPACITY];
+    private final long[] mRenderNanos = new long[FRAME_CAPACITY];
+    private final long[] mSortScratch = new long[FRAME_CAPACITY];
+    private int mFrameHead;
+    private int mFrameSize;
+    private int mRenderHead;
+    private int mRenderSize;
+
+    private Listener mListener;
+    private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private boolean mActive;
+    private boolean mFrameCallbackPosted;
+    private Object mFrameMetricsListener;
+
+    private long mGestureStartNanos;
+    private long mGestureDurationNanos;
+    private long mLastFrameTimeNanos;
+    private int mFrameCount;
+    private int mDroppedFrames;
+    private int mJankyFrames;
+    private long mMaxFrameNanos;
+
+    private int mPreScrollCount;
+    private long mPreScrollTotalNanos;
+    private long mPreScrollMaxNanos;
+    private int mDependentChangeCount;
+    private long mDependentChangeTotalNanos;
+    private long mDependentChangeMaxNanos;
+
+    private long mSettleStartNanos;
+    private long mSettleLatencyNanos;
+    private boolean mSettleWasFling;
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    Listener getListener() {
+        return mListener;
+    }
+
+    void setFrameIntervalNanos(long frameIntervalNanos) {
+        mFrameIntervalNanos = frameIntervalNanos > 0 ? frameIntervalNanos : DEFAULT_FRAME_INTERVAL_NANOS;
+    }
+
+    boolean isActive() {
+        return mActive;
+    }
+
+    void beginGesture(long nowNanos) {
+        if (mActive) {
+            return;
+        }
+        mActive = true;
+        mGestureStartNanos = nowNanos;
+        mGestureDurationNanos = 0;
+        mLastFrameTimeNanos = 0;
+        mFrameHead = 0;
+        mFrameSize = 0;
+        mRenderHead = 0;
+        mRenderSize = 0;
+        mFrameCount = 0;
+        mDroppedFrames = 0;
+        mJankyFrames = 0;
+        mMaxFrameNanos = 0;
+        mPreScrollCount = 0;
+        mPreScrollTotalNanos = 0;
+        mPreScrollMaxNanos = 0;
+        mDependentChangeCount = 0;
+        mDependentChangeTotalNanos = 0;
+        mDependentChangeMaxNanos = 0;
+        mSettleStartNanos = 0;
+        mSettleLatencyNanos = 0;
+        mSettleWasFling = false;
+        postFrameCallback();
+    }
+
+    void endGesture(long nowNanos) {
+        if (!mActive) {
+            return;
+        }
+        mActive = false;
+        mGestureDurationNanos = nowNanos - mGestureStartNanos;
+        if (mFrameCallbackPosted) {
+            mFrameCallbackPosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        if (mListener != null) {
+            mListener.onCollapseMetrics(this);
+        }
+    }
+
+    void onSettleStart(long nowNanos, boolean fling) {
+        mSettleStartNanos = nowNanos;
+        mSettleWasFling = fling;
+    }
+
+    void onSettleEnd(long nowNanos) {
+        if (mSettleStartNanos != 0) {
+            mSettleLatencyNanos = nowNanos - mSettleStartNanos;
+            mSettleStartNanos = 0;
+        }
+    }
+
+    void addPreScrollTime(long nanos) {
+        if (mActive) {
+            mPreScrollCount++;
+            mPreScrollTotalNanos += nanos;
+            mPreScrollMaxNanos = Math.max(mPreScrollMaxNanos, nanos);
+        }
+    }
+
+    void addDependentViewChangedTime(long nanos) {
+        if (mActive) {
+            mDependentChangeCount++;
+            mDependentChangeTotalNanos += nanos;
+            mDependentChangeMaxNanos = Math.max(mDependentChangeMaxNanos, nanos);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameCallbackPosted = false;
+        if (!mActive) {
+            return;
+        }
+        if (mLastFrameTimeNanos != 0) {
+            final long duration = frameTimeNanos - mLastFrameTimeNanos;
+            mFrameNanos[mFrameHead] = duration;
+            mFrameHead = (mFrameHead + 1) % FRAME_CAPACITY;
+            mFrameSize = Math.min(mFrameSize + 1, FRAME_CAPACITY);
+            mFrameCount++;
+            mMaxFrameNanos = Math.max(mMaxFrameNanos, duration);
+            // Round so a little vsync jitter doesn't count as a drop
+            final long missed = (duration + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+            if (missed > 0) {
+                mDroppedFrames += missed;
+                mJankyFrames++;
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        postFrameCallback();
+    }
+
+    private void postFrameCallback() {
+        if (!mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    void onRenderDuration(long nanos) {
+        if (mActive) {
+            mRenderNanos[mRenderHead] = nanos;
+            mRenderHead = (mRenderHead + 1) % FRAME_CAPACITY;
+            mRenderSize = Math.min(mRenderSize + 1, FRAME_CAPACITY);
+        }
+    }
+
+    /**
+     * Starts receiving render durations from {@link FrameMetrics}, kept until
+     * {@link #stopFrameMetrics(Window)}.
+     */
+    @RequiresApi(Build.VERSION_CODES.N)
+    void startFrameMetrics(Window window, android.os.Handler handler) {
+        if (mFrameMetricsListener == null) {
+            mFrameMetricsListener = new FrameMetricsListener(this);
+        }
+        window.addOnFrameMetricsAvailableListener(
+                (Window.OnFrameMetricsAvailableListener) mFrameMetricsListener, handler);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.N)
+    void stopFrameMetrics(Window window) {
+        if (mFrameMetricsListener != null) {
+            window.removeOnFrameMetricsAvailableListener(
+                    (Window.OnFrameMetricsAvailableListener) mFrameMetricsListener);
+        }
+    }
+
+    /**
+     * Returns the gesture length, from the first drag (or settle) to the end of the settle.
+     */
+    public long getGestureDurationNanos() {
+        return mGestureDurationNanos;
+    }
+
+    /**
+     * Returns the number of frames the gesture spanned.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the number of vsyncs the UI thread missed during the gesture.
+     */
+    public int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Returns the number of frames that took longer than one vsync.
+     */
+    public int getJankyFrames() {
+        return mJankyFrames;
+    }
+
+    public long getMaxFrameNanos() {
+        return mMaxFrameNanos;
+    }
+
+    public long getFrameIntervalNanos() {
+        return mFrameIntervalNanos;
+    }
+
+    /**
+     * Returns the given percentile (0-100) of the last {@link #FRAME_CAPACITY} frame durations,
+     * measured between Choreographer frame callbacks.
+     */
+    public long getFramePercentileNanos(int percentile) {
+        return percentile(mFrameNanos, mFrameSize, percentile);
+    }
+
+    /**
+     * Returns the given percentile of the render durations reported by {@link FrameMetrics},
+     * 0 before Android N or when no window was found.
+     */
+    public long getRenderPercentileNanos(int percentile) {
+        return percentile(mRenderNanos, mRenderSize, percentile);
+    }
+
+    public int getPreScrollCount() {
+        return mPreScrollCount;
+    }
+
+    public long getPreScrollTotalNanos() {
+        return mPreScrollTotalNanos;
+    }
+
+    public long getPreScrollMaxNanos() {
+        return mPreScrollMaxNanos;
+    }
+
+    public int getDependentViewChangedCount() {
+        return mDependentChangeCount;
+    }
+
+    public long getDependentViewChangedTotalNanos() {
+        return mDependentChangeTotalNanos;
+    }
+
+    public long getDependentViewChangedMaxNanos() {
+        return mDependentChangeMaxNanos;
+    }
+
+    /**
+     * Returns the time from the start of the last snap or fling until it settled, 0 if the
+     * gesture ended without one.
+     */
+    public long getSettleLatencyNanos() {
+        return mSettleLatencyNanos;
+    }
+
+    public boolean isSettleFling() {
+        return mSettleWasFling;
+    }
+
+    private long percentile(long[] ring, int size, int percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        System.arraycopy(ring, 0, mSortScratch, 0, size);
+        Arrays.sort(mSortScratch, 0, size);
+        final int index = Math.min(size - 1, Math.max(0, (size * percentile + 99) / 100 - 1));
+        return mSortScratch[index];
+    }
+
+    @RequiresApi(Build.VERSION_CODES.N)
+    private static final class FrameMetricsListener implements Window.OnFrameMetricsAvailableListener {
+        private final CollapseMetrics mMetrics;
+
+        FrameMetricsListener(CollapseMetrics metrics) {
+            mMetrics = metrics;
+        }
+
+        @Override
+        public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+            mMetrics.onRenderDuration(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION));
+        }
+    }
+}
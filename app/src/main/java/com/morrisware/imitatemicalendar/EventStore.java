@@ -0,0 +1,472 @@
+package com.morrisware.imitatemicalendar;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 本地日程库, 基于 SQLite. 查询都走索引, 读取一个月的耗时与库的大小无关:
+ * <ul>
+ * <li>日程按开始日索引. 跨度不超过 {@link #SHORT_SPAN_DAYS} 天的日程, 与 [a, b] 重叠的一定在
+ * [a - SHORT_SPAN_DAYS, b] 内开始, 是一次索引范围查询; 更长的日程很少, 单独建一个只包含它们的
+ * 部分索引, 按结束日查询.</li>
+ * <li>每天的日程数量另存一张以日期为主键的表, 写入时在同一个事务里维护,
+ * 一个月的数量只需读 42 行.</li>
+ * </ul>
+ * 重复日程存在 series 表里, 只存规则和例外, 启动时全部读出交给 {@link RecurrenceExpander} 按需展开.
+ * 可以直接作为 {@link MonthModel.Decorator} 给有日程的日期加上 {@link MonthModel#FLAG_MARKER}.
+ **/
+public class EventStore extends SQLiteOpenHelper implements AgendaSource, MonthModel.Decorator {
+
+    public static final String DATABASE_NAME = "events.db";
+
+    /**
+     * Events spanning more days than this are queried separately, see the class comment.
+     */
+    static final int SHORT_SPAN_DAYS = 31;
+
+    private static final int DATABASE_VERSION = 3;
+
+    private static final String COLUMNS =
+            "_id, title, start_day, start_minute, end_day, end_minute, all_day";
+
+    // The long event index only holds these rows, the query must repeat the same condition
+    private static final String LONG_SPAN = "span > " + SHORT_SPAN_DAYS;
+
+    private static final String QUERY_RANGE = "SELECT " + COLUMNS + " FROM events"
+            + " WHERE start_day BETWEEN ? AND ? AND last_day >= ? AND span <= " + SHORT_SPAN_DAYS
+            + " UNION ALL SELECT " + COLUMNS + " FROM events"
+            + " WHERE " + LONG_SPAN + " AND last_day >= ? AND start_day <= ?"
+            + " ORDER BY start_day, start_minute, _id";
+
+    private static final String SERIES_COLUMNS = "_id, title, start_day, start_minute,"
+            + " end_day, end_minute, all_day, frequency, interval, weekdays, count, until_day,"
+            + " exceptions";
+
+    private static final String QUERY_DAY_COUNTS =
+            "SELECT day, count FROM day_counts WHERE day BETWEEN ? AND ?";
+
+    // Compiled once and reused by the writers, which are synchronized
+    private SQLiteStatement mInsertEvent;
+    private SQLiteStatement mEnsureDay;
+    private SQLiteStatement mAddToDays;
+    private SQLiteStatement mDeleteEmptyDays;
+    private SQLiteStatement mDeleteEvent;
+    private SQLiteStatement mInsertSeries;
+
+    private static EventStore sInstance;
+
+    /**
+     * Returns the store shared by the process. It is never closed, so loads and imports still
+     * running on background threads can outlive the activity that started them.
+     */
+    public static synchronized EventStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EventStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public EventStore(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * @param name the database file, or null for an in-memory database
+     */
+    public EventStore(Context context, @Nullable String name) {
+        super(context, name, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE events ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "title TEXT,"
+                + "start_day INTEGER NOT NULL,"
+                + "start_minute INTEGER NOT NULL,"
+                + "end_day INTEGER NOT NULL,"
+                + "end_minute INTEGER NOT NULL,"
+                + "all_day INTEGER NOT NULL,"
+                // Derived from the above, see CalendarEvent#getLastDay()
+                + "last_day INTEGER NOT NULL,"
+                + "span INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX events_start ON events (start_day, last_day)");
+        createLongEventIndex(db);
+        db.execSQL("CREATE TABLE day_counts ("
+                + "day INTEGER PRIMARY KEY,"
+                + "count INTEGER NOT NULL)");
+        createSeriesTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createSeriesTable(db);
+        }
+        if (oldVersion < 3) {
+            db.execSQL("DROP INDEX IF EXISTS events_span");
+            createLongEventIndex(db);
+        }
+    }
+
+    /**
+     * Indexes the few events longer than {@link #SHORT_SPAN_DAYS} by their last day. Partial
+     * indexes need SQLite 3.8, older devices index every event by span instead.
+     */
+    private static void createLongEventIndex(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            db.execSQL("CREATE INDEX events_long ON events (last_day, start_day)"
+                    + " WHERE " + LONG_SPAN);
+        } else {
+            db.execSQL("CREATE INDEX events_span ON events (span, last_day)");
+        }
+    }
+
+    private static void createSeriesTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE series ("
+                + "_id INTEGER PRIMARY KEY,"
+                + "title TEXT,"
+                + "start_day INTEGER NOT NULL,"
+                + "start_minute INTEGER NOT NULL,"
+                + "end_day INTEGER NOT NULL,"
+                + "end_minute INTEGER NOT NULL,"
+                + "all_day INTEGER NOT NULL,"
+                // See RecurrenceRule
+                + "frequency INTEGER NOT NULL,"
+                + "interval INTEGER NOT NULL,"
+                + "weekdays INTEGER NOT NULL,"
+                + "count INTEGER NOT NULL,"
+                + "until_day INTEGER NOT NULL,"
+                // Start days of the deleted occurrences, 4 bytes each
+                + "exceptions BLOB)");
+    }
+
+    /**
+     * Adds {@code event} and returns its row id. The id of {@code event} is kept if positive,
+     * replacing an existing event with the same id.
+     */
+    @WorkerThread
+    public synchronized long insert(CalendarEvent event) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final long id = insertLocked(db, event);
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Adds all {@code events} in one transaction.
+     */
+    @WorkerThread
+    public void insertAll(List<CalendarEvent> events) {
+        insertAll(events, Collections.<EventSeries>emptyList());
+    }
+
+    /**
+     * Adds all {@code events} and {@code series} in one transaction. A series replaces the
+     * stored one with the same id, the last one wins if {@code series} repeats an id.
+     */
+    @WorkerThread
+    public synchronized void insertAll(List<CalendarEvent> events, List<EventSeries> series) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0, z = events.size(); i < z; i++) {
+                insertLocked(db, events.get(i));
+            }
+            for (int i = 0, z = series.size(); i < z; i++) {
+                insertSeriesLocked(db, series.get(i));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes the event with the given id.
+     *
+     * @return true if it existed
+     */
+    @WorkerThread
+    public synchronized boolean delete(long id) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final boolean deleted = deleteLocked(db, id);
+            db.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private long insertLocked(SQLiteDatabase db, CalendarEvent event) {
+        if (event.id > 0) {
+            deleteLocked(db, event.id);
+        }
+        if (mInsertEvent == null) {
+            mInsertEvent = db.compileStatement("INSERT INTO events (_id, title, start_day,"
+                    + " start_minute, end_day, end_minute, all_day, last_day, span)"
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        final int lastDay = event.getLastDay();
+        final SQLiteStatement insert = mInsertEvent;
+        if (event.id > 0) {
+            insert.bindLong(1, event.id);
+        } else {
+            insert.bindNull(1);
+        }
+        if (event.title != null) {
+            insert.bindString(2, event.title);
+        } else {
+            insert.bindNull(2);
+        }
+        insert.bindLong(3, event.startDay);
+        insert.bindLong(4, event.startMinute);
+        insert.bindLong(5, event.endDay);
+        insert.bindLong(6, event.endMinute);
+        insert.bindLong(7, event.allDay ? 1 : 0);
+        insert.bindLong(8, lastDay);
+        insert.bindLong(9, lastDay - event.startDay);
+        final long id = insert.executeInsert();
+        addToDays(db, event.startDay, lastDay, 1);
+        return id;
+    }
+
+    private void insertSeriesLocked(SQLiteDatabase db, EventSeries series) {
+        if (mInsertSeries == null) {
+            mInsertSeries = db.compileStatement("INSERT OR REPLACE INTO series (" + SERIES_COLUMNS
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        final SQLiteStatement insert = mInsertSeries;
+        final CalendarEvent first = series.first;
+        final RecurrenceRule rule = series.rule;
+        insert.bindLong(1, series.id);
+        if (first.title != null) {
+            insert.bindString(2, first.title);
+        } else {
+            insert.bindNull(2);
+        }
+        insert.bindLong(3, first.startDay);
+        insert.bindLong(4, first.startMinute);
+        insert.bindLong(5, first.endDay);
+        insert.bindLong(6, first.endMinute);
+        insert.bindLong(7, first.allDay ? 1 : 0);
+        insert.bindLong(8, rule.frequency);
+        insert.bindLong(9, rule.interval);
+        insert.bindLong(10, rule.weekdays);
+        insert.bindLong(11, rule.count);
+        insert.bindLong(12, rule.untilDay);
+        final int[] exceptions = series.getExceptionDays();
+        final ByteBuffer bytes = ByteBuffer.allocate(exceptions.length * 4);
+        bytes.asIntBuffer().put(exceptions);
+        insert.bindBlob(13, bytes.array());
+        insert.executeInsert();
+    }
+
+    private boolean deleteLocked(SQLiteDatabase db, long id) {
+        final Cursor cursor = db.rawQuery("SELECT start_day, last_day FROM events WHERE _id = ?",
+                new String[]{Long.toString(id)});
+        final int startDay;
+        final int lastDay;
+        try {
+            if (!cursor.moveToNext()) {
+                return false;
+            }
+            startDay = cursor.getInt(0);
+            lastDay = cursor.getInt(1);
+        } finally {
+            cursor.close();
+        }
+        if (mDeleteEvent == null) {
+            mDeleteEvent = db.compileStatement("DELETE FROM events WHERE _id = ?");
+        }
+        mDeleteEvent.bindLong(1, id);
+        mDeleteEvent.executeUpdateDelete();
+        addToDays(db, startDay, lastDay, -1);
+        return true;
+    }
+
+    private void addToDays(SQLiteDatabase db, int firstDay, int lastDay, int delta) {
+        if (mAddToDays == null) {
+            mEnsureDay = db.compileStatement("INSERT OR IGNORE INTO day_counts (day, count) VALUES (?, 0)");
+            mAddToDays = db.compileStatement("UPDATE day_counts SET count = count + ? WHERE day BETWEEN ? AND ?");
+            mDeleteEmptyDays = db.compileStatement("DELETE FROM day_counts WHERE count <= 0 AND day BETWEEN ? AND ?");
+        }
+        if (delta > 0) {
+            for (int day = firstDay; day <= lastDay; day++) {
+                mEnsureDay.bindLong(1, day);
+                mEnsureDay.executeInsert();
+            }
+        }
+        mAddToDays.bindLong(1, delta);
+        mAddToDays.bindLong(2, firstDay);
+        mAddToDays.bindLong(3, lastDay);
+        mAddToDays.executeUpdateDelete();
+        if (delta < 0) {
+            mDeleteEmptyDays.bindLong(1, firstDay);
+            mDeleteEmptyDays.bindLong(2, lastDay);
+            mDeleteEmptyDays.executeUpdateDelete();
+        }
+    }
+
+    @WorkerThread
+    public boolean isEmpty() {
+        final Cursor cursor = getReadableDatabase().rawQuery("SELECT 1 FROM events LIMIT 1", null);
+        try {
+            return !cursor.moveToNext();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the events overlapping the days {@code [firstDay, lastDay]}, sorted by start.
+     */
+    @WorkerThread
+    @NonNull
+    public List<CalendarEvent> queryRange(int firstDay, int lastDay) {
+        final String first = Integer.toString(firstDay);
+        final String last = Integer.toString(lastDay);
+        final Cursor cursor = getReadableDatabase().rawQuery(QUERY_RANGE, new String[]{
+                Integer.toString(firstDay - SHORT_SPAN_DAYS), last, first, first, last});
+        try {
+            final List<CalendarEvent> events = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                events.add(new CalendarEvent(cursor.getLong(0), cursor.getString(1),
+                        cursor.getInt(2), cursor.getInt(3), cursor.getInt(4), cursor.getInt(5),
+                        cursor.getInt(6) != 0));
+            }
+            return events;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns every stored series, for {@link RecurrenceExpander#putSeries(EventSeries)}.
+     */
+    @WorkerThread
+    @NonNull
+    public List<EventSeries> loadSeries() {
+        final Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT " + SERIES_COLUMNS + " FROM series", null);
+        try {
+            final List<EventSeries> series = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                final CalendarEvent first = new CalendarEvent(cursor.getLong(0),
+                        cursor.getString(1), cursor.getInt(2), cursor.getInt(3),
+                        cursor.getInt(4), cursor.getInt(5), cursor.getInt(6) != 0);
+                final RecurrenceRule rule = rule(cursor.getInt(7), cursor.getInt(8),
+                        cursor.getInt(9)).withCount(cursor.getInt(10)).withUntil(cursor.getInt(11));
+                final byte[] blob = cursor.getBlob(12);
+                final int[] exceptions = new int[blob != null ? blob.length / 4 : 0];
+                if (exceptions.length > 0) {
+                    ByteBuffer.wrap(blob).asIntBuffer().get(exceptions);
+                }
+                series.add(new EventSeries(first.id, first, rule, exceptions));
+            }
+            return series;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static RecurrenceRule rule(int frequency, int interval, int weekdays) {
+        switch (frequency) {
+            case RecurrenceRule.DAILY:
+                return RecurrenceRule.daily(interval);
+            case RecurrenceRule.WEEKLY:
+                return RecurrenceRule.weekly(interval, weekdays);
+            case RecurrenceRule.MONTHLY:
+                return RecurrenceRule.monthly(interval);
+            default:
+                return RecurrenceRule.yearly(interval);
+        }
+    }
+
+    /**
+     * Fills {@code counts[i]} with the number of events on day {@code firstDay + i}, for
+     * {@code i < count}.
+     */
+    @WorkerThread
+    public void queryDayCounts(int firstDay, int[] counts, int count) {
+        for (int i = 0; i < count; i++) {
+            counts[i] = 0;
+        }
+        final Cursor cursor = getReadableDatabase().rawQuery(QUERY_DAY_COUNTS, new String[]{
+                Integer.toString(firstDay), Integer.toString(firstDay + count - 1)});
+        try {
+            while (cursor.moveToNext()) {
+                counts[cursor.getInt(0) - firstDay] = cursor.getInt(1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<CalendarEvent> loadDay(int julianDay) {
+        return queryRange(julianDay, julianDay);
+    }
+
+    @Override
+    public void decorate(int firstJulianDay, int[] cells, int count) {
+        final Cursor cursor = getReadableDatabase().rawQuery(QUERY_DAY_COUNTS, new String[]{
+                Integer.toString(firstJulianDay), Integer.toString(firstJulianDay + count - 1)});
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(1) > 0) {
+                    cells[cursor.getInt(0) - firstJulianDay] |= MonthModel.FLAG_MARKER;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mInsertEvent != null) {
+            mInsertEvent.close();
+            mInsertEvent = null;
+        }
+        if (mDeleteEvent != null) {
+            mDeleteEvent.close();
+            mDeleteEvent = null;
+        }
+        if (mInsertSeries != null) {
+            mInsertSeries.close();
+            mInsertSeries = null;
+        }
+        if (mAddToDays != null) {
+            mEnsureDay.close();
+            mAddToDays.close();
+            mDeleteEmptyDays.close();
+            mEnsureDay = null;
+            mAddToDays = null;
+            mDeleteEmptyDays = null;
+        }
+        super.close();
+    }
+}
@@ -0,0 +1,140 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * 手势轨迹的二进制格式. 记录 {@link CalendarView.Behavior} 收到的触摸事件, 嵌套滑动回调
+ * 和收起动画的帧, 用于把线上的卡顿手势拿回本地重放.
+ * <p>
+ * 文件头: magic, 版本, 屏幕密度, 日历宽高. 之后每条记录是一个类型字节, 距上一条记录的
+ * 微秒数, 再加上各类型的数据. 整数都是 zigzag varint, 坐标是 1/16 像素的定点数并且相对
+ * 上一个坐标编码.
+ **/
+final class GestureTrace {
+
+    static final int MAGIC = 0x47545243; // GTRC
+    static final int VERSION = 1;
+
+    static final int TYPE_INTERCEPT_TOUCH = 1;
+    static final int TYPE_TOUCH = 2;
+    static final int TYPE_NESTED_START = 3;
+    static final int TYPE_NESTED_PRE_SCROLL = 4;
+    static final int TYPE_NESTED_STOP = 5;
+    static final int TYPE_NESTED_PRE_FLING = 6;
+    static final int TYPE_FRAME = 7;
+
+    static final float COORDINATE_SCALE = 16f;
+
+    private GestureTrace() {
+    }
+
+    /**
+     * Appends to a growable flat buffer.
+     */
+    static final class Writer {
+        private byte[] mBuffer;
+        private int mSize;
+
+        Writer(int initialCapacity) {
+            mBuffer = new byte[initialCapacity];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        void reset() {
+            mSize = 0;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            mBuffer[mSize++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            mBuffer[mSize++] = (byte) (value >>> 24);
+            mBuffer[mSize++] = (byte) (value >>> 16);
+            mBuffer[mSize++] = (byte) (value >>> 8);
+            mBuffer[mSize++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            // zigzag so small negative deltas stay short
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7fL) != 0) {
+                mBuffer[mSize++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            mBuffer[mSize++] = (byte) v;
+        }
+
+        byte[] toByteArray() {
+            final byte[] result = new byte[mSize];
+            System.arraycopy(mBuffer, 0, result, 0, mSize);
+            return result;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mSize + extra > mBuffer.length) {
+                final byte[] buffer = new byte[Math.max(mBuffer.length * 2, mSize + extra)];
+                System.arraycopy(mBuffer, 0, buffer, 0, mSize);
+                mBuffer = buffer;
+            }
+        }
+    }
+
+    /**
+     * Reads a buffer written by {@link Writer}.
+     */
+    static final class Reader {
+        private final byte[] mBuffer;
+        private int mPosition;
+
+        Reader(byte[] buffer) {
+            mBuffer = buffer;
+        }
+
+        boolean hasRemaining() {
+            return mPosition < mBuffer.length;
+        }
+
+        int readByte() {
+            checkRemaining(1);
+            return mBuffer[mPosition++] & 0xff;
+        }
+
+        int readInt() {
+            checkRemaining(4);
+            return (mBuffer[mPosition++] & 0xff) << 24
+                    | (mBuffer[mPosition++] & 0xff) << 16
+                    | (mBuffer[mPosition++] & 0xff) << 8
+                    | (mBuffer[mPosition++] & 0xff);
+        }
+
+        long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 63) {
+                    throw new IllegalStateException("Malformed varint at " + mPosition);
+                }
+                b = readByte();
+                v |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        private void checkRemaining(int count) {
+            if (mPosition + count > mBuffer.length) {
+                throw new IllegalStateException("Truncated trace at " + mPosition);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.morrisware.imitatemicalendar;
+
+import android.view.MotionEvent;
+
+/**
+ * 调试用: 把 {@link CalendarView} 的手势记录成 {@link GestureTrace} 格式, 之后可以用
+ * {@link GestureTraceReplayer} 在本地重放. 只记录第一个触点.
+ **/
+public final class GestureTraceRecorder {
+
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    // Upper bounds of the encoded sizes, a type byte plus varints of at most 10 bytes
+    private static final int MAX_RECORD_BYTES = 40;
+    private static final int MAX_SAMPLE_BYTES = 30;
+
+    private final GestureTrace.Writer mWriter = new GestureTrace.Writer(4096);
+    private final int mMaxBytes;
+
+    private CalendarView mCalendarView;
+    private long mLastTimeUs;
+    private int mLastX;
+    private int mLastY;
+    private boolean mTruncated;
+
+    public GestureTraceRecorder() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public GestureTraceRecorder(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Starts a new trace of {@code calendarView}, dropping anything recorded before.
+     */
+    public void attach(CalendarView calendarView) {
+        detach();
+        mWriter.reset();
+        mTruncated = false;
+        mLastX = 0;
+        mLastY = 0;
+        mLastTimeUs = System.nanoTime() / 1000;
+
+        mWriter.writeInt(GestureTrace.MAGIC);
+        mWriter.writeInt(GestureTrace.VERSION);
+        mWriter.writeInt(Float.floatToIntBits(
+                calendarView.getResources().getDisplayMetrics().density));
+        mWriter.writeInt(calendarView.getWidth());
+        mWriter.writeInt(calendarView.getHeight());
+        mWriter.writeVarLong(mLastTimeUs);
+
+        mCalendarView = calendarView;
+        calendarView.setGestureTraceRecorder(this);
+    }
+
+    public void detach() {
+        if (mCalendarView != null) {
+            mCalendarView.setGestureTraceRecorder(null);
+            mCalendarView = null;
+        }
+    }
+
+    /**
+     * Returns true if recording stopped because the trace reached its size limit.
+     */
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    public int size() {
+        return mWriter.size();
+    }
+
+    public byte[] toByteArray() {
+        return mWriter.toByteArray();
+    }
+
+    void recordTouch(boolean intercept, MotionEvent ev) {
+        final int historySize = ev.getHistorySize();
+        if (!beginRecord(intercept ? GestureTrace.TYPE_INTERCEPT_TOUCH : GestureTrace.TYPE_TOUCH,
+                ev.getEventTime() * 1000, (historySize + 1) * MAX_SAMPLE_BYTES)) {
+            return;
+        }
+        final long eventTimeUs = ev.getEventTime() * 1000;
+        mWriter.writeByte(ev.getActionMasked());
+        mWriter.writeVarLong(historySize);
+        for (int i = 0; i < historySize; i++) {
+            mWriter.writeVarLong(eventTimeUs - ev.getHistoricalEventTime(i) * 1000);
+            writeCoordinates(ev.getHistoricalX(0, i), ev.getHistoricalY(0, i));
+        }
+        writeCoordinates(ev.getX(0), ev.getY(0));
+    }
+
+    void recordNestedStart(int axes, int type) {
+        if (beginRecord(GestureTrace.TYPE_NESTED_START, System.nanoTime() / 1000)) {
+            mWriter.writeVarLong(axes);
+            mWriter.writeByte(type);
+        }
+    }
+
+    void recordNestedPreScroll(int dx, int dy, int type, int consumedY) {
+        if (beginRecord(GestureTrace.TYPE_NESTED_PRE_SCROLL, System.nanoTime() / 1000)) {
+            mWriter.writeVarLong(dx);
+            mWriter.writeVarLong(dy);
+            mWriter.writeByte(type);
+            mWriter.writeVarLong(consumedY);
+        }
+    }
+
+    void recordNestedStop(int type) {
+        if (beginRecord(GestureTrace.TYPE_NESTED_STOP, System.nanoTime() / 1000)) {
+            mWriter.writeByte(type);
+        }
+    }
+
+    void recordNestedPreFling(float velocityX, float velocityY) {
+        if (beginRecord(GestureTrace.TYPE_NESTED_PRE_FLING, System.nanoTime() / 1000)) {
+            mWriter.writeInt(Float.floatToIntBits(velocityX));
+            mWriter.writeInt(Float.floatToIntBits(velocityY));
+        }
+    }
+
+    void recordFrame(long frameTimeNanos) {
+        beginRecord(GestureTrace.TYPE_FRAME, frameTimeNanos / 1000);
+    }
+
+    private boolean beginRecord(int type, long timeUs) {
+        return beginRecord(type, timeUs, MAX_RECORD_BYTES);
+    }
+
+    private boolean beginRecord(int type, long timeUs, int payloadBytes) {
+        if (mTruncated) {
+            return false;
+        }
+        if (mWriter.size() + MAX_RECORD_BYTES + payloadBytes > mMaxBytes) {
+            mTruncated = true;
+            return false;
+        }
+        mWriter.writeByte(type);
+        mWriter.writeVarLong(timeUs - mLastTimeUs);
+        mLastTimeUs = timeUs;
+        return true;
+    }
+
+    private void writeCoordinates(float x, float y) {
+        final int fixedX = Math.round(x * GestureTrace.COORDINATE_SCALE);
+        final int fixedY = Math.round(y * GestureTrace.COORDINATE_SCALE);
+        mWriter.writeVarLong(fixedX - mLastX);
+        mWriter.writeVarLong(fixedY - mLastY);
+        mLastX = fixedX;
+        mLastY = fixedY;
+    }
+}
@@ -0,0 +1,167 @@
+package com.morrisware.imitatemicalendar;
+
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.coordinatorlayout.widget.CoordinatorLayout;
+
+/**
+ * 把 {@link GestureTraceRecorder} 录下的轨迹按原来的顺序和时间重放到 {@link CalendarView.Behavior}.
+ * 重放期间收起动画的帧只来自轨迹本身, 所以同一条轨迹每次重放的结果都相同.
+ **/
+public final class GestureTraceReplayer {
+
+    private static final CollapseCoordinator.FrameScheduler TRACE_FRAMES =
+            new CollapseCoordinator.FrameScheduler() {
+                @Override
+                public void postFrameCallback(Choreographer.FrameCallback callback) {
+                    // Frames come from the trace
+                }
+
+                @Override
+                public void removeFrameCallback(Choreographer.FrameCallback callback) {
+                }
+            };
+
+    private final byte[] mTrace;
+
+    private int mRecordCount;
+    private int mMismatchCount;
+
+    public GestureTraceReplayer(byte[] trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * Returns the number of records replayed by the last {@link #replay(CalendarView)}.
+     */
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns how many nested pre-scrolls consumed a different distance than when recorded.
+     * Non-zero means the replay diverged, e.g. the calendar had a different size.
+     */
+    public int getMismatchCount() {
+        return mMismatchCount;
+    }
+
+    /**
+     * Replays the trace against {@code calendarView}, which must be laid out in a
+     * CoordinatorLayout with its scrolling content.
+     */
+    public void replay(CalendarView calendarView) {
+        final CoordinatorLayout parent = (CoordinatorLayout) calendarView.getParent();
+        final CalendarView.Behavior behavior = (CalendarView.Behavior)
+                ((CoordinatorLayout.LayoutParams) calendarView.getLayoutParams()).getBehavior();
+        final View target = calendarView.findScrollingContent();
+        if (behavior == null || target == null) {
+            throw new IllegalStateException("CalendarView has no behavior or scrolling content");
+        }
+
+        final GestureTrace.Reader reader = new GestureTrace.Reader(mTrace);
+        if (reader.readInt() != GestureTrace.MAGIC) {
+            throw new IllegalArgumentException("Not a gesture trace");
+        }
+        final int version = reader.readInt();
+        if (version != GestureTrace.VERSION) {
+            throw new IllegalArgumentException("Unsupported gesture trace version " + version);
+        }
+        // density, width and height, kept for whoever inspects the trace
+        reader.readInt();
+        reader.readInt();
+        reader.readInt();
+        long timeUs = reader.readVarLong();
+
+        final CollapseCoordinator coordinator = calendarView.getCollapseCoordinator();
+        coordinator.setFrameScheduler(TRACE_FRAMES);
+        mRecordCount = 0;
+        mMismatchCount = 0;
+        final int[] consumed = new int[2];
+        int lastX = 0;
+        int lastY = 0;
+        long downTime = 0;
+        try {
+            while (reader.hasRemaining()) {
+                final int type = reader.readByte();
+                timeUs += reader.readVarLong();
+                switch (type) {
+                    case GestureTrace.TYPE_INTERCEPT_TOUCH:
+                    case GestureTrace.TYPE_TOUCH: {
+                        final int action = reader.readByte();
+                        final int historySize = reader.readVarInt();
+                        final long eventTime = timeUs / 1000;
+                        if (action == MotionEvent.ACTION_DOWN) {
+                            downTime = eventTime;
+                        }
+                        MotionEvent event = null;
+                        for (int i = 0; i <= historySize; i++) {
+                            final long sampleTime = i < historySize
+                                    ? (timeUs - reader.readVarLong()) / 1000 : eventTime;
+                            lastX += reader.readVarInt();
+                            lastY += reader.readVarInt();
+                            final float x = lastX / GestureTrace.COORDINATE_SCALE;
+                            final float y = lastY / GestureTrace.COORDINATE_SCALE;
+                            if (event == null) {
+                                event = MotionEvent.obtain(downTime, sampleTime, action, x, y, 0);
+                            } else {
+                                event.addBatch(sampleTime, x, y, 1f, 1f, 0);
+                            }
+                        }
+                        if (type == GestureTrace.TYPE_INTERCEPT_TOUCH) {
+                            behavior.onInterceptTouchEvent(parent, calendarView, event);
+                        } else {
+                            behavior.onTouchEvent(parent, calendarView, event);
+                        }
+                        event.recycle();
+                        break;
+                    }
+                    case GestureTrace.TYPE_NESTED_START: {
+                        final int axes = reader.readVarInt();
+                        final int scrollType = reader.readByte();
+                        behavior.onStartNestedScroll(parent, calendarView, target, target, axes, scrollType);
+                        break;
+                    }
+                    case GestureTrace.TYPE_NESTED_PRE_SCROLL: {
+                        final int dx = reader.readVarInt();
+                        final int dy = reader.readVarInt();
+                        final int scrollType = reader.readByte();
+                        final int recordedConsumed = reader.readVarInt();
+                        consumed[0] = 0;
+                        consumed[1] = 0;
+                        behavior.onNestedPreScroll(parent, calendarView, target, dx, dy, consumed, scrollType);
+                        if (consumed[1] != recordedConsumed) {
+                            mMismatchCount++;
+                        }
+                        break;
+                    }
+                    case GestureTrace.TYPE_NESTED_STOP:
+                        behavior.onStopNestedScroll(parent, calendarView, target, reader.readByte());
+                        break;
+                    case GestureTrace.TYPE_NESTED_PRE_FLING: {
+                        final float velocityX = Float.intBitsToFloat(reader.readInt());
+                        final float velocityY = Float.intBitsToFloat(reader.readInt());
+                        behavior.onNestedPreFling(parent, calendarView, target, velocityX, velocityY);
+                        break;
+                    }
+                    case GestureTrace.TYPE_FRAME:
+                        coordinator.doFrame(timeUs * 1000);
+                        // What CoordinatorLayout does on pre-draw once the header moved
+                        parent.dispatchDependentViewsChanged(calendarView);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown record type " + type);
+                }
+                mRecordCount++;
+            }
+        } finally {
+            coordinator.setFrameScheduler(CollapseCoordinator.CHOREOGRAPHER);
+            if (coordinator.isAnimating()) {
+                // Let a settle the trace ended in finish on real frames
+                coordinator.scheduleFrame();
+            }
+        }
+    }
+}
@@ -17,15 +17,15 @@ package com.morrisware.imitatemicalendar;
 
 import android.content.Context;
 import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.Display;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
-import android.widget.OverScroller;
 
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 import androidx.core.math.MathUtils;
-import androidx.core.view.ViewCompat;
 
 
 /**
@@ -35,8 +35,26 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
 
     private static final int INVALID_POINTER = -1;
 
-    private Runnable mFlingRunnable;
-    OverScroller mScroller;
+    /**
+     * Drags by the latest integer sample of each move event.
+     */
+    public static final int INPUT_LATEST = 0;
+    /**
+     * Drags by the sub-pixel position, reading the batched historical samples.
+     */
+    public static final int INPUT_RESAMPLED = 1;
+    /**
+     * Like {@link #INPUT_RESAMPLED}, and leads the finger by its velocity up to the first vsync
+     * after each event, at most {@link #MAX_PREDICTION_MS}. The vsyncs are followed with a
+     * Choreographer callback while the finger is down.
+     */
+    public static final int INPUT_PREDICTED = 2;
+
+    private static final int SAMPLE_COUNT = 8;
+    // Samples older than this don't contribute to the predictor velocity
+    private static final long SAMPLE_WINDOW_MS = 40;
+    private static final float MAX_PREDICTION_MS = 20f;
+    private static final float DEFAULT_FRAME_MS = 1000f / 60;
 
     private boolean mIsBeingDragged;
     private int mActivePointerId = INVALID_POINTER;
@@ -47,6 +65,25 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
 
     private VelocityTracker mVelocityTracker;
 
+    private int mInputMode = INPUT_RESAMPLED;
+    // Position the header was last dragged to, including any prediction
+    private float mDragY;
+    private final float[] mSampleY = new float[SAMPLE_COUNT];
+    private final long[] mSampleTime = new long[SAMPLE_COUNT];
+    private int mSampleCount;
+    private int mSampleHead;
+    private float mFrameIntervalMs = DEFAULT_FRAME_MS;
+    // Frame time of the last vsync seen during a predicted drag, 0 before the first one
+    private long mLastVsyncNanos;
+    private boolean mVsyncCallbackPosted;
+    private final Choreographer.FrameCallback mVsyncCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mLastVsyncNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
     public HeaderBehavior() {
     }
 
@@ -54,6 +91,18 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
         super(context, attrs);
     }
 
+    /**
+     * Sets how move events become drag distance, one of {@link #INPUT_LATEST},
+     * {@link #INPUT_RESAMPLED} or {@link #INPUT_PREDICTED}. Meant for comparing input latency.
+     */
+    public void setInputMode(int mode) {
+        mInputMode = mode;
+    }
+
+    public int getInputMode() {
+        return mInputMode;
+    }
+
     @Override
     public boolean onInterceptTouchEvent(CoordinatorLayout parent, V child, MotionEvent ev) {
         if (mTouchSlop < 0) {
@@ -82,6 +131,7 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
                     mLastMotionY = y;
                     mActivePointerId = ev.getPointerId(0);
                     ensureVelocityTracker();
+                    startSampling(parent, ev.getY(), ev.getEventTime());
                 }
                 break;
             }
@@ -102,6 +152,7 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
                 if (yDiff > mTouchSlop) {
                     mIsBeingDragged = true;
                     mLastMotionY = y;
+                    mDragY = ev.getY(pointerIndex);
                 }
                 break;
             }
@@ -110,6 +161,7 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
             case MotionEvent.ACTION_UP: {
                 mIsBeingDragged = false;
                 mActivePointerId = INVALID_POINTER;
+                stopVsyncTracking();
                 if (mVelocityTracker != null) {
                     mVelocityTracker.recycle();
                     mVelocityTracker = null;
@@ -140,6 +192,7 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
                     mLastMotionY = y;
                     mActivePointerId = ev.getPointerId(0);
                     ensureVelocityTracker();
+                    startSampling(parent, ev.getY(), ev.getEventTime());
                 } else {
                     return false;
                 }
@@ -152,6 +205,11 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
                     return false;
                 }
 
+                if (mInputMode != INPUT_LATEST) {
+                    onResampledMove(parent, child, ev, activePointerIndex);
+                    break;
+                }
+
                 final int y = (int) ev.getY(activePointerIndex);
                 int dy = mLastMotionY - y;
 
@@ -173,6 +231,13 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
             }
 
             case MotionEvent.ACTION_UP:
+                if (mIsBeingDragged && mInputMode == INPUT_PREDICTED) {
+                    // Give back whatever the predictor overshot before settling
+                    final int pointerIndex = ev.findPointerIndex(mActivePointerId);
+                    if (pointerIndex != -1) {
+                        dragTo(parent, child, ev.getY(pointerIndex));
+                    }
+                }
                 if (mVelocityTracker != null) {
                     mVelocityTracker.addMovement(ev);
                     mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
@@ -183,6 +248,10 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
                 }
                 // $FALLTHROUGH
             case MotionEvent.ACTION_CANCEL: {
+                if (mIsBeingDragged) {
+                    onDragReleased(parent, child);
+                }
+                stopVsyncTracking();
                 mIsBeingDragged = false;
                 mActivePointerId = INVALID_POINTER;
                 if (mVelocityTracker != null) {
@@ -200,6 +269,113 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
         return true;
     }
 
+    private void onResampledMove(CoordinatorLayout parent, V child, MotionEvent ev, int pointerIndex) {
+        // Batched samples arrive together on high refresh rate panels, keep all of them so the
+        // predictor sees the real finger velocity
+        for (int i = 0, size = ev.getHistorySize(); i < size; i++) {
+            addSample(ev.getHistoricalY(pointerIndex, i), ev.getHistoricalEventTime(i));
+        }
+        final float y = ev.getY(pointerIndex);
+        addSample(y, ev.getEventTime());
+
+        if (!mIsBeingDragged) {
+            final float dy = mDragY - y;
+            if (Math.abs(dy) <= mTouchSlop) {
+                return;
+            }
+            mIsBeingDragged = true;
+            // Start from the slop edge, same as the integer path
+            mDragY = y + (dy > 0 ? mTouchSlop : -mTouchSlop);
+        }
+
+        float target = y;
+        if (mInputMode == INPUT_PREDICTED) {
+            target += getSampleVelocity() * getPredictionMs(ev.getEventTime());
+        }
+        dragTo(parent, child, target);
+    }
+
+    /**
+     * Drags by the whole pixels between the last drag position and {@code y}, the fraction
+     * carries over to the next event.
+     */
+    private void dragTo(CoordinatorLayout parent, V child, float y) {
+        final int dy = (int) (mDragY - y);
+        if (dy != 0) {
+            mDragY -= dy;
+            scroll(parent, child, dy, getMaxDragOffset(child), 0);
+        }
+    }
+
+    private void startSampling(CoordinatorLayout parent, float y, long time) {
+        mDragY = y;
+        mSampleCount = 0;
+        mSampleHead = 0;
+        addSample(y, time);
+        final Display display = parent.getDisplay();
+        final float refreshRate = display != null ? display.getRefreshRate() : 0;
+        mFrameIntervalMs = refreshRate > 0 ? 1000f / refreshRate : DEFAULT_FRAME_MS;
+        if (mInputMode == INPUT_PREDICTED && !mVsyncCallbackPosted) {
+            mVsyncCallbackPosted = true;
+            mLastVsyncNanos = 0;
+            Choreographer.getInstance().postFrameCallback(mVsyncCallback);
+        }
+    }
+
+    private void stopVsyncTracking() {
+        if (mVsyncCallbackPosted) {
+            mVsyncCallbackPosted = false;
+            Choreographer.getInstance().removeFrameCallback(mVsyncCallback);
+        }
+    }
+
+    /**
+     * Returns the milliseconds from {@code eventTime} to the first vsync after both it and the
+     * last vsync seen, when the header moved for the event is drawn. One frame interval until
+     * the first vsync of the drag was seen.
+     */
+    private float getPredictionMs(long eventTime) {
+        float lead = mFrameIntervalMs;
+        if (mLastVsyncNanos != 0) {
+            // Event times are uptimeMillis, on the same clock as the frame times
+            final long eventNanos = eventTime * 1000000L;
+            final long intervalNanos = (long) (mFrameIntervalMs * 1000000);
+            final long sinceVsync = eventNanos - mLastVsyncNanos;
+            final long frames = sinceVsync >= 0 ? sinceVsync / intervalNanos + 1 : 1;
+            lead = (mLastVsyncNanos + frames * intervalNanos - eventNanos) / 1e6f;
+        }
+        return Math.min(lead, MAX_PREDICTION_MS);
+    }
+
+    private void addSample(float y, long time) {
+        mSampleY[mSampleHead] = y;
+        mSampleTime[mSampleHead] = time;
+        mSampleHead = (mSampleHead + 1) % SAMPLE_COUNT;
+        if (mSampleCount < SAMPLE_COUNT) {
+            mSampleCount++;
+        }
+    }
+
+    /**
+     * Returns the finger velocity in px/ms over the recent samples.
+     */
+    private float getSampleVelocity() {
+        if (mSampleCount < 2) {
+            return 0;
+        }
+        final int newest = (mSampleHead + SAMPLE_COUNT - 1) % SAMPLE_COUNT;
+        int oldest = newest;
+        for (int i = 1; i < mSampleCount; i++) {
+            final int index = (newest - i + SAMPLE_COUNT) % SAMPLE_COUNT;
+            if (mSampleTime[newest] - mSampleTime[index] > SAMPLE_WINDOW_MS) {
+                break;
+            }
+            oldest = index;
+        }
+        final long dt = mSampleTime[newest] - mSampleTime[oldest];
+        return dt > 0 ? (mSampleY[newest] - mSampleY[oldest]) / dt : 0;
+    }
+
     int setHeaderTopBottomOffset(CoordinatorLayout parent, V header, int newOffset) {
         return setHeaderTopBottomOffset(parent, header, newOffset,
                 Integer.MIN_VALUE, Integer.MAX_VALUE);
@@ -235,38 +411,11 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
                 getTopBottomOffsetForScrollingSibling() - dy, minOffset, maxOffset);
     }
 
-    final boolean fling(CoordinatorLayout coordinatorLayout, V layout, int minOffset,
-                        int maxOffset, float velocityY) {
-        if (mFlingRunnable != null) {
-            layout.removeCallbacks(mFlingRunnable);
-            mFlingRunnable = null;
-        }
-
-        if (mScroller == null) {
-            mScroller = new OverScroller(layout.getContext());
-        }
-
-        mScroller.fling(
-                0, getTopAndBottomOffset(), // curr
-                0, Math.round(velocityY), // velocity.
-                0, 0, // x
-                minOffset, maxOffset); // y
-
-        if (mScroller.computeScrollOffset()) {
-            mFlingRunnable = new FlingRunnable(coordinatorLayout, layout);
-            ViewCompat.postOnAnimation(layout, mFlingRunnable);
-            return true;
-        } else {
-            onFlingFinished(coordinatorLayout, layout);
-            return false;
-        }
-    }
-
     /**
-     * Called when a fling has finished, or the fling was initiated but there wasn't enough
-     * velocity to start it.
+     * Called when a drag ends, after {@link #flingWithNestedDispatch} if the release was fast
+     * enough to fling.
      */
-    void onFlingFinished(CoordinatorLayout parent, V layout) {
+    void onDragReleased(CoordinatorLayout parent, V child) {
         // no-op
     }
 
@@ -296,27 +445,4 @@ public abstract class HeaderBehavior<V extends View> extends ViewOffsetBehavior<
             mVelocityTracker = VelocityTracker.obtain();
         }
     }
-
-    private class FlingRunnable implements Runnable {
-        private final CoordinatorLayout mParent;
-        private final V mLayout;
-
-        FlingRunnable(CoordinatorLayout parent, V layout) {
-            mParent = parent;
-            mLayout = layout;
-        }
-
-        @Override
-        public void run() {
-            if (mLayout != null && mScroller != null) {
-                if (mScroller.computeScrollOffset()) {
-                    setHeaderTopBottomOffset(mParent, mLayout, mScroller.getCurrY());
-                    // Post ourselves so that we run on the next animation
-                    ViewCompat.postOnAnimation(mLayout, this);
-                } else {
-                    onFlingFinished(mParent, mLayout);
-                }
-            }
-        }
-    }
 }
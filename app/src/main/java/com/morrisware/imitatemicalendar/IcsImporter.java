@@ -0,0 +1,241 @@
+package com.morrisware.imitatemicalendar;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 在后台线程导入 .ics 文件: {@link IcsParser} 逐个读出日程, 每 {@link #DEFAULT_BATCH_SIZE}
+ * 个在一个事务里写入 {@link EventStore}, 提交后通知界面刷新受影响的日期.
+ * 导入过程中内存只保留一批日程, 可以随时取消, 已经提交的批次保留.
+ * <p>
+ * 重复日程和同一批的单次日程在同一个事务里写入数据库, 提交成功后才交给 {@link RecurrenceExpander},
+ * 取消或出错时没有提交的重复日程不会出现在界面上.
+ **/
+public final class IcsImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final Executor BACKGROUND = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    final Thread thread = new Thread(r, "ics-import");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    /**
+     * Called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param totalBytes size of the input, or -1 if unknown
+         */
+        void onProgress(long bytesRead, long totalBytes, int eventCount);
+
+        /**
+         * Called once a batch is in the store, with the days its events cover.
+         */
+        void onBatchCommitted(int firstJulianDay, int lastJulianDay);
+
+        /**
+         * @param error the failure that stopped the import, null if it ran to the end or
+         *              was cancelled
+         */
+        void onFinished(int eventCount, boolean cancelled, @Nullable IOException error);
+    }
+
+    private final EventStore mStore;
+    private final EventIntervalIndex mIndex;
+    private final RecurrenceExpander mExpander;
+    private final Listener mListener;
+    private final Executor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final int mBatchSize;
+
+    // The days the index was loaded with, events outside it are only stored
+    private int mIndexFirstDay = Integer.MIN_VALUE;
+    private int mIndexLastDay = Integer.MAX_VALUE;
+
+    private volatile boolean mCancelled;
+
+    /**
+     * @param index    kept in step with the store if not null
+     * @param expander receives the recurring events, they are imported as single events if null
+     */
+    public IcsImporter(@NonNull EventStore store, @Nullable EventIntervalIndex index,
+                       @Nullable RecurrenceExpander expander, @NonNull Listener listener) {
+        this(store, index, expander, listener, BACKGROUND, DEFAULT_BATCH_SIZE);
+    }
+
+    IcsImporter(EventStore store, EventIntervalIndex index, RecurrenceExpander expander,
+                Listener listener, Executor executor, int batchSize) {
+        mStore = store;
+        mIndex = index;
+        mExpander = expander;
+        mListener = listener;
+        mExecutor = executor;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Adds only the events overlapping {@code [firstJulianDay, lastJulianDay]} to the index,
+     * the window it was loaded with, so importing years of history doesn't grow the heap.
+     */
+    @MainThread
+    public void setIndexWindow(int firstJulianDay, int lastJulianDay) {
+        mIndexFirstDay = firstJulianDay;
+        mIndexLastDay = lastJulianDay;
+    }
+
+    /**
+     * Starts importing {@code channel}, which is closed when done.
+     *
+     * @param totalBytes size of the input for progress, -1 if unknown
+     */
+    @MainThread
+    public void start(final ReadableByteChannel channel, final long totalBytes) {
+        mCancelled = false;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                importAll(channel, totalBytes);
+            }
+        });
+    }
+
+    /**
+     * Stops the import after the batch being written, the events read since are dropped.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    @WorkerThread
+    private void importAll(ReadableByteChannel channel, final long totalBytes) {
+        final IcsParser parser = new IcsParser(channel, TimeZone.getDefault());
+        final List<CalendarEvent> batch = new ArrayList<>(mBatchSize);
+        // By id, a later override of the same series replaces it with one more exception
+        final Map<Long, EventSeries> seriesBatch = new LinkedHashMap<>();
+        int count = 0;
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        IOException error = null;
+        try {
+            IcsEvent next;
+            while (!mCancelled && (next = parser.next()) != null) {
+                if (next.series != null && mExpander != null) {
+                    // Reimporting may move a series, the days it left need redrawing too
+                    final EventSeries old = mExpander.getSeries(next.series.id);
+                    if (old != null) {
+                        final int oldLast = old.rule.lastOccurrence(old.first.startDay);
+                        firstDay = Math.min(firstDay, old.first.startDay);
+                        lastDay = oldLast == RecurrenceRule.NONE ? Integer.MAX_VALUE
+                                : Math.max(lastDay, oldLast + old.getSpanDays());
+                    }
+                    seriesBatch.put(next.series.id, next.series);
+                    final int seriesLast = next.series.rule.lastOccurrence(next.event.startDay);
+                    firstDay = Math.min(firstDay, next.event.startDay);
+                    lastDay = seriesLast == RecurrenceRule.NONE ? Integer.MAX_VALUE
+                            : Math.max(lastDay, seriesLast + next.series.getSpanDays());
+                } else {
+                    batch.add(next.event);
+                    firstDay = Math.min(firstDay, next.event.startDay);
+                    lastDay = Math.max(lastDay, next.event.getLastDay());
+                    // A series read before its override still shows the replaced occurrence
+                    if (next.isOverride() && mExpander != null) {
+                        EventSeries master = seriesBatch.get(next.masterSeriesId);
+                        if (master == null) {
+                            master = mExpander.getSeries(next.masterSeriesId);
+                        }
+                        if (master != null) {
+                            seriesBatch.put(master.id, master.withException(next.recurrenceDay));
+                            firstDay = Math.min(firstDay, next.recurrenceDay);
+                            lastDay = Math.max(lastDay, next.recurrenceDay + master.getSpanDays());
+                        }
+                    }
+                }
+                count++;
+                if (batch.size() + seriesBatch.size() >= mBatchSize) {
+                    commit(batch, seriesBatch, firstDay, lastDay, parser.getBytesRead(),
+                            totalBytes, count);
+                    firstDay = Integer.MAX_VALUE;
+                    lastDay = Integer.MIN_VALUE;
+                }
+            }
+            if (!mCancelled && firstDay <= lastDay) {
+                commit(batch, seriesBatch, firstDay, lastDay, parser.getBytesRead(),
+                        totalBytes, count);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try {
+                parser.close();
+            } catch (IOException ignored) {
+            }
+        }
+        final int eventCount = count;
+        final boolean cancelled = mCancelled;
+        final IOException failure = error;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onFinished(eventCount, cancelled, failure);
+            }
+        });
+    }
+
+    /**
+     * Writes the batch, then shows it: the index and the expander only get what is stored.
+     */
+    private void commit(List<CalendarEvent> batch, Map<Long, EventSeries> seriesBatch,
+                        final int firstDay, final int lastDay,
+                        final long bytesRead, final long totalBytes, final int count) {
+        if (!batch.isEmpty() || !seriesBatch.isEmpty()) {
+            mStore.insertAll(batch, new ArrayList<>(seriesBatch.values()));
+            if (mIndex != null) {
+                for (CalendarEvent event : batch) {
+                    if (event.startDay <= mIndexLastDay && event.getLastDay() >= mIndexFirstDay) {
+                        mIndex.insert(event);
+                    } else {
+                        // A reimported event may have moved out of the window
+                        mIndex.delete(event.id);
+                    }
+                }
+            }
+            if (mExpander != null) {
+                for (EventSeries series : seriesBatch.values()) {
+                    mExpander.putSeries(series);
+                }
+            }
+            batch.clear();
+            seriesBatch.clear();
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onBatchCommitted(firstDay, lastDay);
+                mListener.onProgress(bytesRead, totalBytes, count);
+            }
+        });
+    }
+}
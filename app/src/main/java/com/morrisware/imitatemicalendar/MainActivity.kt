@@ -1,12 +1,229 @@
 package com.morrisware.imitatemicalendar
 
+import android.content.Intent
 import android.os.Bundle
+import android.view.Menu
+import android.view.MenuItem
+import android.view.View
+import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import java.io.FileInputStream
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.util.Locale
 
 class MainActivity : AppCompatActivity() {
 
+    private lateinit var eventStore: EventStore
+    private lateinit var eventIndex: EventIntervalIndex
+    // The days loaded into the index and the density, imports only add events inside them
+    private var windowFirstDay = 0
+    private var windowLastDay = 0
+    private lateinit var recurrences: RecurrenceExpander
+    private lateinit var calendarView: CalendarView
+    private lateinit var yearView: YearView
+    private lateinit var agendaAdapter: AgendaAdapter
+    private var importer: IcsImporter? = null
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_main)
+
+        eventStore = EventStore.getInstance(this)
+        val store = eventStore
+        // Recurring events are expanded only for the days actually shown
+        val recurrences = RecurrenceExpander()
+        this.recurrences = recurrences
+        for (series in SampleEvents.series(JulianDay.today())) {
+            recurrences.putSeries(series)
+        }
+        val adapter = AgendaAdapter(this, AgendaSource { julianDay ->
+            val events = ArrayList(store.loadDay(julianDay))
+            recurrences.expand(julianDay, julianDay, events)
+            events.sortedWith(compareBy({ it.startDay }, { it.startMinute }))
+        })
+        val agenda = findViewById<RecyclerView>(R.id.agenda)
+        agenda.layoutManager = LinearLayoutManager(this)
+        agenda.adapter = adapter
+        agendaAdapter = adapter
+
+        val calendarView = findViewById<CalendarView>(R.id.appbar)
+        this.calendarView = calendarView
+        val yearView = findViewById<YearView>(R.id.year)
+        this.yearView = yearView
+        yearView.setOnMonthClickListener { _, year, month ->
+            calendarView.setMonth(year, month)
+        }
+        val index = EventIntervalIndex()
+        index.setRecurrenceExpander(recurrences)
+        eventIndex = index
+        val today = JulianDay.today()
+        val first = today - EVENT_WINDOW_DAYS
+        val last = today + EVENT_WINDOW_DAYS
+        windowFirstDay = first
+        windowLastDay = last
+        Thread {
+            if (store.isEmpty) {
+                // Demo data around today, written once on first launch
+                store.insertAll(SampleEvents.between(today - 180, today + 180))
+            }
+            if (isDestroyed) {
+                // Nothing left to show the rest to
+                return@Thread
+            }
+            // Series imported earlier, before anything is expanded
+            for (series in store.loadSeries()) {
+                recurrences.putSeries(series)
+            }
+            // Heatmap levels per day, the index and the expander keep them in step with
+            // their events
+            val density = EventDensity(first, last)
+            recurrences.setDensity(density)
+            index.setDensity(density)
+            // Markers and multi-day bars come from an in-memory index of the loaded window
+            index.insertAll(store.queryRange(first, last))
+            val decorator = MonthModel.combine(MonthModel.combine(index, density), loadHolidays())
+            runOnUiThread {
+                if (!isDestroyed) {
+                    // Shared, so a month opened from the year view reuses the tile's model
+                    val cache = MonthModelCache(MODEL_CACHE_CAPACITY,
+                            calendarView.monthModelCache.firstDayOfWeek, decorator)
+                    calendarView.setMonthModelCache(cache)
+                    yearView.setMonthModelCache(cache)
+                    calendarView.setOnDateSelectedListener { _, julianDay ->
+                        adapter.showDay(julianDay)
+                    }
+                    if (savedInstanceState == null) {
+                        importIcs(intent)
+                    }
+                }
+            }
+        }.start()
+    }
+
+    /**
+     * Maps the holiday asset and returns the calendar of the device's region. Only the header
+     * is read here, the pages of other regions and years are never touched.
+     */
+    private fun loadHolidays(): HolidayCalendar? {
+        return try {
+            val fd = assets.openFd(HOLIDAY_ASSET)
+            try {
+                // The mapping outlives the descriptor, closing it below is fine
+                val channel = FileInputStream(fd.fileDescriptor).channel
+                val data = HolidayData(channel.map(FileChannel.MapMode.READ_ONLY, fd.startOffset, fd.length))
+                data.getCalendar(Locale.getDefault().country) ?: data.getCalendar(DEFAULT_REGION)
+            } finally {
+                fd.close()
+            }
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    override fun onNewIntent(intent: Intent) {
+        super.onNewIntent(intent)
+        importIcs(intent)
+    }
+
+    /**
+     * Imports the .ics file the activity was opened with, the calendar fills in batch by batch.
+     */
+    private fun importIcs(intent: Intent) {
+        val uri = intent.data
+        if (intent.action != Intent.ACTION_VIEW || uri == null) {
+            return
+        }
+        val descriptor = try {
+            contentResolver.openFileDescriptor(uri, "r")
+        } catch (e: IOException) {
+            null
+        }
+        if (descriptor == null) {
+            Toast.makeText(this, R.string.import_failed, Toast.LENGTH_SHORT).show()
+            return
+        }
+        val stream = FileInputStream(descriptor.fileDescriptor)
+        importer?.cancel()
+        val defaultTitle = title
+        val listener = object : IcsImporter.Listener {
+            override fun onProgress(bytesRead: Long, totalBytes: Long, eventCount: Int) {
+                title = if (totalBytes > 0) {
+                    getString(R.string.import_progress, (100 * bytesRead / totalBytes).toInt())
+                } else {
+                    getString(R.string.import_count, eventCount)
+                }
+            }
+
+            override fun onBatchCommitted(firstJulianDay: Int, lastJulianDay: Int) {
+                if (isDestroyed) {
+                    return
+                }
+                calendarView.notifyEventsChanged(firstJulianDay, lastJulianDay)
+                yearView.notifyEventsChanged(firstJulianDay, lastJulianDay)
+                val selected = calendarView.selectedJulianDay
+                if (selected in firstJulianDay..lastJulianDay) {
+                    agendaAdapter.showDay(selected)
+                }
+            }
+
+            override fun onFinished(eventCount: Int, cancelled: Boolean, error: IOException?) {
+                descriptor.close()
+                if (isDestroyed) {
+                    return
+                }
+                title = defaultTitle
+                if (error != null) {
+                    Toast.makeText(this@MainActivity, R.string.import_failed, Toast.LENGTH_SHORT).show()
+                } else if (!cancelled) {
+                    Toast.makeText(this@MainActivity,
+                            getString(R.string.import_done, eventCount), Toast.LENGTH_SHORT).show()
+                }
+            }
+        }
+        importer = IcsImporter(eventStore, eventIndex, recurrences, listener).also {
+            it.setIndexWindow(windowFirstDay, windowLastDay)
+            it.start(stream.channel, descriptor.statSize)
+        }
+    }
+
+    override fun onCreateOptionsMenu(menu: Menu): Boolean {
+        menu.add(Menu.NONE, R.id.year, Menu.NONE, R.string.year_view)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM)
+        return true
+    }
+
+    override fun onOptionsItemSelected(item: MenuItem): Boolean {
+        if (item.itemId == R.id.year) {
+            if (yearView.visibility != View.VISIBLE) {
+                yearView.zoomOut(calendarView.year, calendarView.month)
+            }
+            return true
+        }
+        return super.onOptionsItemSelected(item)
+    }
+
+    override fun onBackPressed() {
+        if (yearView.visibility == View.VISIBLE) {
+            yearView.zoomIn(calendarView.year, calendarView.month)
+            return
+        }
+        super.onBackPressed()
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        // The store is shared by the process and stays open for the writes still in flight
+        importer?.cancel()
+    }
+
+    companion object {
+        private const val EVENT_WINDOW_DAYS = 366
+        // A few years of months, the year view renders its tiles from the same cache
+        private const val MODEL_CACHE_CAPACITY = 48
+        private const val HOLIDAY_ASSET = "holidays.bin"
+        private const val DEFAULT_REGION = "CN"
     }
 }
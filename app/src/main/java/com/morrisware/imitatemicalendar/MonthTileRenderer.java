@@ -0,0 +1,457 @@
+package com.morrisware.imitatemicalendar;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 年视图的小月份图块. 每个月从 {@link MonthModelCache} 取模型, 在后台线程画进一张图块 Bitmap;
+ * Bitmap 数量有上限, 超出时复用最久没用、且不在请求范围内的图块, 滑动时不分配也不在主线程绘制.
+ * 请求范围内先画可见的月份, 再由近到远画前后预留的月份.
+ **/
+final class MonthTileRenderer {
+
+    /**
+     * Called on the main thread when tiles were rendered.
+     */
+    interface Callback {
+        void onTilesRendered();
+    }
+
+    private static final Executor BACKGROUND = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    final Thread thread = new Thread(r, "MonthTileRenderer");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private static final int NO_KEY = Integer.MIN_VALUE;
+
+    private static final int COLOR_ACCENT = 0xff3f82fd;
+    private static final int COLOR_WEEKEND = 0xffe55c5c;
+    private static final String[] MONTH_TITLES = {
+            "1月", "2月", "3月", "4月", "5月", "6月", "7月", "8月", "9月", "10月", "11月", "12月"
+    };
+
+    private final Executor mWorkerExecutor;
+    private final Executor mMainExecutor;
+    private final Callback mCallback;
+    private final float mDensity;
+
+    private final Object mLock = new Object();
+    private MonthModelCache mModelCache;
+    private int[] mKeys = new int[0];
+    private MonthModel[] mModels = new MonthModel[0];
+    private Bitmap[] mBitmaps = new Bitmap[0];
+    private long[] mLastAccess = new long[0];
+    private long mAccessClock;
+    private int mTileWidth;
+    private int mTileHeight;
+    // Bumped whenever tiles are dropped, a render started before is thrown away
+    private int mGeneration;
+    private int mFirstVisibleKey = NO_KEY;
+    private int mLastVisibleKey = NO_KEY;
+    private int mMargin;
+    private boolean mWorkerScheduled;
+    private boolean mCallbackPosted;
+    private int mRenderCount;
+
+    // Touched only by the worker
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mTitlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mTodayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDensityPaint = new Paint();
+    private final float[] mDayWidths = new float[32];
+    private float mDayBaseline;
+    private int mPaintTileWidth;
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            renderPending();
+        }
+    };
+
+    private final Runnable mDispatchCallback = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                mCallbackPosted = false;
+            }
+            mCallback.onTilesRendered();
+        }
+    };
+
+    MonthTileRenderer(float density, Callback callback) {
+        this(density, callback, BACKGROUND, new Executor() {
+            private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mHandler.post(command);
+            }
+        });
+    }
+
+    MonthTileRenderer(float density, Callback callback, Executor workerExecutor, Executor mainExecutor) {
+        mDensity = density;
+        mCallback = callback;
+        mWorkerExecutor = workerExecutor;
+        mMainExecutor = mainExecutor;
+        mTitlePaint.setFakeBoldText(true);
+        mTodayPaint.setColor(COLOR_ACCENT);
+    }
+
+    /**
+     * Sets where the models come from, sharing the month view's cache lets it reuse them.
+     */
+    @MainThread
+    void setMonthModelCache(MonthModelCache cache) {
+        synchronized (mLock) {
+            mModelCache = cache;
+            dropTilesLocked();
+        }
+    }
+
+    /**
+     * Sets the tile size and how many tiles to keep. Drops all tiles if either changed.
+     */
+    @MainThread
+    void setTileSize(int width, int height, int capacity) {
+        synchronized (mLock) {
+            if (width == mTileWidth && height == mTileHeight && capacity == mKeys.length) {
+                return;
+            }
+            mTileWidth = width;
+            mTileHeight = height;
+            mKeys = new int[capacity];
+            mModels = new MonthModel[capacity];
+            mBitmaps = new Bitmap[capacity];
+            mLastAccess = new long[capacity];
+            dropTilesLocked();
+        }
+    }
+
+    /**
+     * Asks for the tiles of months {@code [firstVisibleKey, lastVisibleKey]} and
+     * {@code margin} months on either side, see {@link MonthModel#key(int, int)}.
+     * Tiles outside the range may be reused for these.
+     */
+    @MainThread
+    void request(int firstVisibleKey, int lastVisibleKey, int margin) {
+        synchronized (mLock) {
+            if (firstVisibleKey == mFirstVisibleKey && lastVisibleKey == mLastVisibleKey
+                    && margin == mMargin) {
+                return;
+            }
+            mFirstVisibleKey = firstVisibleKey;
+            mLastVisibleKey = lastVisibleKey;
+            mMargin = margin;
+            scheduleLocked();
+        }
+    }
+
+    /**
+     * Returns the rendered tile of a month, or null if it isn't ready yet.
+     */
+    @MainThread
+    Bitmap getTile(int key) {
+        synchronized (mLock) {
+            final int index = indexOfKey(key);
+            if (index < 0) {
+                return null;
+            }
+            mLastAccess[index] = ++mAccessClock;
+            return mBitmaps[index];
+        }
+    }
+
+    /**
+     * Returns the model a tile was rendered from, or null if the month has no tile.
+     */
+    MonthModel getModel(int key) {
+        synchronized (mLock) {
+            final int index = indexOfKey(key);
+            return index >= 0 ? mModels[index] : null;
+        }
+    }
+
+    /**
+     * Drops the tiles whose grid shows any of the days {@code [firstJulianDay, lastJulianDay]},
+     * call after invalidating the same range of the model cache.
+     */
+    void invalidateRange(int firstJulianDay, int lastJulianDay) {
+        synchronized (mLock) {
+            for (int i = 0; i < mKeys.length; i++) {
+                final MonthModel model = mModels[i];
+                if (model == null) {
+                    continue;
+                }
+                final int gridFirst = model.getFirstJulianDay();
+                final int gridLast = gridFirst + model.getCellCount() - 1;
+                if (gridFirst <= lastJulianDay && gridLast >= firstJulianDay) {
+                    mKeys[i] = NO_KEY;
+                    mModels[i] = null;
+                }
+            }
+            mGeneration++;
+            scheduleLocked();
+        }
+    }
+
+    /**
+     * Drops all tiles but keeps their bitmaps for the re-render, e.g. when the date changed.
+     */
+    @MainThread
+    void invalidateAll() {
+        synchronized (mLock) {
+            dropTilesLocked();
+        }
+    }
+
+    /**
+     * Drops all tiles and their bitmaps, e.g. when the year view is detached.
+     */
+    void release() {
+        synchronized (mLock) {
+            for (int i = 0; i < mKeys.length; i++) {
+                mBitmaps[i] = null;
+            }
+            dropTilesLocked();
+            mFirstVisibleKey = NO_KEY;
+            mLastVisibleKey = NO_KEY;
+        }
+    }
+
+    /**
+     * Returns the number of bitmaps allocated, at most the capacity.
+     */
+    int getBitmapCount() {
+        synchronized (mLock) {
+            int count = 0;
+            for (Bitmap bitmap : mBitmaps) {
+                if (bitmap != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Returns how many tiles were rendered so far, for tests.
+     */
+    int getRenderCount() {
+        synchronized (mLock) {
+            return mRenderCount;
+        }
+    }
+
+    private void dropTilesLocked() {
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = NO_KEY;
+            mModels[i] = null;
+            mLastAccess[i] = 0;
+        }
+        mGeneration++;
+        scheduleLocked();
+    }
+
+    private void scheduleLocked() {
+        if (!mWorkerScheduled && mFirstVisibleKey != NO_KEY && mModelCache != null
+                && mKeys.length > 0) {
+            mWorkerScheduled = true;
+            mWorkerExecutor.execute(mWorker);
+        }
+    }
+
+    @WorkerThread
+    private void renderPending() {
+        while (true) {
+            final int key;
+            final int slot;
+            final int generation;
+            final MonthModelCache cache;
+            Bitmap bitmap;
+            synchronized (mLock) {
+                key = nextMissingKeyLocked();
+                slot = key != NO_KEY ? freeSlotLocked() : -1;
+                if (slot < 0) {
+                    mWorkerScheduled = false;
+                    return;
+                }
+                // The slot stays empty while it is drawn into, so it is never on screen
+                mKeys[slot] = NO_KEY;
+                mModels[slot] = null;
+                bitmap = mBitmaps[slot];
+                if (bitmap == null || bitmap.getWidth() != mTileWidth
+                        || bitmap.getHeight() != mTileHeight) {
+                    bitmap = Bitmap.createBitmap(mTileWidth, mTileHeight, Bitmap.Config.RGB_565);
+                    mBitmaps[slot] = bitmap;
+                }
+                generation = mGeneration;
+                cache = mModelCache;
+            }
+
+            final MonthModel model = cache.get(key / 12, key % 12 + 1);
+            render(model, bitmap);
+
+            synchronized (mLock) {
+                if (generation == mGeneration && slot < mBitmaps.length && mBitmaps[slot] == bitmap) {
+                    mKeys[slot] = key;
+                    mModels[slot] = model;
+                    mLastAccess[slot] = ++mAccessClock;
+                    mRenderCount++;
+                    if (!mCallbackPosted) {
+                        mCallbackPosted = true;
+                        mMainExecutor.execute(mDispatchCallback);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the first month without a tile: visible months top down, then the margin
+     * nearest first. {@link #NO_KEY} if all have one.
+     */
+    private int nextMissingKeyLocked() {
+        if (mFirstVisibleKey == NO_KEY) {
+            return NO_KEY;
+        }
+        for (int key = mFirstVisibleKey; key <= mLastVisibleKey; key++) {
+            if (indexOfKey(key) < 0) {
+                return key;
+            }
+        }
+        for (int distance = 1; distance <= mMargin; distance++) {
+            if (indexOfKey(mLastVisibleKey + distance) < 0) {
+                return mLastVisibleKey + distance;
+            }
+            if (mFirstVisibleKey - distance >= 0 && indexOfKey(mFirstVisibleKey - distance) < 0) {
+                return mFirstVisibleKey - distance;
+            }
+        }
+        return NO_KEY;
+    }
+
+    /**
+     * Returns an empty slot or the least recently drawn one outside the requested range,
+     * or -1 if every tile is still wanted.
+     */
+    private int freeSlotLocked() {
+        final int first = mFirstVisibleKey - mMargin;
+        final int last = mLastVisibleKey + mMargin;
+        int slot = -1;
+        for (int i = 0; i < mKeys.length; i++) {
+            final int key = mKeys[i];
+            if (key == NO_KEY) {
+                return i;
+            }
+            if ((key < first || key > last) && (slot < 0 || mLastAccess[i] < mLastAccess[slot])) {
+                slot = i;
+            }
+        }
+        return slot;
+    }
+
+    private int indexOfKey(int key) {
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @WorkerThread
+    private void render(MonthModel model, Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (width != mPaintTileWidth) {
+            mPaintTileWidth = width;
+            updatePaints(width);
+        }
+        final Canvas canvas = mCanvas;
+        canvas.setBitmap(bitmap);
+        canvas.drawColor(Color.WHITE);
+
+        // Title above a 7 x 6 grid, the same cells as the month view
+        final float padding = mDensity * 4;
+        final float cellWidth = (width - padding * 2) / CalendarView.DAYS_IN_WEEK;
+        final float titleHeight = height - cellWidth * MonthModel.MAX_ROW_COUNT;
+        final boolean currentMonth = isCurrentMonth(model);
+        mTitlePaint.setColor(currentMonth ? COLOR_ACCENT : Color.BLACK);
+        canvas.drawText(MONTH_TITLES[model.getMonth() - 1], padding,
+                titleHeight - mDensity * 6, mTitlePaint);
+
+        final float baseline = mDayBaseline;
+        final char[] dayChars = CellTextCache.getDayChars();
+        final int first = model.getFirstDayIndex();
+        final int end = first + model.getDayCount();
+        for (int index = first; index < end; index++) {
+            final int cell = model.getCell(index);
+            final int day = cell & MonthModel.DAY_MASK;
+            final float centerX = padding + cellWidth * (index % CalendarView.DAYS_IN_WEEK) + cellWidth / 2;
+            final float centerY = titleHeight + cellWidth * (index / CalendarView.DAYS_IN_WEEK) + cellWidth / 2;
+            final int density = MonthModel.densityLevel(cell);
+            if (density != 0) {
+                final float half = cellWidth / 2 - mDensity;
+                mDensityPaint.setColor(CalendarView.DENSITY_COLORS[density]);
+                canvas.drawRect(centerX - half, centerY - half, centerX + half, centerY + half,
+                        mDensityPaint);
+            }
+            if ((cell & MonthModel.FLAG_TODAY) != 0) {
+                canvas.drawCircle(centerX, centerY, cellWidth * 0.45f, mTodayPaint);
+                mDayPaint.setColor(Color.WHITE);
+            } else if ((cell & MonthModel.FLAG_WORKDAY) == 0
+                    && (cell & (MonthModel.FLAG_WEEKEND | MonthModel.FLAG_HOLIDAY)) != 0) {
+                mDayPaint.setColor(COLOR_WEEKEND);
+            } else {
+                mDayPaint.setColor(Color.BLACK);
+            }
+            canvas.drawText(dayChars, CellTextCache.getDayStart(day), CellTextCache.getDayLength(day),
+                    centerX - mDayWidths[day] / 2, centerY + baseline, mDayPaint);
+        }
+        canvas.setBitmap(null);
+    }
+
+    private void updatePaints(int width) {
+        final float cellWidth = (width - mDensity * 8) / CalendarView.DAYS_IN_WEEK;
+        mDayPaint.setTextSize(cellWidth * 0.5f);
+        mTitlePaint.setTextSize(cellWidth * 0.9f);
+        final Paint.FontMetrics fm = mDayPaint.getFontMetrics();
+        mDayBaseline = -(fm.ascent + fm.descent) / 2;
+        final char[] dayChars = CellTextCache.getDayChars();
+        for (int day = 1; day < mDayWidths.length; day++) {
+            mDayWidths[day] = mDayPaint.measureText(dayChars, CellTextCache.getDayStart(day),
+                    CellTextCache.getDayLength(day));
+        }
+    }
+
+    private static boolean isCurrentMonth(MonthModel model) {
+        final int first = model.getFirstDayIndex();
+        for (int index = first; index < first + model.getDayCount(); index++) {
+            if ((model.getCell(index) & MonthModel.FLAG_TODAY) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,78 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 演示用的日程, 每天的内容由日期决定. 每个月 15 号有几百条, 用来检查长列表.
+ **/
+public final class SampleEvents {
+
+    private static final String[] TITLES = {
+            "Stand-up", "Design review", "Lunch", "Gym", "1:1", "Dentist", "Flight", "Reading",
+    };
+
+    private static final int FRIDAY = 5;
+
+    private SampleEvents() {
+    }
+
+    /**
+     * Returns the sample events of {@code julianDay}, sorted by start.
+     */
+    public static List<CalendarEvent> forDay(int julianDay) {
+        final List<CalendarEvent> events = new ArrayList<>();
+        addDay(events, julianDay);
+        return events;
+    }
+
+    /**
+     * Returns the sample events of the days {@code [firstDay, lastDay]}.
+     */
+    public static List<CalendarEvent> between(int firstDay, int lastDay) {
+        final List<CalendarEvent> events = new ArrayList<>();
+        for (int day = firstDay; day <= lastDay; day++) {
+            addDay(events, day);
+        }
+        return events;
+    }
+
+    /**
+     * Returns a few recurring series starting around {@code julianDay}.
+     */
+    public static List<EventSeries> series(int julianDay) {
+        final List<EventSeries> series = new ArrayList<>();
+        final int monday = JulianDay.weekStart(julianDay, JulianDay.MONDAY);
+        series.add(new EventSeries(1, new CalendarEvent(0, "Sprint planning", monday, 10 * 60,
+                monday, 11 * 60, false), RecurrenceRule.weekly(2, 1 << JulianDay.MONDAY),
+                new int[]{monday + 28}));
+        series.add(new EventSeries(2, new CalendarEvent(0, "Team sync", monday + 1, 15 * 60,
+                monday + 1, 15 * 60 + 30, false),
+                // Tuesdays and Thursdays
+                RecurrenceRule.weekly(1, 1 << 2 | 1 << 4)));
+        final int packed = JulianDay.toPacked(julianDay);
+        final int firstOfMonth = JulianDay.fromDate(JulianDay.year(packed), JulianDay.month(packed), 1);
+        series.add(new EventSeries(3, new CalendarEvent(0, "Rent", firstOfMonth, 0,
+                firstOfMonth + 1, 0, true), RecurrenceRule.monthly(1)));
+        series.add(new EventSeries(4, new CalendarEvent(0, "Conference", monday + 9, 0,
+                monday + 12, 0, true), RecurrenceRule.monthly(3).withCount(8)));
+        return series;
+    }
+
+    private static void addDay(List<CalendarEvent> out, int julianDay) {
+        final int dayOfMonth = JulianDay.dayOfMonth(julianDay);
+        final int count = dayOfMonth == 15 ? 480 : (julianDay * 7 + 3) % 6;
+        for (int i = 0; i < count; i++) {
+            // Half-hour events spread over the day, sorted and never crossing midnight
+            final int start = i * (CalendarEvent.MINUTES_PER_DAY - 30) / count;
+            final long id = (long) julianDay * 1000 + i;
+            final String title = TITLES[(julianDay + i) % TITLES.length] + " #" + (i + 1);
+            out.add(new CalendarEvent(id, title, julianDay, start, julianDay, start + 30, false));
+        }
+        if (JulianDay.dayOfWeek(julianDay) == FRIDAY && julianDay % 3 == 0) {
+            // A weekend trip, all day from Friday to Sunday
+            out.add(new CalendarEvent((long) julianDay * 1000 + 999, "Trip", julianDay, 0,
+                    julianDay + 3, 0, true));
+        }
+    }
+}
@@ -33,25 +33,27 @@ public class ViewOffsetHelper {
     }
 
     private void updateOffsets() {
+        final int oldLeft = mView.getLeft();
+        final int oldTop = mView.getTop();
+        final int oldRight = mView.getRight();
+        final int oldBottom = mView.getBottom();
+
         ViewCompat.offsetTopAndBottom(mView, mOffsetTop - (mView.getTop() - mLayoutTop));
         ViewCompat.offsetLeftAndRight(mView, mOffsetLeft - (mView.getLeft() - mLayoutLeft));
 
-        // Manually invalidate the view and parent to make sure we get drawn pre-M
+        // Pre-M the offset doesn't always get the parent redrawn. The view's own pixels
+        // don't change, so only the area it moved across needs invalidating.
         if (Build.VERSION.SDK_INT < 23) {
-            tickleInvalidationFlag(mView);
             final ViewParent vp = mView.getParent();
-            if (vp instanceof View) {
-                tickleInvalidationFlag((View) vp);
+            if (vp instanceof View && (oldLeft != mView.getLeft() || oldTop != mView.getTop())) {
+                ((View) vp).invalidate(Math.min(oldLeft, mView.getLeft()),
+                        Math.min(oldTop, mView.getTop()),
+                        Math.max(oldRight, mView.getRight()),
+                        Math.max(oldBottom, mView.getBottom()));
             }
         }
     }
 
-    private static void tickleInvalidationFlag(View view) {
-        final float y = ViewCompat.getTranslationY(view);
-        ViewCompat.setTranslationY(view, y + 1);
-        ViewCompat.setTranslationY(view, y);
-    }
-
     /**
      * Set the top and bottom offset for this {@link ViewOffsetHelper}'s view.
      *
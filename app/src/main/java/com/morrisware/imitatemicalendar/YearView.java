@@ -0,0 +1,431 @@
+package com.morrisware.imitatemicalendar;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.OverScroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.math.MathUtils;
+import androidx.core.view.ViewCompat;
+
+/**
+ * 年视图: 每年一块, 三列四行的小月份, 纵向滑动浏览多年. 小月份由 {@link MonthTileRenderer}
+ * 在后台线程画成图块, {@link #onDraw(Canvas)} 只贴已经画好的图块, 快速滑过几十年也不会在主线程画日期.
+ * 与月视图共用 {@link MonthModelCache}, 点开某个月时把图块的模型交给缓存, 月视图不必重新构建.
+ **/
+public class YearView extends View {
+
+    public interface OnMonthClickListener {
+        /**
+         * Called when a month is tapped, before the view zooms into it.
+         */
+        void onMonthClick(YearView view, int year, int month);
+    }
+
+    /**
+     * The years the lunar tables cover.
+     */
+    public static final int MIN_YEAR = LunarCalendar.MIN_YEAR;
+    public static final int MAX_YEAR = LunarCalendar.MAX_YEAR;
+
+    private static final int MONTHS_IN_YEAR = 12;
+    private static final int COLUMN_COUNT = 3;
+    private static final int ROW_COUNT = MONTHS_IN_YEAR / COLUMN_COUNT;
+    // Months rendered ahead above and below the screen
+    private static final int MARGIN_ROWS = 2;
+    private static final float ZOOM_SCALE = 3f;
+    private static final int ZOOM_DURATION = 250;
+    private static final int COLOR_ACCENT = 0xff3f82fd;
+
+    private final MonthTileRenderer mRenderer;
+    private MonthModelCache mModelCache;
+    private OnMonthClickListener mOnMonthClickListener;
+
+    private final float mPadding;
+    private final float mHeaderHeight;
+    private int mTileWidth;
+    private int mTileHeight;
+    private int mYearHeight;
+    // Year to show once laid out
+    private int mPendingYear;
+
+    private final Paint mYearPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final char[] mYearChars = new char[4];
+    private int mCurrentYear;
+    private final BroadcastReceiver mDateChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            checkToday();
+        }
+    };
+    private int mToday;
+
+    private final OverScroller mScroller;
+    private VelocityTracker mVelocityTracker;
+    private final int mTouchSlop;
+    private final float mMinimumVelocity;
+    private final float mMaximumVelocity;
+    private float mDownX;
+    private float mDownY;
+    private float mLastMotionY;
+    private boolean mIsDragging;
+
+    public YearView(Context context) {
+        this(context, null);
+    }
+
+    public YearView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public YearView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        final float density = context.getResources().getDisplayMetrics().density;
+        mPadding = density * 8;
+        mHeaderHeight = density * 56;
+        mYearPaint.setTextSize(context.getResources().getDisplayMetrics().scaledDensity * 28);
+        mYearPaint.setFakeBoldText(true);
+        final ViewConfiguration configuration = ViewConfiguration.get(context);
+        mTouchSlop = configuration.getScaledTouchSlop();
+        mMinimumVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaximumVelocity = configuration.getScaledMaximumFlingVelocity();
+        mScroller = new OverScroller(context);
+        setBackgroundColor(Color.WHITE);
+
+        mRenderer = new MonthTileRenderer(density, new MonthTileRenderer.Callback() {
+            @Override
+            public void onTilesRendered() {
+                ViewCompat.postInvalidateOnAnimation(YearView.this);
+            }
+        });
+        mToday = JulianDay.today();
+        mCurrentYear = JulianDay.year(JulianDay.toPacked(mToday));
+        mPendingYear = mCurrentYear;
+        setMonthModelCache(new MonthModelCache());
+    }
+
+    /**
+     * Shares the month view's model cache, so zooming into a month reuses the tile's model.
+     */
+    public void setMonthModelCache(@NonNull MonthModelCache cache) {
+        mModelCache = cache;
+        mRenderer.setMonthModelCache(cache);
+        invalidate();
+    }
+
+    public MonthModelCache getMonthModelCache() {
+        return mModelCache;
+    }
+
+    public void setOnMonthClickListener(@Nullable OnMonthClickListener listener) {
+        mOnMonthClickListener = listener;
+    }
+
+    /**
+     * Scrolls so {@code year} is at the top.
+     */
+    public void scrollToYear(int year) {
+        mScroller.abortAnimation();
+        year = MathUtils.clamp(year, MIN_YEAR, MAX_YEAR);
+        if (mYearHeight == 0) {
+            mPendingYear = year;
+            return;
+        }
+        scrollTo(0, clampScroll((year - MIN_YEAR) * mYearHeight));
+    }
+
+    /**
+     * Returns the year at the top of the view.
+     */
+    public int getFirstVisibleYear() {
+        return mYearHeight != 0 ? MIN_YEAR + getScrollY() / mYearHeight : mPendingYear;
+    }
+
+    /**
+     * Redraws the months showing any of the days {@code [firstJulianDay, lastJulianDay]},
+     * call after {@link MonthModelCache#invalidateRange(int, int)}.
+     */
+    public void notifyEventsChanged(int firstJulianDay, int lastJulianDay) {
+        mRenderer.invalidateRange(firstJulianDay, lastJulianDay);
+        invalidate();
+    }
+
+    /**
+     * Shows the view, zooming out of {@code month}'s tile.
+     */
+    public void zoomOut(int year, int month) {
+        scrollToYear(year);
+        animate().cancel();
+        setVisibility(VISIBLE);
+        setPivotToMonth(year, month);
+        setScaleX(ZOOM_SCALE);
+        setScaleY(ZOOM_SCALE);
+        setAlpha(0);
+        animate().scaleX(1).scaleY(1).alpha(1).setDuration(ZOOM_DURATION);
+    }
+
+    /**
+     * Zooms into {@code month}'s tile and hides the view, revealing what is below it.
+     */
+    public void zoomIn(int year, int month) {
+        animate().cancel();
+        setPivotToMonth(year, month);
+        animate().scaleX(ZOOM_SCALE).scaleY(ZOOM_SCALE).alpha(0).setDuration(ZOOM_DURATION)
+                .withEndAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        setVisibility(GONE);
+                        setScaleX(1);
+                        setScaleY(1);
+                        setAlpha(1);
+                    }
+                });
+    }
+
+    private void setPivotToMonth(int year, int month) {
+        if (mYearHeight == 0) {
+            return;
+        }
+        final int index = month - 1;
+        setPivotX(mPadding + mTileWidth * (index % COLUMN_COUNT + 0.5f));
+        setPivotY(getMonthTop(year, month) + mTileHeight / 2f - getScrollY());
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        final int firstYear = getFirstVisibleYear();
+        mTileWidth = (int) ((w - mPadding * 2) / COLUMN_COUNT);
+        // Title row plus six square rows of days
+        mTileHeight = mTileWidth * (MonthModel.MAX_ROW_COUNT + 1) / CalendarView.DAYS_IN_WEEK;
+        mYearHeight = (int) mHeaderHeight + mTileHeight * ROW_COUNT;
+        if (mTileWidth <= 0 || h <= 0) {
+            mYearHeight = 0;
+            return;
+        }
+        // Every row that can be partly on screen, plus the margin rows on both sides
+        final int visibleRows = h / mTileHeight + 2;
+        mRenderer.setTileSize(mTileWidth, mTileHeight, (visibleRows + MARGIN_ROWS * 2) * COLUMN_COUNT);
+        scrollToYear(firstYear);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().registerReceiver(mDateChangedReceiver,
+                CalendarView.createDateChangedFilter());
+        checkToday();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getContext().unregisterReceiver(mDateChangedReceiver);
+        mRenderer.release();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE) {
+            checkToday();
+        }
+    }
+
+    /**
+     * Re-renders every tile if the date changed since they were rendered, so the today
+     * mark and the current year's color move.
+     */
+    private void checkToday() {
+        final int today = JulianDay.today();
+        if (today == mToday) {
+            return;
+        }
+        mToday = today;
+        mCurrentYear = JulianDay.year(JulianDay.toPacked(today));
+        mModelCache.invalidateAll();
+        mRenderer.invalidateAll();
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mYearHeight == 0) {
+            return;
+        }
+        final int top = getScrollY();
+        final int bottom = top + getHeight();
+        mRenderer.request(getKeyAt(top), getKeyAt(bottom) + COLUMN_COUNT - 1, MARGIN_ROWS * COLUMN_COUNT);
+
+        // Composite whatever tiles are ready, the rest appears when rendered
+        for (int year = MIN_YEAR + top / mYearHeight; year <= MAX_YEAR; year++) {
+            final int yearTop = (year - MIN_YEAR) * mYearHeight;
+            if (yearTop >= bottom) {
+                break;
+            }
+            mYearPaint.setColor(year == mCurrentYear ? COLOR_ACCENT : Color.BLACK);
+            canvas.drawText(mYearChars, 0, fillYearChars(year), mPadding * 2,
+                    yearTop + mHeaderHeight * 0.75f, mYearPaint);
+            for (int month = 1; month <= MONTHS_IN_YEAR; month++) {
+                final int monthTop = getMonthTop(year, month);
+                if (monthTop >= bottom || monthTop + mTileHeight <= top) {
+                    continue;
+                }
+                final Bitmap tile = mRenderer.getTile(MonthModel.key(year, month));
+                if (tile != null) {
+                    canvas.drawBitmap(tile, mPadding + mTileWidth * ((month - 1) % COLUMN_COUNT),
+                            monthTop, null);
+                }
+            }
+        }
+    }
+
+    private int getMonthTop(int year, int month) {
+        return (year - MIN_YEAR) * mYearHeight + (int) mHeaderHeight
+                + (month - 1) / COLUMN_COUNT * mTileHeight;
+    }
+
+    /**
+     * Returns the key of the first month of the tile row at {@code y}, the row below if
+     * {@code y} is on a year header, see {@link MonthModel#key(int, int)}.
+     */
+    private int getKeyAt(int y) {
+        final int year = MathUtils.clamp(MIN_YEAR + y / mYearHeight, MIN_YEAR, MAX_YEAR);
+        final int inYear = y - (year - MIN_YEAR) * mYearHeight - (int) mHeaderHeight;
+        final int row = MathUtils.clamp(inYear / mTileHeight, 0, ROW_COUNT - 1);
+        return MonthModel.key(year, 1) + row * COLUMN_COUNT;
+    }
+
+    /**
+     * Returns the month tapped at view coordinates, as a {@link MonthModel#key(int, int)},
+     * or -1 if none.
+     */
+    private int getMonthAt(float x, float y) {
+        final float contentY = y + getScrollY();
+        final int year = MIN_YEAR + (int) (contentY / mYearHeight);
+        final float inYear = contentY - (year - MIN_YEAR) * mYearHeight - mHeaderHeight;
+        final int column = (int) ((x - mPadding) / mTileWidth);
+        if (year > MAX_YEAR || inYear < 0 || x < mPadding || column >= COLUMN_COUNT) {
+            return -1;
+        }
+        return MonthModel.key(year, 1) + (int) (inYear / mTileHeight) * COLUMN_COUNT + column;
+    }
+
+    private int fillYearChars(int year) {
+        for (int i = mYearChars.length - 1; i >= 0; i--) {
+            mYearChars[i] = (char) ('0' + year % 10);
+            year /= 10;
+        }
+        return mYearChars.length;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mYearHeight == 0) {
+            return false;
+        }
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(event);
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mScroller.abortAnimation();
+                mDownX = event.getX();
+                mDownY = event.getY();
+                mLastMotionY = mDownY;
+                mIsDragging = false;
+                break;
+            case MotionEvent.ACTION_MOVE:
+                final float y = event.getY();
+                if (!mIsDragging && Math.abs(y - mDownY) > mTouchSlop) {
+                    mIsDragging = true;
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                }
+                if (mIsDragging) {
+                    scrollTo(0, clampScroll(getScrollY() + (int) (mLastMotionY - y)));
+                    mLastMotionY = y;
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (mIsDragging) {
+                    mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+                    final float velocityY = mVelocityTracker.getYVelocity();
+                    if (Math.abs(velocityY) > mMinimumVelocity) {
+                        mScroller.fling(0, getScrollY(), 0, (int) -velocityY, 0, 0, 0, getMaxScroll());
+                        ViewCompat.postInvalidateOnAnimation(this);
+                    }
+                } else {
+                    final int key = getMonthAt(event.getX(), event.getY());
+                    if (key >= 0) {
+                        performClick();
+                        onMonthClick(key / MONTHS_IN_YEAR, key % MONTHS_IN_YEAR + 1);
+                    }
+                }
+                endTouch();
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                endTouch();
+                break;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    private void onMonthClick(int year, int month) {
+        // Hand the tile's model to the shared cache, the month view opens without a rebuild
+        final MonthModel model = mRenderer.getModel(MonthModel.key(year, month));
+        if (model != null) {
+            mModelCache.put(model);
+        }
+        if (mOnMonthClickListener != null) {
+            mOnMonthClickListener.onMonthClick(this, year, month);
+        }
+        zoomIn(year, month);
+    }
+
+    private void endTouch() {
+        mIsDragging = false;
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(0, mScroller.getCurrY());
+            ViewCompat.postInvalidateOnAnimation(this);
+        }
+    }
+
+    @Override
+    protected int computeVerticalScrollRange() {
+        return (MAX_YEAR - MIN_YEAR + 1) * mYearHeight;
+    }
+
+    private int getMaxScroll() {
+        return Math.max(0, computeVerticalScrollRange() - getHeight());
+    }
+
+    private int clampScroll(int scrollY) {
+        return MathUtils.clamp(scrollY, 0, getMaxScroll());
+    }
+}
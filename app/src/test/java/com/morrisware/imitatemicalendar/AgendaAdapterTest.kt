@@ -0,0 +1,75 @@
+package com.morrisware.imitatemicalendar
+
+import android.app.Activity
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLooper
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+
+@RunWith(RobolectricTestRunner::class)
+class AgendaAdapterTest {
+
+    private val activity = Robolectric.setupActivity(Activity::class.java)
+
+    /** Runs background work only when [drain] is called. */
+    private class QueuedExecutor : Executor {
+        private val tasks = ArrayDeque<Runnable>()
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun drain() {
+            while (tasks.isNotEmpty()) {
+                tasks.poll().run()
+            }
+        }
+    }
+
+    private fun settle(executor: QueuedExecutor) {
+        // Load, then diff, then dispatch on the main thread
+        repeat(2) {
+            executor.drain()
+            ShadowLooper.idleMainLooper()
+        }
+    }
+
+    @Test
+    fun showDay_loadsOffTheMainThread() {
+        val executor = QueuedExecutor()
+        val adapter = AgendaAdapter(activity, AgendaSource { SampleEvents.forDay(it) }, executor)
+        val busyDay = JulianDay.fromDate(2019, 3, 15)
+
+        adapter.showDay(busyDay)
+        ShadowLooper.idleMainLooper()
+        assertEquals(0, adapter.itemCount)
+
+        settle(executor)
+        assertEquals(SampleEvents.forDay(busyDay).size, adapter.itemCount)
+        assertEquals("00:00 - 00:30", adapter.currentList[0].time)
+    }
+
+    @Test
+    fun showDay_dropsStaleDays() {
+        val executor = QueuedExecutor()
+        val loaded = ArrayList<Int>()
+        val source = AgendaSource { julianDay ->
+            loaded.add(julianDay)
+            SampleEvents.forDay(julianDay)
+        }
+        val adapter = AgendaAdapter(activity, source, executor)
+        val first = JulianDay.fromDate(2019, 3, 15)
+        val last = JulianDay.fromDate(2019, 3, 16)
+
+        adapter.showDay(first)
+        adapter.showDay(last)
+        settle(executor)
+
+        assertEquals(listOf(last), loaded)
+        assertEquals(SampleEvents.forDay(last).size, adapter.itemCount)
+    }
+}
@@ -0,0 +1,89 @@
+package com.morrisware.imitatemicalendar
+
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.view.View
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+
+@RunWith(RobolectricTestRunner::class)
+class CellTextCacheTest {
+
+    private lateinit var calendarView: CalendarView
+    private val canvas = Canvas(Bitmap.createBitmap(1080, 1000, Bitmap.Config.ARGB_8888))
+
+    @Before
+    fun setUp() {
+        calendarView = CalendarView(RuntimeEnvironment.application)
+        calendarView.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1000, View.MeasureSpec.AT_MOST))
+        calendarView.layout(0, 0, 1080, calendarView.measuredHeight)
+    }
+
+    @Test
+    fun steadyStateDraws_doNotMeasure() {
+        // The first pass over a few months measures their labels once
+        for (month in 1..3) {
+            calendarView.setMonth(2020, month)
+            calendarView.draw(canvas)
+        }
+        val cache = calendarView.textCache
+        val measured = cache.measureCount
+
+        for (month in 1..3) {
+            calendarView.setMonth(2020, month)
+            repeat(5) { calendarView.draw(canvas) }
+        }
+
+        assertEquals(measured, cache.measureCount)
+    }
+
+    @Test
+    fun configurationChange_remeasures() {
+        calendarView.draw(canvas)
+        val cache = calendarView.textCache
+        val measured = cache.measureCount
+
+        val resources = RuntimeEnvironment.application.resources
+        val configuration = Configuration(resources.configuration)
+        configuration.fontScale = 1.3f
+        resources.displayMetrics.scaledDensity = resources.displayMetrics.density * 1.3f
+        calendarView.dispatchConfigurationChanged(configuration)
+        calendarView.draw(canvas)
+
+        // At least the 31 day numbers again
+        assertTrue(cache.measureCount >= measured + 31)
+    }
+
+    @Test
+    fun paintChanges_invalidateWidths() {
+        val day = Paint()
+        val label = Paint()
+        val badge = Paint()
+        val cache = CellTextCache(day, label, badge)
+        cache.validate()
+        val width = cache.getDayWidth(28)
+        assertEquals(day.measureText("28"), width, 0f)
+        cache.getLabelWidth(LunarCalendar.labelTextId(2 + (1 shl 5)))
+        cache.getNameWidth("国庆节")
+        val measured = cache.measureCount
+
+        cache.validate()
+        cache.getLabelWidth(LunarCalendar.labelTextId(2 + (1 shl 5)))
+        cache.getNameWidth("国庆节")
+        assertEquals(measured, cache.measureCount)
+
+        label.textSize = label.textSize * 2
+        cache.validate()
+        assertEquals(measured + 31, cache.measureCount)
+        assertEquals(label.measureText("国庆节"), cache.getNameWidth("国庆节"), 0f)
+        assertEquals(measured + 32, cache.measureCount)
+    }
+}
@@ -0,0 +1,63 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CollapseMetricsTest {
+
+    private val frame = 16_666_667L
+
+    @Test
+    fun frames_countDroppedAndJanky() {
+        val metrics = CollapseMetrics()
+        var reported: CollapseMetrics? = null
+        metrics.setListener(CollapseMetrics.Listener { reported = it })
+
+        metrics.beginGesture(0)
+        var time = 1_000_000_000L
+        metrics.doFrame(time)
+        repeat(10) {
+            time += frame
+            metrics.doFrame(time)
+        }
+        // One long frame that misses two vsyncs
+        time += 3 * frame
+        metrics.doFrame(time)
+        metrics.addPreScrollTime(5_000)
+        metrics.addPreScrollTime(9_000)
+        metrics.onSettleStart(time, true)
+        metrics.onSettleEnd(time + 200_000_000L)
+        metrics.endGesture(time + 200_000_000L)
+
+        assertSame(metrics, reported)
+        assertEquals(11, metrics.frameCount)
+        assertEquals(2, metrics.droppedFrames)
+        assertEquals(1, metrics.jankyFrames)
+        assertEquals(3 * frame, metrics.maxFrameNanos)
+        assertEquals(frame, metrics.getFramePercentileNanos(50))
+        assertEquals(3 * frame, metrics.getFramePercentileNanos(100))
+        assertEquals(2, metrics.preScrollCount)
+        assertEquals(9_000L, metrics.preScrollMaxNanos)
+        assertEquals(200_000_000L, metrics.settleLatencyNanos)
+    }
+
+    @Test
+    fun beginGesture_resetsPreviousGesture() {
+        val metrics = CollapseMetrics()
+        metrics.beginGesture(0)
+        metrics.doFrame(frame)
+        metrics.doFrame(5 * frame)
+        metrics.endGesture(5 * frame)
+
+        metrics.beginGesture(6 * frame)
+        metrics.endGesture(7 * frame)
+
+        assertEquals(0, metrics.frameCount)
+        assertEquals(0, metrics.droppedFrames)
+        assertEquals(frame, metrics.gestureDurationNanos)
+    }
+}
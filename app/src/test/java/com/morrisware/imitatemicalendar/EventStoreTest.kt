@@ -0,0 +1,128 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+
+@RunWith(RobolectricTestRunner::class)
+class EventStoreTest {
+
+    private val store = EventStore(RuntimeEnvironment.application, null)
+    private val day = JulianDay.fromDate(2019, 3, 10)
+
+    @After
+    fun tearDown() {
+        store.close()
+    }
+
+    private fun event(id: Long, startDay: Int, endDay: Int, endMinute: Int = 60) =
+            CalendarEvent(id, "event $id", startDay, 0, endDay, endMinute, false)
+
+    @Test
+    fun queryRange_findsOverlappingShortAndLongEvents() {
+        store.insertAll(listOf(
+                event(1, day, day),
+                event(2, day - 3, day + 1),
+                // Ends at midnight, so it doesn't cover the day
+                event(3, day - 2, day, endMinute = 0),
+                // Longer than SHORT_SPAN_DAYS, starts well before the range
+                event(4, day - 400, day + 400),
+                event(5, day + 1, day + 2)))
+
+        assertEquals(listOf(4L, 2L, 1L), store.queryRange(day, day).map { it.id })
+        assertEquals(listOf(4L, 2L, 3L, 1L, 5L), store.queryRange(day - 1, day + 1).map { it.id })
+        assertEquals(listOf(4L), store.queryRange(day + 300, day + 310).map { it.id })
+        assertTrue(store.queryRange(day + 401, day + 500).isEmpty())
+    }
+
+    @Test
+    fun upgrade_replacesTheSpanIndexWithTheLongEventIndex() {
+        val db = store.writableDatabase
+        // Back to the version 2 indexes
+        db.execSQL("DROP INDEX events_long")
+        db.execSQL("CREATE INDEX events_span ON events (span, last_day)")
+        store.insert(event(1, day - 400, day + 400))
+
+        store.onUpgrade(db, 2, 3)
+
+        val cursor = db.rawQuery("SELECT name FROM sqlite_master"
+                + " WHERE type = 'index' AND tbl_name = 'events' AND sql IS NOT NULL"
+                + " ORDER BY name", null)
+        val names = ArrayList<String>()
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(0))
+        }
+        cursor.close()
+        assertEquals(listOf("events_long", "events_start"), names)
+        assertEquals(listOf(1L), store.queryRange(day, day).map { it.id })
+    }
+
+    @Test
+    fun dayCounts_followInsertsAndDeletes() {
+        store.insert(event(1, day, day + 2))
+        store.insert(event(2, day + 1, day + 1))
+        val counts = IntArray(5) { -1 }
+
+        store.queryDayCounts(day - 1, counts, counts.size)
+        assertArrayEquals(intArrayOf(0, 1, 2, 1, 0), counts)
+
+        assertTrue(store.delete(1))
+        assertFalse(store.delete(1))
+        store.queryDayCounts(day - 1, counts, counts.size)
+        assertArrayEquals(intArrayOf(0, 0, 1, 0, 0), counts)
+
+        // Reinserting with the same id replaces the event
+        store.insert(event(2, day + 3, day + 3))
+        store.queryDayCounts(day - 1, counts, counts.size)
+        assertArrayEquals(intArrayOf(0, 0, 0, 0, 1), counts)
+    }
+
+    @Test
+    fun series_areStoredWithTheBatchAndLoadedBack() {
+        val first = CalendarEvent(7, "standup", day, 9 * 60, day, 9 * 60 + 15, false)
+        val weekly = EventSeries(7, first, RecurrenceRule.weekly(1, 0b0101010).withCount(6),
+                intArrayOf(day + 2))
+        val daily = EventSeries(8, event(8, day, day + 1),
+                RecurrenceRule.daily(2).withUntil(day + 30))
+
+        store.insertAll(listOf(event(1, day, day)), listOf(weekly, daily))
+        // Replaced by id, e.g. when an override adds an exception later
+        store.insertAll(emptyList(), listOf(weekly.withException(day + 4)))
+
+        val loaded = store.loadSeries().sortedBy { it.id }
+        assertEquals(listOf(7L, 8L), loaded.map { it.id })
+        val (storedWeekly, storedDaily) = loaded
+        assertEquals("standup", storedWeekly.first.title)
+        assertEquals(9 * 60 + 15, storedWeekly.first.endMinute)
+        assertEquals(RecurrenceRule.WEEKLY, storedWeekly.rule.frequency)
+        assertEquals(0b0101010, storedWeekly.rule.weekdays)
+        assertEquals(6, storedWeekly.rule.count)
+        assertArrayEquals(intArrayOf(day + 2, day + 4), storedWeekly.exceptionDays)
+        assertEquals(RecurrenceRule.DAILY, storedDaily.rule.frequency)
+        assertEquals(2, storedDaily.rule.interval)
+        assertEquals(day + 30, storedDaily.rule.untilDay)
+        assertEquals(1, storedDaily.spanDays)
+        assertEquals(0, storedDaily.exceptionDays.size)
+        // Series don't show up as single events
+        assertEquals(listOf(1L), store.queryRange(day, day + 10).map { it.id })
+    }
+
+    @Test
+    fun decorate_marksDaysWithEvents() {
+        store.insert(event(1, day, day))
+        val cache = MonthModelCache(1, JulianDay.SUNDAY, store)
+
+        val model = cache.get(2019, 3)
+
+        for (i in 0 until model.cellCount) {
+            val marked = model.getCell(i) and MonthModel.FLAG_MARKER != 0
+            assertEquals(model.getJulianDay(i) == day, marked)
+        }
+    }
+}
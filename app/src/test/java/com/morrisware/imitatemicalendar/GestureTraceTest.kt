@@ -0,0 +1,56 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Records gestures with [GestureTraceRecorder] and replays them into a fresh hierarchy.
+ */
+@RunWith(RobolectricTestRunner::class)
+class GestureTraceTest {
+
+    @Test
+    fun replay_reproducesRecordedGestures() {
+        val recorded = ScrollReplayHarness()
+        val recorder = GestureTraceRecorder()
+        recorder.attach(recorded.calendarView)
+
+        recorded.nestedScroll(intArrayOf(12, 18, 25, 9, 30, 14))
+        recorded.releaseNestedScroll()
+        recorded.settle()
+        recorded.headerDrag(intArrayOf(-6, -11, -20, -4))
+        recorded.settle()
+        recorded.nestedScroll(intArrayOf(8, 8, 8))
+        recorded.releaseNestedScroll(2500f)
+        recorded.settle()
+        recorder.detach()
+
+        val trace = recorder.toByteArray()
+        assertTrue(!recorder.isTruncated)
+
+        val replayed = ScrollReplayHarness()
+        val replayer = GestureTraceReplayer(trace)
+        replayer.replay(replayed.calendarView)
+
+        assertTrue(replayer.recordCount > 0)
+        assertEquals(0, replayer.mismatchCount)
+        assertEquals(recorded.coordinator.fraction, replayed.coordinator.fraction, 0f)
+        assertEquals(recorded.content.top, replayed.content.top)
+        assertEquals(recorded.calendarView.top, replayed.calendarView.top)
+    }
+
+    @Test
+    fun recorder_stopsAtSizeLimit() {
+        val harness = ScrollReplayHarness()
+        val recorder = GestureTraceRecorder(256)
+        recorder.attach(harness.calendarView)
+
+        harness.nestedScroll(IntArray(200) { if (it < 100) 3 else -3 })
+
+        assertTrue(recorder.isTruncated)
+        assertTrue(recorder.size() <= 256)
+    }
+}
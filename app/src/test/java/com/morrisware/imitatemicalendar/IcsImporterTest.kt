@@ -0,0 +1,164 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLooper
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+import java.util.concurrent.Executor
+
+@RunWith(RobolectricTestRunner::class)
+class IcsImporterTest {
+
+    private val store = EventStore(RuntimeEnvironment.application, null)
+    private val expander = RecurrenceExpander()
+    private val index = EventIntervalIndex()
+    private var error: IOException? = null
+    private var finished = false
+
+    private val listener = object : IcsImporter.Listener {
+        override fun onProgress(bytesRead: Long, totalBytes: Long, eventCount: Int) {
+        }
+
+        override fun onBatchCommitted(firstJulianDay: Int, lastJulianDay: Int) {
+        }
+
+        override fun onFinished(eventCount: Int, cancelled: Boolean, error: IOException?) {
+            finished = true
+            this@IcsImporterTest.error = error
+        }
+    }
+
+    @After
+    fun tearDown() {
+        store.close()
+    }
+
+    private fun day(year: Int, month: Int, day: Int) = JulianDay.fromDate(year, month, day)
+
+    /**
+     * Hands out [text], then fails instead of reporting the end if [fail] is set.
+     */
+    private class TextChannel(text: String, private val fail: Boolean) : ReadableByteChannel {
+        private val bytes = ByteBuffer.wrap(text.replace("\n", "\r\n").toByteArray(Charsets.UTF_8))
+        private var open = true
+
+        override fun read(dst: ByteBuffer): Int {
+            if (!bytes.hasRemaining()) {
+                if (fail) {
+                    throw IOException("connection reset")
+                }
+                return -1
+            }
+            val n = minOf(dst.remaining(), bytes.remaining())
+            for (i in 0 until n) {
+                dst.put(bytes.get())
+            }
+            return n
+        }
+
+        override fun isOpen() = open
+
+        override fun close() {
+            open = false
+        }
+    }
+
+    private fun import(ics: String, fail: Boolean = false) {
+        finished = false
+        // Runs the import on this thread, the listener calls on the main looper
+        val importer = IcsImporter(store, index, expander, listener, Executor { it.run() },
+                IcsImporter.DEFAULT_BATCH_SIZE)
+        importer.setIndexWindow(day(2019, 1, 1), day(2019, 12, 31))
+        importer.start(TextChannel(ics, fail), -1)
+        ShadowLooper.idleMainLooper()
+        assertTrue(finished)
+    }
+
+    @Test
+    fun committedSeries_reachTheExpanderWithTheirOverrides() {
+        import(STANDUP + OVERRIDE)
+
+        assertNull(error)
+        val series = expander.getSeries(store.loadSeries().single().id)
+        assertNotNull(series)
+        assertTrue(series!!.isException(day(2019, 3, 7)))
+        assertTrue(store.loadSeries().single().isException(day(2019, 3, 7)))
+    }
+
+    @Test
+    fun failedImport_leavesTheUncommittedSeriesOut() {
+        import(STANDUP + OVERRIDE, fail = true)
+
+        assertNotNull(error)
+        // Neither stored nor shown, as they would be gone after a restart
+        assertTrue(store.loadSeries().isEmpty())
+        assertEquals(0, expander.seriesCount)
+    }
+
+    @Test
+    fun index_onlyGetsTheEventsInsideItsWindow() {
+        import("""
+            BEGIN:VEVENT
+            UID:old
+            SUMMARY:old
+            DTSTART:20090304T093000
+            DTEND:20090304T094500
+            END:VEVENT
+            BEGIN:VEVENT
+            UID:new-year
+            SUMMARY:new year
+            DTSTART:20181231T220000
+            DTEND:20190101T010000
+            END:VEVENT
+        """.trimIndent())
+
+        assertNull(error)
+        assertEquals(2, store.queryRange(day(2009, 1, 1), day(2019, 12, 31)).size)
+        // Only the one reaching into 2019
+        assertEquals(1, index.size())
+
+        // Moved out of the window by a reimport, so it leaves the index
+        import("""
+            BEGIN:VEVENT
+            UID:new-year
+            SUMMARY:new year
+            DTSTART:20171231T220000
+            DTEND:20180101T010000
+            END:VEVENT
+        """.trimIndent())
+
+        assertEquals(0, index.size())
+    }
+
+    companion object {
+        private val STANDUP = """
+            BEGIN:VEVENT
+            UID:standup
+            SUMMARY:standup
+            DTSTART:20190304T093000
+            DTEND:20190304T094500
+            RRULE:FREQ=DAILY;COUNT=5
+            END:VEVENT
+
+        """.trimIndent()
+        private val OVERRIDE = """
+            BEGIN:VEVENT
+            UID:standup
+            RECURRENCE-ID:20190307T093000
+            SUMMARY:standup (long)
+            DTSTART:20190307T093000
+            DTEND:20190307T110000
+            END:VEVENT
+
+        """.trimIndent()
+    }
+}
@@ -0,0 +1,35 @@
+package com.morrisware.imitatemicalendar
+
+import android.view.Choreographer
+
+/**
+ * Runs the posted frame callback when asked instead of on the Choreographer.
+ */
+internal class ManualFrameScheduler : CollapseCoordinator.FrameScheduler {
+    private var callback: Choreographer.FrameCallback? = null
+    private var frameTimeNanos = 0L
+
+    val hasPendingFrame: Boolean
+        get() = callback != null
+
+    override fun postFrameCallback(callback: Choreographer.FrameCallback) {
+        this.callback = callback
+    }
+
+    override fun removeFrameCallback(callback: Choreographer.FrameCallback) {
+        if (this.callback === callback) {
+            this.callback = null
+        }
+    }
+
+    fun doFrame() {
+        frameTimeNanos += FRAME_NANOS
+        val pending = callback ?: return
+        callback = null
+        pending.doFrame(frameTimeNanos)
+    }
+
+    companion object {
+        const val FRAME_NANOS = 16_666_667L
+    }
+}
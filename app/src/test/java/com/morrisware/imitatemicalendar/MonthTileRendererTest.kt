@@ -0,0 +1,103 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.concurrent.Executor
+
+@RunWith(RobolectricTestRunner::class)
+class MonthTileRendererTest {
+
+    private val pending = ArrayList<Runnable>()
+    // Runs the worker only when the test says so
+    private val worker = Executor { pending.add(it) }
+    private val main = Executor { it.run() }
+    private var callbacks = 0
+
+    private lateinit var cache: MonthModelCache
+    private lateinit var renderer: MonthTileRenderer
+
+    @Before
+    fun setUp() {
+        cache = MonthModelCache(4, JulianDay.SUNDAY, null)
+        renderer = MonthTileRenderer(1f, MonthTileRenderer.Callback { callbacks++ }, worker, main)
+        renderer.setMonthModelCache(cache)
+        renderer.setTileSize(120, 140, CAPACITY)
+    }
+
+    private fun runWorker() {
+        while (pending.isNotEmpty()) {
+            pending.removeAt(0).run()
+        }
+    }
+
+    private fun key(year: Int, month: Int) = MonthModel.key(year, month)
+
+    @Test
+    fun request_rendersVisibleThenMargin() {
+        renderer.request(key(2020, 1), key(2020, 6), 3)
+        runWorker()
+
+        for (month in 1..9) {
+            assertNotNull(renderer.getTile(key(2020, month)))
+        }
+        assertNotNull(renderer.getTile(key(2019, 10)))
+        assertNull(renderer.getTile(key(2020, 10)))
+        assertEquals(12, renderer.renderCount)
+        assertTrue(callbacks >= 1)
+    }
+
+    @Test
+    fun scrollingThroughDecades_reusesBoundedBitmaps() {
+        for (year in 2000..2030) {
+            renderer.request(key(year, 1), key(year, 6), 3)
+            runWorker()
+            assertNotNull(renderer.getTile(key(year, 6)))
+        }
+
+        assertEquals(CAPACITY, renderer.bitmapCount)
+        // Moving within rendered months costs no work at all
+        val rendered = renderer.renderCount
+        renderer.request(key(2030, 2), key(2030, 6), 2)
+        runWorker()
+        assertEquals(rendered, renderer.renderCount)
+    }
+
+    @Test
+    fun tileModel_isHandedToTheCacheForZooming() {
+        renderer.request(key(2020, 1), key(2020, 6), 0)
+        runWorker()
+        // The small cache has evicted January by now
+        val model = renderer.getModel(key(2020, 1))
+        assertNotNull(model)
+        cache.resetStats()
+
+        cache.put(model)
+
+        assertSame(model, cache.get(2020, 1))
+        assertEquals(0, cache.missCount)
+    }
+
+    @Test
+    fun invalidateRange_rendersOnlyAffectedMonthsAgain() {
+        renderer.request(key(2020, 1), key(2020, 3), 0)
+        runWorker()
+        renderer.invalidateRange(JulianDay.fromDate(2020, 3, 10), JulianDay.fromDate(2020, 3, 10))
+        assertNull(renderer.getTile(key(2020, 3)))
+        assertNotNull(renderer.getTile(key(2020, 1)))
+
+        runWorker()
+        assertNotNull(renderer.getTile(key(2020, 3)))
+        assertEquals(4, renderer.renderCount)
+    }
+
+    companion object {
+        private const val CAPACITY = 12
+    }
+}
@@ -0,0 +1,207 @@
+package com.morrisware.imitatemicalendar
+
+import android.app.Activity
+import android.view.MotionEvent
+import android.view.ViewGroup
+import android.widget.LinearLayout
+import androidx.coordinatorlayout.widget.CoordinatorLayout
+import androidx.core.view.ViewCompat
+import androidx.core.widget.NestedScrollView
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLooper
+import java.lang.management.ManagementFactory
+
+/**
+ * Drives scripted gestures through every per-frame path of the collapse: nested scroll
+ * drags, the release and snap, nested flings to both ends, and a header drag and fling
+ * through real [MotionEvent]s. Checks that the steady state does not allocate.
+ */
+@RunWith(RobolectricTestRunner::class)
+class ScrollAllocationTest {
+
+    private lateinit var parent: CoordinatorLayout
+    private lateinit var calendarView: CalendarView
+    private lateinit var content: NestedScrollView
+    private lateinit var behavior: CalendarView.Behavior
+    // Obtained once and replayed, so the gesture itself doesn't allocate
+    private lateinit var touchEvents: Array<MotionEvent>
+
+    private val consumed = IntArray(2)
+    private val frames = ManualFrameScheduler()
+
+    @Before
+    fun setUp() {
+        // Attached to a window, so isShown() and the pre-draw listener work as on a device
+        val activity = Robolectric.setupActivity(Activity::class.java)
+        parent = CoordinatorLayout(activity)
+        calendarView = CalendarView(activity)
+        parent.addView(calendarView, CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT))
+
+        content = NestedScrollView(activity)
+        content.addView(LinearLayout(activity), ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, 10000))
+        val lp = CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT)
+        lp.behavior = CalendarView.ScrollingViewBehavior(activity, null)
+        parent.addView(content, lp)
+
+        activity.setContentView(parent)
+        ShadowLooper.idleMainLooper()
+
+        behavior = (calendarView.layoutParams as CoordinatorLayout.LayoutParams).behavior
+                as CalendarView.Behavior
+        calendarView.collapseCoordinator.setFrameScheduler(frames)
+        touchEvents = obtainHeaderDrag()
+    }
+
+    @After
+    fun tearDown() {
+        for (event in touchEvents) {
+            event.recycle()
+        }
+    }
+
+    @Test
+    fun scriptedGestures_doNotAllocate() {
+        // Warm up lazily created helpers and pools before measuring
+        repeat(WARM_UP_CYCLES) { runCycle() }
+
+        val allocated = measureAllocatedBytes { repeat(CYCLES) { runCycle() } }
+
+        assertEquals("bytes allocated during $CYCLES gesture cycles", 0L, allocated)
+    }
+
+    @Test
+    fun cycle_reachesEveryPath() {
+        val coordinator = calendarView.collapseCoordinator
+        assertTrue(coordinator.contentRange > 0)
+
+        dragAndSnap()
+        assertTrue(coordinator.isExpanded || coordinator.isCollapsed)
+        assertFalse(frames.hasPendingFrame)
+
+        nestedFling(FLING_VELOCITY)
+        assertTrue(coordinator.isCollapsed)
+        nestedFling(-FLING_VELOCITY)
+        assertTrue(coordinator.isExpanded)
+
+        headerDragAndFling()
+        assertTrue(coordinator.isCollapsed)
+        assertFalse(frames.hasPendingFrame)
+    }
+
+    private fun runCycle() {
+        dragAndSnap()
+        nestedFling(FLING_VELOCITY)
+        nestedFling(-FLING_VELOCITY)
+        headerDragAndFling()
+    }
+
+    /**
+     * Drags the content one way then back a little, and lets go part way so the snap runs.
+     */
+    private fun dragAndSnap() {
+        behavior.onStartNestedScroll(parent, calendarView, content, content,
+                ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH)
+        for (i in 0 until DRAG_STEPS) {
+            val dy = if (i < DRAG_STEPS * 3 / 4) -9 else 7
+            consumed[0] = 0
+            consumed[1] = 0
+            behavior.onNestedPreScroll(parent, calendarView, content, 0, dy, consumed,
+                    ViewCompat.TYPE_TOUCH)
+            frame()
+        }
+        behavior.onStopNestedScroll(parent, calendarView, content, ViewCompat.TYPE_TOUCH)
+        runToEnd()
+    }
+
+    /**
+     * Flings the content with [velocity] px/s, positive collapses, and runs the fling out.
+     */
+    private fun nestedFling(velocity: Float) {
+        behavior.onStartNestedScroll(parent, calendarView, content, content,
+                ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH)
+        behavior.onNestedPreFling(parent, calendarView, content, 0f, velocity)
+        behavior.onStopNestedScroll(parent, calendarView, content, ViewCompat.TYPE_TOUCH)
+        runToEnd()
+    }
+
+    /**
+     * Drags the expanded header up through onTouchEvent fast enough to fling on release.
+     */
+    private fun headerDragAndFling() {
+        behavior.onInterceptTouchEvent(parent, calendarView, touchEvents[0])
+        for (i in touchEvents.indices) {
+            behavior.onTouchEvent(parent, calendarView, touchEvents[i])
+            if (i % 2 == 0) {
+                frame()
+            }
+        }
+        runToEnd()
+    }
+
+    private fun obtainHeaderDrag(): Array<MotionEvent> {
+        val x = calendarView.width / 2f
+        val y = calendarView.top + calendarView.height / 2f
+        val downTime = 1000L
+        return Array(TOUCH_MOVES + 2) { i ->
+            val action = when (i) {
+                0 -> MotionEvent.ACTION_DOWN
+                TOUCH_MOVES + 1 -> MotionEvent.ACTION_UP
+                else -> MotionEvent.ACTION_MOVE
+            }
+            val moved = Math.min(i, TOUCH_MOVES) * TOUCH_STEP
+            MotionEvent.obtain(downTime, downTime + i * 8L, action, x, y - moved, 0)
+        }
+    }
+
+    /**
+     * Runs frames until the snap or fling is done and nothing is pending.
+     */
+    private fun runToEnd() {
+        var count = 0
+        while (frames.hasPendingFrame && count < MAX_SETTLE_FRAMES) {
+            frame()
+            count++
+        }
+    }
+
+    private fun frame() {
+        frames.doFrame()
+        // CoordinatorLayout dispatches its dependent views from its pre-draw listener
+        parent.viewTreeObserver.dispatchOnPreDraw()
+    }
+
+    private inline fun measureAllocatedBytes(block: () -> Unit): Long {
+        val bean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        // Calibrate the cost of the measurement itself
+        val calibrationStart = bean.getThreadAllocatedBytes(threadId)
+        val calibrationEnd = bean.getThreadAllocatedBytes(threadId)
+        val overhead = calibrationEnd - calibrationStart
+
+        val start = bean.getThreadAllocatedBytes(threadId)
+        block()
+        val end = bean.getThreadAllocatedBytes(threadId)
+        return Math.max(0L, end - start - overhead)
+    }
+
+    companion object {
+        private const val WARM_UP_CYCLES = 5
+        private const val CYCLES = 100
+        private const val DRAG_STEPS = 40
+        private const val TOUCH_MOVES = 12
+        private const val TOUCH_STEP = 20
+        private const val FLING_VELOCITY = 5000f
+        private const val MAX_SETTLE_FRAMES = 600
+    }
+}
@@ -0,0 +1,355 @@
+package com.morrisware.imitatemicalendar
+
+import android.app.Activity
+import android.content.Context
+import android.os.SystemClock
+import android.view.MotionEvent
+import android.view.View
+import android.view.ViewGroup
+import android.widget.LinearLayout
+import androidx.coordinatorlayout.widget.CoordinatorLayout
+import androidx.core.view.ViewCompat
+import androidx.core.widget.NestedScrollView
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import org.robolectric.Robolectric
+import org.robolectric.shadows.ShadowLooper
+
+/**
+ * Most work one simulated frame may do. Input events are delivered between frames, the
+ * counts cover the events and the frame that follows them. Drags write the offsets from
+ * each input event, so the offset writes are allowed once per event in frames with input.
+ */
+internal data class FrameBudget(
+        val measures: Int = 0,
+        val layouts: Int = 0,
+        val dependentViewChanges: Int = 1,
+        val headerOffsetWrites: Int = 1,
+        val contentOffsetWrites: Int = 1
+)
+
+/**
+ * Per frame counters, bumped by the counting views and behaviors below.
+ */
+internal class FrameCounters {
+    var measures = 0
+    var layouts = 0
+    var dependentViewChanges = 0
+    var headerOffsetWrites = 0
+    var contentOffsetWrites = 0
+    var inputEvents = 0
+
+    fun reset() {
+        measures = 0
+        layouts = 0
+        dependentViewChanges = 0
+        headerOffsetWrites = 0
+        contentOffsetWrites = 0
+        inputEvents = 0
+    }
+
+    override fun toString() = "inputEvents=$inputEvents, measures=$measures, layouts=$layouts, " +
+            "dependentViewChanges=$dependentViewChanges, headerOffsetWrites=$headerOffsetWrites, " +
+            "contentOffsetWrites=$contentOffsetWrites"
+}
+
+/**
+ * The scrolling content below the calendar.
+ */
+internal enum class ReplayContent {
+    NESTED_SCROLL_VIEW,
+    RECYCLER_VIEW
+}
+
+/**
+ * Drives CoordinatorLayout + CalendarView + ScrollingViewBehavior through scripted nested
+ * scrolls, header drags, flings and snaps on the JVM, checking every simulated frame against
+ * a [FrameBudget].
+ *
+ * Frames are stepped by hand: the collapse coordinator runs on a [ManualFrameScheduler], then
+ * the window's pre-draw listeners run, which is where CoordinatorLayout dispatches its
+ * dependent views, then any traversal the frame requested is run.
+ */
+internal class ScrollReplayHarness(
+        private val budget: FrameBudget = FrameBudget(),
+        contentType: ReplayContent = ReplayContent.NESTED_SCROLL_VIEW
+) {
+
+    private val counters = FrameCounters()
+    private val frames = ManualFrameScheduler()
+
+    val parent: CoordinatorLayout
+    val calendarView: CalendarView
+    val content: View
+    val headerBehavior: CalendarView.Behavior
+
+    /** Number of frames checked so far. */
+    var frameCount = 0
+        private set
+
+    private var phase = "setup"
+    private var downTime = 0L
+    private var touchY = 0f
+
+    init {
+        val activity = Robolectric.setupActivity(Activity::class.java)
+        parent = CountingCoordinatorLayout(activity, counters)
+        calendarView = CountingCalendarView(activity, counters)
+        headerBehavior = CountingHeaderBehavior(counters)
+        val headerParams = CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT)
+        headerParams.behavior = headerBehavior
+        parent.addView(calendarView, headerParams)
+
+        content = when (contentType) {
+            ReplayContent.NESTED_SCROLL_VIEW -> NestedScrollView(activity).apply {
+                addView(LinearLayout(activity), ViewGroup.LayoutParams(
+                        ViewGroup.LayoutParams.MATCH_PARENT, 10000))
+            }
+            ReplayContent.RECYCLER_VIEW -> RecyclerView(activity).apply {
+                layoutManager = LinearLayoutManager(activity)
+                adapter = RowAdapter()
+            }
+        }
+        val contentParams = CoordinatorLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT)
+        contentParams.behavior = CountingScrollingViewBehavior(activity, counters)
+        parent.addView(content, contentParams)
+
+        activity.setContentView(parent)
+        calendarView.collapseCoordinator.setFrameScheduler(frames)
+        ShadowLooper.idleMainLooper()
+        counters.reset()
+    }
+
+    val coordinator: CollapseCoordinator
+        get() = calendarView.collapseCoordinator
+
+    /**
+     * Scrolls the content by [deltas], delivering [eventsPerFrame] events per frame, like a
+     * 120 Hz touch panel on a 60 Hz display.
+     */
+    fun nestedScroll(deltas: IntArray, eventsPerFrame: Int = 2) {
+        phase = "nestedScroll"
+        val consumed = IntArray(2)
+        headerBehavior.onStartNestedScroll(parent, calendarView, content, content,
+                ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH)
+        for (i in deltas.indices) {
+            consumed[0] = 0
+            consumed[1] = 0
+            headerBehavior.onNestedPreScroll(parent, calendarView, content, 0, deltas[i], consumed,
+                    ViewCompat.TYPE_TOUCH)
+            counters.inputEvents++
+            if ((i + 1) % eventsPerFrame == 0) {
+                frame()
+            }
+        }
+        frame()
+    }
+
+    /**
+     * Ends the nested scroll, optionally flinging with [velocity] content px/s first.
+     */
+    fun releaseNestedScroll(velocity: Float = 0f) {
+        phase = "releaseNestedScroll"
+        if (velocity != 0f) {
+            headerBehavior.onNestedPreFling(parent, calendarView, content, 0f, velocity)
+        }
+        headerBehavior.onStopNestedScroll(parent, calendarView, content, ViewCompat.TYPE_TOUCH)
+        frame()
+    }
+
+    /**
+     * Drags the header itself through touch events, moving [dy] pixels per event.
+     */
+    fun headerDrag(dy: IntArray, eventsPerFrame: Int = 2) {
+        phase = "headerDrag"
+        downTime = SystemClock.uptimeMillis()
+        touchY = calendarView.top + calendarView.height / 2f
+        dispatchTouch(MotionEvent.ACTION_DOWN, downTime)
+        for (i in dy.indices) {
+            touchY -= dy[i]
+            dispatchTouch(MotionEvent.ACTION_MOVE, downTime + (i + 1) * 8L)
+            if ((i + 1) % eventsPerFrame == 0) {
+                frame()
+            }
+        }
+        frame()
+        dispatchTouch(MotionEvent.ACTION_UP, downTime + (dy.size + 1) * 8L)
+        frame()
+    }
+
+    /**
+     * Drags the content through real touch events dispatched to the CoordinatorLayout, so the
+     * nested scroll goes through the content's own touch handling. [afterMove] is called with
+     * the finger's y in the parent after each move.
+     */
+    fun contentDrag(dy: IntArray, eventsPerFrame: Int = 2, afterMove: (Float) -> Unit = {}) {
+        phase = "contentDrag"
+        downTime = SystemClock.uptimeMillis()
+        touchY = content.top + CONTENT_TOUCH_OFFSET
+        dispatchContentTouch(MotionEvent.ACTION_DOWN, downTime)
+        for (i in dy.indices) {
+            touchY -= dy[i]
+            dispatchContentTouch(MotionEvent.ACTION_MOVE, downTime + (i + 1) * 8L)
+            afterMove(touchY)
+            if ((i + 1) % eventsPerFrame == 0) {
+                frame()
+            }
+        }
+        frame()
+        dispatchContentTouch(MotionEvent.ACTION_UP, downTime + (dy.size + 1) * 8L)
+        frame()
+    }
+
+    /**
+     * Runs frames until the settle or fling is done.
+     *
+     * @return the number of frames it took
+     */
+    fun settle(maxFrames: Int = 600): Int {
+        phase = "settle"
+        var count = 0
+        while (coordinator.isAnimating) {
+            if (count == maxFrames) {
+                throw AssertionError("settle did not finish within $maxFrames frames")
+            }
+            frame()
+            count++
+        }
+        return count
+    }
+
+    /**
+     * Runs one frame and checks it against the budget.
+     */
+    fun frame() {
+        frames.doFrame()
+        // The pre-draw of the traversal that follows, CoordinatorLayout's listener moves the
+        // dependent views from there
+        parent.viewTreeObserver.dispatchOnPreDraw()
+        // Any measure or layout the frame requested
+        ShadowLooper.idleMainLooper()
+        checkBudget()
+        counters.reset()
+        frameCount++
+    }
+
+    private fun checkBudget() {
+        val writeSlots = Math.max(1, counters.inputEvents)
+        if (counters.measures > budget.measures
+                || counters.layouts > budget.layouts
+                || counters.dependentViewChanges > budget.dependentViewChanges
+                || counters.headerOffsetWrites > budget.headerOffsetWrites * writeSlots
+                || counters.contentOffsetWrites > budget.contentOffsetWrites * writeSlots) {
+            throw AssertionError("frame $frameCount during $phase exceeded $budget: $counters")
+        }
+    }
+
+    private fun dispatchTouch(action: Int, eventTime: Long) {
+        val event = MotionEvent.obtain(downTime, eventTime, action,
+                calendarView.width / 2f, touchY, 0)
+        counters.inputEvents++
+        try {
+            if (action == MotionEvent.ACTION_DOWN) {
+                headerBehavior.onInterceptTouchEvent(parent, calendarView, event)
+            }
+            headerBehavior.onTouchEvent(parent, calendarView, event)
+        } finally {
+            event.recycle()
+        }
+    }
+
+    private fun dispatchContentTouch(action: Int, eventTime: Long) {
+        val event = MotionEvent.obtain(downTime, eventTime, action, content.width / 2f, touchY, 0)
+        counters.inputEvents++
+        try {
+            parent.dispatchTouchEvent(event)
+        } finally {
+            event.recycle()
+        }
+    }
+
+    /**
+     * Plain rows, enough to scroll well past the collapse range.
+     */
+    private class RowAdapter : RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+
+        override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
+            val row = View(parent.context)
+            row.layoutParams = RecyclerView.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ROW_HEIGHT)
+            return object : RecyclerView.ViewHolder(row) {}
+        }
+
+        override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {
+        }
+
+        override fun getItemCount() = ROW_COUNT
+    }
+
+    private class CountingCoordinatorLayout(context: Context, private val counters: FrameCounters)
+        : CoordinatorLayout(context) {
+
+        override fun onMeasure(widthMeasureSpec: Int, heightMeasureSpec: Int) {
+            counters.measures++
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec)
+        }
+
+        override fun onLayout(changed: Boolean, l: Int, t: Int, r: Int, b: Int) {
+            counters.layouts++
+            super.onLayout(changed, l, t, r, b)
+        }
+    }
+
+    private class CountingCalendarView(context: Context, private val counters: FrameCounters)
+        : CalendarView(context) {
+
+        override fun onMeasure(widthMeasureSpec: Int, heightMeasureSpec: Int) {
+            counters.measures++
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec)
+        }
+
+        override fun onLayout(changed: Boolean, left: Int, top: Int, right: Int, bottom: Int) {
+            counters.layouts++
+            super.onLayout(changed, left, top, right, bottom)
+        }
+    }
+
+    private class CountingHeaderBehavior(private val counters: FrameCounters)
+        : CalendarView.Behavior() {
+
+        override fun setTopAndBottomOffset(offset: Int): Boolean {
+            val changed = super.setTopAndBottomOffset(offset)
+            if (changed) {
+                counters.headerOffsetWrites++
+            }
+            return changed
+        }
+    }
+
+    private class CountingScrollingViewBehavior(context: Context, private val counters: FrameCounters)
+        : CalendarView.ScrollingViewBehavior(context, null) {
+
+        override fun onDependentViewChanged(parent: CoordinatorLayout, child: View,
+                                            dependency: View): Boolean {
+            counters.dependentViewChanges++
+            return super.onDependentViewChanged(parent, child, dependency)
+        }
+
+        override fun setTopAndBottomOffset(offset: Int): Boolean {
+            val changed = super.setTopAndBottomOffset(offset)
+            if (changed) {
+                counters.contentOffsetWrites++
+            }
+            return changed
+        }
+    }
+
+    companion object {
+        private const val ROW_HEIGHT = 100
+        private const val ROW_COUNT = 100
+        // Where the content drag starts, below the content's top edge
+        private const val CONTENT_TOUCH_OFFSET = 20f
+    }
+}
@@ -0,0 +1,163 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Random
+
+/**
+ * Replays scripted gestures through [ScrollReplayHarness]. Every frame must stay within the
+ * default [FrameBudget]: no measure or layout, one dependent view dispatch and at most one
+ * offset write per view and input event.
+ */
+@RunWith(RobolectricTestRunner::class)
+class ScrollReplayTest {
+
+    private lateinit var harness: ScrollReplayHarness
+
+    @Before
+    fun setUp() {
+        harness = ScrollReplayHarness()
+    }
+
+    @Test
+    fun nestedScrollAndSnap_staysWithinBudget() {
+        val random = Random(SEED)
+        repeat(SEQUENCES) {
+            harness.nestedScroll(randomDeltas(random))
+            harness.releaseNestedScroll()
+            harness.settle()
+            assertSettled()
+        }
+    }
+
+    @Test
+    fun nestedFling_staysWithinBudget() {
+        val random = Random(SEED)
+        repeat(SEQUENCES) {
+            harness.nestedScroll(randomDeltas(random))
+            val velocity = (random.nextInt(8000) - 4000).toFloat()
+            harness.releaseNestedScroll(velocity)
+            harness.settle()
+            assertSettled()
+        }
+    }
+
+    @Test
+    fun headerDragAndSnap_staysWithinBudget() {
+        val random = Random(SEED)
+        repeat(SEQUENCES) {
+            harness.headerDrag(randomDeltas(random))
+            harness.settle()
+            assertSettled()
+        }
+    }
+
+    @Test
+    fun contentTouchDrag_collapsesAtFingerSpeed() {
+        val content = harness.content
+        val steps = IntArray(harness.coordinator.contentRange / DRAG_STEP + 10) { DRAG_STEP }
+        var gap = Float.NaN
+        var checkedMoves = 0
+        harness.contentDrag(steps) { fingerY ->
+            // From the move that crossed the touch slop until the collapse ends, the content
+            // keeps the same distance to the finger
+            if (harness.coordinator.fraction > 0f && !harness.coordinator.isCollapsed) {
+                if (gap.isNaN()) {
+                    gap = fingerY - content.top
+                } else {
+                    assertEquals("distance to the finger", gap, fingerY - content.top, 0f)
+                    checkedMoves++
+                }
+            }
+        }
+
+        assertTrue(harness.coordinator.isCollapsed)
+        assertTrue("moves checked: $checkedMoves",
+                checkedMoves >= harness.coordinator.contentRange / DRAG_STEP - 2)
+    }
+
+    @Test
+    fun contentTouchDragAndSnap_staysWithinBudget() {
+        val random = Random(SEED)
+        repeat(SEQUENCES / 10) {
+            harness.contentDrag(randomDeltas(random))
+            harness.settle()
+            assertSettled()
+        }
+    }
+
+    @Test
+    fun contentScrollAtAnEnd_isNotACollapseGesture() {
+        val calendarView = harness.calendarView
+        calendarView.setOnCollapseMetricsListener(CollapseMetrics.Listener { })
+        val metrics = calendarView.collapseMetrics!!
+        harness.nestedScroll(IntArray(harness.coordinator.contentRange / 20 + 5) { 20 })
+        harness.releaseNestedScroll()
+        harness.settle()
+        assertTrue(harness.coordinator.isCollapsed)
+
+        // Collapsed, so these only scroll the content
+        harness.nestedScroll(IntArray(10) { 20 })
+
+        assertFalse(metrics.isActive)
+        harness.releaseNestedScroll()
+    }
+
+    @Test
+    fun mixedGestures_staysWithinBudget() {
+        replayMixedGestures()
+    }
+
+    @Test
+    fun mixedGesturesOverRecyclerView_staysWithinBudget() {
+        harness = ScrollReplayHarness(contentType = ReplayContent.RECYCLER_VIEW)
+        replayMixedGestures()
+    }
+
+    private fun replayMixedGestures() {
+        val random = Random(SEED)
+        repeat(SEQUENCES) {
+            when (random.nextInt(3)) {
+                0 -> {
+                    harness.nestedScroll(randomDeltas(random))
+                    harness.releaseNestedScroll()
+                }
+                1 -> {
+                    harness.nestedScroll(randomDeltas(random))
+                    harness.releaseNestedScroll((random.nextInt(8000) - 4000).toFloat())
+                }
+                else -> harness.headerDrag(randomDeltas(random))
+            }
+            harness.settle()
+            assertSettled()
+        }
+        assertTrue("frames replayed: ${harness.frameCount}", harness.frameCount > SEQUENCES)
+    }
+
+    private fun assertSettled() {
+        val coordinator = harness.coordinator
+        assertTrue("not settled at ${coordinator.fraction}",
+                coordinator.isExpanded || coordinator.isCollapsed)
+    }
+
+    /**
+     * A drag of 4 to 23 events that mostly keeps one direction, with some jitter.
+     */
+    private fun randomDeltas(random: Random): IntArray {
+        val direction = if (random.nextBoolean()) 1 else -1
+        return IntArray(4 + random.nextInt(20)) {
+            direction * (random.nextInt(24) - 4)
+        }
+    }
+
+    companion object {
+        private const val SEED = 20190227L
+        private const val SEQUENCES = 1000
+        private const val DRAG_STEP = 10
+    }
+}
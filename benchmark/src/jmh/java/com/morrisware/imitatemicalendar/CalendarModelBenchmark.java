@@ -0,0 +1,135 @@
+package com.morrisware.imitatemicalendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Date math and month models, the work done when the calendar pages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CalendarModelBenchmark {
+
+    private static final int DAYS = 1000000;
+    private static final int MONTHS = 1200;
+    private static final int FIRST_JULIAN_DAY = JulianDay.fromDate(1970, 1, 1);
+
+    private MonthModelCache mCache;
+    private EventIntervalIndex mIndex;
+    private EventDensity mDensity;
+    private final int[] mLabels = new int[MonthModel.MAX_CELL_COUNT];
+
+    @Setup
+    public void setUp() {
+        mCache = new MonthModelCache();
+        for (int month = 1; month <= 12; month++) {
+            mCache.get(2019, month);
+        }
+        // Ten years of history, a few events a day and a multi-day one every week
+        mIndex = new EventIntervalIndex();
+        final int first = JulianDay.fromDate(2010, 1, 1);
+        mDensity = new EventDensity(first, first + 3649);
+        mIndex.setDensity(mDensity);
+        long id = 1;
+        for (int day = first; day < first + 3650; day++) {
+            for (int i = 0; i < 4; i++) {
+                mIndex.insert(new CalendarEvent(id++, null, day, i * 120, day, i * 120 + 60, false));
+            }
+            if (JulianDay.dayOfWeek(day) == JulianDay.SATURDAY - 1) {
+                mIndex.insert(new CalendarEvent(id++, null, day, 0, day + 3, 0, true));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DAYS)
+    public long julianDayRoundTrip() {
+        long sum = 0;
+        for (int i = 0; i < DAYS; i++) {
+            final int packed = JulianDay.toPacked(FIRST_JULIAN_DAY + i);
+            sum += JulianDay.fromPacked(packed) + JulianDay.dayOfWeek(FIRST_JULIAN_DAY + i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MONTHS)
+    public long buildMonth() {
+        long sum = 0;
+        for (int i = 0; i < MONTHS; i++) {
+            final MonthModel model = MonthModel.build(1950 + i / 12, i % 12 + 1,
+                    JulianDay.SUNDAY, FIRST_JULIAN_DAY, null);
+            sum += model.getRowCount();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MONTHS)
+    public long cacheHit() {
+        final MonthModelCache cache = mCache;
+        long sum = 0;
+        for (int i = 0; i < MONTHS; i++) {
+            sum += cache.get(2019, i % 12 + 1).getFirstJulianDay();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MONTHS)
+    public long buildMonthWithEvents() {
+        long sum = 0;
+        for (int i = 0; i < MONTHS; i++) {
+            final MonthModel model = MonthModel.build(2010 + i % 120 / 12, i % 12 + 1,
+                    JulianDay.SUNDAY, FIRST_JULIAN_DAY, mIndex);
+            sum += model.getBarCount();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DAYS)
+    public long lunarDate() {
+        long sum = 0;
+        for (int i = 0; i < DAYS; i++) {
+            sum += LunarCalendar.fromJulianDay(FIRST_JULIAN_DAY + i % 36500);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MONTHS)
+    public long fillLunarLabels() {
+        final int[] labels = mLabels;
+        long sum = 0;
+        for (int i = 0; i < MONTHS; i++) {
+            LunarCalendar.fill(JulianDay.gridStart(1950 + i / 12, i % 12 + 1, JulianDay.SUNDAY),
+                    labels, MonthModel.MAX_CELL_COUNT);
+            sum += labels[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DAYS)
+    public long densityRangeQueries() {
+        final EventDensity density = mDensity;
+        final int first = density.getFirstJulianDay();
+        long sum = 0;
+        for (int i = 0; i < DAYS; i++) {
+            final int day = first + i % 3650;
+            // Week total and rolling load, what a heatmap row asks for
+            sum += density.getEventCount(day - 6, day) + density.getRollingBusyMinutes(day);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,84 @@
+package com.morrisware.imitatemicalendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulated drags through {@link CollapseEngine}, the same calls the behaviors make per
+ * touch event and per frame. Scores are per drag step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CollapseEngineBenchmark {
+
+    private static final int STEPS = 1000000;
+    private static final int ITEM_HEIGHT = 150;
+
+    private CollapseEngine mEngine;
+    private SettleAnimation mAnimation;
+    private int[] mDeltas;
+
+    @Setup
+    public void setUp() {
+        mEngine = new CollapseEngine();
+        mEngine.setGeometry(ITEM_HEIGHT, 5 * ITEM_HEIGHT, 2);
+        mAnimation = new SettleAnimation(3f);
+        // Collapse and expand back and forth in uneven steps, like the allocation test
+        mDeltas = new int[1024];
+        for (int i = 0; i < mDeltas.length; i++) {
+            mDeltas[i] = (i / 40) % 2 == 0 ? 7 : -9;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public long contentDrag() {
+        final CollapseEngine engine = mEngine;
+        final int[] deltas = mDeltas;
+        long sum = 0;
+        for (int i = 0; i < STEPS; i++) {
+            sum += engine.scrollContentBy(deltas[i & 1023]);
+            sum += engine.getHeaderOffset() + engine.getContentTop(1000);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public long headerDrag() {
+        final CollapseEngine engine = mEngine;
+        final int[] deltas = mDeltas;
+        long sum = 0;
+        for (int i = 0; i < STEPS; i++) {
+            // The pinned row and visible height change while paging, keep them moving too
+            engine.setGeometry(ITEM_HEIGHT, (4 + (i >> 12) % 3) * ITEM_HEIGHT, (i >> 10) % 4);
+            sum += engine.dragHeaderBy(-deltas[i & 1023]);
+            sum += engine.getHeaderOffset() + engine.getContentTop(1000);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public float settleFrames() {
+        final SettleAnimation animation = mAnimation;
+        final int range = 4 * ITEM_HEIGHT;
+        float sum = 0;
+        for (int i = 0; i < STEPS; i++) {
+            if (!animation.step(1 / 60f)) {
+                animation.fling((i * 31) % range, (i & 1) == 0 ? 4000f : -4000f, 0, range);
+            }
+            sum += animation.getPosition();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,82 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * 日程, 不可变. 时间用本地的儒略日加当天的分钟数表示, 结束时间不包含在内, 全天日程的分钟数为 0.
+ **/
+public final class CalendarEvent {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    public final long id;
+    public final String title;
+    public final int startDay;
+    public final int startMinute;
+    public final int endDay;
+    public final int endMinute;
+    public final boolean allDay;
+
+    public CalendarEvent(long id, String title, int startDay, int startMinute,
+                         int endDay, int endMinute, boolean allDay) {
+        if (endDay < startDay || (endDay == startDay && endMinute < startMinute)) {
+            throw new IllegalArgumentException("Event ends before it starts");
+        }
+        this.id = id;
+        this.title = title;
+        this.startDay = startDay;
+        this.startMinute = startMinute;
+        this.endDay = endDay;
+        this.endMinute = endMinute;
+        this.allDay = allDay;
+    }
+
+    /**
+     * Returns the last day the event covers. Ending at midnight doesn't touch the next day,
+     * unless the event is empty.
+     */
+    public int getLastDay() {
+        return endMinute == 0 && endDay > startDay ? endDay - 1 : endDay;
+    }
+
+    /**
+     * Returns true if the event covers part of {@code julianDay}.
+     */
+    public boolean occursOn(int julianDay) {
+        return julianDay >= startDay && julianDay <= getLastDay();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CalendarEvent)) {
+            return false;
+        }
+        final CalendarEvent other = (CalendarEvent) o;
+        return id == other.id
+                && startDay == other.startDay
+                && startMinute == other.startMinute
+                && endDay == other.endDay
+                && endMinute == other.endMinute
+                && allDay == other.allDay
+                && (title == null ? other.title == null : title.equals(other.title));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (title != null ? title.hashCode() : 0);
+        result = 31 * result + startDay;
+        result = 31 * result + startMinute;
+        result = 31 * result + endDay;
+        result = 31 * result + endMinute;
+        result = 31 * result + (allDay ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CalendarEvent{" + id + ", " + title + ", " + startDay + ":" + startMinute
+                + " - " + endDay + ":" + endMinute + (allDay ? ", all day}" : "}");
+    }
+}
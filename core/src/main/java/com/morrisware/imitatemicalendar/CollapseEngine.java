@@ -0,0 +1,134 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * 日历收起/展开的偏移计算, 不依赖 Android, 可以在普通 JVM 上测试和做基准测试.
+ * 状态只有一个收起比例 (0 展开, 1 收起) 和当前的几何尺寸, 日历和下方内容的 offset 都由它算出.
+ **/
+public final class CollapseEngine {
+
+    private int mItemHeight;
+    private int mVisibleHeight;
+    private int mPinnedRow;
+
+    private float mFraction;
+
+    /**
+     * Returns how far the header moves: up to the pinned row, but never more than the rows
+     * the content covers.
+     */
+    public static int headerRange(int pinnedRow, int itemHeight, int visibleHeight) {
+        return Math.max(0, Math.min(pinnedRow * itemHeight, visibleHeight - itemHeight));
+    }
+
+    /**
+     * Returns how far the content moves, from below the visible rows up to below the pinned row.
+     */
+    public static int contentRange(int itemHeight, int visibleHeight) {
+        return Math.max(0, visibleHeight - itemHeight);
+    }
+
+    /**
+     * Returns the top of the grid inside a view always measured for
+     * {@link MonthModel#MAX_ROW_COUNT} rows, so that the pinned row sits where it would for a
+     * full-height grid.
+     */
+    public static int gridTop(int paddingTop, int contentHeight, int pinnedRow, int itemHeight) {
+        final int totalLength = MonthModel.MAX_ROW_COUNT * itemHeight;
+        return paddingTop + pinnedRow * (contentHeight - totalLength) / (MonthModel.MAX_ROW_COUNT - 1);
+    }
+
+    public void setGeometry(int itemHeight, int visibleHeight, int pinnedRow) {
+        mItemHeight = itemHeight;
+        mVisibleHeight = visibleHeight;
+        mPinnedRow = pinnedRow;
+    }
+
+    public float getFraction() {
+        return mFraction;
+    }
+
+    /**
+     * @return true if the fraction changed
+     */
+    public boolean setFraction(float fraction) {
+        fraction = fraction < 0f ? 0f : fraction > 1f ? 1f : fraction;
+        if (fraction != mFraction) {
+            mFraction = fraction;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCollapsed() {
+        return mFraction >= 1f;
+    }
+
+    public boolean isExpanded() {
+        return mFraction <= 0f;
+    }
+
+    public int getHeaderRange() {
+        return headerRange(mPinnedRow, mItemHeight, mVisibleHeight);
+    }
+
+    public int getContentRange() {
+        return contentRange(mItemHeight, mVisibleHeight);
+    }
+
+    public int getHeaderOffset() {
+        return -Math.round(mFraction * getHeaderRange());
+    }
+
+    public int getContentCollapse() {
+        return Math.round(mFraction * getContentRange());
+    }
+
+    /**
+     * Returns the content top for the current fraction, given where it starts when expanded.
+     */
+    public int getContentTop(int expandedContentTop) {
+        return expandedContentTop - getContentCollapse();
+    }
+
+    /**
+     * Collapses by {@code dy} content pixels, as seen by the nested scrolling child.
+     *
+     * @return the consumed pixels
+     */
+    public int scrollContentBy(int dy) {
+        return scrollBy(dy, getContentRange());
+    }
+
+    /**
+     * Collapses by {@code dy} header pixels, used when the header itself is dragged.
+     *
+     * @return the consumed pixels
+     */
+    public int dragHeaderBy(int dy) {
+        final int range = getHeaderRange();
+        // Without header range only the content moves, let it follow the finger
+        return scrollBy(dy, range != 0 ? range : getContentRange());
+    }
+
+    /**
+     * Converts a velocity measured on the header to content pixels.
+     */
+    public float headerToContentVelocity(float velocity) {
+        final int headerRange = getHeaderRange();
+        return headerRange != 0 ? velocity * getContentRange() / headerRange : velocity;
+    }
+
+    private int scrollBy(int dy, int range) {
+        if (range <= 0 || dy == 0) {
+            return 0;
+        }
+        final int current = Math.round(mFraction * range);
+        int target = current + dy;
+        target = target < 0 ? 0 : target > range ? range : target;
+        if (target == current) {
+            return 0;
+        }
+        mFraction = (float) target / range;
+        return target - current;
+    }
+}
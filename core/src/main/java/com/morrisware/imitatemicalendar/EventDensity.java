@@ -0,0 +1,199 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.Arrays;
+
+/**
+ * 已加载日期范围内每天的日程数和忙碌分钟数, 用于月视图和年视图的热力图.
+ * 每天的值存在基本类型数组里, 另有前缀和, 任意区间 (一周, 一个月, 最近 7 天) 的合计都是 O(1).
+ * 增删日程只改动它覆盖的那几天, 并记下最早改动的位置; 下次查询时只重算这之后的前缀和.
+ * <p>
+ * 作为 {@link MonthModel.Decorator} 时, 把每天的忙碌程度写进格子的 {@link MonthModel#DENSITY_MASK} 位.
+ * 所有方法都是同步的, 可以在预取线程构建月份的同时在主线程修改.
+ **/
+public final class EventDensity implements MonthModel.Decorator {
+
+    /**
+     * Days summed by {@link #getRollingBusyMinutes(int)}.
+     */
+    public static final int ROLLING_DAYS = 7;
+
+    // Busy minutes a day needs for each level above 1, any event at all makes it level 1
+    private static final int LEVEL_2_MINUTES = 2 * 60;
+    private static final int LEVEL_3_MINUTES = 5 * 60;
+
+    private final int mFirstJulianDay;
+    private final int mDayCount;
+    private final int[] mCounts;
+    private final int[] mMinutes;
+    // Sums of the days before each index, valid below mDirtyFrom
+    private final int[] mCountSums;
+    private final long[] mMinuteSums;
+    private int mDirtyFrom;
+
+    /**
+     * Covers the days {@code [firstJulianDay, lastJulianDay]}, events outside are clipped.
+     */
+    public EventDensity(int firstJulianDay, int lastJulianDay) {
+        if (lastJulianDay < firstJulianDay) {
+            throw new IllegalArgumentException("lastJulianDay < firstJulianDay");
+        }
+        mFirstJulianDay = firstJulianDay;
+        mDayCount = lastJulianDay - firstJulianDay + 1;
+        mCounts = new int[mDayCount];
+        mMinutes = new int[mDayCount];
+        mCountSums = new int[mDayCount + 1];
+        mMinuteSums = new long[mDayCount + 1];
+        mDirtyFrom = mDayCount;
+    }
+
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getLastJulianDay() {
+        return mFirstJulianDay + mDayCount - 1;
+    }
+
+    public synchronized void add(CalendarEvent event) {
+        apply(event, 1);
+    }
+
+    public synchronized void addAll(Iterable<CalendarEvent> events) {
+        for (CalendarEvent event : events) {
+            apply(event, 1);
+        }
+    }
+
+    /**
+     * Removes an event added before, it must not have changed since.
+     */
+    public synchronized void remove(CalendarEvent event) {
+        apply(event, -1);
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mMinutes, 0);
+        mDirtyFrom = 0;
+    }
+
+    /**
+     * Returns the number of events on {@code julianDay}, a multi-day event counting on
+     * each of its days.
+     */
+    public synchronized int getEventCount(int julianDay) {
+        final int index = julianDay - mFirstJulianDay;
+        return index >= 0 && index < mDayCount ? mCounts[index] : 0;
+    }
+
+    /**
+     * Returns the minutes of timed events on {@code julianDay}, overlapping events counted
+     * separately. All-day events are counted by {@link #getEventCount(int)} only.
+     */
+    public synchronized int getBusyMinutes(int julianDay) {
+        final int index = julianDay - mFirstJulianDay;
+        return index >= 0 && index < mDayCount ? mMinutes[index] : 0;
+    }
+
+    /**
+     * Returns the sum of {@link #getEventCount(int)} over {@code [firstDay, lastDay]},
+     * days outside the window count as 0.
+     */
+    public synchronized int getEventCount(int firstDay, int lastDay) {
+        final int from = clamp(firstDay);
+        final int to = clamp(lastDay + 1);
+        if (from >= to) {
+            return 0;
+        }
+        updateSums();
+        return mCountSums[to] - mCountSums[from];
+    }
+
+    /**
+     * Returns the sum of {@link #getBusyMinutes(int)} over {@code [firstDay, lastDay]}.
+     */
+    public synchronized long getBusyMinutes(int firstDay, int lastDay) {
+        final int from = clamp(firstDay);
+        final int to = clamp(lastDay + 1);
+        if (from >= to) {
+            return 0;
+        }
+        updateSums();
+        return mMinuteSums[to] - mMinuteSums[from];
+    }
+
+    /**
+     * Returns the busy minutes of the {@link #ROLLING_DAYS} days ending on {@code julianDay}.
+     */
+    public long getRollingBusyMinutes(int julianDay) {
+        return getBusyMinutes(julianDay - ROLLING_DAYS + 1, julianDay);
+    }
+
+    /**
+     * Returns how busy {@code julianDay} is, from 0 for a free day to
+     * {@link MonthModel#MAX_DENSITY}.
+     */
+    public synchronized int getLevel(int julianDay) {
+        final int index = julianDay - mFirstJulianDay;
+        return index >= 0 && index < mDayCount ? level(mCounts[index], mMinutes[index]) : 0;
+    }
+
+    @Override
+    public synchronized void decorate(int firstJulianDay, int[] cells, int count) {
+        final int from = Math.max(0, mFirstJulianDay - firstJulianDay);
+        final int to = Math.min(count, mFirstJulianDay + mDayCount - firstJulianDay);
+        for (int i = from; i < to; i++) {
+            final int index = firstJulianDay + i - mFirstJulianDay;
+            cells[i] |= level(mCounts[index], mMinutes[index]) << MonthModel.DENSITY_SHIFT;
+        }
+    }
+
+    private static int level(int count, int minutes) {
+        if (count == 0) {
+            return 0;
+        } else if (minutes >= LEVEL_3_MINUTES) {
+            return 3;
+        } else if (minutes >= LEVEL_2_MINUTES) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Adds {@code sign} times the event to each day it covers inside the window.
+     */
+    private void apply(CalendarEvent event, int sign) {
+        final int lastDay = event.getLastDay();
+        final int from = clamp(event.startDay);
+        final int to = clamp(lastDay + 1);
+        for (int index = from; index < to; index++) {
+            mCounts[index] += sign;
+            if (!event.allDay) {
+                final int day = mFirstJulianDay + index;
+                final int start = day == event.startDay ? event.startMinute : 0;
+                final int end = day == event.endDay ? event.endMinute : CalendarEvent.MINUTES_PER_DAY;
+                mMinutes[index] += sign * (end - start);
+            }
+        }
+        if (from < to && from < mDirtyFrom) {
+            mDirtyFrom = from;
+        }
+    }
+
+    /**
+     * Recomputes the prefix sums from the first day changed since the last query.
+     */
+    private void updateSums() {
+        final int[] countSums = mCountSums;
+        final long[] minuteSums = mMinuteSums;
+        for (int i = mDirtyFrom; i < mDayCount; i++) {
+            countSums[i + 1] = countSums[i] + mCounts[i];
+            minuteSums[i + 1] = minuteSums[i] + mMinutes[i];
+        }
+        mDirtyFrom = mDayCount;
+    }
+
+    private int clamp(int julianDay) {
+        return Math.max(0, Math.min(mDayCount, julianDay - mFirstJulianDay));
+    }
+}
@@ -0,0 +1,330 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存中的日程区间索引, 覆盖已经加载的一段日期. 日程按开始日分桶, 每桶 {@link #BUCKET_DAYS} 天:
+ * 跨度短于一桶的日程, 与 [a, b] 重叠的一定在 a 之前一桶到 b 之间开始, 只需看这几个桶;
+ * 更长的日程很少, 单独放一个列表. 增删只改动一个桶, 不需要重建.
+ * <p>
+ * 作为 {@link MonthModel.BarDecorator} 时, 一次扫描同时算出每格的标记和跨天横条,
+ * 耗时与 日程数 + 格子数 成正比, 扫描过程不分配内存.
+ * 所有方法都是同步的, 可以在预取线程构建月份的同时在主线程修改.
+ **/
+public final class EventIntervalIndex implements MonthModel.BarDecorator {
+
+    private static final int BUCKET_SHIFT = 5;
+    public static final int BUCKET_DAYS = 1 << BUCKET_SHIFT;
+
+    private static final int ROWS = MonthModel.MAX_ROW_COUNT;
+    private static final int COLUMNS = JulianDay.DAYS_IN_WEEK;
+    private static final int LANES = MonthModel.MAX_BAR_LANES;
+
+    private static final CalendarEvent[] NO_EVENTS = new CalendarEvent[0];
+
+    // Buckets sorted by key, each sorted by start day, longer events first
+    private int[] mBucketKeys = new int[16];
+    private Bucket[] mBuckets = new Bucket[16];
+    private int mBucketCount;
+    private final Bucket mLongEvents = new Bucket();
+    private final Map<Long, CalendarEvent> mById = new HashMap<>();
+
+    // Sweep scratch
+    private final int[] mCounts = new int[MonthModel.MAX_CELL_COUNT + 1];
+    private final int[] mLaneEnds = new int[LANES];
+    private CalendarEvent[] mBarEvents = new CalendarEvent[16];
+    private int mBarEventCount;
+    private final List<CalendarEvent> mOccurrences = new ArrayList<>();
+
+    private RecurrenceExpander mRecurrences;
+    private EventDensity mDensity;
+
+    /**
+     * Also decorates months with the occurrences of recurring events, expanded on demand.
+     */
+    public synchronized void setRecurrenceExpander(RecurrenceExpander recurrences) {
+        mRecurrences = recurrences;
+    }
+
+    /**
+     * Keeps {@code density} in step with the events inserted and deleted from now on.
+     */
+    public synchronized void setDensity(EventDensity density) {
+        mDensity = density;
+    }
+
+    /**
+     * Adds {@code event}, replacing the event with the same id.
+     */
+    public synchronized void insert(CalendarEvent event) {
+        delete(event.id);
+        mById.put(event.id, event);
+        if (mDensity != null) {
+            mDensity.add(event);
+        }
+        if (isLong(event)) {
+            mLongEvents.add(event);
+        } else {
+            getOrCreateBucket(event.startDay >> BUCKET_SHIFT).add(event);
+        }
+    }
+
+    public synchronized void insertAll(Iterable<CalendarEvent> events) {
+        for (CalendarEvent event : events) {
+            insert(event);
+        }
+    }
+
+    /**
+     * Removes the event with the given id.
+     *
+     * @return the removed event, or null if there was none
+     */
+    public synchronized CalendarEvent delete(long id) {
+        final CalendarEvent event = mById.remove(id);
+        if (event == null) {
+            return null;
+        }
+        if (mDensity != null) {
+            mDensity.remove(event);
+        }
+        if (isLong(event)) {
+            mLongEvents.remove(event);
+        } else {
+            final int index = Arrays.binarySearch(mBucketKeys, 0, mBucketCount,
+                    event.startDay >> BUCKET_SHIFT);
+            mBuckets[index].remove(event);
+        }
+        return event;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(mBuckets, 0, mBucketCount, null);
+        mBucketCount = 0;
+        mLongEvents.clear();
+        mById.clear();
+        if (mDensity != null) {
+            mDensity.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return mById.size();
+    }
+
+    /**
+     * Returns the number of events overlapping the days {@code [firstDay, lastDay]}.
+     */
+    public synchronized int count(int firstDay, int lastDay) {
+        int count = 0;
+        final int lastKey = lastDay >> BUCKET_SHIFT;
+        for (int i = firstBucket(firstDay); i < mBucketCount && mBucketKeys[i] <= lastKey; i++) {
+            count += mBuckets[i].count(firstDay, lastDay);
+        }
+        return count + mLongEvents.count(firstDay, lastDay);
+    }
+
+    @Override
+    public void decorate(int firstJulianDay, int[] cells, int count) {
+        decorate(firstJulianDay, cells, count, null);
+    }
+
+    @Override
+    public synchronized int decorate(int firstJulianDay, int[] cells, int count, int[] bars) {
+        final int lastDay = firstJulianDay + count - 1;
+        final int[] counts = mCounts;
+        Arrays.fill(counts, 0, count + 1, 0);
+
+        // Difference array: +1 where an event enters the grid, -1 after it leaves
+        mBarEventCount = 0;
+        final int lastKey = lastDay >> BUCKET_SHIFT;
+        for (int i = firstBucket(firstJulianDay); i < mBucketCount && mBucketKeys[i] <= lastKey; i++) {
+            sweep(mBuckets[i], firstJulianDay, lastDay, bars != null);
+        }
+        sweep(mLongEvents, firstJulianDay, lastDay, bars != null);
+        if (mRecurrences != null) {
+            final List<CalendarEvent> occurrences = mOccurrences;
+            mRecurrences.expand(firstJulianDay, lastDay, occurrences);
+            for (int i = 0, z = occurrences.size(); i < z; i++) {
+                sweep(occurrences.get(i), firstJulianDay, lastDay, bars != null);
+            }
+            occurrences.clear();
+        }
+
+        int running = 0;
+        for (int i = 0; i < count; i++) {
+            running += counts[i];
+            if (running > 0) {
+                cells[i] |= MonthModel.FLAG_MARKER;
+            }
+        }
+        if (bars == null) {
+            return 0;
+        }
+        final int barCount = layoutBars(firstJulianDay, count / COLUMNS, mBarEventCount, bars);
+        Arrays.fill(mBarEvents, 0, mBarEventCount, null);
+        return barCount;
+    }
+
+    private void sweep(Bucket bucket, int firstDay, int lastDay, boolean withBars) {
+        for (int i = 0; i < bucket.size; i++) {
+            final CalendarEvent event = bucket.events[i];
+            if (event.startDay > lastDay) {
+                // Sorted by start, nothing further overlaps
+                break;
+            }
+            sweep(event, firstDay, lastDay, withBars);
+        }
+    }
+
+    private void sweep(CalendarEvent event, int firstDay, int lastDay, boolean withBars) {
+        final int eventLastDay = event.getLastDay();
+        if (event.startDay > lastDay || eventLastDay < firstDay) {
+            return;
+        }
+        mCounts[Math.max(event.startDay, firstDay) - firstDay]++;
+        mCounts[Math.min(eventLastDay, lastDay) - firstDay + 1]--;
+        if (withBars && (event.allDay || eventLastDay > event.startDay)) {
+            addBarEvent(event);
+        }
+    }
+
+    private void addBarEvent(CalendarEvent event) {
+        final int size = mBarEventCount;
+        if (size == mBarEvents.length) {
+            mBarEvents = Arrays.copyOf(mBarEvents, size * 2);
+        }
+        // Insertion sort, the long-event list is merged into the bucket order here
+        int i = size;
+        while (i > 0 && comesBefore(event, mBarEvents[i - 1])) {
+            mBarEvents[i] = mBarEvents[i - 1];
+            i--;
+        }
+        mBarEvents[i] = event;
+        mBarEventCount = size + 1;
+    }
+
+    /**
+     * Stacks the bars of each row greedily: events by start, longer first, each on the lowest
+     * lane free at its first column.
+     */
+    private int layoutBars(int firstJulianDay, int rowCount, int eventCount, int[] bars) {
+        int barCount = 0;
+        for (int row = 0; row < Math.min(rowCount, ROWS); row++) {
+            final int rowFirstDay = firstJulianDay + row * COLUMNS;
+            final int rowLastDay = rowFirstDay + COLUMNS - 1;
+            Arrays.fill(mLaneEnds, -1);
+            for (int i = 0; i < eventCount; i++) {
+                final CalendarEvent event = mBarEvents[i];
+                final int eventLastDay = event.getLastDay();
+                if (event.startDay > rowLastDay || eventLastDay < rowFirstDay) {
+                    continue;
+                }
+                final int firstColumn = Math.max(event.startDay, rowFirstDay) - rowFirstDay;
+                final int lastColumn = Math.min(eventLastDay, rowLastDay) - rowFirstDay;
+                for (int lane = 0; lane < LANES; lane++) {
+                    if (mLaneEnds[lane] < firstColumn) {
+                        mLaneEnds[lane] = lastColumn;
+                        int flags = 0;
+                        if (event.startDay < rowFirstDay) {
+                            flags |= MonthModel.BAR_CONTINUES_BEFORE;
+                        }
+                        if (eventLastDay > rowLastDay) {
+                            flags |= MonthModel.BAR_CONTINUES_AFTER;
+                        }
+                        bars[barCount++] = MonthModel.bar(row, firstColumn, lastColumn, lane, flags);
+                        break;
+                    }
+                }
+            }
+        }
+        return barCount;
+    }
+
+    private static boolean comesBefore(CalendarEvent a, CalendarEvent b) {
+        if (a.startDay != b.startDay) {
+            return a.startDay < b.startDay;
+        }
+        return a.getLastDay() > b.getLastDay();
+    }
+
+    private static boolean isLong(CalendarEvent event) {
+        return event.getLastDay() - event.startDay >= BUCKET_DAYS;
+    }
+
+    /**
+     * Returns the first bucket that may hold a short event overlapping {@code day}.
+     */
+    private int firstBucket(int day) {
+        final int index = Arrays.binarySearch(mBucketKeys, 0, mBucketCount,
+                (day - BUCKET_DAYS + 1) >> BUCKET_SHIFT);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private Bucket getOrCreateBucket(int key) {
+        int index = Arrays.binarySearch(mBucketKeys, 0, mBucketCount, key);
+        if (index >= 0) {
+            return mBuckets[index];
+        }
+        index = -index - 1;
+        if (mBucketCount == mBucketKeys.length) {
+            mBucketKeys = Arrays.copyOf(mBucketKeys, mBucketCount * 2);
+            mBuckets = Arrays.copyOf(mBuckets, mBucketCount * 2);
+        }
+        System.arraycopy(mBucketKeys, index, mBucketKeys, index + 1, mBucketCount - index);
+        System.arraycopy(mBuckets, index, mBuckets, index + 1, mBucketCount - index);
+        final Bucket bucket = new Bucket();
+        mBucketKeys[index] = key;
+        mBuckets[index] = bucket;
+        mBucketCount++;
+        return bucket;
+    }
+
+    private static final class Bucket {
+        CalendarEvent[] events = NO_EVENTS;
+        int size;
+
+        void add(CalendarEvent event) {
+            if (size == events.length) {
+                events = Arrays.copyOf(events, Math.max(8, size * 2));
+            }
+            int i = size;
+            while (i > 0 && comesBefore(event, events[i - 1])) {
+                events[i] = events[i - 1];
+                i--;
+            }
+            events[i] = event;
+            size++;
+        }
+
+        void remove(CalendarEvent event) {
+            for (int i = 0; i < size; i++) {
+                if (events[i] == event) {
+                    System.arraycopy(events, i + 1, events, i, size - i - 1);
+                    events[--size] = null;
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(events, 0, size, null);
+            size = 0;
+        }
+
+        int count(int firstDay, int lastDay) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                final CalendarEvent event = events[i];
+                if (event.startDay <= lastDay && event.getLastDay() >= firstDay) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.Arrays;
+
+/**
+ * 重复日程, 不可变: 第一次的时间, 重复规则, 以及被删除的那几次 (按开始日).
+ **/
+public final class EventSeries {
+
+    private static final int[] NO_EXCEPTIONS = new int[0];
+
+    public final long id;
+    /**
+     * The first occurrence. Later ones keep its start minute and duration.
+     */
+    public final CalendarEvent first;
+    public final RecurrenceRule rule;
+    private final int[] mExceptionDays;
+
+    public EventSeries(long id, CalendarEvent first, RecurrenceRule rule) {
+        this(id, first, rule, NO_EXCEPTIONS);
+    }
+
+    /**
+     * @param exceptionDays start days of the occurrences that were deleted
+     */
+    public EventSeries(long id, CalendarEvent first, RecurrenceRule rule, int[] exceptionDays) {
+        this.id = id;
+        this.first = first;
+        this.rule = rule;
+        mExceptionDays = exceptionDays.clone();
+        Arrays.sort(mExceptionDays);
+    }
+
+    /**
+     * Returns a copy of this series without the occurrence starting on {@code julianDay}.
+     */
+    public EventSeries withException(int julianDay) {
+        final int[] exceptions = Arrays.copyOf(mExceptionDays, mExceptionDays.length + 1);
+        exceptions[mExceptionDays.length] = julianDay;
+        return new EventSeries(id, first, rule, exceptions);
+    }
+
+    /**
+     * Returns a sorted copy of the start days of the deleted occurrences.
+     */
+    public int[] getExceptionDays() {
+        return mExceptionDays.clone();
+    }
+
+    public boolean isException(int julianDay) {
+        return Arrays.binarySearch(mExceptionDays, julianDay) >= 0;
+    }
+
+    /**
+     * Returns how many days past its start day an occurrence ends on.
+     */
+    public int getSpanDays() {
+        return first.getLastDay() - first.startDay;
+    }
+
+    /**
+     * Returns the occurrence starting on {@code julianDay}. Its id is unique among the
+     * occurrences of all series and negative, so it never clashes with single events.
+     */
+    public CalendarEvent occurrence(int julianDay) {
+        return new CalendarEvent(occurrenceId(id, julianDay), first.title,
+                julianDay, first.startMinute,
+                julianDay + first.endDay - first.startDay, first.endMinute, first.allDay);
+    }
+
+    /**
+     * Julian days fit in 22 bits until the year 6700.
+     */
+    public static long occurrenceId(long seriesId, int julianDay) {
+        return -((seriesId << 22) | julianDay);
+    }
+}
@@ -0,0 +1,107 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * 某个地区的节假日, 从 {@link HolidayData} 读取. 作为 {@link MonthModel.NameDecorator}
+ * 给月份网格加上放假/调休上班标记和节日名称, 每个月只做一次二分查找, 之后顺序读取.
+ **/
+public final class HolidayCalendar implements MonthModel.NameDecorator {
+
+    private final HolidayData mData;
+    private final int mRegion;
+    private final int mFirstYear;
+    private final int mLastYear;
+
+    HolidayCalendar(HolidayData data, int region) {
+        mData = data;
+        mRegion = region;
+        mFirstYear = data.getFirstYear(region);
+        mLastYear = mFirstYear + data.getYearCount(region) - 1;
+    }
+
+    public String getRegion() {
+        return mData.getRegion(mRegion);
+    }
+
+    /**
+     * Returns the first year the dataset covers for this region.
+     */
+    public int getFirstYear() {
+        return mFirstYear;
+    }
+
+    public int getLastYear() {
+        return mLastYear;
+    }
+
+    /**
+     * Returns the {@link HolidayData#HOLIDAY}, {@link HolidayData#WORKDAY} and
+     * {@link HolidayData#FESTIVAL} flags of {@code julianDay}.
+     */
+    public int getFlags(int julianDay) {
+        final int entry = find(julianDay);
+        return entry >= 0 ? mData.getFlags(entry) : 0;
+    }
+
+    /**
+     * Returns the name of the holiday or festival on {@code julianDay}, or null.
+     */
+    public String getName(int julianDay) {
+        final int entry = find(julianDay);
+        return entry >= 0 ? mData.getName(entry) : null;
+    }
+
+    @Override
+    public void decorate(int firstJulianDay, int[] cells, int count) {
+        decorate(firstJulianDay, cells, count, null);
+    }
+
+    @Override
+    public boolean decorate(int firstJulianDay, int[] cells, int count, String[] names) {
+        final int lastJulianDay = firstJulianDay + count - 1;
+        final int firstYear = Math.max(mFirstYear, yearOf(firstJulianDay));
+        final int lastYear = Math.min(mLastYear, yearOf(lastJulianDay));
+        if (firstYear > lastYear) {
+            return false;
+        }
+        final HolidayData data = mData;
+        final int end = data.getYearStart(mRegion, lastYear + 1);
+        boolean named = false;
+        for (int entry = data.lowerBound(data.getYearStart(mRegion, firstYear), end, firstJulianDay);
+             entry < end; entry++) {
+            final int day = data.getDay(entry);
+            if (day > lastJulianDay) {
+                break;
+            }
+            final int index = day - firstJulianDay;
+            final int flags = data.getFlags(entry);
+            if ((flags & HolidayData.HOLIDAY) != 0) {
+                cells[index] |= MonthModel.FLAG_HOLIDAY;
+            }
+            if ((flags & HolidayData.WORKDAY) != 0) {
+                cells[index] |= MonthModel.FLAG_WORKDAY;
+            }
+            if (names != null) {
+                final String name = data.getName(entry);
+                if (name != null) {
+                    names[index] = name;
+                    named = true;
+                }
+            }
+        }
+        return named;
+    }
+
+    private int find(int julianDay) {
+        final int year = yearOf(julianDay);
+        if (year < mFirstYear || year > mLastYear) {
+            return -1;
+        }
+        final int end = mData.getYearStart(mRegion, year + 1);
+        final int entry = mData.lowerBound(mData.getYearStart(mRegion, year), end, julianDay);
+        return entry < end && mData.getDay(entry) == julianDay ? entry : -1;
+    }
+
+    private static int yearOf(int julianDay) {
+        return JulianDay.year(JulianDay.toPacked(julianDay));
+    }
+}
@@ -0,0 +1,185 @@
+package com.morrisware.imitatemicalendar;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 各地区的节假日, 调休上班日和节日, 直接读取二进制数据 (通常是内存映射的 asset), 不在启动时解析成对象.
+ * 查询某天时先按年份索引定位, 再在该年的记录里二分查找, 只会读到实际查看的地区和年份所在的页.
+ * <p>
+ * 格式 (大端):
+ * <pre>
+ * header   magic "HOLI", u16 version, u16 region count, u32 entries offset, u32 names offset
+ * regions  sorted by code: u16 code, u16 first year, u16 year count, u16 0, u32 year index offset
+ * index    per region, year count + 1 u32: index of the first entry of each year, then the end
+ * entries  sorted by region then day: i32 julian day, u16 flags, u16 name or 0xffff
+ * names    u16 count, u16 0, count + 1 u32 offsets into the UTF-8 bytes that follow
+ * </pre>
+ * 数据由 core/src/tools 里的 HolidayDataWriter 在构建时生成, 不随 app 发布.
+ **/
+public final class HolidayData {
+
+    public static final int MAGIC = 0x484f4c49;
+    public static final int VERSION = 1;
+
+    /**
+     * Day off, including weekends that are part of a holiday.
+     */
+    public static final int HOLIDAY = 1;
+    /**
+     * Weekend day worked to make up for a holiday.
+     */
+    public static final int WORKDAY = 1 << 1;
+    /**
+     * Day with a name, whether or not it is a day off.
+     */
+    public static final int FESTIVAL = 1 << 2;
+
+    static final int HEADER_SIZE = 16;
+    static final int REGION_SIZE = 12;
+    static final int ENTRY_SIZE = 8;
+    static final int NO_NAME = 0xffff;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mRegionCount;
+    private final int mEntriesOffset;
+    private final int mNamesOffset;
+    private final int mNameCount;
+    // Decoded on first use, most names are never shown
+    private final String[] mNames;
+
+    /**
+     * Wraps {@code buffer} without copying it. Only the header is read here.
+     *
+     * @throws IllegalArgumentException if it is not a dataset of {@link #VERSION}
+     */
+    public HolidayData(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a holiday dataset");
+        }
+        final int version = buffer.getShort(4) & 0xffff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported holiday dataset version " + version);
+        }
+        mBuffer = buffer;
+        mRegionCount = buffer.getShort(6) & 0xffff;
+        mEntriesOffset = buffer.getInt(8);
+        mNamesOffset = buffer.getInt(12);
+        mNameCount = buffer.getShort(mNamesOffset) & 0xffff;
+        mNames = new String[mNameCount];
+    }
+
+    public int getRegionCount() {
+        return mRegionCount;
+    }
+
+    public String getRegion(int index) {
+        return decodeRegion(mBuffer.getShort(HEADER_SIZE + index * REGION_SIZE) & 0xffff);
+    }
+
+    /**
+     * Returns the calendar of a region such as "CN", or null if the dataset doesn't have it.
+     */
+    public HolidayCalendar getCalendar(String region) {
+        final int index = indexOfRegion(region);
+        return index >= 0 ? new HolidayCalendar(this, index) : null;
+    }
+
+    int indexOfRegion(String region) {
+        if (region == null || region.length() != 2) {
+            return -1;
+        }
+        final int code = encodeRegion(region);
+        int low = 0;
+        int high = mRegionCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midCode = mBuffer.getShort(HEADER_SIZE + mid * REGION_SIZE) & 0xffff;
+            if (midCode < code) {
+                low = mid + 1;
+            } else if (midCode > code) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    int getFirstYear(int region) {
+        return mBuffer.getShort(HEADER_SIZE + region * REGION_SIZE + 2) & 0xffff;
+    }
+
+    int getYearCount(int region) {
+        return mBuffer.getShort(HEADER_SIZE + region * REGION_SIZE + 4) & 0xffff;
+    }
+
+    /**
+     * Returns the index of the first entry of {@code year}, or of the entry past the region's
+     * last one for {@code firstYear + yearCount}.
+     */
+    int getYearStart(int region, int year) {
+        final int indexOffset = mBuffer.getInt(HEADER_SIZE + region * REGION_SIZE + 8);
+        return mBuffer.getInt(indexOffset + (year - getFirstYear(region)) * 4);
+    }
+
+    /**
+     * Returns the first entry in {@code [from, to)} on or after {@code julianDay}.
+     */
+    int lowerBound(int from, int to, int julianDay) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getDay(mid) < julianDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    int getDay(int entry) {
+        return mBuffer.getInt(mEntriesOffset + entry * ENTRY_SIZE);
+    }
+
+    int getFlags(int entry) {
+        return mBuffer.getShort(mEntriesOffset + entry * ENTRY_SIZE + 4) & 0xffff;
+    }
+
+    /**
+     * Returns the name of an entry, or null.
+     */
+    String getName(int entry) {
+        final int name = mBuffer.getShort(mEntriesOffset + entry * ENTRY_SIZE + 6) & 0xffff;
+        if (name == NO_NAME || name >= mNameCount) {
+            return null;
+        }
+        String decoded = mNames[name];
+        if (decoded == null) {
+            final int offsets = mNamesOffset + 4;
+            final int data = offsets + (mNameCount + 1) * 4;
+            final int start = mBuffer.getInt(offsets + name * 4);
+            final int end = mBuffer.getInt(offsets + (name + 1) * 4);
+            final byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = mBuffer.get(data + start + i);
+            }
+            // Racing threads decode the same string, either copy may stay
+            decoded = new String(bytes, UTF_8);
+            mNames[name] = decoded;
+        }
+        return decoded;
+    }
+
+    static int encodeRegion(String region) {
+        return region.charAt(0) << 8 | region.charAt(1);
+    }
+
+    static String decodeRegion(int code) {
+        return new String(new char[]{(char) (code >> 8), (char) (code & 0xff)});
+    }
+}
@@ -0,0 +1,39 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * {@link IcsParser} 读出的一个 VEVENT: 单次日程, 重复日程及其第一次, 或者替换重复日程某一次的单次日程.
+ **/
+public final class IcsEvent {
+
+    /**
+     * The event, or the first occurrence of {@link #series}.
+     */
+    public final CalendarEvent event;
+    /**
+     * The series if the VEVENT has a supported RRULE, else null.
+     */
+    public final EventSeries series;
+    /**
+     * The id of the series one occurrence of which {@link #event} replaces, or 0.
+     */
+    public final long masterSeriesId;
+    /**
+     * The start day of the replaced occurrence, -1 unless {@link #isOverride()}.
+     */
+    public final int recurrenceDay;
+
+    IcsEvent(CalendarEvent event, EventSeries series, long masterSeriesId, int recurrenceDay) {
+        this.event = event;
+        this.series = series;
+        this.masterSeriesId = masterSeriesId;
+        this.recurrenceDay = recurrenceDay;
+    }
+
+    /**
+     * Returns true if this VEVENT has a RECURRENCE-ID, the series it belongs to should
+     * skip {@link #recurrenceDay}.
+     */
+    public boolean isOverride() {
+        return masterSeriesId != 0;
+    }
+}
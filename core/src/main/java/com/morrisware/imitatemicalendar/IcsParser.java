@@ -0,0 +1,664 @@
+package com.morrisware.imitatemicalendar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * 流式的 iCalendar (RFC 5545) 解析器. 从 channel 按块读取, 边解码边展开折行,
+ * 每次 {@link #next()} 只解析出一个 VEVENT, 内存占用与文件大小无关.
+ * <p>
+ * 只读取日程列表需要的属性: UID, SUMMARY, DTSTART, DTEND, DURATION, RRULE, EXDATE, RECURRENCE-ID.
+ * 带 RECURRENCE-ID 的 VEVENT 是重复日程某一次的修改版, 作为单次日程导入, 被替换的那一次记为重复日程的例外:
+ * 重复日程在它之后读到时由这里合并, 在它之前读到时由调用方按 {@link IcsEvent#masterSeriesId} 补上.
+ * UTC 时间换算到给定时区, 带 TZID 的时间按本地时间处理. 无法用 {@link RecurrenceRule}
+ * 表示的 RRULE (如 BYSETPOS, 每月第几个星期几) 只导入第一次, 见 {@link #getUnsupportedRuleCount()};
+ * 与开始日相同的 BYMONTHDAY, BYMONTH (Outlook 会写出) 按普通的每月/每年重复处理.
+ **/
+public final class IcsParser implements Closeable {
+
+    private static final int BYTE_BUFFER_SIZE = 16 * 1024;
+    private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+    private static final int EPOCH_JULIAN_DAY = JulianDay.fromDate(1970, 1, 1);
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    private static final String[] WEEKDAYS = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+
+    private final ReadableByteChannel mChannel;
+    private final TimeZone mTimeZone;
+    private final CharsetDecoder mDecoder;
+    private final ByteBuffer mBytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    private final CharBuffer mChars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private boolean mEndOfInput;
+    private boolean mDecoderFlushed;
+    private long mBytesRead;
+
+    // The logical line being unfolded
+    private final StringBuilder mLine = new StringBuilder(256);
+    private boolean mLineEnded;
+    private boolean mLastLineReturned;
+
+    // Properties of the VEVENT being read, reset at each BEGIN:VEVENT
+    private boolean mInEvent;
+    private int mNestedDepth;
+    private String mUid;
+    private String mSummary;
+    private int mStartDay;
+    private int mStartMinute;
+    private boolean mStartIsDate;
+    private int mEndDay;
+    private int mEndMinute;
+    private boolean mHasEnd;
+    private long mDurationMinutes;
+    private boolean mHasDuration;
+    private String mRule;
+    private int[] mExceptions = new int[8];
+    private int mExceptionCount;
+    private int mRecurrenceDay;
+
+    // Days replaced by overrides, by the id of their series, for series read after them
+    private final HashMap<Long, int[]> mOverriddenDays = new HashMap<>();
+
+    private int mEventCount;
+    private int mSkippedCount;
+    private int mUnsupportedRuleCount;
+
+    // Scratch for date parsing
+    private int mParsedDay;
+    private int mParsedMinute;
+
+    /**
+     * @param timeZone the zone UTC times are converted to
+     */
+    public IcsParser(ReadableByteChannel channel, TimeZone timeZone) {
+        mChannel = channel;
+        mTimeZone = timeZone;
+        mDecoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Both buffers start empty, in read mode
+        mBytes.flip();
+        mChars.flip();
+    }
+
+    /**
+     * Returns the next VEVENT, or null at the end of the input.
+     */
+    public IcsEvent next() throws IOException {
+        while (readLine()) {
+            final String line = mLine.toString();
+            mLine.setLength(0);
+            final IcsEvent event = parseLine(line);
+            if (event != null) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the bytes consumed from the channel so far, for progress reporting.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * Returns the number of VEVENTs dropped because they had no usable start or ended before
+     * they started.
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Returns the number of recurring VEVENTs imported as a single event.
+     */
+    public int getUnsupportedRuleCount() {
+        return mUnsupportedRuleCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Reads the next logical line into {@link #mLine}, joining folded lines.
+     *
+     * @return false at the end of the input
+     */
+    private boolean readLine() throws IOException {
+        while (true) {
+            if (!mChars.hasRemaining() && !fill()) {
+                if (mLastLineReturned) {
+                    return false;
+                }
+                mLastLineReturned = true;
+                mLineEnded = false;
+                return mLine.length() > 0;
+            }
+            final char c = mChars.get();
+            if (mLineEnded) {
+                mLineEnded = false;
+                if (c == ' ' || c == '\t') {
+                    // A fold, the line carries on without the leading space
+                    continue;
+                }
+                // c starts the next line
+                mChars.position(mChars.position() - 1);
+                return true;
+            }
+            if (c == '\n') {
+                mLineEnded = true;
+            } else if (c != '\r') {
+                mLine.append(c);
+            }
+        }
+    }
+
+    /**
+     * Decodes the next chunk of the channel into {@link #mChars}.
+     *
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        if (mDecoderFlushed) {
+            return false;
+        }
+        mChars.clear();
+        while (true) {
+            if (!mEndOfInput) {
+                mBytes.compact();
+                final int read = mChannel.read(mBytes);
+                mBytes.flip();
+                if (read < 0) {
+                    mEndOfInput = true;
+                } else {
+                    mBytesRead += read;
+                }
+            }
+            final CoderResult result = mDecoder.decode(mBytes, mChars, mEndOfInput);
+            if (mEndOfInput && result.isUnderflow()) {
+                mDecoder.flush(mChars);
+                mDecoderFlushed = true;
+            }
+            // A chunk may end inside a multi-byte character and decode to nothing
+            if (mChars.position() > 0 || mDecoderFlushed) {
+                mChars.flip();
+                return mChars.hasRemaining();
+            }
+        }
+    }
+
+    private IcsEvent parseLine(String line) {
+        final int colon = findValueStart(line);
+        if (colon < 0) {
+            return null;
+        }
+        final int semicolon = line.indexOf(';');
+        final int nameEnd = semicolon >= 0 && semicolon < colon ? semicolon : colon;
+        final String value = line.substring(colon + 1);
+
+        if (matches(line, nameEnd, "BEGIN")) {
+            if (value.equals("VEVENT") && !mInEvent) {
+                beginEvent();
+            } else if (mInEvent) {
+                mNestedDepth++;
+            }
+            return null;
+        }
+        if (!mInEvent) {
+            return null;
+        }
+        if (matches(line, nameEnd, "END")) {
+            if (mNestedDepth > 0) {
+                mNestedDepth--;
+                return null;
+            }
+            mInEvent = false;
+            return value.equals("VEVENT") ? endEvent() : null;
+        }
+        if (mNestedDepth > 0) {
+            // VALARM and the like
+            return null;
+        }
+        final boolean isDate = hasParameter(line, nameEnd, colon, "VALUE=DATE");
+        if (matches(line, nameEnd, "UID")) {
+            mUid = value;
+        } else if (matches(line, nameEnd, "SUMMARY")) {
+            mSummary = unescape(value);
+        } else if (matches(line, nameEnd, "DTSTART")) {
+            if (parseDateTime(value, 0, value.length(), isDate)) {
+                mStartDay = mParsedDay;
+                mStartMinute = mParsedMinute;
+                mStartIsDate = isDate || value.length() == 8;
+            } else {
+                mStartDay = -1;
+            }
+        } else if (matches(line, nameEnd, "DTEND")) {
+            if (parseDateTime(value, 0, value.length(), isDate)) {
+                mEndDay = mParsedDay;
+                mEndMinute = mParsedMinute;
+                mHasEnd = true;
+            }
+        } else if (matches(line, nameEnd, "DURATION")) {
+            mDurationMinutes = parseDuration(value);
+            mHasDuration = mDurationMinutes >= 0;
+        } else if (matches(line, nameEnd, "RRULE")) {
+            mRule = value;
+        } else if (matches(line, nameEnd, "RECURRENCE-ID")) {
+            if (parseDateTime(value, 0, value.length(), isDate)) {
+                mRecurrenceDay = mParsedDay;
+            }
+        } else if (matches(line, nameEnd, "EXDATE")) {
+            int start = 0;
+            while (start < value.length()) {
+                int end = value.indexOf(',', start);
+                if (end < 0) {
+                    end = value.length();
+                }
+                if (parseDateTime(value, start, end, isDate)) {
+                    addException(mParsedDay);
+                }
+                start = end + 1;
+            }
+        }
+        return null;
+    }
+
+    private void beginEvent() {
+        mInEvent = true;
+        mNestedDepth = 0;
+        mUid = null;
+        mSummary = null;
+        mStartDay = -1;
+        mStartMinute = 0;
+        mStartIsDate = false;
+        mHasEnd = false;
+        mHasDuration = false;
+        mRule = null;
+        mExceptionCount = 0;
+        mRecurrenceDay = -1;
+    }
+
+    private IcsEvent endEvent() {
+        if (mStartDay < 0) {
+            mSkippedCount++;
+            return null;
+        }
+        int endDay;
+        int endMinute;
+        if (mHasEnd) {
+            endDay = mEndDay;
+            endMinute = mEndMinute;
+        } else if (mHasDuration) {
+            final long end = mStartMinute + mDurationMinutes;
+            endDay = mStartDay + (int) (end / CalendarEvent.MINUTES_PER_DAY);
+            endMinute = (int) (end % CalendarEvent.MINUTES_PER_DAY);
+        } else if (mStartIsDate) {
+            // An all-day event without an end lasts the whole day
+            endDay = mStartDay + 1;
+            endMinute = 0;
+        } else {
+            endDay = mStartDay;
+            endMinute = mStartMinute;
+        }
+        final String title = mSummary != null ? mSummary : "";
+        // An override without a UID can't be matched to its series, it is just a single event
+        final boolean override = mRecurrenceDay >= 0 && mUid != null;
+        final long id = eventId(mUid, title, mStartDay, mStartMinute,
+                override ? mRecurrenceDay : -1);
+        final CalendarEvent event;
+        try {
+            event = new CalendarEvent(id, title, mStartDay, mStartMinute,
+                    endDay, endMinute, mStartIsDate);
+        } catch (IllegalArgumentException e) {
+            mSkippedCount++;
+            return null;
+        }
+        mEventCount++;
+        if (override) {
+            final long masterSeriesId = seriesId(eventId(mUid, title, mStartDay, mStartMinute, -1));
+            final int[] days = mOverriddenDays.get(masterSeriesId);
+            final int[] added = days != null ? Arrays.copyOf(days, days.length + 1) : new int[1];
+            added[added.length - 1] = mRecurrenceDay;
+            mOverriddenDays.put(masterSeriesId, added);
+            return new IcsEvent(event, null, masterSeriesId, mRecurrenceDay);
+        }
+        EventSeries series = null;
+        if (mRule != null) {
+            final RecurrenceRule rule = parseRule(mRule, mStartDay);
+            if (rule != null) {
+                final long seriesId = seriesId(id);
+                final int[] overridden = mOverriddenDays.remove(seriesId);
+                if (overridden != null) {
+                    for (int day : overridden) {
+                        addException(day);
+                    }
+                }
+                series = new EventSeries(seriesId, event, rule,
+                        Arrays.copyOf(mExceptions, mExceptionCount));
+            } else {
+                mUnsupportedRuleCount++;
+            }
+        }
+        return new IcsEvent(event, series, 0, -1);
+    }
+
+    /**
+     * Occurrence ids shift the series id left by 22 bits, keep it small enough.
+     */
+    private static long seriesId(long eventId) {
+        return Math.max(1, eventId >>> 22);
+    }
+
+    private void addException(int day) {
+        if (mExceptionCount == mExceptions.length) {
+            mExceptions = Arrays.copyOf(mExceptions, mExceptionCount * 2);
+        }
+        mExceptions[mExceptionCount++] = day;
+    }
+
+    /**
+     * Parses {@code yyyymmdd} or {@code yyyymmddThhmmss[Z]} into {@link #mParsedDay} and
+     * {@link #mParsedMinute}.
+     */
+    private boolean parseDateTime(String value, int start, int end, boolean dateOnly) {
+        if (end - start < 8) {
+            return false;
+        }
+        final int year = parseInt(value, start, start + 4);
+        final int month = parseInt(value, start + 4, start + 6);
+        final int day = parseInt(value, start + 6, start + 8);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > JulianDay.daysInMonth(year, month)) {
+            return false;
+        }
+        final int julianDay = JulianDay.fromDate(year, month, day);
+        if (dateOnly || end - start < 15 || value.charAt(start + 8) != 'T') {
+            mParsedDay = julianDay;
+            mParsedMinute = 0;
+            return true;
+        }
+        final int hour = parseInt(value, start + 9, start + 11);
+        final int minute = parseInt(value, start + 11, start + 13);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return false;
+        }
+        if (value.charAt(end - 1) == 'Z') {
+            final long utc = (julianDay - EPOCH_JULIAN_DAY) * MILLIS_PER_DAY
+                    + (hour * 60 + minute) * MILLIS_PER_MINUTE;
+            final long local = utc + mTimeZone.getOffset(utc);
+            mParsedDay = JulianDay.fromMillis(local, 0);
+            mParsedMinute = (int) ((local - (long) (mParsedDay - EPOCH_JULIAN_DAY) * MILLIS_PER_DAY)
+                    / MILLIS_PER_MINUTE);
+        } else {
+            mParsedDay = julianDay;
+            mParsedMinute = hour * 60 + minute;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a {@code DURATION} such as {@code P1D}, {@code PT1H30M} or {@code P2W}.
+     *
+     * @return the duration in minutes, -1 if it can't be parsed or is negative
+     */
+    private static long parseDuration(String value) {
+        if (value.length() < 3 || value.charAt(0) != 'P') {
+            return -1;
+        }
+        long minutes = 0;
+        long number = 0;
+        boolean time = false;
+        for (int i = 1; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = number * 10 + (c - '0');
+                continue;
+            }
+            switch (c) {
+                case 'T':
+                    time = true;
+                    break;
+                case 'W':
+                    minutes += number * 7 * CalendarEvent.MINUTES_PER_DAY;
+                    break;
+                case 'D':
+                    minutes += number * CalendarEvent.MINUTES_PER_DAY;
+                    break;
+                case 'H':
+                    minutes += number * 60;
+                    break;
+                case 'M':
+                    if (!time) {
+                        return -1;
+                    }
+                    minutes += number;
+                    break;
+                case 'S':
+                    minutes += number / 60;
+                    break;
+                default:
+                    return -1;
+            }
+            number = 0;
+        }
+        return minutes;
+    }
+
+    /**
+     * Maps an RRULE value to a {@link RecurrenceRule}, or null if it uses parts we can't
+     * represent.
+     */
+    private RecurrenceRule parseRule(String value, int startDay) {
+        int frequency = -1;
+        int interval = 1;
+        int count = 0;
+        int until = RecurrenceRule.NONE;
+        int weekdays = 0;
+        // Outlook repeats the start's day and month in plain monthly and yearly rules
+        boolean byMonthDay = false;
+        boolean byMonth = false;
+        final int startDate = JulianDay.toPacked(startDay);
+        int start = 0;
+        while (start < value.length()) {
+            int end = value.indexOf(';', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            final int equals = value.indexOf('=', start);
+            if (equals < 0 || equals > end) {
+                return null;
+            }
+            final String name = value.substring(start, equals);
+            final int valueStart = equals + 1;
+            if (name.equals("FREQ")) {
+                frequency = parseFrequency(value.substring(valueStart, end));
+            } else if (name.equals("INTERVAL")) {
+                interval = parseInt(value, valueStart, end);
+            } else if (name.equals("COUNT")) {
+                count = parseInt(value, valueStart, end);
+            } else if (name.equals("UNTIL")) {
+                if (!parseDateTime(value, valueStart, end, false)) {
+                    return null;
+                }
+                until = mParsedDay;
+            } else if (name.equals("BYDAY")) {
+                for (int i = valueStart; i < end; i += 3) {
+                    final int dayOfWeek = parseWeekday(value, i);
+                    if (dayOfWeek < 0) {
+                        // Ordinals like 2TU
+                        return null;
+                    }
+                    weekdays |= 1 << dayOfWeek;
+                }
+            } else if (name.equals("BYMONTHDAY")) {
+                if (parseInt(value, valueStart, end) != JulianDay.day(startDate)) {
+                    return null;
+                }
+                byMonthDay = true;
+            } else if (name.equals("BYMONTH")) {
+                if (parseInt(value, valueStart, end) != JulianDay.month(startDate)) {
+                    return null;
+                }
+                byMonth = true;
+            } else if (!name.equals("WKST")) {
+                return null;
+            }
+            start = end + 1;
+        }
+        if (frequency < 0 || interval <= 0 || count < 0
+                || (weekdays != 0 && frequency != RecurrenceRule.WEEKLY)) {
+            return null;
+        }
+        // Anything else narrows or widens the rule, e.g. a yearly BYMONTHDAY alone means
+        // that day of every month
+        if (byMonth ? frequency != RecurrenceRule.YEARLY
+                : byMonthDay && frequency != RecurrenceRule.MONTHLY) {
+            return null;
+        }
+        final RecurrenceRule rule;
+        switch (frequency) {
+            case RecurrenceRule.DAILY:
+                rule = RecurrenceRule.daily(interval);
+                break;
+            case RecurrenceRule.WEEKLY:
+                rule = RecurrenceRule.weekly(interval,
+                        weekdays != 0 ? weekdays : 1 << JulianDay.dayOfWeek(startDay));
+                break;
+            case RecurrenceRule.MONTHLY:
+                rule = RecurrenceRule.monthly(interval);
+                break;
+            default:
+                rule = RecurrenceRule.yearly(interval);
+                break;
+        }
+        return rule.withCount(count).withUntil(until);
+    }
+
+    private static int parseFrequency(String value) {
+        if (value.equals("DAILY")) {
+            return RecurrenceRule.DAILY;
+        } else if (value.equals("WEEKLY")) {
+            return RecurrenceRule.WEEKLY;
+        } else if (value.equals("MONTHLY")) {
+            return RecurrenceRule.MONTHLY;
+        } else if (value.equals("YEARLY")) {
+            return RecurrenceRule.YEARLY;
+        }
+        return -1;
+    }
+
+    private static int parseWeekday(String value, int index) {
+        if (index + 2 > value.length()) {
+            return -1;
+        }
+        for (int i = 0; i < WEEKDAYS.length; i++) {
+            if (value.regionMatches(index, WEEKDAYS[i], 0, 2)
+                    && (index + 2 == value.length() || value.charAt(index + 2) == ','
+                    || value.charAt(index + 2) == ';')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseInt(String value, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9' || result > Integer.MAX_VALUE / 10 - 1) {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the colon separating the value, skipping quoted parameters.
+     */
+    private static int findValueStart(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(String line, int nameEnd, String name) {
+        return nameEnd == name.length() && line.regionMatches(true, 0, name, 0, nameEnd);
+    }
+
+    private static boolean hasParameter(String line, int from, int to, String parameter) {
+        final int index = line.indexOf(parameter, from);
+        final int end = index + parameter.length();
+        return index > 0 && end <= to && line.charAt(index - 1) == ';'
+                && (line.charAt(end) == ';' || line.charAt(end) == ':');
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        final StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                if (c == 'n' || c == 'N') {
+                    c = '\n';
+                }
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Derives a stable positive id from the UID, so importing the same file again replaces
+     * its events instead of duplicating them. Overrides of one series share its UID and are
+     * told apart by {@code recurrenceDay}, -1 for anything else.
+     */
+    static long eventId(String uid, String summary, int startDay, int startMinute,
+                        int recurrenceDay) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        final String key;
+        if (uid == null) {
+            key = summary + '@' + startDay + ':' + startMinute;
+        } else if (recurrenceDay >= 0) {
+            key = uid + '#' + recurrenceDay;
+        } else {
+            key = uid;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash &= Long.MAX_VALUE;
+        return hash != 0 ? hash : 1;
+    }
+}
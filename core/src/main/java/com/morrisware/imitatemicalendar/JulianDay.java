@@ -0,0 +1,152 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.TimeZone;
+
+/**
+ * 基于儒略日 (julian day number) 的日期计算, 不依赖 {@link java.util.Calendar}.
+ * 日期用 int 表示: 儒略日, 或者压缩的 yyyymmdd, 除 {@link #today()} 外所有方法都不分配内存.
+ * 星期用 0 (周日) 到 6 (周六) 表示.
+ **/
+public final class JulianDay {
+
+    public static final int SUNDAY = 0;
+    public static final int MONDAY = 1;
+    public static final int SATURDAY = 6;
+
+    public static final int DAYS_IN_WEEK = 7;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    // 1970-01-01
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private JulianDay() {
+    }
+
+    /**
+     * Returns the julian day number of the given gregorian date, {@code month} is 1-based.
+     */
+    public static int fromDate(int year, int month, int day) {
+        final int a = (14 - month) / 12;
+        final int y = year + 4800 - a;
+        final int m = month + 12 * a - 3;
+        return day + (153 * m + 2) / 5 + 365 * y + y / 4 - y / 100 + y / 400 - 32045;
+    }
+
+    public static int fromPacked(int yyyymmdd) {
+        return fromDate(year(yyyymmdd), month(yyyymmdd), day(yyyymmdd));
+    }
+
+    /**
+     * Returns the packed yyyymmdd date of the given julian day number.
+     */
+    public static int toPacked(int julianDay) {
+        final int a = julianDay + 32044;
+        final int b = (4 * a + 3) / 146097;
+        final int c = a - 146097 * b / 4;
+        final int d = (4 * c + 3) / 1461;
+        final int e = c - 1461 * d / 4;
+        final int m = (5 * e + 2) / 153;
+        final int day = e - (153 * m + 2) / 5 + 1;
+        final int month = m + 3 - 12 * (m / 10);
+        final int year = 100 * b + d - 4800 + m / 10;
+        return pack(year, month, day);
+    }
+
+    public static int pack(int year, int month, int day) {
+        return year * 10000 + month * 100 + day;
+    }
+
+    public static int year(int yyyymmdd) {
+        return yyyymmdd / 10000;
+    }
+
+    public static int month(int yyyymmdd) {
+        return yyyymmdd / 100 % 100;
+    }
+
+    public static int day(int yyyymmdd) {
+        return yyyymmdd % 100;
+    }
+
+    public static int dayOfMonth(int julianDay) {
+        return day(toPacked(julianDay));
+    }
+
+    public static int dayOfWeek(int julianDay) {
+        return (julianDay + 1) % DAYS_IN_WEEK;
+    }
+
+    public static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    public static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns the grid column (0-6) of the first day of the month.
+     */
+    public static int firstColumnOfMonth(int year, int month, int firstDayOfWeek) {
+        return columnOf(fromDate(year, month, 1), firstDayOfWeek);
+    }
+
+    public static int columnOf(int julianDay, int firstDayOfWeek) {
+        return (dayOfWeek(julianDay) - firstDayOfWeek + DAYS_IN_WEEK) % DAYS_IN_WEEK;
+    }
+
+    /**
+     * Returns the number of grid rows (4-6) the month needs.
+     */
+    public static int weeksInMonth(int year, int month, int firstDayOfWeek) {
+        return (firstColumnOfMonth(year, month, firstDayOfWeek) + daysInMonth(year, month)
+                + DAYS_IN_WEEK - 1) / DAYS_IN_WEEK;
+    }
+
+    /**
+     * Returns the 0-based grid row of {@code julianDay} inside its own month.
+     */
+    public static int weekOfMonth(int julianDay, int firstDayOfWeek) {
+        final int day = dayOfMonth(julianDay);
+        return (columnOf(julianDay - day + 1, firstDayOfWeek) + day - 1) / DAYS_IN_WEEK;
+    }
+
+    /**
+     * Returns the julian day shown in the top-left cell of the month grid.
+     */
+    public static int gridStart(int year, int month, int firstDayOfWeek) {
+        final int first = fromDate(year, month, 1);
+        return first - columnOf(first, firstDayOfWeek);
+    }
+
+    /**
+     * Returns the julian day of the first day of the week containing {@code julianDay}.
+     */
+    public static int weekStart(int julianDay, int firstDayOfWeek) {
+        return julianDay - columnOf(julianDay, firstDayOfWeek);
+    }
+
+    public static int fromMillis(long millis, int offsetMillis) {
+        final long local = millis + offsetMillis;
+        long days = local / MILLIS_PER_DAY;
+        if (local % MILLIS_PER_DAY < 0) {
+            days--;
+        }
+        return (int) days + EPOCH_JULIAN_DAY;
+    }
+
+    public static int today() {
+        final long now = System.currentTimeMillis();
+        return fromMillis(now, TimeZone.getDefault().getOffset(now));
+    }
+}
@@ -0,0 +1,484 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * 农历, 节气和传统节日, 支持 {@link #MIN_YEAR} 到 {@link #MAX_YEAR} 年.
+ * 不在运行时做天文计算, 而是查预先算好的表: 每个农历年一个 int (闰月, 各月大小, 春节日期),
+ * 每个公历年一个 long (24 个节气相对最早日期的偏移, 各 2 位), 两张表共约 2.4KB.
+ * 表按 GB/T 33661 的规则生成: 定朔定气, 冬至所在月为十一月, 无中气的月份置闰,
+ * 1929 年以前按北京地方时, 之后按东经 120 度标准时.
+ * <p>
+ * 农历日期打包成 int: 低 5 位为日, 接着 4 位为月, {@link #LEAP_MONTH} 表示闰月, 从第 10 位起为年.
+ **/
+public final class LunarCalendar {
+
+    public static final int MIN_YEAR = 1900;
+    public static final int MAX_YEAR = 2100;
+
+    public static final int LEAP_MONTH = 1 << 9;
+
+    /**
+     * Number of solar terms, term 0 is 小寒 in early January.
+     */
+    public static final int SOLAR_TERM_COUNT = 24;
+
+    public static final int SPRING_FESTIVAL = 0;
+    public static final int LANTERN_FESTIVAL = 1;
+    public static final int DRAGON_BOAT_FESTIVAL = 2;
+    public static final int QIXI_FESTIVAL = 3;
+    public static final int GHOST_FESTIVAL = 4;
+    public static final int MID_AUTUMN_FESTIVAL = 5;
+    public static final int DOUBLE_NINTH_FESTIVAL = 6;
+    public static final int LABA_FESTIVAL = 7;
+    public static final int NEW_YEARS_EVE = 8;
+
+    /**
+     * Number of distinct label texts, see {@link #labelTextId(int)}.
+     */
+    public static final int LABEL_TEXT_COUNT = 30 + 12 + 12 + SOLAR_TERM_COUNT + 9;
+
+    // Label text ids: day names, month names, leap month names, solar terms, festivals
+    private static final int MONTH_TEXT_ID = 30;
+    private static final int LEAP_MONTH_TEXT_ID = MONTH_TEXT_ID + 12;
+    private static final int SOLAR_TERM_TEXT_ID = LEAP_MONTH_TEXT_ID + 12;
+    private static final int FESTIVAL_TEXT_ID = SOLAR_TERM_TEXT_ID + SOLAR_TERM_COUNT;
+
+    // Cell labels: the lunar month and day, then the solar term and festival plus one
+    private static final int LABEL_DATE_MASK = 0x3ff;
+    private static final int LABEL_TERM_SHIFT = 10;
+    private static final int LABEL_FESTIVAL_SHIFT = 15;
+
+    private static final String[] DAY_NAMES = {
+            "初一", "初二", "初三", "初四", "初五", "初六", "初七", "初八", "初九", "初十",
+            "十一", "十二", "十三", "十四", "十五", "十六", "十七", "十八", "十九", "二十",
+            "廿一", "廿二", "廿三", "廿四", "廿五", "廿六", "廿七", "廿八", "廿九", "三十"};
+    private static final String[] MONTH_NAMES = {
+            "正月", "二月", "三月", "四月", "五月", "六月",
+            "七月", "八月", "九月", "十月", "冬月", "腊月"};
+    private static final String[] LEAP_MONTH_NAMES = {
+            "闰正月", "闰二月", "闰三月", "闰四月", "闰五月", "闰六月",
+            "闰七月", "闰八月", "闰九月", "闰十月", "闰冬月", "闰腊月"};
+    private static final String[] SOLAR_TERM_NAMES = {
+            "小寒", "大寒", "立春", "雨水", "惊蛰", "春分", "清明", "谷雨", "立夏", "小满", "芒种", "夏至",
+            "小暑", "大暑", "立秋", "处暑", "白露", "秋分", "寒露", "霜降", "立冬", "小雪", "大雪", "冬至"};
+    private static final String[] FESTIVAL_NAMES = {
+            "春节", "元宵", "端午", "七夕", "中元", "中秋", "重阳", "腊八", "除夕"};
+
+    // Earliest day of month of each solar term from MIN_YEAR to MAX_YEAR
+    private static final byte[] SOLAR_TERM_BASE = {
+            4, 19, 3, 18, 4, 19, 4, 19, 4, 20, 4, 20, 6, 22, 6, 22, 6, 22, 7, 22, 6, 21, 6, 21};
+
+    /*
+     * One entry per lunar year from MIN_YEAR:
+     * bits 0-3   leap month, 0 if none
+     * bits 15-4  months 1 to 12, set for 30 days, clear for 29
+     * bit 16     set if the leap month has 30 days
+     * bits 17-22 day of the Gregorian year the lunar year starts on, 0 for January 1st
+     */
+    private static final int[] YEAR_INFO = {
+            0x03c4bd8, 0x0624ae0, 0x04ca570, 0x03854d5, 0x05cd260, 0x044d950, 0x0315554, 0x05656a0,  // 1900
+            0x0409ad0, 0x02a55d2, 0x0504ae0, 0x03aa5b6, 0x060a4d0, 0x048d250, 0x033d255, 0x058b540,  // 1908
+            0x042d6a0, 0x02cada2, 0x05295b0, 0x03f4977, 0x0644970, 0x04ca4b0, 0x036b4b5, 0x05c6a50,  // 1916
+            0x0466d40, 0x02fab54, 0x0562b60, 0x0409570, 0x02c52f2, 0x0504970, 0x03a6566, 0x05ed4a0,  // 1924
+            0x048ea50, 0x0336a95, 0x0585ad0, 0x0442b60, 0x02f86e3, 0x05292e0, 0x03dc8d7, 0x062c950,  // 1932
+            0x04cd4a0, 0x035d8a6, 0x05ab550, 0x04656a0, 0x031a5b4, 0x05625d0, 0x04092d0, 0x02ad2b2,  // 1940
+            0x050a950, 0x038b557, 0x05e6ca0, 0x048b550, 0x0355355, 0x0584da0, 0x042a5b0, 0x02f4573,  // 1948
+            0x05452b0, 0x03ca9a8, 0x060e950, 0x04c6aa0, 0x036aea6, 0x05aab50, 0x0464b60, 0x030aae4,  // 1956
+            0x056a570, 0x0405260, 0x028f263, 0x04ed950, 0x03a5b57, 0x05e56a0, 0x04896d0, 0x0344dd5,  // 1964
+            0x05a4ad0, 0x042a4d0, 0x02cd4d4, 0x052d250, 0x03cd558, 0x060b540, 0x04ab6a0, 0x03795a6,  // 1972
+            0x05c95b0, 0x04649b0, 0x030a974, 0x056a4b0, 0x040b27a, 0x0646a50, 0x04e6d40, 0x038af46,  // 1980
+            0x05eab60, 0x0489570, 0x0344af5, 0x05a4970, 0x04464b0, 0x02c74a3, 0x050ea50, 0x03c6b58,  // 1988
+            0x0625ac0, 0x04aab60, 0x03696d5, 0x05c92e0, 0x046c960, 0x02ed954, 0x054d4a0, 0x03eda50,  // 1996
+            0x02a7552, 0x04e56a0, 0x038abb7, 0x06025d0, 0x04a92d0, 0x032cab5, 0x058a950, 0x042b4a0,  // 2004
+            0x02cbaa4, 0x050ad50, 0x03c55d9, 0x0624ba0, 0x04ca5b0, 0x0375176, 0x05c52b0, 0x046a930,  // 2012
+            0x0307954, 0x0546aa0, 0x03ead50, 0x02a5b52, 0x0504b60, 0x038a6e6, 0x05ea4e0, 0x048d260,  // 2020
+            0x032ea65, 0x056d530, 0x0425aa0, 0x02c76a3, 0x05296d0, 0x03c4afb, 0x0624ad0, 0x04ca4d0,  // 2028
+            0x037d0b6, 0x05ad250, 0x044d520, 0x02edd45, 0x054b5a0, 0x03e56d0, 0x02a55b2, 0x05049b0,  // 2036
+            0x03aa577, 0x05ea4b0, 0x048aa50, 0x033b255, 0x0586d20, 0x040ada0, 0x02d4b63, 0x0529370,  // 2044
+            0x03e49f8, 0x0624970, 0x04c64b0, 0x03768a6, 0x05aea50, 0x0446aa0, 0x02fa6c4, 0x054aae0,  // 2052
+            0x04092e0, 0x028d2e3, 0x04ec960, 0x038d557, 0x05ed4a0, 0x046da50, 0x0325d55, 0x05856a0,  // 2060
+            0x042a6d0, 0x02c55d4, 0x05252d0, 0x03ca9b8, 0x062a950, 0x04ab4a0, 0x034b6a6, 0x05aad50,  // 2068
+            0x04655a0, 0x02eaba4, 0x054a5b0, 0x04052b0, 0x02ab273, 0x04e6930, 0x0387337, 0x05e6aa0,  // 2076
+            0x048ad50, 0x0334b55, 0x0584b60, 0x042a570, 0x02e54e4, 0x050d160, 0x03ae968, 0x060d520,  // 2084
+            0x04adaa0, 0x0356aa6, 0x05a56d0, 0x0464ae0, 0x030a9d4, 0x054a2d0, 0x03ed150, 0x028f252,  // 2092
+            0x04ed520,  // 2100
+    };
+
+    // One entry per Gregorian year from MIN_YEAR, 2 bits per solar term: days after SOLAR_TERM_BASE
+    private static final long[] SOLAR_TERMS = {
+            0x5aa665a65a56L, 0x6aaaa6aa9a5aL, 0xaaaaaabaaa6aL, 0xaaabbabbafaaL,  // 1900
+            0x5aa665a65aabL, 0x6aaaa6aa9a5aL, 0xaaaaaaaaaa6aL, 0xaaabbabbafaaL,  // 1904
+            0x5aa665a65aabL, 0x6aaaa6aa9a56L, 0xaaaaaaaaaa6aL, 0xaaabbabaafaaL,  // 1908
+            0x569665a65aaaL, 0x6aa6a6aa9a56L, 0xaaaaaaaa9a5aL, 0xaaabaabaaeaaL,  // 1912
+            0x569665a65aaaL, 0x5aa6a6a69a56L, 0x6aaaaaaa9a5aL, 0xaaabaabaaeaaL,  // 1916
+            0x569665a65aaaL, 0x5aa6a6a65a56L, 0x6aaaaaaa9a5aL, 0xaaabaabaaa6aL,  // 1920
+            0x569665a65aaaL, 0x5aa6a6a65a56L, 0x6aaaa6aa9a5aL, 0xaaaaaabaaa6aL,  // 1924
+            0x555665665aaaL, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL, 0xaaaaaabaaa6aL,  // 1928
+            0x555665665aaaL, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL, 0xaaaaaaaaaa6aL,  // 1932
+            0x555665665aaaL, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL, 0xaaaaaaaaaa6aL,  // 1936
+            0x555665665aaaL, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL, 0xaaaaaaaaaa6aL,  // 1940
+            0x555665655aaaL, 0x569665a65a56L, 0x6aa6a6aa9a56L, 0xaaaaaaaa9a5aL,  // 1944
+            0x5556556559aaL, 0x569665a65a55L, 0x6aa6a6a65a56L, 0xaaaaaaaa9a5aL,  // 1948
+            0x5556556559aaL, 0x569665a65a55L, 0x5aa6a6a65a56L, 0x6aaaa6aa9a5aL,  // 1952
+            0x5556556555aaL, 0x569665a65a55L, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL,  // 1956
+            0x55555565556aL, 0x555665665a55L, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL,  // 1960
+            0x55555565556aL, 0x555665665a55L, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL,  // 1964
+            0x55555555556aL, 0x555665665a55L, 0x5aa665a65a56L, 0x6aaaa6aa9a5aL,  // 1968
+            0x55555555556aL, 0x555665655a55L, 0x5aa665a65a56L, 0x6aa6a6aa9a5aL,  // 1972
+            0x55555555456aL, 0x555655655a55L, 0x5a9665a65a56L, 0x6aa6a6a69a56L,  // 1976
+            0x55555555456aL, 0x555655655a55L, 0x569665a65a56L, 0x6aa6a6a65a56L,  // 1980
+            0x55555155455aL, 0x555655655955L, 0x569665a65a55L, 0x5aa6a5a65a56L,  // 1984
+            0x15555155455aL, 0x555555655555L, 0x569665665a55L, 0x5aa665a65a56L,  // 1988
+            0x15555155455aL, 0x555555655515L, 0x555665665a55L, 0x5aa665a65a56L,  // 1992
+            0x15555155455aL, 0x555555555515L, 0x555665665a55L, 0x5aa665a65a56L,  // 1996
+            0x15555155455aL, 0x555555555515L, 0x555665665a55L, 0x5aa665a65a56L,  // 2000
+            0x15555155455aL, 0x555555555515L, 0x555655655a55L, 0x5aa665a65a56L,  // 2004
+            0x15515155455aL, 0x555555554515L, 0x555655655a55L, 0x5a9665a65a56L,  // 2008
+            0x15515151455aL, 0x555551554515L, 0x555655655a55L, 0x569665a65a56L,  // 2012
+            0x155151510556L, 0x555551554505L, 0x555655655955L, 0x569665665a55L,  // 2016
+            0x155110510556L, 0x155551554505L, 0x555555655555L, 0x569665665a55L,  // 2020
+            0x055110510556L, 0x155551554505L, 0x555555555515L, 0x555665665a55L,  // 2024
+            0x055110510556L, 0x155551554505L, 0x555555555515L, 0x555665665a55L,  // 2028
+            0x055110510556L, 0x155551554505L, 0x555555555515L, 0x555655655a55L,  // 2032
+            0x055110510556L, 0x155551554505L, 0x555555555515L, 0x555655655a55L,  // 2036
+            0x055110510556L, 0x155151514505L, 0x555555554515L, 0x555655655a55L,  // 2040
+            0x054110510556L, 0x155151510505L, 0x555551554515L, 0x555655655a55L,  // 2044
+            0x014110110556L, 0x155110510501L, 0x555551554505L, 0x555555655555L,  // 2048
+            0x014110110555L, 0x155110510501L, 0x555551554505L, 0x555555555555L,  // 2052
+            0x014110110555L, 0x055110510501L, 0x155551554505L, 0x555555555555L,  // 2056
+            0x000110110555L, 0x055110510501L, 0x155551554505L, 0x555555555515L,  // 2060
+            0x000110110555L, 0x055110510501L, 0x155551554505L, 0x555555555515L,  // 2064
+            0x000100100555L, 0x055110510501L, 0x155151514505L, 0x555555555515L,  // 2068
+            0x000100100555L, 0x054110510501L, 0x155151514505L, 0x555551554515L,  // 2072
+            0x000100100555L, 0x054110510501L, 0x155150510505L, 0x555551554515L,  // 2076
+            0x000100100555L, 0x014110110501L, 0x155110510505L, 0x555551554505L,  // 2080
+            0x000000100055L, 0x014110110500L, 0x155110510501L, 0x555551554505L,  // 2084
+            0x000000000055L, 0x014110110500L, 0x055110510501L, 0x155551554505L,  // 2088
+            0x000000000055L, 0x000110110500L, 0x055110510501L, 0x155551554505L,  // 2092
+            0x000000000015L, 0x000100110500L, 0x055110510501L, 0x155551554505L,  // 2096
+            0x555555555515L,  // 2100
+    };
+
+    private LunarCalendar() {
+    }
+
+    /**
+     * Returns the lunar date of {@code julianDay}, or 0 if it is out of the supported range.
+     */
+    public static int fromJulianDay(int julianDay) {
+        int year = JulianDay.year(JulianDay.toPacked(julianDay));
+        if (year < MIN_YEAR || year > MAX_YEAR + 1) {
+            return 0;
+        }
+        if (year > MAX_YEAR || julianDay < newYearDay(year)) {
+            year--;
+            if (year < MIN_YEAR) {
+                return 0;
+            }
+        }
+        // At most 13 months to walk
+        int offset = julianDay - newYearDay(year);
+        final int leapMonth = leapMonth(year);
+        for (int month = 1; month <= 12; month++) {
+            int days = monthDays(year, month, false);
+            if (offset < days) {
+                return pack(year, month, false, offset + 1);
+            }
+            offset -= days;
+            if (month == leapMonth) {
+                days = monthDays(year, month, true);
+                if (offset < days) {
+                    return pack(year, month, true, offset + 1);
+                }
+                offset -= days;
+            }
+        }
+        // Past the last month of MAX_YEAR
+        return 0;
+    }
+
+    /**
+     * Returns the julian day of a lunar date, or -1 if the date doesn't exist.
+     */
+    public static int toJulianDay(int year, int month, boolean leap, int day) {
+        if (year < MIN_YEAR || year > MAX_YEAR || month < 1 || month > 12
+                || (leap && leapMonth(year) != month) || day < 1
+                || day > monthDays(year, month, leap)) {
+            return -1;
+        }
+        int julianDay = newYearDay(year);
+        final int leapMonth = leapMonth(year);
+        for (int m = 1; m < month; m++) {
+            julianDay += monthDays(year, m, false);
+            if (m == leapMonth) {
+                julianDay += monthDays(year, m, true);
+            }
+        }
+        if (leap) {
+            julianDay += monthDays(year, month, false);
+        }
+        return julianDay + day - 1;
+    }
+
+    public static int pack(int year, int month, boolean leap, int day) {
+        return year << 10 | (leap ? LEAP_MONTH : 0) | month << 5 | day;
+    }
+
+    public static int year(int lunarDate) {
+        return lunarDate >>> 10;
+    }
+
+    public static int month(int lunarDate) {
+        return (lunarDate >> 5) & 0xf;
+    }
+
+    public static int day(int lunarDate) {
+        return lunarDate & 0x1f;
+    }
+
+    public static boolean isLeapMonth(int lunarDate) {
+        return (lunarDate & LEAP_MONTH) != 0;
+    }
+
+    /**
+     * Returns the leap month of a lunar year, 0 if it has none.
+     */
+    public static int leapMonth(int year) {
+        return YEAR_INFO[year - MIN_YEAR] & 0xf;
+    }
+
+    /**
+     * Returns 29 or 30.
+     */
+    public static int monthDays(int year, int month, boolean leap) {
+        final int info = YEAR_INFO[year - MIN_YEAR];
+        final int bit = leap ? 1 << 16 : 0x10000 >> month;
+        return (info & bit) != 0 ? 30 : 29;
+    }
+
+    /**
+     * Returns the julian day of the first day of a lunar year, i.e. the Spring Festival.
+     */
+    public static int newYearDay(int year) {
+        return JulianDay.fromDate(year, 1, 1) + (YEAR_INFO[year - MIN_YEAR] >> 17);
+    }
+
+    /**
+     * Returns the julian day of solar term {@code term} of Gregorian year {@code year}.
+     */
+    public static int solarTermDay(int year, int term) {
+        return JulianDay.fromDate(year, term / 2 + 1, solarTermDayOfMonth(year, term));
+    }
+
+    /**
+     * Returns the solar term falling on {@code julianDay}, or -1.
+     */
+    public static int solarTerm(int julianDay) {
+        final int packed = JulianDay.toPacked(julianDay);
+        final int year = JulianDay.year(packed);
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            return -1;
+        }
+        final int day = JulianDay.day(packed);
+        // Two terms a month, the first always before the 16th
+        final int term = (JulianDay.month(packed) - 1) * 2 + (day < 16 ? 0 : 1);
+        return solarTermDayOfMonth(year, term) == day ? term : -1;
+    }
+
+    /**
+     * Writes the labels of {@code count} consecutive days from {@code firstJulianDay} into
+     * {@code labels}, in one pass without allocating. Read them with {@link #label(int)}.
+     * Days out of the supported range get 0.
+     */
+    public static void fill(int firstJulianDay, int[] labels, int count) {
+        int lunar = fromJulianDay(firstJulianDay);
+        int year = year(lunar);
+        int month = month(lunar);
+        boolean leap = isLeapMonth(lunar);
+        int day = day(lunar);
+        int monthDays = lunar != 0 ? monthDays(year, month, leap) : 0;
+
+        final int first = JulianDay.toPacked(firstJulianDay);
+        int solarYear = JulianDay.year(first);
+        int solarMonth = JulianDay.month(first);
+        int solarDay = JulianDay.day(first);
+        int solarMonthDays = JulianDay.daysInMonth(solarYear, solarMonth);
+        int firstTermDay = 0;
+        int secondTermDay = 0;
+        if (solarYear >= MIN_YEAR && solarYear <= MAX_YEAR) {
+            firstTermDay = solarTermDayOfMonth(solarYear, (solarMonth - 1) * 2);
+            secondTermDay = solarTermDayOfMonth(solarYear, (solarMonth - 1) * 2 + 1);
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (lunar == 0) {
+                // Before MIN_YEAR's Spring Festival or after MAX_YEAR, look again each day
+                lunar = fromJulianDay(firstJulianDay + i);
+                if (lunar != 0) {
+                    year = year(lunar);
+                    month = month(lunar);
+                    leap = isLeapMonth(lunar);
+                    day = day(lunar);
+                    monthDays = monthDays(year, month, leap);
+                }
+            }
+            int label = 0;
+            if (lunar != 0) {
+                label = (leap ? LEAP_MONTH : 0) | month << 5 | day;
+                final int festival = festival(month, leap, day, monthDays);
+                if (festival >= 0) {
+                    label |= (festival + 1) << LABEL_FESTIVAL_SHIFT;
+                }
+            }
+            if (solarDay == firstTermDay) {
+                label |= ((solarMonth - 1) * 2 + 1) << LABEL_TERM_SHIFT;
+            } else if (solarDay == secondTermDay) {
+                label |= ((solarMonth - 1) * 2 + 2) << LABEL_TERM_SHIFT;
+            }
+            labels[i] = label;
+
+            // Next lunar day
+            if (lunar != 0 && ++day > monthDays) {
+                day = 1;
+                if (!leap && month == leapMonth(year)) {
+                    leap = true;
+                } else {
+                    leap = false;
+                    if (++month > 12) {
+                        month = 1;
+                        if (++year > MAX_YEAR) {
+                            lunar = 0;
+                        }
+                    }
+                }
+                if (lunar != 0) {
+                    monthDays = monthDays(year, month, leap);
+                }
+            }
+            // Next solar day
+            if (++solarDay > solarMonthDays) {
+                solarDay = 1;
+                if (++solarMonth > 12) {
+                    solarMonth = 1;
+                    solarYear++;
+                }
+                solarMonthDays = JulianDay.daysInMonth(solarYear, solarMonth);
+                if (solarYear >= MIN_YEAR && solarYear <= MAX_YEAR) {
+                    firstTermDay = solarTermDayOfMonth(solarYear, (solarMonth - 1) * 2);
+                    secondTermDay = solarTermDayOfMonth(solarYear, (solarMonth - 1) * 2 + 1);
+                } else {
+                    firstTermDay = 0;
+                    secondTermDay = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the text to show under a day: its festival, else its solar term, else the month
+     * on the first day of a month and the day otherwise. Null for label 0.
+     */
+    public static String label(int label) {
+        final int id = labelTextId(label);
+        return id >= 0 ? labelText(id) : null;
+    }
+
+    /**
+     * Returns the id of the text {@link #label(int)} shows, from 0 to
+     * {@link #LABEL_TEXT_COUNT}, or -1 for label 0. Renderers can keep per-text data in an
+     * array indexed by it.
+     */
+    public static int labelTextId(int label) {
+        if (label == 0) {
+            return -1;
+        }
+        final int festival = label >> LABEL_FESTIVAL_SHIFT;
+        if (festival != 0) {
+            return FESTIVAL_TEXT_ID + festival - 1;
+        }
+        final int term = (label >> LABEL_TERM_SHIFT) & 0x1f;
+        if (term != 0) {
+            return SOLAR_TERM_TEXT_ID + term - 1;
+        }
+        final int day = day(label);
+        if (day == 0) {
+            return -1;
+        }
+        if (day == 1) {
+            return (isLeapMonth(label) ? LEAP_MONTH_TEXT_ID : MONTH_TEXT_ID) + month(label) - 1;
+        }
+        return day - 1;
+    }
+
+    /**
+     * Returns the text of a {@link #labelTextId(int)}.
+     */
+    public static String labelText(int id) {
+        if (id >= FESTIVAL_TEXT_ID) {
+            return FESTIVAL_NAMES[id - FESTIVAL_TEXT_ID];
+        } else if (id >= SOLAR_TERM_TEXT_ID) {
+            return SOLAR_TERM_NAMES[id - SOLAR_TERM_TEXT_ID];
+        } else if (id >= LEAP_MONTH_TEXT_ID) {
+            return LEAP_MONTH_NAMES[id - LEAP_MONTH_TEXT_ID];
+        } else if (id >= MONTH_TEXT_ID) {
+            return MONTH_NAMES[id - MONTH_TEXT_ID];
+        }
+        return DAY_NAMES[id];
+    }
+
+    /**
+     * Returns the lunar month and day of a label, packed like {@link #fromJulianDay(int)}
+     * but without the year.
+     */
+    public static int labelDate(int label) {
+        return label & LABEL_DATE_MASK;
+    }
+
+    /**
+     * Returns the solar term of a label, or -1.
+     */
+    public static int labelSolarTerm(int label) {
+        return ((label >> LABEL_TERM_SHIFT) & 0x1f) - 1;
+    }
+
+    /**
+     * Returns the festival of a label, or -1.
+     */
+    public static int labelFestival(int label) {
+        return (label >> LABEL_FESTIVAL_SHIFT) - 1;
+    }
+
+    public static String getSolarTermName(int term) {
+        return SOLAR_TERM_NAMES[term];
+    }
+
+    public static String getFestivalName(int festival) {
+        return FESTIVAL_NAMES[festival];
+    }
+
+    private static int solarTermDayOfMonth(int year, int term) {
+        final long terms = SOLAR_TERMS[year - MIN_YEAR];
+        return SOLAR_TERM_BASE[term] + (int) ((terms >>> (term * 2)) & 0x3);
+    }
+
+    private static int festival(int month, boolean leap, int day, int monthDays) {
+        if (leap) {
+            return -1;
+        }
+        switch (month) {
+            case 1:
+                return day == 1 ? SPRING_FESTIVAL : day == 15 ? LANTERN_FESTIVAL : -1;
+            case 5:
+                return day == 5 ? DRAGON_BOAT_FESTIVAL : -1;
+            case 7:
+                return day == 7 ? QIXI_FESTIVAL : day == 15 ? GHOST_FESTIVAL : -1;
+            case 8:
+                return day == 15 ? MID_AUTUMN_FESTIVAL : -1;
+            case 9:
+                return day == 9 ? DOUBLE_NINTH_FESTIVAL : -1;
+            case 12:
+                return day == 8 ? LABA_FESTIVAL : day == monthDays ? NEW_YEARS_EVE : -1;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.Arrays;
+
+/**
+ * 一个月的网格数据, 创建后不可变. 每个格子是一个 int: 低 8 位为日期, 其余位为标记.
+ * 跨天日程的横条也用 int 表示, 每条只占一行, 见 {@link #getBar(int)}.
+ * 每个格子的农历, 节气和节日在构建时一次填好, 见 {@link #getLunarLabel(int)}.
+ * 节假日等名称只有在 {@link NameDecorator} 给出时才分配, 见 {@link #getName(int)}.
+ **/
+public final class MonthModel {
+
+    public static final int DAY_MASK = 0xff;
+    public static final int FLAG_OUT_OF_MONTH = 1 << 8;
+    public static final int FLAG_TODAY = 1 << 9;
+    public static final int FLAG_WEEKEND = 1 << 10;
+    public static final int FLAG_HOLIDAY = 1 << 11;
+    public static final int FLAG_MARKER = 1 << 12;
+    /**
+     * A weekend day worked to make up for a holiday.
+     */
+    public static final int FLAG_WORKDAY = 1 << 13;
+    /**
+     * How busy the day is, 0 to {@link #MAX_DENSITY}, see {@link #densityLevel(int)}.
+     */
+    public static final int DENSITY_SHIFT = 14;
+    public static final int DENSITY_MASK = 3 << DENSITY_SHIFT;
+    public static final int MAX_DENSITY = 3;
+
+    public static final int MAX_ROW_COUNT = 6;
+    public static final int MAX_CELL_COUNT = MAX_ROW_COUNT * JulianDay.DAYS_IN_WEEK;
+
+    /**
+     * Bars stacked in one row, events that don't fit only get their marker.
+     */
+    public static final int MAX_BAR_LANES = 2;
+    public static final int MAX_BAR_COUNT = MAX_CELL_COUNT * MAX_BAR_LANES;
+
+    // Bar layout: row, first column, last column and lane in 4 bits each, then flags
+    public static final int BAR_CONTINUES_BEFORE = 1 << 16;
+    public static final int BAR_CONTINUES_AFTER = 1 << 17;
+
+    private static final int[] NO_BARS = new int[0];
+
+    /**
+     * Adds marker/holiday flags to a freshly built month, called once before the model is
+     * published. Implementations may run on a background thread.
+     */
+    public interface Decorator {
+        /**
+         * @param firstJulianDay julian day of {@code cells[0]}
+         * @param cells          packed cells to OR flags into
+         * @param count          number of valid cells
+         */
+        void decorate(int firstJulianDay, int[] cells, int count);
+    }
+
+    /**
+     * A {@link Decorator} that also lays out multi-day bars.
+     */
+    public interface BarDecorator extends Decorator {
+        /**
+         * Like {@link Decorator#decorate(int, int[], int)}, and writes the bars of the grid
+         * to {@code bars}, see {@link #bar(int, int, int, int, int)}.
+         *
+         * @param bars room for {@link #MAX_BAR_COUNT} bars
+         * @return the number of bars written
+         */
+        int decorate(int firstJulianDay, int[] cells, int count, int[] bars);
+    }
+
+    /**
+     * A {@link Decorator} that also names some days, e.g. public holidays.
+     */
+    public interface NameDecorator extends Decorator {
+        /**
+         * Like {@link Decorator#decorate(int, int[], int)}, and writes the names of the days
+         * that have one to {@code names}.
+         *
+         * @param names room for {@code count} names, all null
+         * @return true if any name was written
+         */
+        boolean decorate(int firstJulianDay, int[] cells, int count, String[] names);
+    }
+
+    private final int mYear;
+    private final int mMonth;
+    private final int mFirstDayOfWeek;
+    private final int mFirstJulianDay;
+    private final int mFirstDayIndex;
+    private final int mDayCount;
+    private final int mRowCount;
+    private final int[] mCells;
+    private final int[] mLunarLabels;
+    private int[] mBars = NO_BARS;
+    private String[] mNames;
+
+    private MonthModel(int year, int month, int firstDayOfWeek) {
+        mYear = year;
+        mMonth = month;
+        mFirstDayOfWeek = firstDayOfWeek;
+        mFirstJulianDay = JulianDay.gridStart(year, month, firstDayOfWeek);
+        mFirstDayIndex = JulianDay.firstColumnOfMonth(year, month, firstDayOfWeek);
+        mDayCount = JulianDay.daysInMonth(year, month);
+        mRowCount = JulianDay.weeksInMonth(year, month, firstDayOfWeek);
+        mCells = new int[mRowCount * JulianDay.DAYS_IN_WEEK];
+        mLunarLabels = new int[mCells.length];
+    }
+
+    /**
+     * Builds the model of the given month, {@code month} is 1-based.
+     */
+    public static MonthModel build(int year, int month, int firstDayOfWeek, int todayJulianDay,
+                                   Decorator decorator) {
+        final MonthModel model = new MonthModel(year, month, firstDayOfWeek);
+        final int[] cells = model.mCells;
+        final int first = model.mFirstDayIndex;
+        final int last = first + model.mDayCount;
+        final int count = cells.length;
+        int day = JulianDay.dayOfMonth(model.mFirstJulianDay);
+        for (int i = 0; i < count; i++) {
+            if (i == first || i == last) {
+                day = 1;
+            }
+            final int julianDay = model.mFirstJulianDay + i;
+            final int dayOfWeek = JulianDay.dayOfWeek(julianDay);
+            int cell = day;
+            if (i < first || i >= last) {
+                cell |= FLAG_OUT_OF_MONTH;
+            }
+            if (dayOfWeek == JulianDay.SUNDAY || dayOfWeek == JulianDay.SATURDAY) {
+                cell |= FLAG_WEEKEND;
+            }
+            if (julianDay == todayJulianDay) {
+                cell |= FLAG_TODAY;
+            }
+            cells[i] = cell;
+            day++;
+        }
+        LunarCalendar.fill(model.mFirstJulianDay, model.mLunarLabels, count);
+        if (decorator != null) {
+            model.decorate(decorator);
+        }
+        return model;
+    }
+
+    private void decorate(Decorator decorator) {
+        final int count = mCells.length;
+        if (decorator instanceof CombinedDecorator) {
+            decorate(((CombinedDecorator) decorator).mFirst);
+            decorate(((CombinedDecorator) decorator).mSecond);
+        } else if (decorator instanceof BarDecorator && mBars == NO_BARS) {
+            final int[] bars = new int[MAX_BAR_COUNT];
+            final int barCount = ((BarDecorator) decorator).decorate(
+                    mFirstJulianDay, mCells, count, bars);
+            if (barCount > 0) {
+                mBars = Arrays.copyOf(bars, barCount);
+            }
+        } else if (decorator instanceof NameDecorator) {
+            final String[] names = mNames != null ? mNames : new String[count];
+            if (((NameDecorator) decorator).decorate(mFirstJulianDay, mCells, count, names)) {
+                mNames = names;
+            }
+        } else {
+            decorator.decorate(mFirstJulianDay, mCells, count);
+        }
+    }
+
+    /**
+     * Returns a decorator running {@code first} then {@code second}, keeping the bars and
+     * names they lay out. Either may be null.
+     */
+    public static Decorator combine(final Decorator first, final Decorator second) {
+        if (first == null) {
+            return second;
+        } else if (second == null) {
+            return first;
+        }
+        return new CombinedDecorator(first, second);
+    }
+
+    /**
+     * Packs a bar covering {@code firstColumn} to {@code lastColumn} of {@code row}.
+     *
+     * @param flags {@link #BAR_CONTINUES_BEFORE} and {@link #BAR_CONTINUES_AFTER}
+     */
+    public static int bar(int row, int firstColumn, int lastColumn, int lane, int flags) {
+        return row | firstColumn << 4 | lastColumn << 8 | lane << 12 | flags;
+    }
+
+    public static int barRow(int bar) {
+        return bar & 0xf;
+    }
+
+    public static int barFirstColumn(int bar) {
+        return (bar >> 4) & 0xf;
+    }
+
+    public static int barLastColumn(int bar) {
+        return (bar >> 8) & 0xf;
+    }
+
+    public static int barLane(int bar) {
+        return (bar >> 12) & 0xf;
+    }
+
+    /**
+     * Returns the density level of a cell, 0 for a free day.
+     */
+    public static int densityLevel(int cell) {
+        return (cell & DENSITY_MASK) >> DENSITY_SHIFT;
+    }
+
+    /**
+     * Returns the cache key of a year-month, months are counted from year 0.
+     */
+    public static int key(int year, int month) {
+        return year * 12 + month - 1;
+    }
+
+    public int getKey() {
+        return key(mYear, mMonth);
+    }
+
+    public int getYear() {
+        return mYear;
+    }
+
+    public int getMonth() {
+        return mMonth;
+    }
+
+    public int getFirstDayOfWeek() {
+        return mFirstDayOfWeek;
+    }
+
+    /**
+     * Returns the julian day of the top-left cell.
+     */
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    /**
+     * Returns the index of the 1st day of the month.
+     */
+    public int getFirstDayIndex() {
+        return mFirstDayIndex;
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    public int getCellCount() {
+        return mCells.length;
+    }
+
+    public int getCell(int index) {
+        return mCells[index];
+    }
+
+    /**
+     * Returns the lunar label of a cell, turn it into text with {@link LunarCalendar#label(int)}.
+     */
+    public int getLunarLabel(int index) {
+        return mLunarLabels[index];
+    }
+
+    /**
+     * Returns the name of a cell's holiday or festival, or null.
+     */
+    public String getName(int index) {
+        return mNames != null ? mNames[index] : null;
+    }
+
+    public int getJulianDay(int index) {
+        return mFirstJulianDay + index;
+    }
+
+    /**
+     * Returns the cell index of {@code julianDay}, or -1 if it is not in the grid.
+     */
+    public int indexOf(int julianDay) {
+        final int index = julianDay - mFirstJulianDay;
+        return index >= 0 && index < mCells.length ? index : -1;
+    }
+
+    public int getBarCount() {
+        return mBars.length;
+    }
+
+    /**
+     * Returns a packed bar, ordered by row. Read it with {@link #barRow(int)},
+     * {@link #barFirstColumn(int)}, {@link #barLastColumn(int)} and {@link #barLane(int)}.
+     */
+    public int getBar(int index) {
+        return mBars[index];
+    }
+
+    public boolean isInMonth(int index) {
+        return index >= mFirstDayIndex && index < mFirstDayIndex + mDayCount;
+    }
+
+    /**
+     * Runs two decorators. Bars come from the first {@link BarDecorator} that lays any out,
+     * names from both, the second one winning on days both name.
+     */
+    private static final class CombinedDecorator implements Decorator {
+        final Decorator mFirst;
+        final Decorator mSecond;
+
+        CombinedDecorator(Decorator first, Decorator second) {
+            mFirst = first;
+            mSecond = second;
+        }
+
+        @Override
+        public void decorate(int firstJulianDay, int[] cells, int count) {
+            mFirst.decorate(firstJulianDay, cells, count);
+            mSecond.decorate(firstJulianDay, cells, count);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 按年月缓存 {@link MonthModel} 的 LRU 缓存. 键是 int, 查找不分配内存;
+ * 显示某个月后会在后台线程预先构建前后两个月.
+ **/
+public class MonthModelCache {
+
+    public static final int DEFAULT_CAPACITY = 12;
+
+    private static final int NO_KEY = Integer.MIN_VALUE;
+
+    private final Object mLock = new Object();
+    private final int[] mKeys;
+    private final MonthModel[] mModels;
+    private final long[] mLastAccess;
+    private long mAccessClock;
+    // Bumped by every invalidation, a model built under an older one is not cached
+    private int mGeneration;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mPrefetchCount;
+
+    private final int mFirstDayOfWeek;
+    private final MonthModel.Decorator mDecorator;
+    private int mToday;
+
+    private ExecutorService mPrefetchExecutor;
+
+    public MonthModelCache() {
+        this(DEFAULT_CAPACITY, JulianDay.SUNDAY, null);
+    }
+
+    public MonthModelCache(int capacity, int firstDayOfWeek, MonthModel.Decorator decorator) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        mKeys = new int[capacity];
+        mModels = new MonthModel[capacity];
+        mLastAccess = new long[capacity];
+        mFirstDayOfWeek = firstDayOfWeek;
+        mDecorator = decorator;
+        mToday = JulianDay.today();
+        clear();
+    }
+
+    /**
+     * Returns the model of the given month, building it on the calling thread on a miss.
+     */
+    public MonthModel get(int year, int month) {
+        final int key = MonthModel.key(year, month);
+        final int today;
+        final int generation;
+        synchronized (mLock) {
+            final int index = indexOfKey(key);
+            if (index >= 0) {
+                mHitCount++;
+                mLastAccess[index] = ++mAccessClock;
+                return mModels[index];
+            }
+            mMissCount++;
+            today = mToday;
+            generation = mGeneration;
+        }
+
+        // Build outside the lock so a running prefetch never blocks the UI thread for long
+        final MonthModel model = MonthModel.build(year, month, mFirstDayOfWeek, today, mDecorator);
+        synchronized (mLock) {
+            final int index = indexOfKey(key);
+            if (index >= 0) {
+                mLastAccess[index] = ++mAccessClock;
+                return mModels[index];
+            }
+            // Invalidated while building: hand it out, but the next get builds it again
+            if (generation == mGeneration) {
+                putLocked(key, model);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Adds a model built elsewhere, e.g. the one behind a year view tile, unless its month is
+     * cached already. The month view then shows it without building it again.
+     */
+    public void put(MonthModel model) {
+        final int key = model.getKey();
+        synchronized (mLock) {
+            final int index = indexOfKey(key);
+            if (index >= 0) {
+                mLastAccess[index] = ++mAccessClock;
+                return;
+            }
+            putLocked(key, model);
+        }
+    }
+
+    /**
+     * Warms the months before and after the given one on a background thread.
+     */
+    public void prefetchAround(int year, int month) {
+        final int key = MonthModel.key(year, month);
+        prefetch(key - 1);
+        prefetch(key + 1);
+    }
+
+    private void prefetch(final int key) {
+        synchronized (mLock) {
+            if (indexOfKey(key) >= 0) {
+                return;
+            }
+            if (mPrefetchExecutor == null) {
+                mPrefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "MonthModelPrefetch");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+            }
+        }
+        mPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int year = key / 12;
+                final int month = key % 12 + 1;
+                final int today;
+                final int generation;
+                synchronized (mLock) {
+                    if (indexOfKey(key) >= 0) {
+                        return;
+                    }
+                    today = mToday;
+                    generation = mGeneration;
+                }
+                final MonthModel model = MonthModel.build(year, month, mFirstDayOfWeek, today, mDecorator);
+                synchronized (mLock) {
+                    if (indexOfKey(key) < 0 && generation == mGeneration) {
+                        putLocked(key, model);
+                        mPrefetchCount++;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the given month, e.g. after its events changed.
+     */
+    public void invalidate(int year, int month) {
+        synchronized (mLock) {
+            mGeneration++;
+            final int index = indexOfKey(MonthModel.key(year, month));
+            if (index >= 0) {
+                mKeys[index] = NO_KEY;
+                mModels[index] = null;
+            }
+        }
+    }
+
+    /**
+     * Drops the cached months whose grid shows any of the days
+     * {@code [firstJulianDay, lastJulianDay]}, including the spill-over days of the
+     * neighbouring months.
+     */
+    public void invalidateRange(int firstJulianDay, int lastJulianDay) {
+        synchronized (mLock) {
+            mGeneration++;
+            for (int i = 0; i < mKeys.length; i++) {
+                final MonthModel model = mModels[i];
+                if (model == null) {
+                    continue;
+                }
+                final int gridFirst = model.getFirstJulianDay();
+                final int gridLast = gridFirst + model.getCellCount() - 1;
+                if (gridFirst <= lastJulianDay && gridLast >= firstJulianDay) {
+                    mKeys[i] = NO_KEY;
+                    mModels[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every cached month and picks up the current date again.
+     */
+    public void invalidateAll() {
+        synchronized (mLock) {
+            mGeneration++;
+            clear();
+            mToday = JulianDay.today();
+        }
+    }
+
+    public int getFirstDayOfWeek() {
+        return mFirstDayOfWeek;
+    }
+
+    public int getHitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    public int getEvictionCount() {
+        synchronized (mLock) {
+            return mEvictionCount;
+        }
+    }
+
+    /**
+     * Returns how many models were built ahead of time by {@link #prefetchAround(int, int)}.
+     */
+    public int getPrefetchCount() {
+        synchronized (mLock) {
+            return mPrefetchCount;
+        }
+    }
+
+    public int getCapacity() {
+        return mKeys.length;
+    }
+
+    public void resetStats() {
+        synchronized (mLock) {
+            mHitCount = 0;
+            mMissCount = 0;
+            mEvictionCount = 0;
+            mPrefetchCount = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            final int accesses = mHitCount + mMissCount;
+            final int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+            return "MonthModelCache[capacity=" + mKeys.length + ",hits=" + mHitCount
+                    + ",misses=" + mMissCount + ",evictions=" + mEvictionCount
+                    + ",prefetches=" + mPrefetchCount + ",hitRate=" + hitPercent + "%]";
+        }
+    }
+
+    private void clear() {
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = NO_KEY;
+            mModels[i] = null;
+            mLastAccess[i] = 0;
+        }
+    }
+
+    private int indexOfKey(int key) {
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void putLocked(int key, MonthModel model) {
+        int slot = -1;
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == NO_KEY) {
+                slot = i;
+                break;
+            }
+            if (slot < 0 || mLastAccess[i] < mLastAccess[slot]) {
+                slot = i;
+            }
+        }
+        if (mKeys[slot] != NO_KEY) {
+            mEvictionCount++;
+        }
+        mKeys[slot] = key;
+        mModels[slot] = model;
+        mLastAccess[slot] = ++mAccessClock;
+    }
+}
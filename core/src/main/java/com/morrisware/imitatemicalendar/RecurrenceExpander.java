@@ -0,0 +1,257 @@
+package com.morrisware.imitatemicalendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按需展开重复日程: 只展开查询的日期范围所在的月份, 每个 (日程, 月份) 的结果缓存起来,
+ * 某个日程修改或删除时只丢掉它自己的缓存. 打开应用时不会把所有重复日程展开到很远的将来.
+ * 每个日程最多缓存 {@link #MAX_MONTHS_PER_SERIES} 个月, 超出时丢掉最早缓存的月份.
+ * <p>
+ * 设置了 {@link EventDensity} 时, 日程增删改都会在它的日期范围内减去旧版本的每一次, 加上新版本的每一次.
+ **/
+public final class RecurrenceExpander {
+
+    public static final int MAX_MONTHS_PER_SERIES = 24;
+
+    private static final CalendarEvent[] NO_EVENTS = new CalendarEvent[0];
+
+    private Entry[] mEntries = new Entry[16];
+    private int mEntryCount;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    private EventDensity mDensity;
+    private final List<CalendarEvent> mDensityScratch = new ArrayList<>();
+
+    /**
+     * Adds the occurrences of the series put so far to {@code density}, and keeps it in step
+     * with the series put and removed from now on.
+     */
+    public synchronized void setDensity(EventDensity density) {
+        mDensity = density;
+        for (int i = 0; i < mEntryCount; i++) {
+            updateDensity(null, mEntries[i]);
+        }
+    }
+
+    /**
+     * Adds or replaces a series, dropping what was expanded for the old version.
+     */
+    public synchronized void putSeries(EventSeries series) {
+        final int index = indexOf(series.id);
+        final Entry entry = new Entry(series);
+        if (index >= 0) {
+            updateDensity(mEntries[index], entry);
+            mEntries[index] = entry;
+            return;
+        }
+        updateDensity(null, entry);
+        if (mEntryCount == mEntries.length) {
+            mEntries = Arrays.copyOf(mEntries, mEntryCount * 2);
+        }
+        mEntries[mEntryCount++] = entry;
+    }
+
+    public synchronized boolean removeSeries(long seriesId) {
+        final int index = indexOf(seriesId);
+        if (index < 0) {
+            return false;
+        }
+        updateDensity(mEntries[index], null);
+        System.arraycopy(mEntries, index + 1, mEntries, index, mEntryCount - index - 1);
+        mEntries[--mEntryCount] = null;
+        return true;
+    }
+
+    /**
+     * Drops the occurrence of a series starting on {@code julianDay}, e.g. because a single
+     * event replaces it.
+     *
+     * @return false if there is no such series
+     */
+    public synchronized boolean addException(long seriesId, int julianDay) {
+        final int index = indexOf(seriesId);
+        if (index < 0) {
+            return false;
+        }
+        final EventSeries series = mEntries[index].series;
+        if (!series.isException(julianDay)) {
+            final Entry entry = new Entry(series.withException(julianDay));
+            updateDensity(mEntries[index], entry);
+            mEntries[index] = entry;
+        }
+        return true;
+    }
+
+    public synchronized EventSeries getSeries(long seriesId) {
+        final int index = indexOf(seriesId);
+        return index >= 0 ? mEntries[index].series : null;
+    }
+
+    public synchronized int getSeriesCount() {
+        return mEntryCount;
+    }
+
+    /**
+     * Adds to {@code out} the occurrences overlapping the days {@code [firstDay, lastDay]},
+     * series by series, each sorted by start.
+     */
+    public synchronized void expand(int firstDay, int lastDay, List<CalendarEvent> out) {
+        for (int i = 0; i < mEntryCount; i++) {
+            final Entry entry = mEntries[i];
+            final EventSeries series = entry.series;
+            // An occurrence starting this many days earlier still overlaps
+            final int fromDay = firstDay - series.getSpanDays();
+            if (series.first.startDay > lastDay || entry.lastDay < fromDay) {
+                continue;
+            }
+            final int fromMonth = monthKey(Math.max(fromDay, series.first.startDay));
+            final int toMonth = monthKey(Math.min(lastDay, entry.lastDay));
+            for (int month = fromMonth; month <= toMonth; month++) {
+                final CalendarEvent[] occurrences = getMonth(entry, month);
+                for (CalendarEvent occurrence : occurrences) {
+                    if (occurrence.startDay <= lastDay && occurrence.getLastDay() >= firstDay) {
+                        out.add(occurrence);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how many (series, month) lookups were served from the memo.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns how many (series, month) pairs had to be expanded.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private CalendarEvent[] getMonth(Entry entry, int month) {
+        for (int i = 0; i < entry.monthCount; i++) {
+            if (entry.months[i] == month) {
+                mHitCount++;
+                return entry.occurrences[i];
+            }
+        }
+        mMissCount++;
+        final CalendarEvent[] occurrences = expandMonth(entry, month);
+        if (entry.months == null) {
+            entry.months = new int[MAX_MONTHS_PER_SERIES];
+            entry.occurrences = new CalendarEvent[MAX_MONTHS_PER_SERIES][];
+        }
+        final int slot;
+        if (entry.monthCount < MAX_MONTHS_PER_SERIES) {
+            slot = entry.monthCount++;
+        } else {
+            slot = entry.nextEviction;
+            entry.nextEviction = (entry.nextEviction + 1) % MAX_MONTHS_PER_SERIES;
+        }
+        entry.months[slot] = month;
+        entry.occurrences[slot] = occurrences;
+        return occurrences;
+    }
+
+    private static CalendarEvent[] expandMonth(Entry entry, int month) {
+        final EventSeries series = entry.series;
+        final RecurrenceRule rule = series.rule;
+        final int year = month / 12;
+        final int monthOfYear = month % 12 + 1;
+        final int monthFirst = JulianDay.fromDate(year, monthOfYear, 1);
+        final int monthLast = Math.min(entry.lastDay,
+                monthFirst + JulianDay.daysInMonth(year, monthOfYear) - 1);
+        CalendarEvent[] occurrences = NO_EVENTS;
+        int size = 0;
+        int day = rule.nextOccurrence(series.first.startDay, monthFirst);
+        while (day <= monthLast) {
+            if (!series.isException(day)) {
+                if (size == occurrences.length) {
+                    occurrences = Arrays.copyOf(occurrences, Math.max(4, size * 2));
+                }
+                occurrences[size++] = series.occurrence(day);
+            }
+            day = rule.nextOccurrence(series.first.startDay, day + 1);
+        }
+        return size == occurrences.length ? occurrences : Arrays.copyOf(occurrences, size);
+    }
+
+    /**
+     * Moves {@link #mDensity} from the occurrences of {@code old} to those of {@code entry},
+     * either may be null.
+     */
+    private void updateDensity(Entry old, Entry entry) {
+        final EventDensity density = mDensity;
+        if (density == null) {
+            return;
+        }
+        final List<CalendarEvent> occurrences = mDensityScratch;
+        if (old != null) {
+            walk(old, density.getFirstJulianDay(), density.getLastJulianDay(), occurrences);
+            for (int i = 0, z = occurrences.size(); i < z; i++) {
+                density.remove(occurrences.get(i));
+            }
+            occurrences.clear();
+        }
+        if (entry != null) {
+            walk(entry, density.getFirstJulianDay(), density.getLastJulianDay(), occurrences);
+            density.addAll(occurrences);
+            occurrences.clear();
+        }
+    }
+
+    /**
+     * Adds to {@code out} the occurrences overlapping {@code [firstDay, lastDay]} without
+     * going through the memo, which keeps only {@link #MAX_MONTHS_PER_SERIES} months.
+     */
+    private static void walk(Entry entry, int firstDay, int lastDay, List<CalendarEvent> out) {
+        final EventSeries series = entry.series;
+        final int startDay = series.first.startDay;
+        final int toDay = Math.min(lastDay, entry.lastDay);
+        int day = series.rule.nextOccurrence(startDay,
+                Math.max(startDay, firstDay - series.getSpanDays()));
+        while (day <= toDay) {
+            if (!series.isException(day)) {
+                out.add(series.occurrence(day));
+            }
+            day = series.rule.nextOccurrence(startDay, day + 1);
+        }
+    }
+
+    private static int monthKey(int julianDay) {
+        final int packed = JulianDay.toPacked(julianDay);
+        return MonthModel.key(JulianDay.year(packed), JulianDay.month(packed));
+    }
+
+    private int indexOf(long seriesId) {
+        for (int i = 0; i < mEntryCount; i++) {
+            if (mEntries[i].series.id == seriesId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Entry {
+        final EventSeries series;
+        // Last day an occurrence starts on, resolved once per version of the series
+        final int lastDay;
+        // Allocated on the first lookup, series outside every window viewed cost nothing
+        int[] months;
+        CalendarEvent[][] occurrences;
+        int monthCount;
+        int nextEviction;
+
+        Entry(EventSeries series) {
+            this.series = series;
+            this.lastDay = series.rule.lastOccurrence(series.first.startDay);
+        }
+    }
+}
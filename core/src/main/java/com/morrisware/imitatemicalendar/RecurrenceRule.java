@@ -0,0 +1,188 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * 重复规则, 不可变, 是 RFC 5545 RRULE 的一个子集: 按天/周/月/年重复, 间隔, 每周的星期几,
+ * 以及次数或截止日期. 按月和按年重复时, 没有对应日期的月份 (如 31 号, 2 月 29 日) 跳过.
+ * 所有计算都直接跳到目标日期附近, 不从第一次开始逐次推算.
+ **/
+public final class RecurrenceRule {
+
+    public static final int DAILY = 0;
+    public static final int WEEKLY = 1;
+    public static final int MONTHLY = 2;
+    public static final int YEARLY = 3;
+
+    /**
+     * Returned by {@link #nextOccurrence(int, int)} when there is none.
+     */
+    public static final int NONE = Integer.MAX_VALUE;
+
+    // Enough periods for any day of month / Feb 29th to come around again
+    private static final int MAX_SKIPPED_PERIODS = 100;
+
+    public final int frequency;
+    public final int interval;
+    /**
+     * Days of the week of a {@link #WEEKLY} rule, bit {@code 1 << dayOfWeek}.
+     */
+    public final int weekdays;
+    /**
+     * Number of occurrences, 0 if unlimited.
+     */
+    public final int count;
+    /**
+     * Last day an occurrence may start on, {@link #NONE} if unlimited.
+     */
+    public final int untilDay;
+
+    private RecurrenceRule(int frequency, int interval, int weekdays, int count, int untilDay) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval <= 0");
+        }
+        if (frequency == WEEKLY && (weekdays & 0x7f) == 0) {
+            throw new IllegalArgumentException("no weekdays");
+        }
+        this.frequency = frequency;
+        this.interval = interval;
+        this.weekdays = weekdays;
+        this.count = count;
+        this.untilDay = untilDay;
+    }
+
+    public static RecurrenceRule daily(int interval) {
+        return new RecurrenceRule(DAILY, interval, 0, 0, NONE);
+    }
+
+    /**
+     * @param weekdays days of the week, bit {@code 1 << dayOfWeek}, see {@link JulianDay#dayOfWeek(int)}
+     */
+    public static RecurrenceRule weekly(int interval, int weekdays) {
+        return new RecurrenceRule(WEEKLY, interval, weekdays, 0, NONE);
+    }
+
+    public static RecurrenceRule monthly(int interval) {
+        return new RecurrenceRule(MONTHLY, interval, 0, 0, NONE);
+    }
+
+    public static RecurrenceRule yearly(int interval) {
+        return new RecurrenceRule(YEARLY, interval, 0, 0, NONE);
+    }
+
+    public RecurrenceRule withCount(int count) {
+        return new RecurrenceRule(frequency, interval, weekdays, count, untilDay);
+    }
+
+    public RecurrenceRule withUntil(int untilDay) {
+        return new RecurrenceRule(frequency, interval, weekdays, count, untilDay);
+    }
+
+    /**
+     * Returns the first occurrence on or after {@code fromDay} of a series starting on
+     * {@code startDay}, ignoring {@link #count} and {@link #untilDay}, or {@link #NONE}.
+     */
+    public int nextOccurrence(int startDay, int fromDay) {
+        if (fromDay <= startDay) {
+            // The series start is always its first occurrence
+            return startDay;
+        }
+        switch (frequency) {
+            case DAILY: {
+                final int periods = (fromDay - startDay + interval - 1) / interval;
+                return startDay + periods * interval;
+            }
+            case WEEKLY:
+                return nextWeekly(startDay, fromDay);
+            case MONTHLY:
+                return nextMonthly(startDay, fromDay);
+            case YEARLY:
+                return nextYearly(startDay, fromDay);
+            default:
+                throw new IllegalStateException("Unknown frequency " + frequency);
+        }
+    }
+
+    /**
+     * Returns the day the last occurrence starts on, {@link #NONE} if the series never ends.
+     * With a {@link #count} this walks the occurrences once.
+     */
+    public int lastOccurrence(int startDay) {
+        int last = NONE;
+        if (count > 0) {
+            int day = startDay;
+            for (int i = 1; i < count && day != NONE; i++) {
+                day = nextOccurrence(startDay, day + 1);
+            }
+            last = day;
+        }
+        if (untilDay != NONE && (last == NONE || untilDay < last)) {
+            // Until is inclusive but not necessarily an occurrence
+            last = untilDay;
+        }
+        return last;
+    }
+
+    private int nextWeekly(int startDay, int fromDay) {
+        final int firstWeek = JulianDay.weekStart(startDay, JulianDay.SUNDAY);
+        int weekStart = JulianDay.weekStart(fromDay, JulianDay.SUNDAY);
+        // Move to the first week of a period at or after fromDay's week
+        final int weeks = (weekStart - firstWeek) / JulianDay.DAYS_IN_WEEK;
+        final int offset = weeks % interval;
+        int day = fromDay;
+        if (offset != 0) {
+            weekStart += (interval - offset) * JulianDay.DAYS_IN_WEEK;
+            day = weekStart;
+        }
+        while (true) {
+            for (; day < weekStart + JulianDay.DAYS_IN_WEEK; day++) {
+                if ((weekdays & (1 << JulianDay.dayOfWeek(day))) != 0) {
+                    return day;
+                }
+            }
+            weekStart += interval * JulianDay.DAYS_IN_WEEK;
+            day = weekStart;
+        }
+    }
+
+    private int nextMonthly(int startDay, int fromDay) {
+        final int start = JulianDay.toPacked(startDay);
+        final int dayOfMonth = JulianDay.day(start);
+        final int startMonth = MonthModel.key(JulianDay.year(start), JulianDay.month(start));
+        final int from = JulianDay.toPacked(fromDay);
+        int month = MonthModel.key(JulianDay.year(from), JulianDay.month(from));
+        final int offset = (month - startMonth) % interval;
+        if (offset != 0) {
+            month += interval - offset;
+        }
+        for (int i = 0; i < MAX_SKIPPED_PERIODS; i++, month += interval) {
+            final int year = month / 12;
+            final int monthOfYear = month % 12 + 1;
+            if (dayOfMonth <= JulianDay.daysInMonth(year, monthOfYear)) {
+                final int day = JulianDay.fromDate(year, monthOfYear, dayOfMonth);
+                if (day >= fromDay) {
+                    return day;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    private int nextYearly(int startDay, int fromDay) {
+        final int start = JulianDay.toPacked(startDay);
+        final int month = JulianDay.month(start);
+        final int dayOfMonth = JulianDay.day(start);
+        int year = JulianDay.year(JulianDay.toPacked(fromDay));
+        final int offset = (year - JulianDay.year(start)) % interval;
+        if (offset != 0) {
+            year += interval - offset;
+        }
+        for (int i = 0; i < MAX_SKIPPED_PERIODS; i++, year += interval) {
+            if (dayOfMonth <= JulianDay.daysInMonth(year, month)) {
+                final int day = JulianDay.fromDate(year, month, dayOfMonth);
+                if (day >= fromDay) {
+                    return day;
+                }
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,136 @@
+package com.morrisware.imitatemicalendar;
+
+/**
+ * 收起/展开的物理动画: 惯性滑动 (decay) 和无回弹的临界阻尼弹簧 (spring).
+ * 自身不注册帧回调, 由 {@link CollapseCoordinator} 每帧调用 {@link #step(float)}, 不分配内存.
+ * 位置和速度的单位是内容的像素 (px, px/s).
+ **/
+public final class SettleAnimation {
+
+    private static final int IDLE = 0;
+    private static final int DECAY = 1;
+    private static final int SPRING = 2;
+
+    // Same as SpringForce.STIFFNESS_MEDIUM and the default FlingAnimation friction
+    private static final float STIFFNESS = 1500f;
+    private static final float DECAY_RATE = 4.2f;
+
+    private final float mVelocityThreshold;
+    private final float mPositionThreshold;
+
+    private int mState = IDLE;
+    private float mPosition;
+    private float mVelocity;
+    private float mMin;
+    private float mMax;
+    private float mTarget;
+    private float mLeftoverVelocity;
+
+    /**
+     * @param density display density, the stop thresholds scale with it
+     */
+    public SettleAnimation(float density) {
+        mVelocityThreshold = 30f * density;
+        mPositionThreshold = 0.5f;
+    }
+
+    public boolean isRunning() {
+        return mState != IDLE;
+    }
+
+    public float getPosition() {
+        return mPosition;
+    }
+
+    public float getVelocity() {
+        return mVelocity;
+    }
+
+    /**
+     * Returns the velocity a fling still had when it reached a bound, 0 otherwise.
+     */
+    public float getLeftoverVelocity() {
+        return mLeftoverVelocity;
+    }
+
+    public void cancel() {
+        mState = IDLE;
+        mLeftoverVelocity = 0;
+        mVelocity = 0;
+    }
+
+    /**
+     * Springs from {@code position} to {@code target}, starting at {@code velocity}.
+     */
+    public void springTo(float position, float velocity, float target) {
+        mState = SPRING;
+        mLeftoverVelocity = 0;
+        mPosition = position;
+        mVelocity = velocity;
+        mTarget = target;
+    }
+
+    /**
+     * Decelerates from {@code velocity}, then springs to whichever of {@code min} or {@code max}
+     * is closer once it has slowed down. Reaching a bound ends the animation there.
+     */
+    public void fling(float position, float velocity, float min, float max) {
+        mState = DECAY;
+        mLeftoverVelocity = 0;
+        mPosition = position;
+        mVelocity = velocity;
+        mMin = min;
+        mMax = max;
+    }
+
+    /**
+     * Advances the animation by {@code dt} seconds.
+     *
+     * @return true if the animation is still running
+     */
+    public boolean step(float dt) {
+        switch (mState) {
+            case DECAY:
+                stepDecay(dt);
+                break;
+            case SPRING:
+                stepSpring(dt);
+                break;
+            default:
+                return false;
+        }
+        return mState != IDLE;
+    }
+
+    private void stepDecay(float dt) {
+        final float decay = (float) Math.exp(-DECAY_RATE * dt);
+        mPosition += mVelocity / DECAY_RATE * (1 - decay);
+        mVelocity *= decay;
+
+        if (mPosition <= mMin || mPosition >= mMax) {
+            mPosition = Math.max(mMin, Math.min(mPosition, mMax));
+            final float leftover = mVelocity;
+            cancel();
+            mLeftoverVelocity = leftover;
+        } else if (Math.abs(mVelocity) < mVelocityThreshold) {
+            final float target = mPosition - mMin < mMax - mPosition ? mMin : mMax;
+            springTo(mPosition, mVelocity, target);
+        }
+    }
+
+    private void stepSpring(float dt) {
+        // Critically damped, solved in closed form so large frames stay stable
+        final float omega = (float) Math.sqrt(STIFFNESS);
+        final float x0 = mPosition - mTarget;
+        final float c = mVelocity + omega * x0;
+        final float e = (float) Math.exp(-omega * dt);
+        final float x = (x0 + c * dt) * e;
+        mVelocity = (mVelocity - omega * c * dt) * e;
+        mPosition = mTarget + x;
+
+        if (Math.abs(x) < mPositionThreshold && Math.abs(mVelocity) < mVelocityThreshold) {
+            mPosition = mTarget;
+            cancel();
+        }
+    }
+}
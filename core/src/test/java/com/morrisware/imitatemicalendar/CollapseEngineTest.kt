@@ -0,0 +1,102 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class CollapseEngineTest {
+
+    // Six 100px rows with the third one pinned: the header moves 200px, the content 500px
+    private val engine = CollapseEngine().apply { setGeometry(100, 600, 2) }
+
+    @Test
+    fun ranges() {
+        assertEquals(200, engine.headerRange)
+        assertEquals(500, engine.contentRange)
+        // Never more than the rows the content covers
+        assertEquals(200, CollapseEngine.headerRange(4, 100, 300))
+        assertEquals(0, CollapseEngine.contentRange(100, 80))
+        assertEquals(10, CollapseEngine.gridTop(10, 600, 2, 100))
+        assertEquals(-90, CollapseEngine.gridTop(10, 500, 5, 100))
+    }
+
+    @Test
+    fun scrollContentBy_consumesWholePixelsAndClamps() {
+        val random = Random(20190227L)
+        var expected = 0
+        repeat(2000) {
+            val dy = random.nextInt(41) - 20
+            val target = Math.max(0, Math.min(500, expected + dy))
+
+            assertEquals(target - expected, engine.scrollContentBy(dy))
+
+            expected = target
+            // No drift: the fraction always maps back onto the same pixel
+            assertEquals(expected, engine.contentCollapse)
+        }
+    }
+
+    @Test
+    fun scrollContentBy_atTheEnds() {
+        assertEquals(0, engine.scrollContentBy(-10))
+        assertTrue(engine.isExpanded)
+
+        assertEquals(500, engine.scrollContentBy(800))
+        assertTrue(engine.isCollapsed)
+        assertEquals(-200, engine.headerOffset)
+        assertEquals(0, engine.scrollContentBy(1))
+        assertEquals(0, engine.scrollContentBy(0))
+    }
+
+    @Test
+    fun dragHeaderBy_movesByHeaderPixels() {
+        assertEquals(100, engine.dragHeaderBy(100))
+
+        assertEquals(0.5f, engine.fraction, 0f)
+        assertEquals(-100, engine.headerOffset)
+        assertEquals(250, engine.contentCollapse)
+        assertEquals(350, engine.getContentTop(600))
+
+        assertEquals(100, engine.dragHeaderBy(150))
+        assertTrue(engine.isCollapsed)
+    }
+
+    @Test
+    fun dragThenScroll_roundsFromTheSharedFraction() {
+        engine.dragHeaderBy(1)
+        // 1/200 of the content range is 2.5px, rounded up
+        assertEquals(3, engine.contentCollapse)
+
+        assertEquals(3, engine.scrollContentBy(3))
+        assertEquals(6, engine.contentCollapse)
+        assertEquals(-2, engine.headerOffset)
+    }
+
+    @Test
+    fun withoutHeaderRange_theHeaderDragMovesTheContent() {
+        engine.setGeometry(100, 600, 0)
+        assertEquals(0, engine.headerRange)
+
+        assertEquals(50, engine.dragHeaderBy(50))
+        assertEquals(50, engine.contentCollapse)
+        assertEquals(0, engine.headerOffset)
+        assertEquals(1000f, engine.headerToContentVelocity(1000f), 0f)
+    }
+
+    @Test
+    fun headerToContentVelocity_scalesByTheRanges() {
+        assertEquals(2500f, engine.headerToContentVelocity(1000f), 0f)
+        assertEquals(-2500f, engine.headerToContentVelocity(-1000f), 0f)
+    }
+
+    @Test
+    fun setFraction_clamps() {
+        assertTrue(engine.setFraction(1.5f))
+        assertEquals(1f, engine.fraction, 0f)
+        assertFalse(engine.setFraction(1f))
+        assertTrue(engine.setFraction(-1f))
+        assertTrue(engine.isExpanded)
+    }
+}
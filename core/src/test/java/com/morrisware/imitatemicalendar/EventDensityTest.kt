@@ -0,0 +1,83 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class EventDensityTest {
+
+    private val first = JulianDay.fromDate(2019, 3, 1)
+    private val density = EventDensity(first, first + 59)
+
+    private fun timed(id: Long, day: Int, startMinute: Int, endMinute: Int) =
+            CalendarEvent(id, null, day, startMinute, day, endMinute, false)
+
+    @Test
+    fun rangeQueries_matchPerDaySums() {
+        density.add(timed(1, first, 9 * 60, 10 * 60))
+        density.add(timed(2, first + 3, 13 * 60, 16 * 60))
+        // Overnight, 22:00 to 02:00
+        density.add(CalendarEvent(3, null, first + 5, 22 * 60, first + 6, 2 * 60, false))
+        density.add(CalendarEvent(4, null, first + 2, 0, first + 5, 0, true))
+
+        assertEquals(120, density.getBusyMinutes(first + 5))
+        assertEquals(120, density.getBusyMinutes(first + 6))
+        assertEquals(0, density.getBusyMinutes(first + 2))
+        for (from in first - 3..first + 10) {
+            for (to in from..first + 10) {
+                val count = (from..to).sumBy { density.getEventCount(it) }
+                val minutes = (from..to).sumBy { density.getBusyMinutes(it) }
+                assertEquals(count, density.getEventCount(from, to))
+                assertEquals(minutes.toLong(), density.getBusyMinutes(from, to))
+            }
+        }
+        assertEquals(60L + 180 + 240, density.getRollingBusyMinutes(first + 6))
+    }
+
+    @Test
+    fun updates_onlyChangeAffectedSums() {
+        val event = timed(1, first + 20, 8 * 60, 14 * 60)
+        density.add(timed(2, first, 8 * 60, 9 * 60))
+        assertEquals(60L, density.getBusyMinutes(first, first + 59))
+
+        density.add(event)
+        assertEquals(2, density.getEventCount(first, first + 59))
+        assertEquals(420L, density.getBusyMinutes(first, first + 59))
+        assertEquals(60L, density.getBusyMinutes(first, first + 19))
+
+        density.remove(event)
+        assertEquals(1, density.getEventCount(first, first + 59))
+        assertEquals(0L, density.getBusyMinutes(first + 1, first + 59))
+    }
+
+    @Test
+    fun index_keepsDensityInStep() {
+        val index = EventIntervalIndex()
+        index.setDensity(density)
+        index.insert(timed(1, first + 1, 9 * 60, 10 * 60))
+        // Same id moved to another day
+        index.insert(timed(1, first + 2, 9 * 60, 12 * 60))
+
+        assertEquals(0, density.getEventCount(first + 1))
+        assertEquals(180, density.getBusyMinutes(first + 2))
+
+        index.delete(1)
+        assertEquals(0, density.getEventCount(first, first + 59))
+    }
+
+    @Test
+    fun decorate_writesLevels() {
+        val day = JulianDay.fromDate(2019, 3, 12)
+        density.add(timed(1, day, 9 * 60, 10 * 60))
+        density.add(timed(2, day + 1, 9 * 60, 12 * 60))
+        density.add(timed(3, day + 2, 9 * 60, 18 * 60))
+
+        val model = MonthModel.build(2019, 3, JulianDay.SUNDAY, 0, density)
+
+        assertEquals(0, MonthModel.densityLevel(model.getCell(model.indexOf(day - 1))))
+        assertEquals(1, MonthModel.densityLevel(model.getCell(model.indexOf(day))))
+        assertEquals(2, MonthModel.densityLevel(model.getCell(model.indexOf(day + 1))))
+        assertEquals(MonthModel.MAX_DENSITY,
+                MonthModel.densityLevel(model.getCell(model.indexOf(day + 2))))
+        assertEquals(12, model.getCell(model.indexOf(day)) and MonthModel.DAY_MASK)
+    }
+}
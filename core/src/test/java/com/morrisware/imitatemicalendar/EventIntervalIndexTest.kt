@@ -0,0 +1,81 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class EventIntervalIndexTest {
+
+    // March 2019 starts on a Friday, the grid on Sunday February 24th
+    private val first = JulianDay.fromDate(2019, 3, 1)
+    private val gridStart = JulianDay.gridStart(2019, 3, JulianDay.SUNDAY)
+
+    private fun event(id: Long, startDay: Int, lastDay: Int, allDay: Boolean = false) =
+            CalendarEvent(id, "event $id", startDay, 0, lastDay + 1, 0, allDay)
+
+    private fun build(index: EventIntervalIndex) =
+            MonthModel.build(2019, 3, JulianDay.SUNDAY, 0, index)
+
+    private fun markedDays(model: MonthModel) = (0 until model.cellCount)
+            .filter { model.getCell(it) and MonthModel.FLAG_MARKER != 0 }
+            .map { model.getJulianDay(it) }
+
+    private fun bars(model: MonthModel) = (0 until model.barCount).map {
+        val bar = model.getBar(it)
+        listOf(MonthModel.barRow(bar), MonthModel.barFirstColumn(bar),
+                MonthModel.barLastColumn(bar), MonthModel.barLane(bar),
+                bar and (MonthModel.BAR_CONTINUES_BEFORE or MonthModel.BAR_CONTINUES_AFTER))
+    }
+
+    @Test
+    fun decorate_marksEveryCoveredCell() {
+        val index = EventIntervalIndex()
+        index.insert(event(1, first, first))
+        index.insert(event(2, first + 10, first + 12))
+        // Longer than a bucket, starts long before the grid
+        index.insert(event(3, first - 100, gridStart))
+        index.insert(event(4, first + 200, first + 201))
+
+        assertEquals(listOf(gridStart, first, first + 10, first + 11, first + 12),
+                markedDays(build(index)))
+        assertEquals(3, index.count(gridStart, gridStart + 41))
+    }
+
+    @Test
+    fun decorate_laysOutBarsPerRow() {
+        val index = EventIntervalIndex()
+        // Friday to Monday, crosses from the first row into the second
+        index.insert(event(1, first, first + 3))
+        // Same start and shorter, stacked below
+        index.insert(event(2, first, first + 1))
+        // No third lane in the first row, it only shows in the second
+        index.insert(event(3, first + 1, first + 2))
+        index.insert(event(4, first + 4, first + 4, allDay = true))
+        // Single-day timed events have no bar
+        index.insert(event(5, first + 5, first + 5))
+
+        assertEquals(listOf(
+                listOf(0, 5, 6, 0, MonthModel.BAR_CONTINUES_AFTER),
+                listOf(0, 5, 6, 1, 0),
+                listOf(1, 0, 1, 0, MonthModel.BAR_CONTINUES_BEFORE),
+                listOf(1, 0, 0, 1, MonthModel.BAR_CONTINUES_BEFORE),
+                listOf(1, 2, 2, 0, 0)
+        ), bars(build(index)))
+    }
+
+    @Test
+    fun insertAndDelete_areIncremental() {
+        val index = EventIntervalIndex()
+        index.insert(event(1, first, first))
+        index.insert(event(2, first + 1, first + 1))
+        // Replacing by id moves the event
+        index.insert(event(1, first + 2, first + 2))
+
+        assertEquals(listOf(first + 1, first + 2), markedDays(build(index)))
+
+        assertEquals(2L, index.delete(2)!!.id)
+        assertNull(index.delete(2))
+        assertEquals(listOf(first + 2), markedDays(build(index)))
+        assertEquals(1, index.size())
+    }
+}
@@ -0,0 +1,98 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.io.StringReader
+import java.nio.ByteBuffer
+
+class HolidayDataTest {
+
+    private fun day(year: Int, month: Int, day: Int) = JulianDay.fromDate(year, month, day)
+
+    private fun dataset(text: String) =
+            HolidayData(ByteBuffer.wrap(HolidayDataWriter().read(StringReader(text)).toByteArray()))
+
+    @Test
+    fun lookups_findFlagsAndNamesPerRegion() {
+        val data = dataset("""
+            CN 2019-09-29 workday
+            CN 2019-10-01..2019-10-07 holiday 国庆节
+            CN 2019-10-01 festival
+            HK 2019-10-01 holiday 国庆日
+        """.trimIndent())
+
+        assertEquals(2, data.regionCount)
+        assertNull(data.getCalendar("US"))
+        val cn = data.getCalendar("CN")
+        assertEquals(HolidayData.HOLIDAY or HolidayData.FESTIVAL, cn.getFlags(day(2019, 10, 1)))
+        assertEquals("国庆节", cn.getName(day(2019, 10, 1)))
+        assertEquals(HolidayData.HOLIDAY, cn.getFlags(day(2019, 10, 7)))
+        assertNull(cn.getName(day(2019, 10, 7)))
+        assertEquals(HolidayData.WORKDAY, cn.getFlags(day(2019, 9, 29)))
+        assertEquals(0, cn.getFlags(day(2019, 10, 8)))
+        assertEquals(0, cn.getFlags(day(2025, 10, 1)))
+        assertEquals("国庆日", data.getCalendar("HK").getName(day(2019, 10, 1)))
+    }
+
+    @Test
+    fun decorate_spansYearsIncludingEmptyOnes() {
+        val data = dataset("""
+            CN 2018-12-29 workday
+            CN 2018-12-30..2019-01-01 holiday
+            CN 2019-01-01 festival 元旦
+            CN 2021-01-01 holiday 元旦
+        """.trimIndent())
+        val calendar = data.getCalendar("CN")
+
+        val model = MonthModel.build(2018, 12, JulianDay.SUNDAY, 0, calendar)
+        val flags = (0 until model.cellCount).map {
+            model.getCell(it) and (MonthModel.FLAG_HOLIDAY or MonthModel.FLAG_WORKDAY)
+        }
+        val workday = model.indexOf(day(2018, 12, 29))
+        assertEquals(MonthModel.FLAG_WORKDAY, flags[workday])
+        assertEquals(MonthModel.FLAG_HOLIDAY, flags[workday + 1])
+        assertEquals(MonthModel.FLAG_HOLIDAY, flags[workday + 3])
+        assertEquals(4, flags.count { it != 0 })
+        assertEquals("元旦", model.getName(workday + 3))
+        assertNull(model.getName(workday))
+
+        // 2020 has no entries at all
+        assertNull(MonthModel.build(2020, 6, JulianDay.SUNDAY, 0, calendar).getName(10))
+        assertEquals("元旦", calendar.getName(day(2021, 1, 1)))
+    }
+
+    @Test
+    fun combine_keepsBarsAndNames() {
+        val index = EventIntervalIndex()
+        index.insert(CalendarEvent(1, "trip", day(2019, 10, 2), 0, day(2019, 10, 5), 0, true))
+        val calendar = dataset("CN 2019-10-01 holiday 国庆节").getCalendar("CN")
+
+        val model = MonthModel.build(2019, 10, JulianDay.SUNDAY, 0, MonthModel.combine(index, calendar))
+
+        assertEquals(1, model.barCount)
+        assertEquals("国庆节", model.getName(model.indexOf(day(2019, 10, 1))))
+        assertTrue(model.getCell(model.indexOf(day(2019, 10, 1))) and MonthModel.FLAG_HOLIDAY != 0)
+        assertTrue(model.getCell(model.indexOf(day(2019, 10, 3))) and MonthModel.FLAG_MARKER != 0)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsOtherData() {
+        HolidayData(ByteBuffer.wrap(ByteArray(32)))
+    }
+
+    @Test
+    fun shippedAsset_isUpToDate() {
+        // Unit tests run from the module directory
+        val source = File("../data/holidays.txt")
+        val asset = File("../app/src/main/assets/holidays.bin")
+        val expected = HolidayDataWriter().read(source.reader()).toByteArray()
+
+        assertArrayEquals(expected, asset.readBytes())
+        assertFalse(HolidayData(ByteBuffer.wrap(expected)).getCalendar("CN") == null)
+    }
+}
@@ -0,0 +1,290 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+import java.util.TimeZone
+
+class IcsParserTest {
+
+    private val shanghai = TimeZone.getTimeZone("Asia/Shanghai")
+
+    private fun day(year: Int, month: Int, day: Int) = JulianDay.fromDate(year, month, day)
+
+    /**
+     * Hands out at most [chunk] bytes per read, so lines and characters straddle reads.
+     */
+    private class TrickleChannel(text: String, private val chunk: Int) : ReadableByteChannel {
+        private val bytes = ByteBuffer.wrap(text.toByteArray(Charsets.UTF_8))
+        private var open = true
+
+        override fun read(dst: ByteBuffer): Int {
+            if (!bytes.hasRemaining()) {
+                return -1
+            }
+            val n = minOf(chunk, dst.remaining(), bytes.remaining())
+            for (i in 0 until n) {
+                dst.put(bytes.get())
+            }
+            return n
+        }
+
+        override fun isOpen() = open
+
+        override fun close() {
+            open = false
+        }
+    }
+
+    private fun parseAll(ics: String, chunk: Int = 4096): Pair<List<IcsEvent>, IcsParser> {
+        val parser = IcsParser(TrickleChannel(ics.replace("\n", "\r\n"), chunk), shanghai)
+        val events = ArrayList<IcsEvent>()
+        while (true) {
+            events.add(parser.next() ?: break)
+        }
+        return events to parser
+    }
+
+    @Test
+    fun foldedLinesAndMultiByteText_surviveChunkBoundaries() {
+        val ics = """
+            BEGIN:VCALENDAR
+            BEGIN:VEVENT
+            UID:a@example.com
+            SUMMARY:项目评审\, 第二
+             轮
+            DTSTART:20190308T090000
+            DTEND:20190308T103000
+            END:VEVENT
+            END:VCALENDAR
+        """.trimIndent()
+
+        val (events, parser) = parseAll(ics, chunk = 3)
+
+        assertEquals(1, events.size)
+        val event = events[0].event
+        assertEquals("项目评审, 第二轮", event.title)
+        assertEquals(day(2019, 3, 8), event.startDay)
+        assertEquals(9 * 60, event.startMinute)
+        assertEquals(10 * 60 + 30, event.endMinute)
+        assertTrue(event.id > 0)
+        assertEquals(ics.replace("\n", "\r\n").toByteArray().size.toLong(), parser.bytesRead)
+    }
+
+    @Test
+    fun dateAndUtcTimes_areConvertedToTheLocalCalendar() {
+        val ics = """
+            BEGIN:VEVENT
+            SUMMARY:holiday
+            DTSTART;VALUE=DATE:20190501
+            DTEND;VALUE=DATE:20190504
+            END:VEVENT
+            BEGIN:VEVENT
+            SUMMARY:call
+            DTSTART:20190308T200000Z
+            DURATION:PT1H30M
+            END:VEVENT
+        """.trimIndent()
+
+        val (events, _) = parseAll(ics)
+
+        val holiday = events[0].event
+        assertTrue(holiday.allDay)
+        assertEquals(day(2019, 5, 1), holiday.startDay)
+        assertEquals(day(2019, 5, 3), holiday.lastDay)
+        // 20:00 UTC is 04:00 the next day in Shanghai
+        val call = events[1].event
+        assertEquals(day(2019, 3, 9), call.startDay)
+        assertEquals(4 * 60, call.startMinute)
+        assertEquals(5 * 60 + 30, call.endMinute)
+    }
+
+    @Test
+    fun rrule_becomesASeriesWithItsExceptions() {
+        val ics = """
+            BEGIN:VEVENT
+            UID:standup
+            SUMMARY:standup
+            DTSTART:20190304T093000
+            DTEND:20190304T094500
+            RRULE:FREQ=WEEKLY;INTERVAL=1;BYDAY=MO,WE;COUNT=6
+            EXDATE:20190306T093000,20190311T093000
+            BEGIN:VALARM
+            TRIGGER:-PT10M
+            DESCRIPTION:END:VEVENT
+            END:VALARM
+            END:VEVENT
+            BEGIN:VEVENT
+            SUMMARY:board
+            DTSTART:20190312T100000
+            RRULE:FREQ=MONTHLY;BYDAY=2TU
+            END:VEVENT
+        """.trimIndent()
+
+        val (events, parser) = parseAll(ics)
+
+        assertEquals(2, events.size)
+        val series = events[0].series
+        assertNotNull(series)
+        assertEquals(RecurrenceRule.WEEKLY, series!!.rule.frequency)
+        assertEquals(6, series.rule.count)
+        assertTrue(series.isException(day(2019, 3, 6)))
+        assertTrue(series.isException(day(2019, 3, 11)))
+        val expander = RecurrenceExpander()
+        expander.putSeries(series)
+        val out = ArrayList<CalendarEvent>()
+        expander.expand(day(2019, 3, 1), day(2019, 3, 31), out)
+        assertEquals(listOf(20190304, 20190313, 20190318, 20190320),
+                out.map { JulianDay.toPacked(it.startDay) })
+        // Ordinal weekdays can't be expressed, the first occurrence is still imported
+        assertNull(events[1].series)
+        assertEquals(day(2019, 3, 12), events[1].event.startDay)
+        assertEquals(1, parser.unsupportedRuleCount)
+    }
+
+    @Test
+    fun redundantMonthDayAndMonth_keepPlainMonthlyAndYearlyRules() {
+        // As Outlook writes them
+        val ics = """
+            BEGIN:VEVENT
+            UID:rent
+            SUMMARY:rent
+            DTSTART;VALUE=DATE:20190315
+            RRULE:FREQ=MONTHLY;BYMONTHDAY=15;COUNT=3
+            END:VEVENT
+            BEGIN:VEVENT
+            UID:july
+            SUMMARY:july
+            DTSTART;VALUE=DATE:20190704
+            RRULE:FREQ=YEARLY;INTERVAL=1;BYMONTHDAY=4;BYMONTH=7
+            END:VEVENT
+        """.trimIndent()
+
+        val (events, parser) = parseAll(ics)
+
+        assertEquals(0, parser.unsupportedRuleCount)
+        assertEquals(RecurrenceRule.MONTHLY, events[0].series!!.rule.frequency)
+        assertEquals(RecurrenceRule.YEARLY, events[1].series!!.rule.frequency)
+        val expander = RecurrenceExpander()
+        expander.putSeries(events[0].series!!)
+        expander.putSeries(events[1].series!!)
+        val out = ArrayList<CalendarEvent>()
+        expander.expand(day(2019, 1, 1), day(2020, 12, 31), out)
+        assertEquals(listOf(20190315, 20190415, 20190515, 20190704, 20200704),
+                out.map { JulianDay.toPacked(it.startDay) }.sorted())
+    }
+
+    @Test
+    fun monthDayOrMonthOtherThanTheStart_isUnsupported() {
+        val ics = """
+            BEGIN:VEVENT
+            UID:first
+            SUMMARY:first
+            DTSTART;VALUE=DATE:20190315
+            RRULE:FREQ=MONTHLY;BYMONTHDAY=1
+            END:VEVENT
+            BEGIN:VEVENT
+            UID:every-15th
+            SUMMARY:every 15th
+            DTSTART;VALUE=DATE:20190315
+            RRULE:FREQ=YEARLY;BYMONTHDAY=15
+            END:VEVENT
+            BEGIN:VEVENT
+            UID:august
+            SUMMARY:august
+            DTSTART;VALUE=DATE:20190704
+            RRULE:FREQ=YEARLY;BYMONTHDAY=4;BYMONTH=8
+            END:VEVENT
+        """.trimIndent()
+
+        val (events, parser) = parseAll(ics)
+
+        // Each still imports its first occurrence
+        assertEquals(3, events.size)
+        assertTrue(events.all { it.series == null })
+        assertEquals(3, parser.unsupportedRuleCount)
+    }
+
+    @Test
+    fun recurrenceIds_becomeSingleEventsAndExceptionsOfTheirSeries() {
+        val ics = """
+            BEGIN:VEVENT
+            UID:standup
+            RECURRENCE-ID:20190306T093000
+            SUMMARY:standup (moved)
+            DTSTART:20190306T140000
+            DTEND:20190306T141500
+            END:VEVENT
+            BEGIN:VEVENT
+            UID:standup
+            SUMMARY:standup
+            DTSTART:20190304T093000
+            DTEND:20190304T094500
+            RRULE:FREQ=DAILY;COUNT=5
+            END:VEVENT
+            BEGIN:VEVENT
+            UID:standup
+            RECURRENCE-ID:20190307T093000
+            SUMMARY:standup (long)
+            DTSTART:20190307T093000
+            DTEND:20190307T110000
+            END:VEVENT
+        """.trimIndent()
+
+        val (events, _) = parseAll(ics)
+
+        assertEquals(3, events.size)
+        val (moved, master, long) = events
+        val series = master.series!!
+        assertFalse(master.isOverride)
+        assertTrue(moved.isOverride)
+        assertTrue(long.isOverride)
+        assertNull(moved.series)
+        // Each override keeps its own id, so neither replaces the other or the series
+        assertEquals(3, events.map { it.event.id }.toSet().size)
+        assertEquals(series.id, moved.masterSeriesId)
+        assertEquals(series.id, long.masterSeriesId)
+        assertEquals(day(2019, 3, 6), moved.recurrenceDay)
+        assertEquals(day(2019, 3, 7), long.recurrenceDay)
+        // Read before the series, the parser merged it in
+        assertTrue(series.isException(day(2019, 3, 6)))
+        // Read after it, the caller adds it
+        assertFalse(series.isException(day(2019, 3, 7)))
+        val expander = RecurrenceExpander()
+        expander.putSeries(series)
+        assertTrue(expander.addException(long.masterSeriesId, long.recurrenceDay))
+        val out = ArrayList<CalendarEvent>()
+        expander.expand(day(2019, 3, 1), day(2019, 3, 31), out)
+        assertEquals(listOf(20190304, 20190305, 20190308),
+                out.map { JulianDay.toPacked(it.startDay) })
+    }
+
+    @Test
+    fun reimport_keepsIdsAndSkipsBrokenEvents() {
+        val ics = """
+            BEGIN:VEVENT
+            UID:same
+            DTSTART:20190308T090000
+            END:VEVENT
+            BEGIN:VEVENT
+            SUMMARY:no start
+            END:VEVENT
+            BEGIN:VEVENT
+            DTSTART:20190308T090000
+            DTEND:20190307T090000
+            END:VEVENT
+        """.trimIndent()
+
+        val (first, parser) = parseAll(ics)
+        val (second, _) = parseAll(ics)
+
+        assertEquals(1, first.size)
+        assertEquals(2, parser.skippedCount)
+        assertEquals(first[0].event.id, second[0].event.id)
+    }
+}
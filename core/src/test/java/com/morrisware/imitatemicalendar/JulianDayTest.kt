@@ -0,0 +1,76 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Calendar
+import java.util.GregorianCalendar
+import java.util.TimeZone
+
+class JulianDayTest {
+
+    @Test
+    fun knownDays() {
+        assertEquals(2440588, JulianDay.fromDate(1970, 1, 1))
+        assertEquals(2451545, JulianDay.fromDate(2000, 1, 1))
+        assertEquals(20000101, JulianDay.toPacked(2451545))
+        // Thursday
+        assertEquals(4, JulianDay.dayOfWeek(2440588))
+    }
+
+    @Test
+    fun everyDay_roundTripsAndMatchesGregorianCalendar() {
+        val calendar = GregorianCalendar(TimeZone.getTimeZone("UTC"))
+        calendar.clear()
+        calendar.set(1800, Calendar.JANUARY, 1)
+        var julianDay = JulianDay.fromDate(1800, 1, 1)
+        // Crosses the non-leap 1900 and the leap 2000
+        while (calendar.get(Calendar.YEAR) < 2200) {
+            val year = calendar.get(Calendar.YEAR)
+            val month = calendar.get(Calendar.MONTH) + 1
+            val day = calendar.get(Calendar.DAY_OF_MONTH)
+            val packed = JulianDay.pack(year, month, day)
+
+            assertEquals(julianDay, JulianDay.fromDate(year, month, day))
+            assertEquals(packed, JulianDay.toPacked(julianDay))
+            assertEquals(julianDay, JulianDay.fromPacked(packed))
+            assertEquals(calendar.get(Calendar.DAY_OF_WEEK) - 1, JulianDay.dayOfWeek(julianDay))
+            assertEquals(calendar.getActualMaximum(Calendar.DAY_OF_MONTH),
+                    JulianDay.daysInMonth(year, month))
+
+            calendar.add(Calendar.DAY_OF_MONTH, 1)
+            julianDay++
+        }
+    }
+
+    @Test
+    fun fromMillis_roundsTowardsEarlierDays() {
+        val epoch = JulianDay.fromDate(1970, 1, 1)
+        assertEquals(epoch, JulianDay.fromMillis(0, 0))
+        assertEquals(epoch - 1, JulianDay.fromMillis(-1, 0))
+        assertEquals(epoch, JulianDay.fromMillis(-1, 1))
+        // 20:00 UTC is the next day at UTC+8
+        val millis = 20 * 60 * 60 * 1000L
+        assertEquals(epoch + 1, JulianDay.fromMillis(millis, 8 * 60 * 60 * 1000))
+    }
+
+    @Test
+    fun monthGrid() {
+        // February 2015 starts on a Sunday and fills exactly four rows
+        assertEquals(0, JulianDay.firstColumnOfMonth(2015, 2, JulianDay.SUNDAY))
+        assertEquals(4, JulianDay.weeksInMonth(2015, 2, JulianDay.SUNDAY))
+        assertEquals(5, JulianDay.weeksInMonth(2015, 2, JulianDay.MONDAY))
+        // March 2019 starts on a Friday
+        assertEquals(6, JulianDay.weeksInMonth(2019, 3, JulianDay.SUNDAY))
+        assertEquals(5, JulianDay.weeksInMonth(2019, 3, JulianDay.MONDAY))
+        assertEquals(JulianDay.fromDate(2019, 2, 24),
+                JulianDay.gridStart(2019, 3, JulianDay.SUNDAY))
+        assertEquals(JulianDay.fromDate(2019, 2, 25),
+                JulianDay.gridStart(2019, 3, JulianDay.MONDAY))
+
+        val march31 = JulianDay.fromDate(2019, 3, 31)
+        assertEquals(5, JulianDay.weekOfMonth(march31, JulianDay.SUNDAY))
+        assertEquals(4, JulianDay.weekOfMonth(march31, JulianDay.MONDAY))
+        assertEquals(march31, JulianDay.weekStart(march31, JulianDay.SUNDAY))
+        assertEquals(march31 - 6, JulianDay.weekStart(march31, JulianDay.MONDAY))
+    }
+}
@@ -0,0 +1,86 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class LunarCalendarTest {
+
+    private fun day(year: Int, month: Int, day: Int) = JulianDay.fromDate(year, month, day)
+
+    private fun lunar(year: Int, month: Int, day: Int) =
+            LunarCalendar.fromJulianDay(day(year, month, day))
+
+    @Test
+    fun fromJulianDay_matchesPublishedCalendars() {
+        assertEquals(LunarCalendar.pack(2019, 1, false, 1), lunar(2019, 2, 5))
+        assertEquals(LunarCalendar.pack(2018, 12, false, 30), lunar(2019, 2, 4))
+        assertEquals(LunarCalendar.pack(2019, 8, false, 15), lunar(2019, 9, 13))
+        // Leap months, 2033 is the year the old rules got wrong
+        assertEquals(LunarCalendar.pack(2020, 4, true, 1), lunar(2020, 5, 23))
+        assertEquals(LunarCalendar.pack(2033, 11, true, 1), lunar(2033, 12, 22))
+        assertEquals(LunarCalendar.pack(1900, 1, false, 1), lunar(1900, 1, 31))
+    }
+
+    @Test
+    fun fromJulianDay_outOfRangeIsZero() {
+        assertEquals(0, lunar(1900, 1, 30))
+        assertEquals(0, lunar(2101, 6, 1))
+    }
+
+    @Test
+    fun toJulianDay_roundTripsEveryDay() {
+        var julianDay = LunarCalendar.newYearDay(LunarCalendar.MIN_YEAR)
+        var date = LunarCalendar.fromJulianDay(julianDay)
+        while (date != 0) {
+            assertEquals(julianDay, LunarCalendar.toJulianDay(LunarCalendar.year(date),
+                    LunarCalendar.month(date), LunarCalendar.isLeapMonth(date), LunarCalendar.day(date)))
+            julianDay++
+            date = LunarCalendar.fromJulianDay(julianDay)
+        }
+        assertEquals(-1, LunarCalendar.toJulianDay(2019, 4, true, 1))
+    }
+
+    @Test
+    fun solarTerms() {
+        assertEquals(2, LunarCalendar.solarTerm(day(2019, 2, 4)))
+        assertEquals(6, LunarCalendar.solarTerm(day(2019, 4, 5)))
+        assertEquals(6, LunarCalendar.solarTerm(day(2020, 4, 4)))
+        assertEquals(23, LunarCalendar.solarTerm(day(2019, 12, 22)))
+        assertEquals(23, LunarCalendar.solarTerm(day(2020, 12, 21)))
+        assertEquals(-1, LunarCalendar.solarTerm(day(2019, 12, 21)))
+        assertEquals(day(2019, 6, 21), LunarCalendar.solarTermDay(2019, 11))
+    }
+
+    @Test
+    fun fill_matchesSingleLookups() {
+        val first = JulianDay.gridStart(2020, 1, JulianDay.SUNDAY)
+        // Ten weeks, into the second lunar month
+        val labels = IntArray(70)
+        LunarCalendar.fill(first, labels, labels.size)
+
+        for (i in labels.indices) {
+            val date = LunarCalendar.fromJulianDay(first + i)
+            assertEquals(date and 0x3ff, LunarCalendar.labelDate(labels[i]))
+            assertEquals(LunarCalendar.solarTerm(first + i), LunarCalendar.labelSolarTerm(labels[i]))
+        }
+        fun label(m: Int, d: Int) = LunarCalendar.label(labels[day(2020, m, d) - first])
+        assertEquals("除夕", label(1, 24))
+        assertEquals("春节", label(1, 25))
+        assertEquals("初二", label(1, 26))
+        assertEquals("元宵", label(2, 8))
+        assertEquals("立春", label(2, 4))
+        assertEquals("二月", label(2, 23))
+    }
+
+    @Test
+    fun fill_crossesTheEndOfTheTable() {
+        val first = LunarCalendar.newYearDay(LunarCalendar.MIN_YEAR) - 3
+        val labels = IntArray(7)
+        LunarCalendar.fill(first, labels, labels.size)
+
+        assertNull(LunarCalendar.label(labels[0]))
+        assertEquals("春节", LunarCalendar.label(labels[3]))
+        assertEquals("初四", LunarCalendar.label(labels[6]))
+    }
+}
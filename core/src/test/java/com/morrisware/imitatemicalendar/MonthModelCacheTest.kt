@@ -0,0 +1,81 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class MonthModelCacheTest {
+
+    @Test
+    fun full_evictsTheLeastRecentlyUsedMonth() {
+        val cache = MonthModelCache(2, JulianDay.SUNDAY, null)
+        val january = cache.get(2019, 1)
+        cache.get(2019, 2)
+        // January is now more recent than February
+        assertSame(january, cache.get(2019, 1))
+
+        cache.get(2019, 3)
+
+        assertEquals(1, cache.evictionCount)
+        assertSame(january, cache.get(2019, 1))
+        assertEquals(2, cache.hitCount)
+        cache.get(2019, 2)
+        assertEquals(4, cache.missCount)
+    }
+
+    @Test
+    fun invalidateRange_dropsEveryGridShowingTheDays() {
+        val cache = MonthModelCache(4, JulianDay.SUNDAY, null)
+        val february = cache.get(2019, 2)
+        val march = cache.get(2019, 3)
+        cache.get(2019, 4)
+
+        // March 31st is in the March grid and, as spill-over, in the April grid
+        cache.invalidateRange(JulianDay.fromDate(2019, 3, 31), JulianDay.fromDate(2019, 3, 31))
+
+        assertSame(february, cache.get(2019, 2))
+        assertNotSame(march, cache.get(2019, 3))
+        cache.get(2019, 4)
+        assertEquals(1, cache.hitCount)
+        assertEquals(5, cache.missCount)
+    }
+
+    @Test
+    fun put_addsModelsBuiltElsewhereOnce() {
+        val cache = MonthModelCache(4, JulianDay.SUNDAY, null)
+        val tile = MonthModel.build(2019, 3, JulianDay.SUNDAY, 0, null)
+
+        cache.put(tile)
+        assertSame(tile, cache.get(2019, 3))
+        assertEquals(0, cache.missCount)
+
+        // A month already cached is kept
+        cache.put(MonthModel.build(2019, 3, JulianDay.SUNDAY, 0, null))
+        assertSame(tile, cache.get(2019, 3))
+    }
+
+    @Test
+    fun invalidatedWhileBuilding_isNotCached() {
+        lateinit var cache: MonthModelCache
+        var builds = 0
+        // Events change between the build starting and finishing, like an import batch
+        // committing while the prefetch thread decorates
+        val decorator = MonthModel.Decorator { firstJulianDay, _, count ->
+            if (builds++ == 0) {
+                cache.invalidateRange(firstJulianDay, firstJulianDay + count - 1)
+            }
+        }
+        cache = MonthModelCache(4, JulianDay.SUNDAY, decorator)
+
+        val stale = cache.get(2019, 3)
+        val fresh = cache.get(2019, 3)
+
+        assertNotSame(stale, fresh)
+        assertEquals(2, builds)
+        assertEquals(2, cache.missCount)
+        // The second build was cached
+        cache.get(2019, 3)
+        assertEquals(1, cache.hitCount)
+    }
+}
@@ -0,0 +1,103 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MonthModelTest {
+
+    private fun day(year: Int, month: Int, day: Int) = JulianDay.fromDate(year, month, day)
+
+    private fun build(year: Int, month: Int, firstDayOfWeek: Int = JulianDay.SUNDAY,
+                      today: Int = 0) =
+            MonthModel.build(year, month, firstDayOfWeek, today, null)
+
+    private fun MonthModel.inMonthDays() = (0 until cellCount)
+            .filter { getCell(it) and MonthModel.FLAG_OUT_OF_MONTH == 0 }
+            .map { getCell(it) and MonthModel.DAY_MASK }
+
+    @Test
+    fun february_leapAndCommonYears() {
+        // Starts on a Sunday, the only layout with four rows
+        val february2015 = build(2015, 2)
+        assertEquals(4, february2015.rowCount)
+        assertEquals(28, february2015.cellCount)
+        assertEquals(0, february2015.firstDayIndex)
+        assertEquals((1..28).toList(), february2015.inMonthDays())
+
+        val february2016 = build(2016, 2)
+        assertEquals(29, february2016.dayCount)
+        assertEquals(5, february2016.rowCount)
+        assertEquals(1, february2016.firstDayIndex)
+        assertEquals((1..29).toList(), february2016.inMonthDays())
+        // Spill-over on both sides: Jan 31st and Mar 1st to 5th
+        assertEquals(31, february2016.getCell(0) and MonthModel.DAY_MASK)
+        assertEquals(day(2016, 3, 1), february2016.getJulianDay(30))
+        assertEquals(1, february2016.getCell(30) and MonthModel.DAY_MASK)
+
+        val february2019 = build(2019, 2)
+        assertEquals(28, february2019.dayCount)
+        assertEquals(5, february2019.rowCount)
+        assertEquals((1..28).toList(), february2019.inMonthDays())
+    }
+
+    @Test
+    fun rowCount_dependsOnTheFirstDayOfWeek() {
+        // March 2019 starts on a Friday and has 31 days
+        val sunday = build(2019, 3, JulianDay.SUNDAY)
+        val monday = build(2019, 3, JulianDay.MONDAY)
+
+        assertEquals(6, sunday.rowCount)
+        assertEquals(MonthModel.MAX_CELL_COUNT, sunday.cellCount)
+        assertEquals(5, monday.rowCount)
+        assertEquals(day(2019, 2, 24), sunday.firstJulianDay)
+        assertEquals(day(2019, 2, 25), monday.firstJulianDay)
+        // The last cell of the Sunday grid is Saturday April 6th
+        assertEquals(day(2019, 4, 6), sunday.getJulianDay(sunday.cellCount - 1))
+        assertEquals((1..31).toList(), monday.inMonthDays())
+    }
+
+    @Test
+    fun flags() {
+        val today = day(2019, 3, 8)
+        val model = build(2019, 3, today = today)
+
+        for (i in 0 until model.cellCount) {
+            val cell = model.getCell(i)
+            val julianDay = model.getJulianDay(i)
+            val dayOfWeek = JulianDay.dayOfWeek(julianDay)
+            assertEquals(dayOfWeek == JulianDay.SUNDAY || dayOfWeek == JulianDay.SATURDAY,
+                    cell and MonthModel.FLAG_WEEKEND != 0)
+            assertEquals(julianDay == today, cell and MonthModel.FLAG_TODAY != 0)
+            assertEquals(!model.isInMonth(i), cell and MonthModel.FLAG_OUT_OF_MONTH != 0)
+            assertEquals(i, model.indexOf(julianDay))
+        }
+        assertEquals(-1, model.indexOf(model.firstJulianDay - 1))
+        assertEquals(-1, model.indexOf(model.firstJulianDay + model.cellCount))
+        assertTrue(model.isInMonth(model.firstDayIndex))
+        assertFalse(model.isInMonth(model.firstDayIndex - 1))
+        assertEquals(MonthModel.key(2019, 3), model.key)
+    }
+
+    @Test
+    fun decorators_runInOrderOverEveryCell() {
+        val seen = ArrayList<Int>()
+        val first = MonthModel.Decorator { firstJulianDay, cells, count ->
+            seen.add(count)
+            cells[day(2019, 3, 8) - firstJulianDay] = cells[day(2019, 3, 8) - firstJulianDay] or
+                    MonthModel.FLAG_MARKER
+        }
+        val second = MonthModel.Decorator { firstJulianDay, cells, _ ->
+            // Sees what the first one did
+            seen.add(cells[day(2019, 3, 8) - firstJulianDay] and MonthModel.FLAG_MARKER)
+        }
+
+        val model = MonthModel.build(2019, 3, JulianDay.SUNDAY, 0,
+                MonthModel.combine(MonthModel.combine(null, first), second))
+
+        assertEquals(listOf(42, MonthModel.FLAG_MARKER), seen)
+        assertTrue(model.getCell(model.indexOf(day(2019, 3, 8))) and MonthModel.FLAG_MARKER != 0)
+        assertEquals(0, model.barCount)
+    }
+}
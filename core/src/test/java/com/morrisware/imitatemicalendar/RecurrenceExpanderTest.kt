@@ -0,0 +1,108 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class RecurrenceExpanderTest {
+
+    private fun day(year: Int, month: Int, day: Int) = JulianDay.fromDate(year, month, day)
+
+    private fun allDay(startDay: Int, days: Int = 1) =
+            CalendarEvent(0, "series", startDay, 0, startDay + days, 0, true)
+
+    private fun RecurrenceExpander.startDays(firstDay: Int, lastDay: Int): List<Int> {
+        val out = ArrayList<CalendarEvent>()
+        expand(firstDay, lastDay, out)
+        return out.map { JulianDay.toPacked(it.startDay) }
+    }
+
+    @Test
+    fun weekly_everyOtherWeekOnSeveralDays() {
+        val expander = RecurrenceExpander()
+        val monday = day(2019, 1, 7)
+        expander.putSeries(EventSeries(1, CalendarEvent(0, "sync", monday, 600, monday, 660, false),
+                RecurrenceRule.weekly(2, 1 shl 1 or (1 shl 3))))
+
+        assertEquals(listOf(20190107, 20190109, 20190121, 20190123),
+                expander.startDays(day(2019, 1, 1), day(2019, 1, 31)))
+    }
+
+    @Test
+    fun monthlyAndYearly_skipMissingDays() {
+        val expander = RecurrenceExpander()
+        // Only months with a 31st count towards the four occurrences
+        expander.putSeries(EventSeries(1, allDay(day(2019, 1, 31)),
+                RecurrenceRule.monthly(1).withCount(4)))
+        assertEquals(listOf(20190131, 20190331, 20190531, 20190731),
+                expander.startDays(day(2019, 1, 1), day(2020, 12, 31)))
+
+        expander.removeSeries(1)
+        expander.putSeries(EventSeries(2, allDay(day(2016, 2, 29)), RecurrenceRule.yearly(1),
+                intArrayOf(day(2020, 2, 29))))
+        assertEquals(listOf(20240229, 20280229),
+                expander.startDays(day(2017, 1, 1), day(2029, 1, 1)))
+    }
+
+    @Test
+    fun expand_includesOccurrencesStartingBeforeTheRange() {
+        val expander = RecurrenceExpander()
+        val start = day(2019, 3, 1)
+        expander.putSeries(EventSeries(1, allDay(start, days = 2),
+                RecurrenceRule.daily(3).withUntil(start + 9)))
+
+        assertEquals(listOf(20190304), expander.startDays(start + 4, start + 4))
+        assertEquals(listOf(20190301, 20190304, 20190307, 20190310),
+                expander.startDays(start, start + 100))
+    }
+
+    @Test
+    fun memo_isKeptPerSeriesAndMonth() {
+        val expander = RecurrenceExpander()
+        val start = day(2019, 3, 1)
+        expander.putSeries(EventSeries(1, allDay(start), RecurrenceRule.daily(1)))
+        expander.putSeries(EventSeries(2, allDay(start), RecurrenceRule.weekly(1, 1 shl JulianDay.SUNDAY)))
+
+        expander.startDays(day(2019, 4, 1), day(2019, 4, 30))
+        assertEquals(2, expander.missCount)
+        expander.startDays(day(2019, 4, 10), day(2019, 4, 12))
+        assertEquals(2, expander.missCount)
+        assertEquals(2, expander.hitCount)
+
+        // Only the changed series is expanded again
+        expander.putSeries(expander.getSeries(1).withException(day(2019, 4, 11)))
+        assertEquals(listOf(20190410, 20190412),
+                expander.startDays(day(2019, 4, 10), day(2019, 4, 12)))
+        assertEquals(3, expander.missCount)
+    }
+
+    @Test
+    fun density_followsSeriesPutReplacedAndRemoved() {
+        val expander = RecurrenceExpander()
+        val first = day(2019, 3, 1)
+        val last = day(2019, 3, 31)
+        // Two-day events every 10 days from Feb 25th
+        expander.putSeries(EventSeries(1, allDay(day(2019, 2, 25), days = 2),
+                RecurrenceRule.daily(10)))
+        val density = EventDensity(first, last)
+
+        expander.setDensity(density)
+        // Mar 7, 17 and 27 and the days after them, Feb 25th ends before the window
+        assertEquals(6, density.getEventCount(first, last))
+        assertEquals(1, density.getEventCount(day(2019, 3, 7)))
+        assertEquals(1, density.getEventCount(day(2019, 3, 8)))
+
+        // Moved by a day and cut short, the old days are cleared
+        expander.putSeries(EventSeries(1, allDay(day(2019, 3, 8)),
+                RecurrenceRule.daily(10).withCount(2)))
+        assertEquals(0, density.getEventCount(day(2019, 3, 7)))
+        assertEquals(listOf(1, 1), listOf(day(2019, 3, 8), day(2019, 3, 18))
+                .map { density.getEventCount(it) })
+        assertEquals(2, density.getEventCount(first, last))
+
+        expander.addException(1, day(2019, 3, 18))
+        assertEquals(1, density.getEventCount(first, last))
+
+        expander.removeSeries(1)
+        assertEquals(0, density.getEventCount(first, last))
+    }
+}
@@ -0,0 +1,93 @@
+package com.morrisware.imitatemicalendar
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SettleAnimationTest {
+
+    private val animation = SettleAnimation(1f)
+
+    /**
+     * Steps 60 fps frames until the animation stops, returning the positions it went through.
+     */
+    private fun run(maxFrames: Int = 600): List<Float> {
+        val positions = ArrayList<Float>()
+        while (animation.step(FRAME)) {
+            positions.add(animation.position)
+            if (positions.size > maxFrames) {
+                throw AssertionError("still running after $maxFrames frames")
+            }
+        }
+        positions.add(animation.position)
+        return positions
+    }
+
+    @Test
+    fun spring_endsExactlyOnTargetWithoutOvershoot() {
+        animation.springTo(0f, 0f, 300f)
+
+        val positions = run(maxFrames = 60)
+
+        assertFalse(animation.isRunning)
+        assertEquals(300f, animation.position, 0f)
+        assertEquals(0f, animation.velocity, 0f)
+        assertEquals(0f, animation.leftoverVelocity, 0f)
+        // Critically damped from rest, so it only ever moves towards the target
+        assertEquals(positions.sorted(), positions)
+        assertTrue(positions.all { it <= 300f })
+    }
+
+    @Test
+    fun spring_staysStableOverALongFrame() {
+        animation.springTo(300f, -2000f, 0f)
+
+        // A long stall, e.g. the app was in the background
+        animation.step(1f)
+
+        assertFalse(animation.isRunning)
+        assertEquals(0f, animation.position, 0f)
+    }
+
+    @Test
+    fun fastFling_stopsAtTheBoundWithLeftoverVelocity() {
+        animation.fling(100f, 5000f, 0f, 300f)
+
+        run()
+
+        assertEquals(300f, animation.position, 0f)
+        assertTrue(animation.leftoverVelocity > 0)
+        assertEquals(0f, animation.velocity, 0f)
+
+        animation.cancel()
+        assertEquals(0f, animation.leftoverVelocity, 0f)
+    }
+
+    @Test
+    fun slowFling_decaysThenSpringsToTheNearerBound() {
+        animation.fling(50f, 300f, 0f, 300f)
+
+        val positions = run()
+
+        // It coasts forwards first, then settles back to 0
+        assertTrue(positions.max()!! > 50f)
+        assertEquals(0f, animation.position, 0f)
+        assertEquals(0f, animation.leftoverVelocity, 0f)
+    }
+
+    @Test
+    fun idle_stepIsANoOp() {
+        assertFalse(animation.step(FRAME))
+
+        animation.springTo(0f, 0f, 100f)
+        animation.cancel()
+
+        assertFalse(animation.step(FRAME))
+        assertEquals(0f, animation.position, 0f)
+    }
+
+    companion object {
+        private const val FRAME = 1f / 60
+    }
+}
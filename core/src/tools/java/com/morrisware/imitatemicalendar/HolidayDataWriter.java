@@ -0,0 +1,266 @@
+package com.morrisware.imitatemicalendar;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 生成 {@link HolidayData} 的二进制数据. 属于 tools 源码集, 只有 {@code :core:generateHolidays}
+ * 和测试会用到, 不打进 app: 构建时把 data/holidays.txt 转成 app 的 asset, 测试里用它构造数据.
+ * <p>
+ * 文本格式每行一条, # 开头为注释:
+ * <pre>
+ * CN 2019-10-01..2019-10-07 holiday 国庆节
+ * CN 2019-09-29 workday
+ * CN 2019-02-14 festival 情人节
+ * </pre>
+ * 名称只记在范围的第一天.
+ **/
+public final class HolidayDataWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Region code -> julian day -> entry, both sorted
+    private final TreeMap<Integer, TreeMap<Integer, Entry>> mRegions = new TreeMap<>();
+
+    /**
+     * Adds flags and optionally a name to a day, merging with what the day already has.
+     */
+    public HolidayDataWriter add(String region, int julianDay, int flags, String name) {
+        if (region.length() != 2) {
+            throw new IllegalArgumentException("Region must be two letters: " + region);
+        }
+        final int code = HolidayData.encodeRegion(region);
+        TreeMap<Integer, Entry> days = mRegions.get(code);
+        if (days == null) {
+            days = new TreeMap<>();
+            mRegions.put(code, days);
+        }
+        Entry entry = days.get(julianDay);
+        if (entry == null) {
+            entry = new Entry();
+            days.put(julianDay, entry);
+        }
+        entry.flags |= flags;
+        if (name != null) {
+            entry.name = name;
+        }
+        return this;
+    }
+
+    /**
+     * Reads lines in the format described above.
+     *
+     * @throws IOException on a malformed line
+     */
+    public HolidayDataWriter read(Reader reader) throws IOException {
+        final BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] parts = line.split("\\s+", 4);
+            if (parts.length < 3) {
+                throw new IOException("Line " + lineNumber + ": expected region, date and kind");
+            }
+            final int flags = parseKind(parts[2]);
+            final String[] range = parts[1].split("\\.\\.");
+            final int first = parseDate(range[0]);
+            final int last = range.length > 1 ? parseDate(range[1]) : first;
+            if (flags == 0 || first < 0 || last < first) {
+                throw new IOException("Line " + lineNumber + ": can't parse " + line);
+            }
+            final String name = parts.length > 3 ? parts[3] : null;
+            for (int day = first; day <= last; day++) {
+                add(parts[0], day, flags, day == first ? name : null);
+            }
+        }
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        // Names are deduplicated, each region's days are indexed by year
+        final List<String> names = new ArrayList<>();
+        final Map<String, Integer> nameIds = new HashMap<>();
+        int entryCount = 0;
+        int indexSize = 0;
+        for (TreeMap<Integer, Entry> days : mRegions.values()) {
+            entryCount += days.size();
+            indexSize += (yearCount(days) + 1) * 4;
+            for (Entry entry : days.values()) {
+                if (entry.name != null && !nameIds.containsKey(entry.name)) {
+                    nameIds.put(entry.name, names.size());
+                    names.add(entry.name);
+                }
+            }
+        }
+        if (names.size() >= HolidayData.NO_NAME) {
+            throw new IllegalStateException("Too many names");
+        }
+        final int regionsSize = mRegions.size() * HolidayData.REGION_SIZE;
+        final int indexOffset = HolidayData.HEADER_SIZE + regionsSize;
+        final int entriesOffset = indexOffset + indexSize;
+        final int namesOffset = entriesOffset + entryCount * HolidayData.ENTRY_SIZE;
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(namesOffset + 1024);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(HolidayData.MAGIC);
+            out.writeShort(HolidayData.VERSION);
+            out.writeShort(mRegions.size());
+            out.writeInt(entriesOffset);
+            out.writeInt(namesOffset);
+
+            int regionIndexOffset = indexOffset;
+            for (Map.Entry<Integer, TreeMap<Integer, Entry>> region : mRegions.entrySet()) {
+                final TreeMap<Integer, Entry> days = region.getValue();
+                out.writeShort(region.getKey());
+                out.writeShort(yearOf(days.firstKey()));
+                out.writeShort(yearCount(days));
+                out.writeShort(0);
+                out.writeInt(regionIndexOffset);
+                regionIndexOffset += (yearCount(days) + 1) * 4;
+            }
+
+            int entry = 0;
+            for (TreeMap<Integer, Entry> days : mRegions.values()) {
+                final int firstYear = yearOf(days.firstKey());
+                final int yearCount = yearCount(days);
+                int year = firstYear;
+                for (int day : days.keySet()) {
+                    for (; year <= yearOf(day); year++) {
+                        out.writeInt(entry);
+                    }
+                    entry++;
+                }
+                for (; year <= firstYear + yearCount; year++) {
+                    out.writeInt(entry);
+                }
+            }
+
+            for (TreeMap<Integer, Entry> days : mRegions.values()) {
+                for (Map.Entry<Integer, Entry> day : days.entrySet()) {
+                    final Entry value = day.getValue();
+                    out.writeInt(day.getKey());
+                    out.writeShort(value.flags);
+                    out.writeShort(value.name != null ? nameIds.get(value.name) : HolidayData.NO_NAME);
+                }
+            }
+
+            final List<byte[]> encoded = new ArrayList<>(names.size());
+            for (String name : names) {
+                encoded.add(name.getBytes(UTF_8));
+            }
+            out.writeShort(names.size());
+            out.writeShort(0);
+            int offset = 0;
+            for (byte[] name : encoded) {
+                out.writeInt(offset);
+                offset += name.length;
+            }
+            out.writeInt(offset);
+            for (byte[] name : encoded) {
+                out.write(name);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(toByteArray());
+    }
+
+    /**
+     * Usage: {@code HolidayDataWriter <holidays.txt> <holidays.bin>}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: HolidayDataWriter <holidays.txt> <holidays.bin>");
+            System.exit(1);
+        }
+        final HolidayDataWriter writer = new HolidayDataWriter();
+        final Reader in = new InputStreamReader(new FileInputStream(args[0]), UTF_8);
+        try {
+            writer.read(in);
+        } finally {
+            in.close();
+        }
+        final File output = new File(args[1]);
+        final File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        final OutputStream out = new FileOutputStream(output);
+        try {
+            writer.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int parseKind(String kind) {
+        if (kind.equals("holiday")) {
+            return HolidayData.HOLIDAY;
+        } else if (kind.equals("workday")) {
+            return HolidayData.WORKDAY;
+        } else if (kind.equals("festival")) {
+            return HolidayData.FESTIVAL;
+        }
+        return 0;
+    }
+
+    /**
+     * Parses {@code yyyy-mm-dd}, returns -1 if invalid.
+     */
+    private static int parseDate(String date) {
+        final String[] parts = date.split("-");
+        if (parts.length != 3) {
+            return -1;
+        }
+        try {
+            final int year = Integer.parseInt(parts[0]);
+            final int month = Integer.parseInt(parts[1]);
+            final int day = Integer.parseInt(parts[2]);
+            if (month < 1 || month > 12 || day < 1 || day > JulianDay.daysInMonth(year, month)) {
+                return -1;
+            }
+            return JulianDay.fromDate(year, month, day);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int yearCount(TreeMap<Integer, Entry> days) {
+        return yearOf(days.lastKey()) - yearOf(days.firstKey()) + 1;
+    }
+
+    private static int yearOf(int julianDay) {
+        return JulianDay.year(JulianDay.toPacked(julianDay));
+    }
+
+    private static final class Entry {
+        int flags;
+        String name;
+    }
+}